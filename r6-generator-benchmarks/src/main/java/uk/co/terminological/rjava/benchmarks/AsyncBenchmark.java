@@ -0,0 +1,67 @@
+package uk.co.terminological.rjava.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.terminological.rjava.RAsync;
+import uk.co.terminological.rjava.UnconvertableTypeException;
+import uk.co.terminological.rjava.types.RInteger;
+import uk.co.terminological.rjava.types.RObject;
+import uk.co.terminological.rjava.threads.RFuture;
+import uk.co.terminological.rjava.threads.RFutureGroup;
+
+/**
+ * The latency of a background call to a trivial method, from submission to collecting the result, as it would be
+ * called from R.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncBenchmark {
+
+	/** The number of calls submitted together by {@link #batchToComplete()} */
+	static final int BATCH = 100;
+
+	// not persisted, so futures are removed from the thread monitor when collected
+	@RAsync
+	public static RInteger echo(RInteger value) {
+		return value;
+	}
+
+	ArrayList<Object> params;
+	List<List<Object>> batch;
+
+	@Setup
+	public void setup() {
+		params = new ArrayList<>();
+		params.add(RInteger.from(1));
+		batch = Collections.nCopies(BATCH, params);
+	}
+
+	@Benchmark
+	public Object submitToComplete() throws NoSuchMethodException, ClassNotFoundException, InterruptedException, ExecutionException {
+		return new RFuture(AsyncBenchmark.class.getName(), "echo", params, "Luk/co/terminological/rjava/types/RInteger;", "identity").get();
+	}
+
+	@Benchmark
+	public RObject batchToComplete() throws NoSuchMethodException, ClassNotFoundException, InterruptedException, ExecutionException, UnconvertableTypeException {
+		return new RFutureGroup(AsyncBenchmark.class.getName(), "echo", batch, "Luk/co/terminological/rjava/types/RInteger;").collect();
+	}
+}
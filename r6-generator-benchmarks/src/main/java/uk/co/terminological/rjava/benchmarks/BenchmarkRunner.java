@@ -0,0 +1,113 @@
+package uk.co.terminological.rjava.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and compares them to a baseline, so that performance regressions fail the build. This is
+ * run by `mvn verify -Pbenchmark` and is configured with system properties:
+ *
+ * <ul>
+ * <li>benchmark.include - a regular expression selecting the benchmarks to run</li>
+ * <li>benchmark.baseline - a properties file holding the score and unit of each benchmark and set of parameters</li>
+ * <li>benchmark.tolerance - the fractional change in score that counts as a regression (default 0.25)</li>
+ * <li>benchmark.update - record the results as the new baseline rather than comparing them</li>
+ * <li>benchmark.result - where to write the full JMH results as JSON</li>
+ * </ul>
+ *
+ * Benchmarks that are not in the baseline are added to it. Scores depend on the machine the benchmarks are run on
+ * so the baseline should be recorded on the machine that is used to check for regressions.
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, IOException {
+		String include = System.getProperty("benchmark.include", BenchmarkRunner.class.getPackage().getName());
+		Path baselineFile = Paths.get(System.getProperty("benchmark.baseline", "baseline.properties"));
+		double tolerance = Double.parseDouble(System.getProperty("benchmark.tolerance", "0.25"));
+		boolean update = Boolean.getBoolean("benchmark.update");
+		String resultFile = System.getProperty("benchmark.result", "target/jmh-result.json");
+
+		Options opt = new OptionsBuilder()
+				.include(include)
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultFile)
+				.build();
+		Collection<RunResult> results = new Runner(opt).run();
+
+		Properties baseline = new Properties();
+		if (Files.exists(baselineFile)) {
+			try (Reader r = Files.newBufferedReader(baselineFile)) {
+				baseline.load(r);
+			}
+		}
+
+		List<String> regressions = new ArrayList<>();
+		TreeMap<String,String> next = new TreeMap<>();
+		baseline.stringPropertyNames().forEach(k -> next.put(k, baseline.getProperty(k)));
+		for (RunResult result: results) {
+			BenchmarkParams params = result.getParams();
+			Result<?> primary = result.getPrimaryResult();
+			String key = key(params);
+			String value = String.format(Locale.ROOT, "%.6g %s", primary.getScore(), primary.getScoreUnit());
+			String previous = baseline.getProperty(key);
+			if (previous != null && !update) {
+				String[] parts = previous.split(" ", 2);
+				double before = Double.parseDouble(parts[0]);
+				if (!parts[1].equals(primary.getScoreUnit())) {
+					regressions.add(key+": units changed from "+parts[1]+" to "+primary.getScoreUnit());
+				} else {
+					double change = change(params.getMode(), before, primary.getScore());
+					System.out.printf(Locale.ROOT, "%s: %s (baseline %s, %+.1f%% worse)%n", key, value, previous, change*100);
+					if (change > tolerance) regressions.add(String.format(Locale.ROOT, "%s: %s is %.1f%% worse than baseline %s", key, value, change*100, previous));
+				}
+			}
+			if (previous == null || update) next.put(key, value);
+		}
+
+		// written sorted so that changes to the baseline give readable diffs
+		try (Writer w = Files.newBufferedWriter(baselineFile)) {
+			w.write("# JMH baseline scores, written by BenchmarkRunner\n");
+			for (Map.Entry<String,String> e: next.entrySet()) w.write(e.getKey()+"="+e.getValue()+"\n");
+		}
+
+		if (!regressions.isEmpty()) {
+			System.err.println("Performance regressions of more than "+Math.round(tolerance*100)+"%:");
+			regressions.forEach(r -> System.err.println("  "+r));
+			System.exit(1);
+		}
+	}
+
+	// e.g. uk.co.terminological.rjava.benchmarks.DataframeBenchmark.filter.shape_LONG
+	static String key(BenchmarkParams params) {
+		StringBuilder sb = new StringBuilder(params.getBenchmark());
+		params.getParamsKeys().stream().sorted().forEach(k -> sb.append('.').append(k).append('_').append(params.getParam(k)));
+		return sb.toString();
+	}
+
+	// the fractional change for the worse: lower scores are worse for throughput and better for times
+	static double change(Mode mode, double before, double after) {
+		if (before == 0) return 0;
+		return mode == Mode.Throughput ? (before-after)/before : (after-before)/before;
+	}
+}
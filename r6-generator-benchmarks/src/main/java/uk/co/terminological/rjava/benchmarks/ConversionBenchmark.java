@@ -0,0 +1,83 @@
+package uk.co.terminological.rjava.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.terminological.rjava.RConverter;
+import uk.co.terminological.rjava.types.RCharacterVector;
+import uk.co.terminological.rjava.types.RNumericVector;
+
+/**
+ * Conversion of java arrays and streams to R vectors, and of R vectors back to the arrays that are passed to R.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+	@Param({"1000", "100000"})
+	int size;
+
+	double[] doubles;
+	Double[] boxed;
+	String[] strings;
+	RNumericVector numeric;
+	RCharacterVector character;
+
+	@Setup
+	public void setup() {
+		Random rnd = new Random(42L);
+		doubles = SyntheticData.doubles(size, rnd);
+		boxed = DoubleStream.of(doubles).boxed().toArray(Double[]::new);
+		strings = SyntheticData.strings(size, 100, rnd);
+		numeric = new RNumericVector(doubles.clone());
+		character = new RCharacterVector(strings);
+	}
+
+	@Benchmark
+	public RNumericVector doubleCollector() {
+		return Stream.of(boxed).collect(RConverter.doubleCollector());
+	}
+
+	@Benchmark
+	public RCharacterVector stringCollector() {
+		return Stream.of(strings).collect(RConverter.stringCollector());
+	}
+
+	@Benchmark
+	public RNumericVector numericFromArray() {
+		return new RNumericVector(doubles);
+	}
+
+	@Benchmark
+	public RCharacterVector characterFromArray() {
+		return new RCharacterVector(strings);
+	}
+
+	@Benchmark
+	public double[] numericRPrimitive() {
+		return numeric.rPrimitive();
+	}
+
+	@Benchmark
+	public String[] characterRPrimitive() {
+		return character.rPrimitive();
+	}
+}
@@ -0,0 +1,99 @@
+package uk.co.terminological.rjava.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.co.terminological.rjava.UnconvertableTypeException;
+import uk.co.terminological.rjava.types.RBoundDataframe;
+import uk.co.terminological.rjava.types.RDataframe;
+import uk.co.terminological.rjava.types.RNumeric;
+import uk.co.terminological.rjava.types.RVector;
+
+/**
+ * Dataframe operations on long and wide synthetic dataframes (see {@link SyntheticData.Shape}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataframeBenchmark {
+
+	/** The number of rows added one at a time by {@link #addRow()} */
+	static final int ADDED_ROWS = 1000;
+
+	@Param({"LONG", "WIDE"})
+	SyntheticData.Shape shape;
+
+	RDataframe frame;
+	RDataframe grouped;
+	List<Map<String,Object>> rows;
+	RBoundDataframe<SyntheticData.Row> bound;
+
+	@Setup
+	public void setup() throws UnconvertableTypeException {
+		frame = shape.frame();
+		grouped = new RDataframe(frame).groupBy("group");
+		rows = frame.streamJava().limit(ADDED_ROWS).collect(Collectors.toList());
+		bound = frame.attach(SyntheticData.Row.class);
+	}
+
+	@Benchmark
+	public RDataframe addRow() {
+		RDataframe out = new RDataframe();
+		rows.forEach(out::addRow);
+		return out;
+	}
+
+	@Benchmark
+	public RDataframe bindRows() {
+		RDataframe out = new RDataframe();
+		out.bindRows(frame);
+		out.bindRows(frame);
+		return out;
+	}
+
+	@Benchmark
+	public RDataframe filter() {
+		return frame.filter("value", RNumeric.class, v -> !v.isNa() && v.get() < 0.5);
+	}
+
+	@Benchmark
+	public RDataframe groupModify() {
+		return grouped.groupModify((df, key) -> {
+			RDataframe out = new RDataframe();
+			out.addCol("n", RVector.with(df.nrow()));
+			return out;
+		});
+	}
+
+	@Benchmark
+	public String rConversion() {
+		return frame.rConversion();
+	}
+
+	@Benchmark
+	public Object[] rBulkTransfer() {
+		return frame.rBulkTransfer();
+	}
+
+	@Benchmark
+	public double streamCoerce() {
+		return bound.streamCoerce().mapToDouble(r -> r.value().get()).sum();
+	}
+}
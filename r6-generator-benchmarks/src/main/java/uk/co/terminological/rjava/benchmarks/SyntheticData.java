@@ -0,0 +1,116 @@
+package uk.co.terminological.rjava.benchmarks;
+
+import java.util.Random;
+
+import uk.co.terminological.rjava.types.RCharacter;
+import uk.co.terminological.rjava.types.RCharacterVector;
+import uk.co.terminological.rjava.types.RDataframe;
+import uk.co.terminological.rjava.types.RDateVector;
+import uk.co.terminological.rjava.types.RFactorVector;
+import uk.co.terminological.rjava.types.RIntegerVector;
+import uk.co.terminological.rjava.types.RLogicalVector;
+import uk.co.terminological.rjava.types.RNumeric;
+import uk.co.terminological.rjava.types.RNumericVector;
+
+/**
+ * Generates reproducible data for the benchmarks. Dataframes always start with a character column `group` (with
+ * {@link #GROUPS} distinct values), a numeric column `value` (uniform between 0 and 1) and an integer column
+ * `count`. Any further columns cycle through numeric, integer, character, logical, date and factor types, and
+ * about 1% of the values of character columns are NA.
+ */
+public class SyntheticData {
+
+	/** The number of distinct values in the `group` column */
+	public static final int GROUPS = 20;
+
+	/**
+	 * The shapes of dataframe that are benchmarked.
+	 */
+	public static enum Shape {
+		/** Many rows and a few columns, e.g. a long format table of observations */
+		LONG(100000, 6),
+		/** Few rows and many columns, e.g. a wide format table of features */
+		WIDE(1000, 300);
+
+		public final int rows;
+		public final int cols;
+
+		Shape(int rows, int cols) {
+			this.rows = rows;
+			this.cols = cols;
+		}
+
+		public RDataframe frame() {
+			return SyntheticData.frame(rows, cols, 42L);
+		}
+	}
+
+	/**
+	 * A row of the first columns of a synthetic dataframe, for binding dataframes to.
+	 */
+	public static interface Row {
+		public RCharacter group();
+		public RNumeric value();
+	}
+
+	public static double[] doubles(int n, Random rnd) {
+		double[] out = new double[n];
+		for (int i=0; i<n; i++) out[i] = rnd.nextDouble();
+		return out;
+	}
+
+	public static int[] ints(int n, int bound, Random rnd) {
+		int[] out = new int[n];
+		for (int i=0; i<n; i++) out[i] = rnd.nextInt(bound);
+		return out;
+	}
+
+	/**
+	 * @param n the length of the array
+	 * @param distinct the number of distinct values
+	 * @param rnd a source of randomness
+	 * @return an array of strings with about 1% null values
+	 */
+	public static String[] strings(int n, int distinct, Random rnd) {
+		String[] out = new String[n];
+		for (int i=0; i<n; i++) out[i] = rnd.nextInt(100) == 0 ? null : "level_"+rnd.nextInt(distinct);
+		return out;
+	}
+
+	/**
+	 * @param rows the number of rows
+	 * @param cols the number of columns, at least 3
+	 * @param seed the random seed
+	 * @return an ungrouped dataframe
+	 */
+	public static RDataframe frame(int rows, int cols, long seed) {
+		Random rnd = new Random(seed);
+		RDataframe out = new RDataframe();
+		String[] groups = new String[rows];
+		for (int i=0; i<rows; i++) groups[i] = "group_"+rnd.nextInt(GROUPS);
+		out.addCol("group", new RCharacterVector(groups));
+		out.addCol("value", new RNumericVector(doubles(rows, rnd)));
+		out.addCol("count", new RIntegerVector(ints(rows, 1000, rnd)));
+		for (int j=3; j<cols; j++) {
+			switch (j % 6) {
+			case 0: out.addCol("num_"+j, new RNumericVector(doubles(rows, rnd))); break;
+			case 1: out.addCol("int_"+j, new RIntegerVector(ints(rows, 1000, rnd))); break;
+			case 2: out.addCol("chr_"+j, new RCharacterVector(strings(rows, 100, rnd))); break;
+			case 3: {
+				boolean[] tmp = new boolean[rows];
+				for (int i=0; i<rows; i++) tmp[i] = rnd.nextBoolean();
+				out.addCol("lgl_"+j, new RLogicalVector(tmp));
+				break;
+			}
+			case 4: out.addCol("date_"+j, new RDateVector(ints(rows, 20000, rnd))); break;
+			default: {
+				// factor codes are 1-based
+				int[] codes = ints(rows, 5, rnd);
+				for (int i=0; i<rows; i++) codes[i]++;
+				out.addCol("fct_"+j, new RFactorVector(codes, new String[] {"a","b","c","d","e"}));
+			}
+			}
+		}
+		return out;
+	}
+}
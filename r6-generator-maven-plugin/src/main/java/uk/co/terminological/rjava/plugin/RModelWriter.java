@@ -126,7 +126,9 @@ public class RModelWriter {
 					"RFuture.Rd","pipe.Rd",
 					"dot-background_cancel_all.Rd","dot-background_cancel.Rd",
 					"dot-background_get_by_id.Rd","dot-background_status.Rd",
-					"dot-background_tidy_up.Rd","dot-background_messages.Rd"
+					"dot-background_tidy_up.Rd","dot-background_messages.Rd",
+					"dot-background_await_all.Rd","dot-background_await_any.Rd",
+					"dot-background_batch.Rd"
 			).forEach(x -> {
 				try {
 					Files.copy(
@@ -64,6 +64,17 @@ JavaApi = R6::R6Class("JavaApi", public=list(
 		invisible(NULL)
 	},
 	
+	#' @description
+	#' runtime metrics from java for data conversion, dataframe operations and background calls. These are recorded
+	#' continuously and are cheap enough to be left on.
+	#' @param reset clear the metrics after they have been read
+	#' @return a dataframe with one row per metric, with the number of events, their total time (ms), the mean, 
+	#' median, 90th and 99th percentile and maximum time (microseconds), and the volume of data (bytes). 
+	metrics = function(reset = FALSE) {
+		tmp = .jcall("uk/co/terminological/rjava/RMetrics", returnSig = "Luk/co/terminological/rjava/types/RDataframe;", method = "metrics", reset)
+		return(self$.fromJava$RDataframe(tmp))
+	},
+	
  	#### constructor ----
  	#' @description
  	#' Create the R6 api library class. This is the entry point to all Java related classes and methods in this package.
@@ -83,6 +83,7 @@ ${model.getConfig().getPackageName()}::${method.getSnakeCaseName()}(${method.get
 		\item \href{#method-api-changeLogLevel}{\code{J$changeLogLevel(logLevel)}}
 		\item \href{#method-api-reconfigureLog}{\code{J$reconfigureLog(log4jproperties)}}
 		\item \href{#method-api-printMessages}{\code{J$printMessages()}}
+		\item \href{#method-api-metrics}{\code{J$metrics(reset)}}
 	}
 }
 
@@ -293,6 +294,37 @@ nothing. used for side effects.
 		}
 	}
 	
+	\if{html}{\out{<hr>}}
+	\if{html}{\out{<a id="method-api-metrics"></a>}}
+	\subsection{Api method \code{J$metrics(reset)}}{
+		Experimental / Advanced use: Java records runtime metrics for data conversion, dataframe operations and
+		background calls. These can help find where time is spent inside the java library. Times of background calls
+		are split into the time spent queued in their pool and the time spent running.
+	
+		\subsection{Usage}{
+			\if{html}{\out{<div class="r">}}
+			\preformatted{
+J = ${model.getConfig().getPackageName()}::JavaApi$get()
+J$metrics()
+			}
+			\if{html}{\out{</div>}}
+		}
+	
+		\subsection{Arguments}{
+			\if{html}{\out{<div class="arguments">}}
+			\describe{
+				\item{reset}{ clear the metrics after they have been read (defaults to FALSE)}
+			}
+			\if{html}{\out{</div>}}
+		}
+
+		\subsection{Returns}{
+a dataframe with one row per metric, with the number of events (count), their total time in milliseconds (total_ms), 
+the mean, median, 90th and 99th percentile and maximum times in microseconds (mean_us, p50_us, p90_us, p99_us, max_us), 
+and the volume of data in bytes (bytes).
+		}
+	}
+	
 }
 
 
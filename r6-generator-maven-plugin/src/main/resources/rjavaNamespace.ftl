@@ -10,6 +10,9 @@ export(${export})
 export(${method.getSnakeCaseName()})
 	</#list>
 </#list>
+export(.background_await_all)
+export(.background_await_any)
+export(.background_batch)
 export(.background_cancel)
 export(.background_cancel_all)
 export(.background_get_by_id)
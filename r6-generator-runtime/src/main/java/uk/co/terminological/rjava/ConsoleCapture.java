@@ -0,0 +1,189 @@
+package uk.co.terminological.rjava;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The captured console output of one background task, or of one thread that is not running a task. Output is
+ * kept in a fixed size ring buffer so only the most recent bytes are held in memory. When the buffer overflows the
+ * oldest bytes are either dropped or, if spilling is enabled, appended to a temporary log file. The log file rolls
+ * over to a single backup (`.1`) when it reaches its size limit so disk use is also bounded. The files are deleted
+ * when the capture is closed, and any that are still open when the JVM exits are deleted by a single shutdown hook.
+ *
+ * All methods are synchronised as the task writes whilst the R session reads.
+ */
+class ConsoleCapture extends OutputStream {
+
+	// overflow files that have not been deleted yet
+	private static final Set<Path> open = ConcurrentHashMap.newKeySet();
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> open.forEach(ConsoleCapture::delete)));
+	}
+
+	private final byte[] ring;
+	private int start = 0;
+	private int size = 0;
+	private long dropped = 0;
+
+	private final long maxSpillBytes;
+	private boolean spilling;
+	private Path spill;
+	private OutputStream spillOut;
+	private long spillBytes = 0;
+
+	// the thread that owns this capture, for captures not tied to an RFuture
+	private final WeakReference<Thread> owner;
+
+	/**
+	 * @param maxBytes the size of the in memory buffer
+	 * @param maxSpillBytes the size at which the overflow file rolls over, or zero or less to discard overflow
+	 * @param owner the thread this capture is for, or null if it is for an RFuture
+	 */
+	ConsoleCapture(int maxBytes, long maxSpillBytes, Thread owner) {
+		this.ring = new byte[Math.max(maxBytes, 1)];
+		this.maxSpillBytes = maxSpillBytes;
+		this.spilling = maxSpillBytes > 0;
+		this.owner = owner == null ? null : new WeakReference<>(owner);
+	}
+
+	@Override
+	public synchronized void write(int b) {
+		if (size == ring.length) evict(1);
+		ring[(start+size) % ring.length] = (byte) b;
+		size++;
+	}
+
+	@Override
+	public synchronized void write(byte[] buf, int off, int len) {
+		if (len > ring.length) {
+			// only the tail of a write larger than the buffer is kept
+			evict(size);
+			overflow(buf, off, len-ring.length);
+			off += len-ring.length;
+			len = ring.length;
+		}
+		int overflow = size+len-ring.length;
+		if (overflow > 0) evict(overflow);
+		int end = (start+size) % ring.length;
+		int first = Math.min(len, ring.length-end);
+		System.arraycopy(buf, off, ring, end, first);
+		System.arraycopy(buf, off+first, ring, 0, len-first);
+		size += len;
+	}
+
+	// removes the oldest bytes from the buffer
+	private void evict(int n) {
+		int first = Math.min(n, ring.length-start);
+		overflow(ring, start, first);
+		overflow(ring, 0, n-first);
+		start = (start+n) % ring.length;
+		size -= n;
+	}
+
+	private void overflow(byte[] buf, int off, int len) {
+		if (len <= 0) return;
+		dropped += len;
+		if (!spilling) return;
+		try {
+			if (spillOut == null) {
+				spill = Files.createTempFile("rjava-console-", ".log");
+				open.add(spill);
+				spillOut = new BufferedOutputStream(Files.newOutputStream(spill));
+				spillBytes = 0;
+			}
+			spillOut.write(buf, off, len);
+			spillBytes += len;
+			if (spillBytes >= maxSpillBytes) roll();
+		} catch (IOException e) {
+			// give up on spilling rather than fail the task writing to System.out
+			spilling = false;
+			closeSpill();
+		}
+	}
+
+	private void roll() throws IOException {
+		spillOut.close();
+		spillOut = null;
+		Path backup = spill.resolveSibling(spill.getFileName()+".1");
+		Files.move(spill, backup, StandardCopyOption.REPLACE_EXISTING);
+		spillOut = new BufferedOutputStream(Files.newOutputStream(spill));
+		spillBytes = 0;
+	}
+
+	/**
+	 * The buffered output since the last call, which is then cleared. If any output overflowed the buffer this is
+	 * preceded by a note saying how much was lost and where it was written.
+	 *
+	 * @return the output, trimmed
+	 */
+	synchronized String getAndClear() {
+		StringBuilder out = new StringBuilder();
+		if (dropped > 0) {
+			out.append("[... ").append(dropped).append(" bytes of earlier output ")
+				.append(spillOut != null ? "written to "+spill : "discarded").append(" ...]\n");
+			dropped = 0;
+			try {
+				if (spillOut != null) spillOut.flush();
+			} catch (IOException e) {
+				closeSpill();
+			}
+		}
+		int first = Math.min(size, ring.length-start);
+		byte[] tmp = new byte[size];
+		System.arraycopy(ring, start, tmp, 0, first);
+		System.arraycopy(ring, 0, tmp, first, size-first);
+		out.append(new String(tmp, Charset.defaultCharset()));
+		start = 0;
+		size = 0;
+		return out.toString().trim();
+	}
+
+	/**
+	 * @return true if this capture belongs to a thread that has finished and has nothing left to read
+	 */
+	synchronized boolean isAbandoned() {
+		if (owner == null || size > 0 || dropped > 0) return false;
+		Thread t = owner.get();
+		return t == null || !t.isAlive();
+	}
+
+	/** Discards the buffered output and deletes any overflow files. */
+	@Override
+	public synchronized void close() {
+		size = 0;
+		dropped = 0;
+		closeSpill();
+	}
+
+	private void closeSpill() {
+		try {
+			if (spillOut != null) spillOut.close();
+		} catch (IOException e) {
+			// nothing more will be written
+		}
+		// if the files cannot be deleted now they are left for the shutdown hook
+		if (spill != null && delete(spill)) open.remove(spill);
+		spillOut = null;
+		spill = null;
+	}
+
+	// deletes an overflow file and its backup
+	private static boolean delete(Path spill) {
+		try {
+			Files.deleteIfExists(spill);
+			Files.deleteIfExists(spill.resolveSibling(spill.getFileName()+".1"));
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
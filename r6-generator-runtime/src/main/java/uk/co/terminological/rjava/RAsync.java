@@ -55,4 +55,13 @@ public @interface RAsync {
 	 * @return
 	 */
 	boolean persist() default false;
+	
+	/**
+	 * The name of the executor pool the method runs in. Pools limit the number of background jobs that run at the 
+	 * same time and queue the rest, and can be set up with `RExecutors.configure(...)`. A pool that has not been 
+	 * configured runs one job per available processor and queues up to 10000 more, after which further calls fail. 
+	 * Long running jobs that should not hold up others can be given a pool of their own.
+	 * @return the pool name
+	 */
+	String pool() default "default";
 }
@@ -38,4 +38,13 @@ public @interface RBlocking {
 	 */
 	String[] tests() default {};
 	
+	/**
+	 * The name of the executor pool the method runs in. By default blocking calls run in the `blocking` pool, which 
+	 * starts a thread for any call that cannot be given an idle one, so that a call made interactively from R does not
+	 * wait behind background @RAsync jobs. A pool named here can be set up with `RExecutors.configure(...)`, e.g. to
+	 * limit how many calls to a resource can run at the same time.
+	 * @return the pool name
+	 */
+	String pool() default "blocking";
+	
 }
@@ -1,6 +1,5 @@
 package uk.co.terminological.rjava;
 
-import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.ArrayList;
@@ -27,6 +26,7 @@ import uk.co.terminological.rjava.Rule.StreamRule;
 import uk.co.terminological.rjava.types.RCharacter;
 import uk.co.terminological.rjava.types.RCharacterVector;
 import uk.co.terminological.rjava.types.RDataframe;
+import uk.co.terminological.rjava.types.RDataframeBuilder;
 import uk.co.terminological.rjava.types.RDate;
 import uk.co.terminological.rjava.types.RDateVector;
 import uk.co.terminological.rjava.types.RFactor;
@@ -55,13 +55,23 @@ import uk.co.terminological.rjava.types.RVector;
  */
 public class RConverter {
 
+	private static final RMetrics.Metric ARRAY = RMetrics.metric("RConverter.convert(array)");
+	private static final RMetrics.Metric BOXED_ARRAY = RMetrics.metric("RConverter.convert(boxed array)");
+	private static final RMetrics.Metric OBJECT = RMetrics.metric("RConverter.convertObjectToPrimitive");
+	
+	// records a conversion that started at the given time (see RMetrics) and passes on its result
+	private static <Y extends RVector<?>> Y measure(RMetrics.Metric metric, long start, Y out) {
+		metric.stop(start, start == 0 ? 0 : out.byteSize());
+		return out;
+	}
+
 	/**
 	 * Convert int array to RIntegerVector.
 	 *
 	 * @param array an array of ints
 	 * @return a RIntegerVector
 	 */
-	public static RIntegerVector convert(int[] array) {	return new RIntegerVector(array); }
+	public static RIntegerVector convert(int[] array) {	return measure(ARRAY, RMetrics.start(), new RIntegerVector(array)); }
 	
 	
 	/**
@@ -70,7 +80,7 @@ public class RConverter {
 	 * @param array the array
 	 * @return the r numeric vector
 	 */
-	public static RNumericVector convert(double[] array) {	return new RNumericVector(array); }
+	public static RNumericVector convert(double[] array) {	return measure(ARRAY, RMetrics.start(), new RNumericVector(array)); }
 	
 	
 	/**
@@ -79,7 +89,7 @@ public class RConverter {
 	 * @param array the array
 	 * @return the r logical vector
 	 */
-	public static RLogicalVector convert(boolean[] array) {	return new RLogicalVector(array); }
+	public static RLogicalVector convert(boolean[] array) {	return measure(ARRAY, RMetrics.start(), new RLogicalVector(array)); }
 	
 	/**
 	 * Convert a String array to a RCharacterVector.
@@ -87,7 +97,7 @@ public class RConverter {
 	 * @param array the array
 	 * @return the r character vector
 	 */
-	public static RCharacterVector convert(String[] array) {	return new RCharacterVector(array); }
+	public static RCharacterVector convert(String[] array) {	return measure(ARRAY, RMetrics.start(), new RCharacterVector(array)); }
 	
 	
 	/**
@@ -97,7 +107,7 @@ public class RConverter {
 	 * @param labels the labels of the factor
 	 * @return the r factor vector
 	 */
-	public static RFactorVector convert(int[] array, String[] labels) {	return new RFactorVector(array, labels); }
+	public static RFactorVector convert(int[] array, String[] labels) {	return measure(ARRAY, RMetrics.start(), new RFactorVector(array, labels)); }
 	
 	
 	/**
@@ -106,7 +116,7 @@ public class RConverter {
 	 * @param array the array
 	 * @return the r integer vector
 	 */
-	public static RIntegerVector convert(Integer[] array) {	return Stream.of(array).collect(integerCollector()); }
+	public static RIntegerVector convert(Integer[] array) {	return measure(BOXED_ARRAY, RMetrics.start(), Stream.of(array).collect(integerCollector())); }
 	
 	
 	/**
@@ -115,7 +125,7 @@ public class RConverter {
 	 * @param array the array
 	 * @return the r numeric vector
 	 */
-	public static RNumericVector convert(Double[] array) {	return Stream.of(array).collect(doubleCollector()); }
+	public static RNumericVector convert(Double[] array) {	return measure(BOXED_ARRAY, RMetrics.start(), Stream.of(array).collect(doubleCollector())); }
 	
 	
 	/**
@@ -124,7 +134,7 @@ public class RConverter {
 	 * @param array the array
 	 * @return the r numeric vector
 	 */
-	public static RNumericVector convert(Long[] array) {	return Stream.of(array).collect(longCollector()); }
+	public static RNumericVector convert(Long[] array) {	return measure(BOXED_ARRAY, RMetrics.start(), Stream.of(array).collect(longCollector())); }
 	
 	
 	/**
@@ -133,7 +143,7 @@ public class RConverter {
 	 * @param array the array
 	 * @return the r numeric vector
 	 */
-	public static RNumericVector convert(Float[] array) {	return Stream.of(array).collect(floatCollector()); }
+	public static RNumericVector convert(Float[] array) {	return measure(BOXED_ARRAY, RMetrics.start(), Stream.of(array).collect(floatCollector())); }
 	
 	/**
 	 * Convert BigDecimal array to R.
@@ -141,7 +151,7 @@ public class RConverter {
 	 * @param array the array
 	 * @return the r numeric vector
 	 */
-	public static RNumericVector convert(BigDecimal[] array) {	return Stream.of(array).collect(bigDecimalCollector()); }
+	public static RNumericVector convert(BigDecimal[] array) {	return measure(BOXED_ARRAY, RMetrics.start(), Stream.of(array).collect(bigDecimalCollector())); }
 	
 	/**
 	 * Convert boxed Boolean array to R.
@@ -149,7 +159,7 @@ public class RConverter {
 	 * @param array the array
 	 * @return the r logical vector
 	 */
-	public static RLogicalVector convert(Boolean[] array) {	return Stream.of(array).collect(booleanCollector()); }
+	public static RLogicalVector convert(Boolean[] array) {	return measure(BOXED_ARRAY, RMetrics.start(), Stream.of(array).collect(booleanCollector())); }
 	
 	/**
 	 * Convert LocalDate array to R.
@@ -157,7 +167,7 @@ public class RConverter {
 	 * @param array the array
 	 * @return the r date vector
 	 */
-	public static RDateVector convert(LocalDate[] array) {	return Stream.of(array).collect(dateCollector()); }
+	public static RDateVector convert(LocalDate[] array) {	return measure(BOXED_ARRAY, RMetrics.start(), Stream.of(array).collect(dateCollector())); }
 	
 	/**
 	 * Convert an array of enumerated type X, to a factor vector .
@@ -169,7 +179,7 @@ public class RConverter {
 	@SuppressWarnings("unchecked")
 	public static <X extends Enum<?>> RFactorVector convert(X[] array) {
 		Class<X> cls = (Class<X>) array[0].getClass();
-		return (RFactorVector) Stream.of(array).collect(enumCollector(cls)); }
+		return measure(BOXED_ARRAY, RMetrics.start(), (RFactorVector) Stream.of(array).collect(enumCollector(cls))); }
 	
 	
 	/**
@@ -254,6 +264,8 @@ public class RConverter {
 	 */
 	@SuppressWarnings("unchecked")
 	public static <X extends RPrimitive> X convertObjectToPrimitive(Object o) throws UnconvertableTypeException {
+		// individual values are counted but not timed, as this is called for every cell of a dataframe
+		OBJECT.increment();
 		if (o instanceof Integer) return (X) convert((Integer) o);
 		if (o instanceof Long) return (X) convert((Long) o);
 		if (o instanceof Double) return (X) convert((Double) o);
@@ -637,31 +649,15 @@ public class RConverter {
 	
 	/**
 	 * Annotated collector converts a stream of objects of a class which has getters annotated with @RName annotations into a RDataframe.
-	 * The column names are defined by the @RName annotations
+	 * The column names are defined by the @RName annotations, and the column types by the return types of the getters. The getters
+	 * are resolved once per class (see {@link RDataframeBuilder#annotated(Class)}).
 	 *
 	 * @param      <X> the generic type of the annotated class
 	 * @param type defines the class that this collector will convert to a dataframe (mostly needed for type hinting to the compiler)
 	 * @return the collector which can be used to Stream.of(X...).collect(annotatedCollector(X.class))
 	 */
-	@SuppressWarnings("unchecked")
 	public static <X> Collector<X,?,RDataframe> annotatedCollector(Class<X> type) {
-		List<MapRule<X>> rules = new ArrayList<>();
-		for (Method m :type.getMethods()) {
-			if(m.isAnnotationPresent(RName.class)) {
-				rules.add(
-					mapping(
-						m.getAnnotation(RName.class).value(),
-						o -> {
-							try {
-								return m.invoke(o);
-							} catch (Exception e) {
-								throw new RuntimeException(e);
-							}
-						})
-				);
-			}
-		}
-		return dataframeCollector((MapRule<X>[]) rules.toArray(new MapRule[0]));
+		return RDataframeBuilder.annotated(type).collector();
 	}
 	
 	/**
@@ -786,6 +782,18 @@ public class RConverter {
 		};
 	}
 
+	/**
+	 * A stream collector that uses a schema-first {@link RDataframeBuilder} to convert a stream of objects into a dataframe.
+	 * Values are written directly into primitive column buffers, and parallel streams accumulate into a buffer per thread.
+	 *
+	 * @param         <X> the generic input
+	 * @param builder - a builder with the columns declared, e.g. RDataframeBuilder.of(X.class).withInt("colname", x -&gt; x.getValue())
+	 * @return A collector that works in the following idiom: streamOfX.collect(RConverter.dataframeCollector(builder))
+	 */
+	public static <X> Collector<X,?,RDataframe> dataframeCollector(RDataframeBuilder<X> builder) {
+		return builder.collector();
+	}
+	
 	/**
 	 * A stream collector that applies mapping rules and converts a stream of objects
 	 * into a dataframe.
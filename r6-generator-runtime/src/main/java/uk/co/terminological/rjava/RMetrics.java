@@ -0,0 +1,259 @@
+package uk.co.terminological.rjava;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import uk.co.terminological.rjava.types.RCharacterVector;
+import uk.co.terminological.rjava.types.RDataframe;
+import uk.co.terminological.rjava.types.RNumeric;
+import uk.co.terminological.rjava.types.RNumericVector;
+
+/**
+ * A registry of lightweight runtime metrics for data conversion, dataframe operations and background calls. Each
+ * {@link Metric} counts events, their total and maximum duration, a histogram of durations in power of two
+ * nanosecond buckets, and the number of bytes of data involved. Metrics are created once (usually as static fields
+ * of the class being measured) and recording only updates striped counters, so it takes no locks and allocates
+ * nothing and can be left on. It can be turned off entirely with {@link #setEnabled(boolean)}.
+ *
+ * A typical use is:
+ *
+ * <pre>
+ * private static final RMetrics.Metric BIND_ROWS = RMetrics.metric("RDataframe.bindRows");
+ * ...
+ * long start = RMetrics.start();
+ * ...
+ * BIND_ROWS.stop(start, bytes);
+ * </pre>
+ *
+ * The metrics are available in R as a dataframe from `J$metrics()`.
+ */
+public class RMetrics {
+
+	// durations up to 2^39 ns (about 9 minutes) are resolved, anything longer is in the last bucket
+	static final int BUCKETS = 40;
+
+	private static volatile boolean enabled = true;
+	private static ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<>();
+
+	/**
+	 * Get or create a named metric. This is not intended to be called on a hot path, the result should be kept.
+	 *
+	 * @param name the metric name, e.g. "RDataframe.bindRows"
+	 * @return the metric
+	 */
+	public static Metric metric(String name) {
+		return metrics.computeIfAbsent(name, Metric::new);
+	}
+
+	/**
+	 * The start of a timed event, to be passed to {@link Metric#stop(long)}.
+	 *
+	 * @return the current time in nanoseconds, or 0 if metrics are disabled
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * @param enabled whether to record metrics. Recording is on by default.
+	 */
+	public static void setEnabled(boolean enabled) {
+		RMetrics.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Clear all recorded values.
+	 */
+	public static void reset() {
+		metrics.values().forEach(Metric::reset);
+	}
+
+	/**
+	 * A summary of all the metrics that have recorded anything, with one row per metric. Times are in
+	 * milliseconds (total) or microseconds (mean, percentiles and maximum). Percentiles are the upper bound of the
+	 * histogram bucket they fall in, so are accurate to within a factor of two.
+	 *
+	 * @return a dataframe with columns metric, count, total_ms, mean_us, p50_us, p90_us, p99_us, max_us and bytes
+	 */
+	public static RDataframe metrics() {
+		return metrics(false);
+	}
+
+	/**
+	 * A summary of all the metrics, as {@link #metrics()}.
+	 *
+	 * @param reset clear the recorded values after they have been read
+	 * @return a dataframe with one row per metric
+	 */
+	public static RDataframe metrics(boolean reset) {
+		List<Metric> selected = new ArrayList<>();
+		metrics.values().stream()
+			.filter(m -> m.getCount() > 0)
+			.sorted((a,b) -> a.name.compareTo(b.name))
+			.forEach(selected::add);
+		int n = selected.size();
+		// the columns are built directly so that this does not show up in the conversion metrics
+		String[] name = new String[n];
+		String[] cols = {"count", "total_ms", "mean_us", "p50_us", "p90_us", "p99_us", "max_us", "bytes"};
+		RNumericVector[] values = new RNumericVector[cols.length];
+		for (int j=0; j<cols.length; j++) values[j] = new RNumericVector(n);
+		for (int i=0; i<n; i++) {
+			Metric m = selected.get(i);
+			long timed = m.timed();
+			long total = m.nanos.sum();
+			name[i] = m.name;
+			values[0].add(new RNumeric((double) (timed+m.untimed.sum())));
+			values[1].add(new RNumeric(total/1e6));
+			values[2].add(new RNumeric(timed == 0 ? null : total/1e3/timed));
+			values[3].add(new RNumeric(timed == 0 ? null : m.percentile(0.5)/1e3));
+			values[4].add(new RNumeric(timed == 0 ? null : m.percentile(0.9)/1e3));
+			values[5].add(new RNumeric(timed == 0 ? null : m.percentile(0.99)/1e3));
+			values[6].add(new RNumeric(timed == 0 ? null : m.max.get()/1e3));
+			values[7].add(new RNumeric((double) m.bytes.sum()));
+			if (reset) m.reset();
+		}
+		RDataframe out = new RDataframe();
+		out.addCol("metric", new RCharacterVector(name));
+		for (int j=0; j<cols.length; j++) out.addCol(cols[j], values[j]);
+		return out;
+	}
+
+	/**
+	 * A named set of counters. All methods are safe to call from many threads at once.
+	 */
+	public static final class Metric {
+
+		final String name;
+		// events that were not timed, the timed ones are counted in the histogram
+		final LongAdder untimed = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAccumulator max = new LongAccumulator(Math::max, 0);
+		final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+		private Metric(String name) {
+			this.name = name;
+			for (int i=0; i<BUCKETS; i++) buckets[i] = new LongAdder();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Count an event without timing it.
+		 */
+		public void increment() {
+			if (enabled) untimed.increment();
+		}
+
+		/**
+		 * Count an event without timing it.
+		 *
+		 * @param bytes the volume of data involved
+		 */
+		public void increment(long bytes) {
+			if (!enabled) return;
+			untimed.increment();
+			if (bytes != 0) this.bytes.add(bytes);
+		}
+
+		/**
+		 * Record an event that started at the given time.
+		 *
+		 * @param start the value of {@link RMetrics#start()} at the start of the event
+		 */
+		public void stop(long start) {
+			if (start != 0) record(System.nanoTime()-start, 0);
+		}
+
+		/**
+		 * Record an event that started at the given time.
+		 *
+		 * @param start the value of {@link RMetrics#start()} at the start of the event
+		 * @param bytes the volume of data involved
+		 */
+		public void stop(long start, long bytes) {
+			if (start != 0) record(System.nanoTime()-start, bytes);
+		}
+
+		/**
+		 * Record an event with a known duration.
+		 *
+		 * @param nanos the duration of the event in nanoseconds
+		 * @param bytes the volume of data involved
+		 */
+		public void record(long nanos, long bytes) {
+			if (!enabled) return;
+			if (nanos < 0) nanos = 0;
+			this.nanos.add(nanos);
+			if (bytes != 0) this.bytes.add(bytes);
+			max.accumulate(nanos);
+			buckets[Math.min(64-Long.numberOfLeadingZeros(nanos), BUCKETS-1)].increment();
+		}
+
+		/**
+		 * @return the number of events recorded
+		 */
+		public long getCount() {
+			return untimed.sum()+timed();
+		}
+
+		long timed() {
+			long out = 0;
+			for (LongAdder b: buckets) out += b.sum();
+			return out;
+		}
+
+		/**
+		 * @return the total volume of data in bytes
+		 */
+		public long getBytes() {
+			return bytes.sum();
+		}
+
+		/**
+		 * An estimate of a percentile of the duration of the timed events.
+		 *
+		 * @param p the percentile between 0 and 1
+		 * @return the upper bound of the duration in nanoseconds, or 0 if no events have been timed
+		 */
+		public long percentile(double p) {
+			long total = 0;
+			long[] counts = new long[BUCKETS];
+			for (int i=0; i<BUCKETS; i++) total += (counts[i] = buckets[i].sum());
+			if (total == 0) return 0;
+			long rank = (long) Math.ceil(p*total);
+			long seen = 0;
+			for (int i=0; i<BUCKETS; i++) {
+				seen += counts[i];
+				if (seen >= rank && counts[i] > 0) return Math.min(i == 0 ? 0 : 1L << i, max.get());
+			}
+			return max.get();
+		}
+
+		void reset() {
+			untimed.reset();
+			nanos.reset();
+			bytes.reset();
+			max.reset();
+			for (LongAdder b: buckets) b.reset();
+		}
+
+		public String toString() {
+			long n = timed();
+			return name+": "+getCount()+" events"
+				+(n == 0 ? "" : String.format(Locale.ROOT, ", mean %.1fus, p99 %.1fus, max %.1fus", nanos.sum()/1e3/n, percentile(0.99)/1e3, max.get()/1e3))
+				+(bytes.sum() == 0 ? "" : ", "+bytes.sum()+" bytes");
+		}
+	}
+}
@@ -5,97 +5,143 @@ import java.io.PrintStream;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
-import uk.co.terminological.rjava.threads.ByteArrayPrintStream;
+import uk.co.terminological.rjava.threads.RThreadMonitor;
 
 /**
- * 
- * 
+ *
+ *
  * Delegates the print stream output from System.out
- * to a per-thread set of ByteArrayPrintStreams keyed
- * on thread id. This intercepts any write to System.out
- * and first of all picks a concurrent map of print streams 
- * keyed by thread Id.
+ * to a per-task set of bounded console captures keyed
+ * on the RFuture id for background tasks, or on the thread
+ * id otherwise (see RThreadMonitor.currentId()). This intercepts any write to System.out
+ * and first of all picks a concurrent map of captures
+ * keyed by that id.
  * This is possibly quite a lot slower than the default.
- * 
- * This is like it is so that later on the RFuture class can 
+ *
+ * This is like it is so that later on the RFuture class can
  * asynchronously find out what console output has been gathered so
- * far for a given thread without being in that thread. 
- * 
+ * far for a given task without being in that thread.
+ *
  * This lets system.out be called by a long running method in a thread
- * and the output be available in the RFuture monitor thread.   
+ * and the output be available in the RFuture monitor thread.
+ *
+ * Each capture holds at most {@link #DEFAULT_MAX_BYTES} bytes (see {@link #configure(int, long)})
+ * and older output is discarded or spilled to a temporary file. Captures are discarded
+ * when their RFuture is collected or removed, and when the thread that owns them has
+ * finished.
  */
 public class RSystemOut extends PrintStream {
 
-	private static RSystemOut instance;
-	
-	static RSystemOut instance() {
+	/** The default maximum number of bytes of output held in memory for each task. */
+	public static final int DEFAULT_MAX_BYTES = 1024*1024;
+
+	private static volatile RSystemOut instance;
+	private static volatile int maxBytes = DEFAULT_MAX_BYTES;
+	private static volatile long maxSpillBytes = 0;
+
+	static synchronized RSystemOut instance() {
 		if (instance == null) {
 			instance = new RSystemOut();
-			instance.consoleId = Thread.currentThread().getId();
+			instance.consoleId = RThreadMonitor.currentId();
 			instance.console = System.out;
 			System.setOut(instance);
 		}
 		return instance;
 	}
-	
-	private ConcurrentMap<Long, ByteArrayPrintStream> streams = new ConcurrentHashMap<>();
+
+	private ConcurrentMap<Long, ConsoleCapture> streams = new ConcurrentHashMap<>();
 	private long consoleId;
 	private PrintStream console;
-	
-	private ByteArrayPrintStream baps() {
-		Long id = Thread.currentThread().getId();
-		if (!streams.containsKey(id)) {
-			streams.put(id, new ByteArrayPrintStream());
-		}
-		return streams.get(id);
+
+	private ConsoleCapture capture() {
+		long id = RThreadMonitor.currentId();
+		// ids of threads not running an RFuture are negative
+		return streams.computeIfAbsent(id, i -> new ConsoleCapture(maxBytes, maxSpillBytes, i < 0 ? Thread.currentThread() : null));
 	}
-	
+
 	private RSystemOut() {
 		super(new ByteArrayOutputStream(0));
 	}
 
 	@Override public boolean checkError() {
-		return baps().checkError();
+		return false;
 	}
 
 	@Override public void write(byte[] buf, int off, int len) {
-		baps().write(buf, off, len);
+		capture().write(buf, off, len);
 	}
 
-	@Override public void write(int b) { 
-		baps().write(b); }
+	@Override public void write(int b) {
+		capture().write(b); }
 
-	@Override public void flush() { 
-		baps().flush(); 
+	@Override public void flush() {}
+
+	@Override public void close() {
+		ConsoleCapture tmp = streams.remove(RThreadMonitor.currentId());
+		if (tmp != null) tmp.close();
 	}
-	
-	@Override public void close() { 
-		
-		baps().close();
-		Long id = Thread.currentThread().getId();
-		streams.remove(id);
+
+	/**
+	 * Set the limits of console capture for tasks that start writing output after this call.
+	 *
+	 * @param maxBytes the maximum number of bytes of output held in memory for each task
+	 * @param maxSpillBytes if greater than zero output that overflows the memory buffer is written to
+	 *   a temporary file, which is rolled over when it reaches this size. Otherwise overflowing output
+	 *   is discarded.
+	 */
+	public static void configure(int maxBytes, long maxSpillBytes) {
+		if (maxBytes < 1) throw new IllegalArgumentException("maxBytes must be at least 1");
+		RSystemOut.maxBytes = maxBytes;
+		RSystemOut.maxSpillBytes = maxSpillBytes;
 	}
 
 	// don't want to close System.out
 	@SuppressWarnings("resource")
 	public static String getSystemMessages(long id) {
-		if (instance == null) throw new RuntimeException("The RSystemOut class has not been setup.");
-		if (!instance().streams.containsKey(id)) {
-			// this happens if a thread has not 
+		RSystemOut current = instance;
+		// nothing is captured before setup() or after release()
+		if (current == null) return "";
+		ConsoleCapture tmp = current.streams.get(id);
+		if (tmp == null) {
+			// this happens if a thread has not
 			// output anything on System.out, so it never
 			// gets registered.
 			return "";
 		}
-		return instance().streams.get(id).getAndClear();
+		return tmp.getAndClear();
 	}
-	
+
 	// don't want to close System.out
 	// This is the original thread it was called from.
 	// By design this will be initialised by the library
 	// Via the LogController.
 	@SuppressWarnings("resource")
 	public static String getSystemMessages() {
-		return getSystemMessages(instance().consoleId);
+		RSystemOut current = instance;
+		if (current == null) return "";
+		prune(current);
+		return getSystemMessages(current.consoleId);
+	}
+
+	/**
+	 * Discard any output captured for a task, e.g. when its result has been collected.
+	 *
+	 * @param id the RFuture id
+	 */
+	public static void discard(long id) {
+		RSystemOut current = instance;
+		if (current == null) return;
+		ConsoleCapture tmp = current.streams.remove(id);
+		if (tmp != null) tmp.close();
+	}
+
+	// removes the captures of finished threads that have been read
+	private static void prune(RSystemOut current) {
+		current.streams.entrySet().removeIf(e -> {
+			if (!e.getValue().isAbandoned()) return false;
+			e.getValue().close();
+			return true;
+		});
 	}
 
 	public static void setup() {
@@ -104,17 +150,22 @@ public class RSystemOut extends PrintStream {
 //		}
 		instance();
 	}
-	
+
+	/**
+	 * Restore the original System.out, printing any output still held for background tasks to it, and discard
+	 * all the captures. A later {@link #setup()} starts capturing again from scratch.
+	 */
 	// don't want to close System.out
 	@SuppressWarnings("resource")
-	public static void release() {
-		long mainThreadId = instance().consoleId;
-		System.setOut(instance().console);
-		instance().streams.forEach((i,s) -> {
-			if (i != mainThreadId) {
-				System.out.println(s.getAndClear());
-				s.close();
-			}
+	public static synchronized void release() {
+		RSystemOut tmp = instance;
+		if (tmp == null) return;
+		instance = null;
+		System.setOut(tmp.console);
+		tmp.streams.forEach((i,s) -> {
+			if (i != tmp.consoleId) System.out.println(s.getAndClear());
+			s.close();
 		});
+		tmp.streams.clear();
 	}
 }
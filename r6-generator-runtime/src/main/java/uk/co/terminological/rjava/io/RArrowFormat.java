@@ -0,0 +1,1204 @@
+package uk.co.terminological.rjava.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import uk.co.terminological.rjava.IncompatibleTypeException;
+import uk.co.terminological.rjava.RMetrics;
+import uk.co.terminological.rjava.types.RCharacterVector;
+import uk.co.terminological.rjava.types.RDataframe;
+import uk.co.terminological.rjava.types.RDateVector;
+import uk.co.terminological.rjava.types.RFactorVector;
+import uk.co.terminological.rjava.types.RIntegerVector;
+import uk.co.terminological.rjava.types.RLogicalVector;
+import uk.co.terminological.rjava.types.RNumericVector;
+import uk.co.terminological.rjava.types.RPrimitive;
+import uk.co.terminological.rjava.types.RUntypedNaVector;
+import uk.co.terminological.rjava.types.RVector;
+
+/**
+ * Reads and writes dataframes in the Apache Arrow IPC formats: the file format (also known as Feather version 2),
+ * which R can read with arrow::read_feather() using memory mapping, and the stream format. The column buffers are
+ * written directly from the primitive arrays of the vectors:
+ *
+ * <ul>
+ * <li>numeric - float64</li>
+ * <li>integer - int32</li>
+ * <li>logical - bool</li>
+ * <li>character - utf8</li>
+ * <li>factor - dictionary encoded utf8, with int32 indices</li>
+ * <li>date - date32</li>
+ * <li>untyped NA - null</li>
+ * </ul>
+ *
+ * NA values are nulls, described by a validity bitmap, which is left out for columns without NAs. The grouping of
+ * the dataframe is kept in the schema metadata. When reading, integer and floating point types of other widths,
+ * large utf8 and date64 columns are also accepted, as are record batches compressed with LZ4, which is what
+ * arrow::write_feather() uses by default. ZSTD compressed data is not supported, so R code that hands files to
+ * this class should write them with compression = "lz4" or "uncompressed".
+ *
+ * This only depends on the Arrow format specification, and not on the Arrow java libraries.
+ *
+ * @author terminological
+ * @version $Id: $Id
+ */
+public class RArrowFormat {
+
+	/** The layouts of Arrow IPC data */
+	public static enum Layout {
+		/** The random access file format, which is Feather version 2 */
+		FILE,
+		/** The stream format */
+		STREAM
+	}
+
+	static final byte[] MAGIC = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+	static final int CONTINUATION = 0xFFFFFFFF;
+	static final String GROUP_KEY = "r6generator.group.";
+
+	static final int NA_INTEGER = Integer.MIN_VALUE;
+	static final long NA_REAL_BITS = 0x7FF00000000007A2L;
+
+	// enumerations from the Arrow flatbuffers schemas (Schema.fbs, Message.fbs and File.fbs)
+	static final short METADATA_V5 = 4;
+	static final byte HEADER_SCHEMA = 1;
+	static final byte HEADER_DICTIONARY_BATCH = 2;
+	static final byte HEADER_RECORD_BATCH = 3;
+	static final byte TYPE_NULL = 1;
+	static final byte TYPE_INT = 2;
+	static final byte TYPE_FLOATING_POINT = 3;
+	static final byte TYPE_UTF8 = 5;
+	static final byte TYPE_BOOL = 6;
+	static final byte TYPE_DATE = 8;
+	static final byte TYPE_LARGE_UTF8 = 20;
+	static final short PRECISION_SINGLE = 1;
+	static final short PRECISION_DOUBLE = 2;
+	static final short DATE_DAY = 0;
+	static final short DATE_MILLISECOND = 1;
+	static final byte CODEC_LZ4_FRAME = 0;
+	static final byte CODEC_ZSTD = 1;
+	static final byte METHOD_BUFFER = 0;
+
+	static final int LZ4_MAGIC = 0x184D2204;
+	static final int LZ4_SKIPPABLE_MAGIC = 0x184D2A50;
+
+	private static final int BUFFER = 1 << 16;
+	private static final RMetrics.Metric WRITE = RMetrics.metric("RArrowFormat.write");
+	private static final RMetrics.Metric READ = RMetrics.metric("RArrowFormat.read");
+
+	private RArrowFormat() {}
+
+	// WRITING
+
+	/**
+	 * Write a dataframe as an Arrow IPC file, which can be read in R with arrow::read_feather(path, mmap = TRUE).
+	 *
+	 * @param dataframe the dataframe to write
+	 * @param path the file to write
+	 * @throws java.io.IOException if the file cannot be written
+	 */
+	public static void write(RDataframe dataframe, Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			write(dataframe, channel, Layout.FILE);
+		}
+	}
+
+	/**
+	 * Write a dataframe as Arrow IPC data, as a single record batch.
+	 *
+	 * @param dataframe the dataframe to write
+	 * @param channel the destination, which is not closed
+	 * @param layout the file or stream format
+	 * @throws java.io.IOException if the data cannot be written
+	 * @throws uk.co.terminological.rjava.IncompatibleTypeException if a column has no Arrow equivalent
+	 */
+	public static void write(RDataframe dataframe, WritableByteChannel channel, Layout layout) throws IOException {
+		long start = RMetrics.start();
+		Output out = new Output(channel);
+		List<Column> columns = new ArrayList<>();
+		synchronized (dataframe) {
+			for (Map.Entry<String, RVector<? extends RPrimitive>> e: dataframe.entrySet()) {
+				columns.add(new Column(e.getKey(), e.getValue(), columns.size()));
+			}
+		}
+		if (layout == Layout.FILE) {
+			out.put(MAGIC, 0, MAGIC.length);
+			out.pad(8);
+		}
+		Node schema = schema(columns, dataframe.getGroups());
+		out.message(HEADER_SCHEMA, schema, null);
+		List<long[]> dictionaries = new ArrayList<>();
+		for (Column c: columns) {
+			if (c.dictionary != null) dictionaries.add(out.message(HEADER_DICTIONARY_BATCH, null, c.dictionary));
+		}
+		long[] batch = out.message(HEADER_RECORD_BATCH, null, new Batch(dataframe.nrow(), columns));
+		// end of stream marker
+		out.putInt(CONTINUATION);
+		out.putInt(0);
+		if (layout == Layout.FILE) {
+			Node footer = new TableNode(5)
+					.set(0, METADATA_V5)
+					.set(1, schema)
+					.set(2, new StructVectorNode(3, dictionaries))
+					.set(3, new StructVectorNode(3, Arrays.asList(batch)));
+			ByteBuffer tmp = footer.flatbuffer();
+			int length = tmp.remaining();
+			out.put(tmp);
+			out.putInt(length);
+			out.put(MAGIC, 0, MAGIC.length);
+		}
+		out.flush();
+		WRITE.stop(start, out.position);
+	}
+
+	private static Node schema(List<Column> columns, String[] groups) {
+		Node[] fields = new Node[columns.size()];
+		for (int i=0; i<fields.length; i++) fields[i] = columns.get(i).field();
+		// the grouping is kept as one metadata entry per group column, in order
+		Node[] metadata = new Node[groups.length];
+		for (int i=0; i<groups.length; i++) {
+			metadata[i] = new TableNode(2).set(0, new StringNode(GROUP_KEY+(i+1))).set(1, new StringNode(groups[i]));
+		}
+		return new TableNode(4)
+				.set(0, (short) 0) // little endian
+				.set(1, new VectorNode(fields))
+				.set(2, new VectorNode(metadata));
+	}
+
+	// the buffers of a column, written directly from the arrays of the vector
+	private static final class Column {
+
+		final String name;
+		final int length;
+		final int nullCount;
+		final byte typeType;
+		final Node type;
+		final byte[] validity;
+		final Buffer values;
+		final Buffer data;
+		final long dictionaryId;
+		final Batch dictionary;
+
+		Column(String name, RVector<?> v, long id) {
+			this.name = name;
+			this.length = v.size();
+			Batch dictionary = null;
+			Buffer data = null;
+			boolean[] na = new boolean[length];
+			if (v instanceof RNumericVector) {
+				double[] values = ((RNumericVector) v).unsafeArray();
+				for (int i=0; i<length; i++) na[i] = Double.doubleToRawLongBits(values[i]) == NA_REAL_BITS;
+				typeType = TYPE_FLOATING_POINT;
+				type = new TableNode(1).set(0, PRECISION_DOUBLE);
+				this.values = Buffer.of(values);
+			} else if (v instanceof RIntegerVector || v instanceof RDateVector) {
+				int[] values = v instanceof RIntegerVector ? ((RIntegerVector) v).unsafeArray() : ((RDateVector) v).unsafeArray();
+				for (int i=0; i<length; i++) na[i] = values[i] == NA_INTEGER;
+				if (v instanceof RIntegerVector) {
+					typeType = TYPE_INT;
+					type = new TableNode(2).set(0, 32).set(1, true);
+				} else {
+					typeType = TYPE_DATE;
+					type = new TableNode(1).set(0, DATE_DAY);
+				}
+				this.values = Buffer.of(values);
+			} else if (v instanceof RLogicalVector) {
+				int[] values = ((RLogicalVector) v).unsafeArray();
+				byte[] bits = new byte[(length+7)/8];
+				for (int i=0; i<length; i++) {
+					na[i] = values[i] == NA_INTEGER;
+					if (values[i] == 1) bits[i >> 3] |= 1 << (i & 7);
+				}
+				typeType = TYPE_BOOL;
+				type = new TableNode(0);
+				this.values = Buffer.of(bits);
+			} else if (v instanceof RCharacterVector) {
+				RCharacterVector c = (RCharacterVector) v;
+				int[] codes = c.unsafeArray();
+				String[] levels = c.rLevels();
+				byte[][] encoded = new byte[levels.length][];
+				for (int i=0; i<levels.length; i++) encoded[i] = levels[i].getBytes(StandardCharsets.UTF_8);
+				int[] offsets = new int[length+1];
+				long total = 0;
+				for (int i=0; i<length; i++) {
+					na[i] = codes[i] == NA_INTEGER;
+					if (!na[i]) total += encoded[codes[i]-1].length;
+					if (total > Integer.MAX_VALUE) throw new IncompatibleTypeException("Character column too large for Arrow utf8: "+name);
+					offsets[i+1] = (int) total;
+				}
+				typeType = TYPE_UTF8;
+				type = new TableNode(0);
+				this.values = Buffer.of(offsets);
+				data = Buffer.of(codes, encoded, total);
+			} else if (v instanceof RFactorVector) {
+				RFactorVector f = (RFactorVector) v;
+				int[] codes = f.rValues();
+				int[] indices = new int[length];
+				for (int i=0; i<length; i++) {
+					na[i] = codes[i] == NA_INTEGER;
+					indices[i] = na[i] ? 0 : codes[i]-1;
+				}
+				// the levels are a single utf8 column in their own dictionary batch
+				String[] levels = f.rLevels();
+				dictionary = new Batch(id, new Column(name, new RCharacterVector(levels), id));
+				typeType = TYPE_UTF8;
+				type = new TableNode(0);
+				this.values = Buffer.of(indices);
+			} else if (v instanceof RUntypedNaVector) {
+				Arrays.fill(na, true);
+				typeType = TYPE_NULL;
+				type = new TableNode(0);
+				this.values = null;
+			} else {
+				throw new IncompatibleTypeException("No Arrow equivalent for: "+v.getClass().getCanonicalName()+" in column: "+name);
+			}
+			int nulls = 0;
+			byte[] validity = new byte[(length+7)/8];
+			for (int i=0; i<length; i++) {
+				if (na[i]) nulls++;
+				else validity[i >> 3] |= 1 << (i & 7);
+			}
+			this.nullCount = nulls;
+			this.validity = nulls == 0 || typeType == TYPE_NULL ? null : validity;
+			this.data = data;
+			this.dictionary = dictionary;
+			this.dictionaryId = id;
+		}
+
+		Node field() {
+			TableNode field = new TableNode(7)
+					.set(0, new StringNode(name))
+					.set(1, true)
+					.set(2, typeType)
+					.set(3, type)
+					.set(5, new VectorNode());
+			if (dictionary != null) {
+				field.set(4, new TableNode(4)
+						.set(0, dictionaryId)
+						.set(1, new TableNode(2).set(0, 32).set(1, true))
+						.set(2, true)
+						.set(3, (short) 0));
+			}
+			return field;
+		}
+
+		List<Buffer> buffers() {
+			List<Buffer> out = new ArrayList<>();
+			if (typeType == TYPE_NULL) return out;
+			out.add(validity == null ? Buffer.EMPTY : Buffer.of(validity));
+			out.add(values);
+			if (data != null) out.add(data);
+			return out;
+		}
+	}
+
+	// a record batch, or the data of a dictionary batch
+	private static final class Batch {
+		final long length;
+		final List<Column> columns;
+		final Long dictionaryId;
+
+		Batch(long length, List<Column> columns) {
+			this.length = length;
+			this.columns = columns;
+			this.dictionaryId = null;
+		}
+
+		Batch(long id, Column levels) {
+			this.length = levels.length;
+			this.columns = Arrays.asList(levels);
+			this.dictionaryId = id;
+		}
+
+		List<Buffer> buffers() {
+			List<Buffer> out = new ArrayList<>();
+			for (Column c: columns) out.addAll(c.buffers());
+			return out;
+		}
+
+		// the record batch table, with the offsets of the buffers in the message body
+		Node metadata(List<Buffer> buffers) {
+			List<long[]> nodes = new ArrayList<>();
+			for (Column c: columns) nodes.add(new long[] {c.length, c.nullCount});
+			List<long[]> positions = new ArrayList<>();
+			long offset = 0;
+			for (Buffer b: buffers) {
+				positions.add(new long[] {offset, b.length});
+				offset += padded(b.length);
+			}
+			TableNode batch = new TableNode(4)
+					.set(0, length)
+					.set(1, new StructVectorNode(2, nodes))
+					.set(2, new StructVectorNode(2, positions));
+			if (dictionaryId == null) return batch;
+			return new TableNode(3).set(0, dictionaryId).set(1, batch).set(2, false);
+		}
+	}
+
+	private static long padded(long length) {
+		return (length + 7) & ~7L;
+	}
+
+	// a body buffer, which writes itself to the output
+	private static abstract class Buffer {
+		final long length;
+		Buffer(long length) {this.length = length;}
+		abstract void write(Output out) throws IOException;
+
+		static final Buffer EMPTY = of(new byte[0]);
+
+		static Buffer of(byte[] bytes) {
+			return new Buffer(bytes.length) {
+				void write(Output out) throws IOException {out.put(bytes, 0, bytes.length);}
+			};
+		}
+
+		static Buffer of(int[] values) {
+			return new Buffer(4L*values.length) {
+				void write(Output out) throws IOException {out.putInts(values);}
+			};
+		}
+
+		static Buffer of(double[] values) {
+			return new Buffer(8L*values.length) {
+				void write(Output out) throws IOException {out.putDoubles(values);}
+			};
+		}
+
+		// the utf8 data of a dictionary encoded character vector
+		static Buffer of(int[] codes, byte[][] encoded, long total) {
+			return new Buffer(total) {
+				void write(Output out) throws IOException {
+					for (int code: codes) {
+						if (code != NA_INTEGER) out.put(encoded[code-1], 0, encoded[code-1].length);
+					}
+				}
+			};
+		}
+	}
+
+	private static class Output {
+		final WritableByteChannel channel;
+		final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+		long position = 0;
+
+		Output(WritableByteChannel channel) {
+			this.channel = channel;
+		}
+
+		void ensure(int n) throws IOException {
+			if (buf.remaining() < n) flush();
+		}
+
+		void flush() throws IOException {
+			buf.flip();
+			while (buf.hasRemaining()) channel.write(buf);
+			buf.clear();
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			buf.putInt(value);
+			position += 4;
+		}
+
+		void put(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				ensure(1);
+				int k = Math.min(length, buf.remaining());
+				buf.put(bytes, offset, k);
+				offset += k;
+				length -= k;
+				position += k;
+			}
+		}
+
+		void put(ByteBuffer bytes) throws IOException {
+			flush();
+			position += bytes.remaining();
+			while (bytes.hasRemaining()) channel.write(bytes);
+		}
+
+		void putInts(int[] values) throws IOException {
+			for (int i=0; i<values.length;) {
+				ensure(4);
+				int k = Math.min(values.length-i, buf.remaining()/4);
+				buf.asIntBuffer().put(values, i, k);
+				buf.position(buf.position()+k*4);
+				position += k*4L;
+				i += k;
+			}
+		}
+
+		void putDoubles(double[] values) throws IOException {
+			for (int i=0; i<values.length;) {
+				ensure(8);
+				int k = Math.min(values.length-i, buf.remaining()/8);
+				// the view buffer keeps the bit pattern of NA rather than normalising it to NaN
+				buf.asDoubleBuffer().put(values, i, k);
+				buf.position(buf.position()+k*8);
+				position += k*8L;
+				i += k;
+			}
+		}
+
+		void pad(int alignment) throws IOException {
+			while (position % alignment != 0) {
+				ensure(1);
+				buf.put((byte) 0);
+				position++;
+			}
+		}
+
+		/*
+		 * Writes an encapsulated message: the continuation marker, the length of the metadata, the metadata
+		 * flatbuffer padded so that the body starts on an 8 byte boundary, and the body. Returns the file footer
+		 * block for the message, which is its offset, metadata length and body length.
+		 */
+		long[] message(byte headerType, Node header, Batch batch) throws IOException {
+			long offset = position;
+			List<Buffer> buffers = batch == null ? new ArrayList<>() : batch.buffers();
+			long bodyLength = 0;
+			for (Buffer b: buffers) bodyLength += padded(b.length);
+			ByteBuffer metadata = new TableNode(5)
+					.set(0, METADATA_V5)
+					.set(1, headerType)
+					.set(2, header == null ? batch.metadata(buffers) : header)
+					.set(3, bodyLength)
+					.flatbuffer();
+			int length = (int) padded(8 + metadata.remaining()) - 8;
+			putInt(CONTINUATION);
+			putInt(length);
+			put(metadata);
+			pad(8);
+			for (Buffer b: buffers) {
+				b.write(this);
+				pad(8);
+			}
+			return new long[] {offset, 8 + length, bodyLength};
+		}
+	}
+
+	// FLATBUFFERS
+
+	/*
+	 * Arrow metadata is stored as flatbuffers. These are written here front to back: each table's vtable is written
+	 * immediately before the table, and the objects that a table refers to after it, so that references are always
+	 * forward as the format requires. All scalars are aligned to their size relative to the start of the buffer.
+	 */
+	private static abstract class Node {
+
+		// writes this object and returns the position that references to it point to
+		abstract int write(FlatOutput out);
+
+		ByteBuffer flatbuffer() {
+			FlatOutput out = new FlatOutput();
+			out.putInt(0);
+			int root = write(out);
+			out.putInt(0, root);
+			return out.result();
+		}
+	}
+
+	private static final class FlatOutput {
+		byte[] bytes = new byte[1024];
+		int position = 0;
+
+		void ensure(int n) {
+			if (position+n > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length*2, position+n));
+		}
+
+		void align(int alignment) {
+			ensure(alignment);
+			while (position % alignment != 0) bytes[position++] = 0;
+		}
+
+		void put(long value, int size) {
+			ensure(size);
+			for (int i=0; i<size; i++) bytes[position++] = (byte) (value >>> (8*i));
+		}
+
+		void putInt(int value) {
+			put(value, 4);
+		}
+
+		void putInt(int at, int value) {
+			for (int i=0; i<4; i++) bytes[at+i] = (byte) (value >>> (8*i));
+		}
+
+		ByteBuffer result() {
+			return ByteBuffer.wrap(bytes, 0, position);
+		}
+	}
+
+	private static final class TableNode extends Node {
+		// each field is null if absent, a boxed scalar, or a Node that is referred to by offset
+		final Object[] fields;
+
+		TableNode(int size) {
+			this.fields = new Object[size];
+		}
+
+		TableNode set(int field, Object value) {
+			fields[field] = value;
+			return this;
+		}
+
+		static int size(Object value) {
+			if (value instanceof Long) return 8;
+			if (value instanceof Integer || value instanceof Node) return 4;
+			if (value instanceof Short) return 2;
+			return 1;
+		}
+
+		static long bits(Object value) {
+			if (value instanceof Boolean) return ((Boolean) value) ? 1 : 0;
+			return ((Number) value).longValue();
+		}
+
+		int write(FlatOutput out) {
+			// the inline layout: the vtable offset then the fields, largest first so that they are aligned
+			int[] offsets = new int[fields.length];
+			int size = 4;
+			for (int s=8; s>=1; s/=2) {
+				for (int i=0; i<fields.length; i++) {
+					if (fields[i] != null && size(fields[i]) == s) {
+						size = (size + s - 1) / s * s;
+						offsets[i] = size;
+						size += s;
+					}
+				}
+			}
+			out.align(2);
+			int vtable = out.position;
+			out.put(4 + 2*fields.length, 2);
+			out.put(size, 2);
+			for (int offset: offsets) out.put(offset, 2);
+			out.align(8);
+			int start = out.position;
+			out.ensure(size);
+			Arrays.fill(out.bytes, start, start+size, (byte) 0);
+			out.putInt(start, start - vtable);
+			for (int i=0; i<fields.length; i++) {
+				if (fields[i] != null && !(fields[i] instanceof Node)) {
+					out.position = start + offsets[i];
+					out.put(bits(fields[i]), size(fields[i]));
+				}
+			}
+			out.position = start + size;
+			for (int i=0; i<fields.length; i++) {
+				if (fields[i] instanceof Node) {
+					int target = ((Node) fields[i]).write(out);
+					out.putInt(start + offsets[i], target - (start + offsets[i]));
+				}
+			}
+			return start;
+		}
+	}
+
+	private static final class StringNode extends Node {
+		final byte[] value;
+
+		StringNode(String value) {
+			this.value = value.getBytes(StandardCharsets.UTF_8);
+		}
+
+		int write(FlatOutput out) {
+			out.align(4);
+			int start = out.position;
+			out.putInt(value.length);
+			out.ensure(value.length+1);
+			System.arraycopy(value, 0, out.bytes, out.position, value.length);
+			out.position += value.length;
+			out.bytes[out.position++] = 0;
+			return start;
+		}
+	}
+
+	// a vector of tables
+	private static final class VectorNode extends Node {
+		final Node[] items;
+
+		VectorNode(Node... items) {
+			this.items = items;
+		}
+
+		int write(FlatOutput out) {
+			out.align(4);
+			int start = out.position;
+			out.putInt(items.length);
+			for (int i=0; i<items.length; i++) out.putInt(0);
+			for (int i=0; i<items.length; i++) {
+				int target = items[i].write(out);
+				int at = start + 4 + 4*i;
+				out.putInt(at, target - at);
+			}
+			return start;
+		}
+	}
+
+	// a vector of structs made of 8 byte values (Arrow's FieldNode, Buffer and Block)
+	private static final class StructVectorNode extends Node {
+		final int words;
+		final List<long[]> items;
+
+		StructVectorNode(int words, List<long[]> items) {
+			this.words = words;
+			this.items = items;
+		}
+
+		int write(FlatOutput out) {
+			// the length is immediately before the structs, which are aligned to 8 bytes
+			out.align(4);
+			if (out.position % 8 == 0) out.putInt(0);
+			int start = out.position;
+			out.putInt(items.size());
+			for (long[] item: items) {
+				for (int i=0; i<words; i++) out.put(item[i], 8);
+			}
+			return start;
+		}
+	}
+
+	// READING
+
+	/**
+	 * Read a dataframe from an Arrow IPC file or stream. Files smaller than 2Gb are memory mapped.
+	 *
+	 * @param path the file, in either the file (Feather version 2) or stream format
+	 * @return the dataframe
+	 * @throws java.io.IOException if the file cannot be read, or has columns without an equivalent R type
+	 */
+	public static RDataframe read(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) return read(channel);
+			return read(new Input(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+		}
+	}
+
+	/**
+	 * Read a dataframe from Arrow IPC data. The record batches are read in order, so the footer of the file
+	 * format is not needed.
+	 *
+	 * @param channel the source, in either the file or stream format, which is not closed
+	 * @return the dataframe
+	 * @throws java.io.IOException if the data cannot be read, or has columns without an equivalent R type
+	 */
+	public static RDataframe read(ReadableByteChannel channel) throws IOException {
+		return read(new Input(channel));
+	}
+
+	private static RDataframe read(Input in) throws IOException {
+		long start = RMetrics.start();
+		ByteBuffer first = in.take(4);
+		boolean file = first.get(0) == MAGIC[0] && first.get(1) == MAGIC[1] && first.get(2) == MAGIC[2] && first.get(3) == MAGIC[3];
+		// the file format is the stream format between the magic and padding and the footer
+		ByteBuffer next = file ? null : first;
+		if (file) in.take(4);
+		List<Accumulator> columns = null;
+		TreeMap<Integer,String> groups = new TreeMap<>();
+		Map<Long,List<String>> dictionaries = new HashMap<>();
+		while (true) {
+			int length = (next == null ? in.take(4) : next).getInt(0);
+			next = null;
+			// streams written before Arrow 0.15 do not have the continuation marker
+			if (length == CONTINUATION) length = in.take(4).getInt(0);
+			if (length == 0) break;
+			Table message = Table.root(in.take(length));
+			long bodyLength = message.getLong(3, 0);
+			if (bodyLength > Integer.MAX_VALUE) throw new IOException("Arrow record batch too large: "+bodyLength);
+			ByteBuffer body = in.take((int) bodyLength);
+			Table header = message.table(2);
+			switch (message.getByte(1, (byte) 0)) {
+			case HEADER_SCHEMA:
+				if (header.getShort(0, (short) 0) != 0) throw new IOException("Big endian Arrow data is not supported");
+				columns = new ArrayList<>();
+				for (int i=0; i<header.vectorLength(1); i++) columns.add(new Accumulator(header.vectorTable(1, i)));
+				for (int i=0; i<header.vectorLength(2); i++) {
+					Table kv = header.vectorTable(2, i);
+					String key = kv.string(0);
+					if (key != null && key.startsWith(GROUP_KEY)) groups.put(Integer.parseInt(key.substring(GROUP_KEY.length())), kv.string(1));
+				}
+				break;
+			case HEADER_DICTIONARY_BATCH: {
+				long id = header.getLong(0, 0);
+				Accumulator levels = new Accumulator(TYPE_UTF8);
+				new BatchReader(header.table(1), body).read(levels);
+				List<String> values = Arrays.asList(levels.strings.values());
+				if (header.getBool(2, false) && dictionaries.containsKey(id)) dictionaries.get(id).addAll(values);
+				else dictionaries.put(id, new ArrayList<>(values));
+				break;
+			}
+			case HEADER_RECORD_BATCH: {
+				if (columns == null) throw new IOException("Arrow record batch before schema");
+				BatchReader batch = new BatchReader(header, body);
+				for (Accumulator c: columns) {
+					if (c.dictionaryId != null) {
+						List<String> levels = dictionaries.get(c.dictionaryId);
+						if (levels == null) throw new IOException("Missing Arrow dictionary for column: "+c.name);
+						c.levels = levels;
+					}
+					batch.read(c);
+				}
+				break;
+			}
+			default:
+				throw new IOException("Unsupported Arrow message type: "+message.getByte(1, (byte) 0));
+			}
+		}
+		if (columns == null) throw new IOException("Arrow data without a schema");
+		RDataframe out = new RDataframe();
+		for (Accumulator c: columns) out.addCol(c.name, c.vector());
+		if (!groups.isEmpty()) out.groupBy(groups.values().toArray(new String[groups.size()]));
+		READ.stop(start, in.position);
+		return out;
+	}
+
+	private static class Input {
+		// null when reading from a memory mapped file, in which case buf holds the whole file
+		final ReadableByteChannel channel;
+		final ByteBuffer buf;
+		long position = 0;
+
+		Input(ReadableByteChannel channel) {
+			this.channel = channel;
+			this.buf = null;
+		}
+
+		Input(ByteBuffer mapped) {
+			this.channel = null;
+			this.buf = mapped;
+		}
+
+		// the next n bytes, as a little endian buffer indexed from zero
+		ByteBuffer take(int n) throws IOException {
+			ByteBuffer out;
+			if (channel == null) {
+				if (buf.remaining() < n) throw new EOFException("Unexpected end of Arrow data");
+				out = buf.slice();
+				out.limit(n);
+				buf.position(buf.position()+n);
+			} else {
+				out = ByteBuffer.allocate(n);
+				while (out.hasRemaining()) {
+					if (channel.read(out) < 0) throw new EOFException("Unexpected end of Arrow data");
+				}
+				out.flip();
+			}
+			position += n;
+			return out.order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	// a flatbuffer table
+	private static final class Table {
+		final ByteBuffer bb;
+		final int position;
+		final int vtable;
+		final int vtableSize;
+
+		Table(ByteBuffer bb, int position) {
+			this.bb = bb;
+			this.position = position;
+			this.vtable = position - bb.getInt(position);
+			this.vtableSize = bb.getShort(vtable) & 0xFFFF;
+		}
+
+		static Table root(ByteBuffer bb) {
+			return new Table(bb, bb.getInt(0));
+		}
+
+		// the position of a field, or zero if it is absent
+		int field(int i) {
+			int o = 4 + 2*i;
+			int offset = o < vtableSize ? bb.getShort(vtable + o) & 0xFFFF : 0;
+			return offset == 0 ? 0 : position + offset;
+		}
+
+		long getLong(int i, long value) {
+			int f = field(i);
+			return f == 0 ? value : bb.getLong(f);
+		}
+
+		int getInt(int i, int value) {
+			int f = field(i);
+			return f == 0 ? value : bb.getInt(f);
+		}
+
+		short getShort(int i, short value) {
+			int f = field(i);
+			return f == 0 ? value : bb.getShort(f);
+		}
+
+		byte getByte(int i, byte value) {
+			int f = field(i);
+			return f == 0 ? value : bb.get(f);
+		}
+
+		boolean getBool(int i, boolean value) {
+			int f = field(i);
+			return f == 0 ? value : bb.get(f) != 0;
+		}
+
+		int indirect(int i) {
+			int f = field(i);
+			return f == 0 ? 0 : f + bb.getInt(f);
+		}
+
+		Table table(int i) {
+			int t = indirect(i);
+			return t == 0 ? null : new Table(bb, t);
+		}
+
+		String string(int i) {
+			int s = indirect(i);
+			if (s == 0) return null;
+			byte[] bytes = new byte[bb.getInt(s)];
+			for (int k=0; k<bytes.length; k++) bytes[k] = bb.get(s+4+k);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		int vectorLength(int i) {
+			int v = indirect(i);
+			return v == 0 ? 0 : bb.getInt(v);
+		}
+
+		Table vectorTable(int i, int k) {
+			int at = indirect(i) + 4 + 4*k;
+			return new Table(bb, at + bb.getInt(at));
+		}
+
+		// the j'th 8 byte value of the k'th struct in a vector of structs
+		long vectorStruct(int i, int k, int words, int j) {
+			return bb.getLong(indirect(i) + 4 + 8*(words*k + j));
+		}
+	}
+
+	// the values of a column as they are read from one or more record batches
+	private static final class Accumulator {
+		final String name;
+		final byte typeType;
+		final Long dictionaryId;
+		int bitWidth = 32;
+		boolean signed = true;
+		short precision = PRECISION_DOUBLE;
+		short dateUnit = DATE_DAY;
+		int indexBitWidth = 32;
+		List<String> levels;
+
+		int length = 0;
+		int[] ints = new int[0];
+		double[] doubles = new double[0];
+		Strings strings;
+
+		Accumulator(byte typeType) {
+			this.name = null;
+			this.typeType = typeType;
+			this.dictionaryId = null;
+			this.strings = new Strings();
+		}
+
+		Accumulator(Table field) throws IOException {
+			this.name = field.string(0);
+			this.typeType = field.getByte(2, (byte) 0);
+			Table type = field.table(3);
+			Table dictionary = field.table(4);
+			switch (typeType) {
+			case TYPE_INT:
+				bitWidth = type.getInt(0, 0);
+				signed = type.getBool(1, false);
+				break;
+			case TYPE_FLOATING_POINT:
+				precision = type.getShort(0, (short) 0);
+				if (precision != PRECISION_SINGLE && precision != PRECISION_DOUBLE) throw new IOException("Unsupported Arrow floating point precision in column: "+name);
+				break;
+			case TYPE_DATE:
+				dateUnit = type.getShort(0, DATE_MILLISECOND);
+				break;
+			case TYPE_NULL: case TYPE_BOOL: case TYPE_UTF8: case TYPE_LARGE_UTF8:
+				break;
+			default:
+				throw new IOException("Unsupported Arrow type "+typeType+" in column: "+name);
+			}
+			if (dictionary != null) {
+				if (typeType != TYPE_UTF8 && typeType != TYPE_LARGE_UTF8) throw new IOException("Only Arrow dictionaries of strings are supported, in column: "+name);
+				dictionaryId = dictionary.getLong(0, 0);
+				Table index = dictionary.table(1);
+				if (index != null) indexBitWidth = index.getInt(0, 32);
+			} else {
+				dictionaryId = null;
+				if (typeType == TYPE_UTF8 || typeType == TYPE_LARGE_UTF8) strings = new Strings();
+			}
+		}
+
+		boolean isDouble() {
+			return typeType == TYPE_FLOATING_POINT || (typeType == TYPE_INT && (bitWidth == 64 || (bitWidth == 32 && !signed)));
+		}
+
+		void grow(int n) {
+			if (isDouble()) {
+				if (doubles.length < length+n) doubles = Arrays.copyOf(doubles, Math.max(length+n, doubles.length*2));
+			} else if (typeType != TYPE_NULL && strings == null) {
+				if (ints.length < length+n) ints = Arrays.copyOf(ints, Math.max(length+n, ints.length*2));
+			}
+		}
+
+		RVector<?> vector() {
+			if (typeType == TYPE_NULL) return new RUntypedNaVector(length);
+			if (dictionaryId != null) {
+				return new RFactorVector(Arrays.copyOf(ints, length), levels == null ? new String[0] : levels.toArray(new String[levels.size()]));
+			}
+			if (strings != null) return RCharacterVector.wrap(Arrays.copyOf(strings.codes, length), strings.levels());
+			if (isDouble()) return RNumericVector.wrap(Arrays.copyOf(doubles, length));
+			int[] values = Arrays.copyOf(ints, length);
+			if (typeType == TYPE_BOOL) return RLogicalVector.wrap(values);
+			if (typeType == TYPE_DATE) return RDateVector.wrap(values);
+			return RIntegerVector.wrap(values);
+		}
+	}
+
+	// a dictionary encoded character vector
+	private static final class Strings {
+		int[] codes = new int[0];
+		int length = 0;
+		final List<String> levels = new ArrayList<>();
+		final HashMap<String,Integer> index = new HashMap<>();
+
+		void add(String value) {
+			if (codes.length == length) codes = Arrays.copyOf(codes, Math.max(16, codes.length*2));
+			if (value == null) {
+				codes[length++] = NA_INTEGER;
+			} else {
+				Integer code = index.get(value);
+				if (code == null) {
+					levels.add(value);
+					code = levels.size();
+					index.put(value, code);
+				}
+				codes[length++] = code;
+			}
+		}
+
+		String[] levels() {
+			return levels.toArray(new String[levels.size()]);
+		}
+
+		String[] values() {
+			String[] out = new String[length];
+			for (int i=0; i<length; i++) out[i] = codes[i] == NA_INTEGER ? null : levels.get(codes[i]-1);
+			return out;
+		}
+	}
+
+	// reads the columns of a record batch in order, consuming its field nodes and buffers
+	private static final class BatchReader {
+		final Table batch;
+		final ByteBuffer body;
+		final int length;
+		final boolean compressed;
+		int node = 0;
+		int buffer = 0;
+		byte[] scratch = new byte[256];
+
+		BatchReader(Table batch, ByteBuffer body) throws IOException {
+			Table compression = batch.table(3);
+			if (compression != null) {
+				byte codec = compression.getByte(0, CODEC_LZ4_FRAME);
+				if (codec == CODEC_ZSTD) throw new IOException("ZSTD compressed Arrow data is not supported, write it with compression = \"lz4\" or \"uncompressed\"");
+				if (codec != CODEC_LZ4_FRAME) throw new IOException("Unsupported Arrow compression codec: "+codec);
+				if (compression.getByte(1, METHOD_BUFFER) != METHOD_BUFFER) throw new IOException("Unsupported Arrow compression method: "+compression.getByte(1, METHOD_BUFFER));
+			}
+			this.compressed = compression != null;
+			this.batch = batch;
+			this.body = body;
+			this.length = (int) batch.getLong(0, 0);
+		}
+
+		ByteBuffer buffer() throws IOException {
+			long offset = batch.vectorStruct(2, buffer, 2, 0);
+			long length = batch.vectorStruct(2, buffer, 2, 1);
+			buffer++;
+			ByteBuffer out = body.duplicate();
+			out.position((int) offset);
+			out.limit((int) (offset + length));
+			out = out.slice().order(ByteOrder.LITTLE_ENDIAN);
+			if (!compressed || length == 0) return out;
+			// a compressed buffer starts with its uncompressed length, which is -1 if it was left uncompressed
+			long raw = out.getLong(0);
+			out.position(8);
+			if (raw == -1) return out.slice().order(ByteOrder.LITTLE_ENDIAN);
+			if (raw > Integer.MAX_VALUE) throw new IOException("Arrow buffer too large: "+raw);
+			return ByteBuffer.wrap(lz4Frame(out, (int) raw)).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		void read(Accumulator c) throws IOException {
+			int n = (int) batch.vectorStruct(1, node, 2, 0);
+			long nulls = batch.vectorStruct(1, node, 2, 1);
+			node++;
+			if (c.typeType == TYPE_NULL) {
+				c.length += n;
+				return;
+			}
+			ByteBuffer validity = buffer();
+			boolean[] na = new boolean[n];
+			if (nulls > 0 && validity.limit() > 0) {
+				for (int i=0; i<n; i++) na[i] = (validity.get(i >> 3) & (1 << (i & 7))) == 0;
+			}
+			ByteBuffer values = buffer();
+			c.grow(n);
+			int at = c.length;
+			if (c.dictionaryId != null) {
+				for (int i=0; i<n; i++) {
+					int index = c.indexBitWidth == 8 ? values.get(i) : c.indexBitWidth == 16 ? values.getShort(2*i) : (int) (c.indexBitWidth == 64 ? values.getLong(8*i) : values.getInt(4*i));
+					c.ints[at+i] = na[i] ? NA_INTEGER : index+1;
+				}
+			} else if (c.strings != null) {
+				ByteBuffer data = buffer();
+				boolean large = c.typeType == TYPE_LARGE_UTF8;
+				for (int i=0; i<n; i++) {
+					if (na[i]) {
+						c.strings.add(null);
+						continue;
+					}
+					int from = (int) (large ? values.getLong(8*i) : values.getInt(4*i));
+					int to = (int) (large ? values.getLong(8*i+8) : values.getInt(4*i+4));
+					if (scratch.length < to-from) scratch = new byte[Math.max(to-from, scratch.length*2)];
+					data.position(from);
+					data.get(scratch, 0, to-from);
+					c.strings.add(new String(scratch, 0, to-from, StandardCharsets.UTF_8));
+				}
+			} else if (c.isDouble()) {
+				for (int i=0; i<n; i++) {
+					double value;
+					if (c.typeType == TYPE_FLOATING_POINT) value = c.precision == PRECISION_SINGLE ? values.getFloat(4*i) : values.getDouble(8*i);
+					else if (c.bitWidth == 64) value = c.signed ? values.getLong(8*i) : unsigned(values.getLong(8*i));
+					else value = values.getInt(4*i) & 0xFFFFFFFFL;
+					c.doubles[at+i] = na[i] ? Double.longBitsToDouble(NA_REAL_BITS) : value;
+				}
+			} else if (c.typeType == TYPE_BOOL) {
+				for (int i=0; i<n; i++) c.ints[at+i] = na[i] ? NA_INTEGER : (values.get(i >> 3) >> (i & 7)) & 1;
+			} else if (c.typeType == TYPE_DATE) {
+				for (int i=0; i<n; i++) {
+					c.ints[at+i] = na[i] ? NA_INTEGER : c.dateUnit == DATE_DAY ? values.getInt(4*i) : (int) Math.floorDiv(values.getLong(8*i), 86400000L);
+				}
+			} else {
+				for (int i=0; i<n; i++) {
+					int value;
+					switch (c.bitWidth) {
+					case 8: value = c.signed ? values.get(i) : values.get(i) & 0xFF; break;
+					case 16: value = c.signed ? values.getShort(2*i) : values.getShort(2*i) & 0xFFFF; break;
+					case 32: value = values.getInt(4*i); break;
+					default: throw new IOException("Unsupported Arrow integer width "+c.bitWidth+" in column: "+c.name);
+					}
+					c.ints[at+i] = na[i] ? NA_INTEGER : value;
+				}
+			}
+			c.length += n;
+		}
+
+		static double unsigned(long value) {
+			return value >= 0 ? value : (double) (value >>> 1) * 2 + (value & 1);
+		}
+	}
+
+	// LZ4
+
+	/*
+	 * Decompresses LZ4 frames (https://github.com/lz4/lz4/blob/dev/doc/lz4_Frame_format.md) into an array of
+	 * the expected length. The optional checksums are skipped rather than verified. Blocks are decoded into the one
+	 * output array, so matches in linked blocks can refer back into earlier blocks.
+	 */
+	static byte[] lz4Frame(ByteBuffer in, int length) throws IOException {
+		in = in.slice().order(ByteOrder.LITTLE_ENDIAN);
+		byte[] out = new byte[length];
+		int o = 0;
+		try {
+			while (in.hasRemaining()) {
+				int magic = in.getInt();
+				if ((magic & 0xFFFFFFF0) == LZ4_SKIPPABLE_MAGIC) {
+					int size = in.getInt();
+					in.position(in.position()+size);
+					continue;
+				}
+				if (magic != LZ4_MAGIC) throw new IOException("Corrupt Arrow data: buffer is not an LZ4 frame");
+				byte flags = in.get();
+				if ((flags & 0xC0) != 0x40) throw new IOException("Unsupported LZ4 frame version");
+				in.get();
+				if ((flags & 0x08) != 0) in.getLong();
+				if ((flags & 0x01) != 0) in.getInt();
+				in.get();
+				while (true) {
+					int size = in.getInt();
+					if (size == 0) break;
+					int n = size & 0x7FFFFFFF;
+					if (size < 0) {
+						// the block is stored uncompressed
+						in.get(out, o, n);
+						o += n;
+					} else {
+						ByteBuffer block = in.slice();
+						block.limit(n);
+						o = lz4Block(block, out, o);
+						in.position(in.position()+n);
+					}
+					if ((flags & 0x10) != 0) in.getInt();
+				}
+				if ((flags & 0x04) != 0) in.getInt();
+			}
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IOException("Corrupt Arrow data: truncated LZ4 frame", e);
+		}
+		if (o != length) throw new IOException("Corrupt Arrow data: LZ4 frame is "+o+" bytes, expected "+length);
+		return out;
+	}
+
+	// decodes the sequences of one LZ4 block into the output from position o, returning the new position
+	private static int lz4Block(ByteBuffer in, byte[] out, int o) throws IOException {
+		while (in.hasRemaining()) {
+			int token = in.get() & 0xFF;
+			int literals = lz4Length(in, token >>> 4);
+			in.get(out, o, literals);
+			o += literals;
+			// the last sequence of a block has only literals
+			if (!in.hasRemaining()) break;
+			int offset = (in.get() & 0xFF) | (in.get() & 0xFF) << 8;
+			int match = lz4Length(in, token & 0x0F) + 4;
+			if (offset == 0 || offset > o || o + match > out.length) throw new IOException("Corrupt Arrow data: invalid LZ4 match");
+			if (offset >= match) {
+				System.arraycopy(out, o-offset, out, o, match);
+				o += match;
+			} else {
+				// overlapping matches repeat the most recent bytes, so are copied one at a time
+				for (int k=0; k<match; k++, o++) out[o] = out[o-offset];
+			}
+		}
+		return o;
+	}
+
+	// a literal or match length, which continues into following bytes when the 4 bit value in the token is 15
+	private static int lz4Length(ByteBuffer in, int length) {
+		if (length == 15) {
+			int b;
+			do {
+				b = in.get() & 0xFF;
+				length += b;
+			} while (b == 255);
+		}
+		return length;
+	}
+}
@@ -0,0 +1,706 @@
+package uk.co.terminological.rjava.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import uk.co.terminological.rjava.RMetrics;
+import uk.co.terminological.rjava.types.RCharacterVector;
+import uk.co.terminological.rjava.types.RDataframe;
+import uk.co.terminological.rjava.types.RDateVector;
+import uk.co.terminological.rjava.types.RFactorVector;
+import uk.co.terminological.rjava.types.RFile;
+import uk.co.terminological.rjava.types.RIntegerVector;
+import uk.co.terminological.rjava.types.RList;
+import uk.co.terminological.rjava.types.RLogicalVector;
+import uk.co.terminological.rjava.types.RNamedList;
+import uk.co.terminological.rjava.types.RNull;
+import uk.co.terminological.rjava.types.RNumericArray;
+import uk.co.terminological.rjava.types.RNumericVector;
+import uk.co.terminological.rjava.types.RObject;
+import uk.co.terminological.rjava.types.RPrimitive;
+import uk.co.terminological.rjava.types.RUntypedNaVector;
+import uk.co.terminological.rjava.types.RVector;
+
+/**
+ * A versioned columnar binary format for {@link uk.co.terminological.rjava.types.RObject}s, used by
+ * {@link uk.co.terminological.rjava.types.RObject#writeRDS(java.io.FileOutputStream)} in place of java serialisation.
+ *
+ * Vectors are written as their backing primitive arrays (with R's sentinel NA values) in contiguous blocks, and character
+ * vectors and factors as a pool of distinct strings and an array of integer codes, so nothing is boxed on either side.
+ * Dataframes, lists and named lists are written as a tree of these vectors. Any other RObject is embedded using java
+ * serialisation.
+ *
+ * The file starts with the magic bytes "RJCF" and a format version. All numbers are little endian and each block of
+ * array data is at most {@link #BLOCK_BYTES} long, starts at an 8 byte boundary, and is optionally compressed. Files
+ * read from a {@link java.nio.file.Path} are memory mapped and uncompressed blocks are copied straight from the mapped
+ * file into the arrays of the new vectors.
+ *
+ * @author terminological
+ * @version $Id: $Id
+ */
+public class RColumnarFormat {
+
+	/**
+	 * Compression of the blocks of array data. The codec is recorded per block, so blocks that do not compress are
+	 * stored as they are.
+	 */
+	public static enum Compression {
+		/** Blocks are stored uncompressed, which is fastest to read from a memory mapped file */
+		NONE,
+		/** Blocks are compressed with deflate at its fastest setting */
+		DEFLATE
+	}
+
+	/** The format version written by this class. Files with a later version cannot be read. */
+	public static final int VERSION = 1;
+
+	/** The maximum size of a block of array data in bytes */
+	public static final int BLOCK_BYTES = 1 << 20;
+
+	private static final byte[] MAGIC = {'R','J','C','F'};
+	private static final int ALIGN = 8;
+	private static final int BUFFER = 1 << 16;
+	// below this compression is not worth the block overhead
+	private static final int MIN_COMPRESSED = 256;
+
+	// node types
+	private static final byte NULL = 0;
+	private static final byte NUMERIC = 1;
+	private static final byte INTEGER = 2;
+	private static final byte LOGICAL = 3;
+	private static final byte DATE = 4;
+	private static final byte CHARACTER = 5;
+	private static final byte FACTOR = 6;
+	private static final byte UNTYPED_NA = 7;
+	private static final byte LIST = 8;
+	private static final byte NAMED_LIST = 9;
+	private static final byte DATAFRAME = 10;
+	private static final byte SCALAR = 11;
+	private static final byte NUMERIC_ARRAY = 12;
+	private static final byte FILE = 13;
+	private static final byte JAVA = 14;
+
+	// block codecs
+	private static final byte RAW = 0;
+	private static final byte DEFLATED = 1;
+
+	private static final RMetrics.Metric WRITE = RMetrics.metric("RColumnarFormat.write");
+	private static final RMetrics.Metric READ = RMetrics.metric("RColumnarFormat.read");
+
+	private RColumnarFormat() {}
+
+	// PUBLIC API
+
+	/**
+	 * Write an object to a channel. The channel is not closed.
+	 *
+	 * @param object the object to write
+	 * @param channel the destination
+	 * @param compression the compression of array data
+	 * @throws java.io.IOException if the channel cannot be written to
+	 */
+	public static void write(RObject object, WritableByteChannel channel, Compression compression) throws IOException {
+		long start = RMetrics.start();
+		try (Output out = new Output(channel, compression)) {
+			out.put(MAGIC, 0, MAGIC.length);
+			out.putInt(VERSION);
+			out.node(object);
+			out.flush();
+			WRITE.stop(start, out.position());
+		}
+	}
+
+	/**
+	 * Write an object to a file, replacing any existing file.
+	 *
+	 * @param object the object to write
+	 * @param path the destination
+	 * @param compression the compression of array data
+	 * @throws java.io.IOException if the file cannot be written
+	 */
+	public static void write(RObject object, Path path, Compression compression) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			write(object, channel, compression);
+		}
+	}
+
+	/**
+	 * Read an object from a channel. Reading stops at the end of the object, and the channel is not closed.
+	 *
+	 * @param clazz the expected type of the object
+	 * @param channel the source
+	 * @param <X> the type of the object
+	 * @return the object
+	 * @throws java.io.IOException if the data is not in this format, or is not of the expected type
+	 */
+	public static <X extends RObject> X read(Class<X> clazz, ReadableByteChannel channel) throws IOException {
+		try (Input in = new Input(channel)) {
+			return read(clazz, in);
+		}
+	}
+
+	/**
+	 * Read an object from a file. Files smaller than 2Gb are memory mapped rather than read through a buffer.
+	 *
+	 * @param clazz the expected type of the object
+	 * @param path the source
+	 * @param <X> the type of the object
+	 * @return the object
+	 * @throws java.io.IOException if the file is not in this format, or is not of the expected type
+	 */
+	public static <X extends RObject> X read(Class<X> clazz, Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) return read(clazz, channel);
+			// the mapping remains valid after the channel is closed
+			try (Input in = new Input(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()))) {
+				return read(clazz, in);
+			}
+		}
+	}
+
+	/**
+	 * Whether a stream starts with the magic bytes of this format. The stream is reset to where it started.
+	 *
+	 * @param is a stream that supports mark and reset
+	 * @return true if the stream is in this format
+	 * @throws java.io.IOException if the stream cannot be read
+	 */
+	public static boolean isColumnar(InputStream is) throws IOException {
+		if (!is.markSupported()) throw new IOException("Stream must support mark and reset");
+		is.mark(MAGIC.length);
+		try {
+			byte[] tmp = new byte[MAGIC.length];
+			int n = 0;
+			while (n < tmp.length) {
+				int r = is.read(tmp, n, tmp.length-n);
+				if (r < 0) return false;
+				n += r;
+			}
+			return Arrays.equals(tmp, MAGIC);
+		} finally {
+			is.reset();
+		}
+	}
+
+	private static <X extends RObject> X read(Class<X> clazz, Input in) throws IOException {
+		long start = RMetrics.start();
+		byte[] magic = new byte[MAGIC.length];
+		in.get(magic, 0, magic.length);
+		if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not in the columnar format: "+clazz.getCanonicalName());
+		int version = in.getInt();
+		if (version > VERSION) throw new IOException("Columnar format version "+version+" is later than supported version "+VERSION);
+		RObject out = in.node();
+		READ.stop(start, in.position());
+		if (!clazz.isInstance(out)) throw new IOException("Could not read class: "+clazz.getCanonicalName()+", found: "+out.getClass().getCanonicalName());
+		return clazz.cast(out);
+	}
+
+	// WRITING
+
+	// closing an Output or Input releases the native memory of the codec, but not the channel
+	private static class Output implements Closeable {
+
+		final WritableByteChannel channel;
+		final Compression compression;
+		final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+		// the raw and compressed content of the current block
+		ByteBuffer block;
+		byte[] compressed;
+		Deflater deflater;
+		long written = 0;
+
+		Output(WritableByteChannel channel, Compression compression) {
+			this.channel = channel;
+			this.compression = compression;
+		}
+
+		long position() {
+			return written + buf.position();
+		}
+
+		@Override
+		public void close() {
+			if (deflater != null) deflater.end();
+			deflater = null;
+		}
+
+		void flush() throws IOException {
+			buf.flip();
+			while (buf.hasRemaining()) written += channel.write(buf);
+			buf.clear();
+		}
+
+		void ensure(int n) throws IOException {
+			if (buf.remaining() < n) flush();
+		}
+
+		void putByte(byte b) throws IOException {
+			ensure(1);
+			buf.put(b);
+		}
+
+		void putInt(int i) throws IOException {
+			ensure(4);
+			buf.putInt(i);
+		}
+
+		void put(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				ensure(1);
+				int k = Math.min(length, buf.remaining());
+				buf.put(bytes, offset, k);
+				offset += k;
+				length -= k;
+			}
+		}
+
+		void putString(String s) throws IOException {
+			if (s == null) {
+				putInt(-1);
+			} else {
+				byte[] tmp = s.getBytes(StandardCharsets.UTF_8);
+				putInt(tmp.length);
+				put(tmp, 0, tmp.length);
+			}
+		}
+
+		void pad() throws IOException {
+			while (position() % ALIGN != 0) putByte((byte) 0);
+		}
+
+		// a block is a codec, the raw and stored lengths, padding to the alignment, and the stored bytes
+		ByteBuffer startBlock() {
+			if (block == null) block = ByteBuffer.allocate(BLOCK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			block.clear();
+			return block;
+		}
+
+		void endBlock(int rawLength) throws IOException {
+			byte[] stored = block.array();
+			int storedLength = rawLength;
+			byte codec = RAW;
+			if (compression == Compression.DEFLATE && rawLength >= MIN_COMPRESSED) {
+				if (deflater == null) {
+					deflater = new Deflater(Deflater.BEST_SPEED);
+					compressed = new byte[BLOCK_BYTES];
+				}
+				deflater.reset();
+				deflater.setInput(stored, 0, rawLength);
+				deflater.finish();
+				int length = deflater.deflate(compressed);
+				// incompressible blocks are left as they are
+				if (deflater.finished() && length < rawLength) {
+					stored = compressed;
+					storedLength = length;
+					codec = DEFLATED;
+				}
+			}
+			putByte(codec);
+			putInt(rawLength);
+			putInt(storedLength);
+			pad();
+			put(stored, 0, storedLength);
+		}
+
+		void doubles(double[] values, int length) throws IOException {
+			putInt(length);
+			for (int i=0; i<length;) {
+				int k = Math.min(length-i, BLOCK_BYTES/8);
+				startBlock().asDoubleBuffer().put(values, i, k);
+				endBlock(k*8);
+				i += k;
+			}
+		}
+
+		void ints(int[] values, int length) throws IOException {
+			putInt(length);
+			for (int i=0; i<length;) {
+				int k = Math.min(length-i, BLOCK_BYTES/4);
+				startBlock().asIntBuffer().put(values, i, k);
+				endBlock(k*4);
+				i += k;
+			}
+		}
+
+		void bytes(byte[] values, int length) throws IOException {
+			putInt(length);
+			for (int i=0; i<length;) {
+				int k = Math.min(length-i, BLOCK_BYTES);
+				startBlock().put(values, i, k);
+				endBlock(k);
+				i += k;
+			}
+		}
+
+		// a pool of strings is written as an array of their lengths and an array of their concatenated UTF-8 bytes
+		void strings(String[] values) throws IOException {
+			int[] lengths = new int[values.length];
+			ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+			for (int i=0; i<values.length; i++) {
+				if (values[i] == null) {
+					lengths[i] = -1;
+				} else {
+					byte[] b = values[i].getBytes(StandardCharsets.UTF_8);
+					lengths[i] = b.length;
+					tmp.write(b, 0, b.length);
+				}
+			}
+			ints(lengths, lengths.length);
+			bytes(tmp.toByteArray(), tmp.size());
+		}
+
+		void node(RObject o) throws IOException {
+			if (o == null || o instanceof RNull) {
+				putByte(NULL);
+			} else if (o instanceof RDataframe) {
+				RDataframe df = (RDataframe) o;
+				putByte(DATAFRAME);
+				putInt(df.ncol());
+				for (Map.Entry<String,RVector<? extends RPrimitive>> col: df.entrySet()) {
+					putString(col.getKey());
+					node(col.getValue());
+				}
+				String[] groups = df.getGroups();
+				putInt(groups.length);
+				for (String group: groups) putString(group);
+			} else if (o instanceof RNumericVector) {
+				putByte(NUMERIC);
+				RNumericVector v = (RNumericVector) o;
+				doubles(v.unsafeArray(), v.size());
+			} else if (o instanceof RIntegerVector) {
+				putByte(INTEGER);
+				RIntegerVector v = (RIntegerVector) o;
+				ints(v.unsafeArray(), v.size());
+			} else if (o instanceof RLogicalVector) {
+				putByte(LOGICAL);
+				RLogicalVector v = (RLogicalVector) o;
+				ints(v.unsafeArray(), v.size());
+			} else if (o instanceof RDateVector) {
+				putByte(DATE);
+				RDateVector v = (RDateVector) o;
+				ints(v.unsafeArray(), v.size());
+			} else if (o instanceof RCharacterVector) {
+				putByte(CHARACTER);
+				RCharacterVector v = (RCharacterVector) o;
+				strings(v.rLevels());
+				ints(v.unsafeArray(), v.size());
+			} else if (o instanceof RFactorVector) {
+				putByte(FACTOR);
+				RFactorVector v = (RFactorVector) o;
+				strings(v.rLevels());
+				int[] codes = v.rValues();
+				ints(codes, codes.length);
+			} else if (o instanceof RUntypedNaVector) {
+				putByte(UNTYPED_NA);
+				putInt(((RUntypedNaVector) o).size());
+			} else if (o instanceof RNumericArray) {
+				putByte(NUMERIC_ARRAY);
+				RNumericArray a = (RNumericArray) o;
+				int[] dims = a.rDim();
+				ints(dims, dims.length);
+				double[] values = a.rPrimitive();
+				doubles(values, values.length);
+			} else if (o instanceof RList) {
+				RList l = (RList) o;
+				putByte(LIST);
+				putInt(l.size());
+				for (RObject item: l) node(item);
+			} else if (o instanceof RNamedList) {
+				RNamedList l = (RNamedList) o;
+				putByte(NAMED_LIST);
+				putInt(l.size());
+				for (Map.Entry<String,RObject> item: l.entrySet()) {
+					putString(item.getKey());
+					node(item.getValue());
+				}
+			} else if (o instanceof RFile) {
+				putByte(FILE);
+				RFile f = (RFile) o;
+				putString(f.isNa() ? null : f.get().toString());
+			} else if (o instanceof RPrimitive) {
+				// single values are written as a vector of length one
+				putByte(SCALAR);
+				node(RVector.padded((RPrimitive) o, 1));
+			} else {
+				putByte(JAVA);
+				ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+				try (ObjectOutputStream oos = new ObjectOutputStream(tmp)) {
+					oos.writeObject(o);
+				}
+				bytes(tmp.toByteArray(), tmp.size());
+			}
+		}
+	}
+
+	// READING
+
+	private static class Input implements Closeable {
+
+		// null when reading from a memory mapped file, in which case buf holds the whole file
+		final ReadableByteChannel channel;
+		final ByteBuffer buf;
+		// the position in the stream of the start of buf
+		long base = 0;
+		// holds the content of a block that has been read from the channel or inflated
+		ByteBuffer block;
+		byte[] stored;
+		Inflater inflater;
+
+		Input(ReadableByteChannel channel) {
+			this.channel = channel;
+			this.buf = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+			this.buf.flip();
+		}
+
+		Input(ByteBuffer mapped) {
+			this.channel = null;
+			this.buf = mapped.order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		long position() {
+			return base + buf.position();
+		}
+
+		@Override
+		public void close() {
+			if (inflater != null) inflater.end();
+			inflater = null;
+		}
+
+		void ensure(int n) throws IOException {
+			if (buf.remaining() >= n) return;
+			if (channel == null) throw new EOFException("Unexpected end of columnar data");
+			base += buf.position();
+			buf.compact();
+			while (buf.position() < n) {
+				if (channel.read(buf) < 0) throw new EOFException("Unexpected end of columnar data");
+			}
+			buf.flip();
+		}
+
+		byte getByte() throws IOException {
+			ensure(1);
+			return buf.get();
+		}
+
+		int getInt() throws IOException {
+			ensure(4);
+			return buf.getInt();
+		}
+
+		// the length of an array, which is checked to make sure that a corrupt file does not cause a huge allocation
+		int getLength() throws IOException {
+			int n = getInt();
+			if (n < 0) throw new IOException("Corrupt columnar data: negative length at "+position());
+			return n;
+		}
+
+		void get(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				ensure(1);
+				int k = Math.min(length, buf.remaining());
+				buf.get(bytes, offset, k);
+				offset += k;
+				length -= k;
+			}
+		}
+
+		String getString() throws IOException {
+			int n = getInt();
+			if (n < 0) return null;
+			byte[] tmp = new byte[n];
+			get(tmp, 0, n);
+			return new String(tmp, StandardCharsets.UTF_8);
+		}
+
+		void skipPadding() throws IOException {
+			while (position() % ALIGN != 0) getByte();
+		}
+
+		// the content of the next block positioned at its start, which is only valid until the next block is read
+		ByteBuffer nextBlock() throws IOException {
+			byte codec = getByte();
+			int rawLength = getInt();
+			int storedLength = getInt();
+			if (rawLength < 0 || rawLength > BLOCK_BYTES || storedLength < 0 || storedLength > BLOCK_BYTES) throw new IOException("Corrupt columnar data: block length at "+position());
+			skipPadding();
+			ByteBuffer content;
+			if (channel == null) {
+				// a view of the mapped file
+				if (buf.remaining() < storedLength) throw new EOFException("Unexpected end of columnar data");
+				content = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+				content.limit(content.position()+storedLength);
+				buf.position(buf.position()+storedLength);
+			} else {
+				if (stored == null) stored = new byte[BLOCK_BYTES];
+				get(stored, 0, storedLength);
+				content = ByteBuffer.wrap(stored, 0, storedLength).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			if (codec == RAW) return content;
+			if (codec != DEFLATED) throw new IOException("Unsupported columnar block codec: "+codec);
+			if (inflater == null) {
+				inflater = new Inflater();
+				block = ByteBuffer.allocate(BLOCK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			inflater.reset();
+			if (content.hasArray()) {
+				inflater.setInput(content.array(), content.arrayOffset()+content.position(), content.remaining());
+			} else {
+				byte[] tmp = new byte[content.remaining()];
+				content.get(tmp);
+				inflater.setInput(tmp);
+			}
+			try {
+				int n = 0;
+				while (n < rawLength && !inflater.finished() && !inflater.needsInput()) n += inflater.inflate(block.array(), n, rawLength-n);
+				if (n != rawLength) throw new IOException("Corrupt columnar data: compressed block at "+position());
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt columnar data: compressed block at "+position(), e);
+			}
+			block.clear();
+			block.limit(rawLength);
+			return block;
+		}
+
+		double[] doubles() throws IOException {
+			int n = getLength();
+			double[] out = new double[n];
+			for (int i=0; i<n;) {
+				ByteBuffer b = nextBlock();
+				int k = b.remaining()/8;
+				if (k == 0 || i+k > n) throw new IOException("Corrupt columnar data: block size at "+position());
+				b.asDoubleBuffer().get(out, i, k);
+				i += k;
+			}
+			return out;
+		}
+
+		int[] ints() throws IOException {
+			int n = getLength();
+			int[] out = new int[n];
+			for (int i=0; i<n;) {
+				ByteBuffer b = nextBlock();
+				int k = b.remaining()/4;
+				if (k == 0 || i+k > n) throw new IOException("Corrupt columnar data: block size at "+position());
+				b.asIntBuffer().get(out, i, k);
+				i += k;
+			}
+			return out;
+		}
+
+		byte[] bytes() throws IOException {
+			int n = getLength();
+			byte[] out = new byte[n];
+			for (int i=0; i<n;) {
+				ByteBuffer b = nextBlock();
+				int k = b.remaining();
+				if (k == 0 || i+k > n) throw new IOException("Corrupt columnar data: block size at "+position());
+				b.get(out, i, k);
+				i += k;
+			}
+			return out;
+		}
+
+		String[] strings() throws IOException {
+			int[] lengths = ints();
+			byte[] data = bytes();
+			String[] out = new String[lengths.length];
+			int offset = 0;
+			for (int i=0; i<lengths.length; i++) {
+				if (lengths[i] < 0) continue;
+				if (offset+lengths[i] > data.length) throw new IOException("Corrupt columnar data: string pool at "+position());
+				out[i] = new String(data, offset, lengths[i], StandardCharsets.UTF_8);
+				offset += lengths[i];
+			}
+			return out;
+		}
+
+		RObject node() throws IOException {
+			byte type = getByte();
+			switch (type) {
+			case NULL: return new RNull();
+			case NUMERIC: return RNumericVector.wrap(doubles());
+			case INTEGER: return RIntegerVector.wrap(ints());
+			case LOGICAL: return RLogicalVector.wrap(ints());
+			case DATE: return RDateVector.wrap(ints());
+			case CHARACTER: {
+				String[] levels = strings();
+				return RCharacterVector.wrap(ints(), levels);
+			}
+			case FACTOR: {
+				String[] levels = strings();
+				return new RFactorVector(ints(), levels);
+			}
+			case UNTYPED_NA: return new RUntypedNaVector(getLength());
+			case NUMERIC_ARRAY: {
+				int[] dims = ints();
+				return new RNumericArray(doubles(), dims);
+			}
+			case DATAFRAME: {
+				RDataframe out = new RDataframe();
+				int ncol = getLength();
+				for (int i=0; i<ncol; i++) {
+					String name = getString();
+					out.addCol(name, vector(node()));
+				}
+				String[] groups = new String[getLength()];
+				for (int i=0; i<groups.length; i++) groups[i] = getString();
+				return out.groupBy(groups);
+			}
+			case LIST: {
+				RList out = new RList();
+				int n = getLength();
+				for (int i=0; i<n; i++) out.add(node());
+				return out;
+			}
+			case NAMED_LIST: {
+				RNamedList out = new RNamedList();
+				int n = getLength();
+				for (int i=0; i<n; i++) {
+					String name = getString();
+					out.put(name, node());
+				}
+				return out;
+			}
+			case SCALAR: return vector(node()).get(0);
+			case FILE: {
+				String path = getString();
+				return path == null ? RFile.NA : new RFile(Paths.get(path));
+			}
+			case JAVA: {
+				try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes()))) {
+					return (RObject) ois.readObject();
+				} catch (ClassNotFoundException | ClassCastException e) {
+					throw new IOException("Could not read embedded java object", e);
+				}
+			}
+			default: throw new IOException("Corrupt columnar data: unknown node type "+type+" at "+position());
+			}
+		}
+
+		RVector<?> vector(RObject o) throws IOException {
+			if (!(o instanceof RVector)) throw new IOException("Corrupt columnar data: expected a vector but found "+o.getClass().getSimpleName());
+			return (RVector<?>) o;
+		}
+	}
+}
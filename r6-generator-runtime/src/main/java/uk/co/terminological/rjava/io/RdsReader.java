@@ -0,0 +1,695 @@
+package uk.co.terminological.rjava.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import uk.co.terminological.rjava.RMetrics;
+import uk.co.terminological.rjava.types.RCharacterVector;
+import uk.co.terminological.rjava.types.RDataframe;
+import uk.co.terminological.rjava.types.RDateVector;
+import uk.co.terminological.rjava.types.RFactorVector;
+import uk.co.terminological.rjava.types.RIntegerVector;
+import uk.co.terminological.rjava.types.RList;
+import uk.co.terminological.rjava.types.RLogicalVector;
+import uk.co.terminological.rjava.types.RNamedList;
+import uk.co.terminological.rjava.types.RNull;
+import uk.co.terminological.rjava.types.RNumericArray;
+import uk.co.terminological.rjava.types.RNumericVector;
+import uk.co.terminological.rjava.types.RObject;
+import uk.co.terminological.rjava.types.RPrimitive;
+import uk.co.terminological.rjava.types.RVector;
+
+/**
+ * Reads RDS files written by R's saveRDS() (XDR format, version 2 or 3, uncompressed or gzipped) into
+ * {@link uk.co.terminological.rjava.types.RObject}s, building the primitive arrays of the vectors directly from
+ * the file without any data passing through rJava.
+ *
+ * R objects are converted as the generated R to java conversions would convert them:
+ * <ul>
+ * <li>data frames (including tibbles and grouped_df) - an RDataframe, with the dplyr grouping</li>
+ * <li>numeric, integer, logical and character vectors - the corresponding RVector. Character vectors are dictionary encoded as they are read.</li>
+ * <li>factors - an RFactorVector</li>
+ * <li>Date and POSIXct vectors - an RDateVector</li>
+ * <li>numeric arrays and matrices - an RNumericArray</li>
+ * <li>lists - an RNamedList if they have names, or an RList, with values of length one as single values</li>
+ * <li>NULL - RNull</li>
+ * </ul>
+ *
+ * Compact sequences, wrappers and deferred strings, which R serialises in their ALTREP form, are expanded. Other
+ * objects (e.g. functions and environments) are skipped if they are attributes, and are otherwise an error.
+ *
+ * @author terminological
+ * @version $Id: $Id
+ */
+public class RdsReader {
+
+	// SEXP types and special values from R's serialize.c
+	static final int NILSXP = 0;
+	static final int SYMSXP = 1;
+	static final int LISTSXP = 2;
+	static final int CLOSXP = 3;
+	static final int ENVSXP = 4;
+	static final int PROMSXP = 5;
+	static final int LANGSXP = 6;
+	static final int SPECIALSXP = 7;
+	static final int BUILTINSXP = 8;
+	static final int CHARSXP = 9;
+	static final int LGLSXP = 10;
+	static final int INTSXP = 13;
+	static final int REALSXP = 14;
+	static final int CPLXSXP = 15;
+	static final int STRSXP = 16;
+	static final int DOTSXP = 17;
+	static final int VECSXP = 19;
+	static final int EXPRSXP = 20;
+	static final int EXTPTRSXP = 22;
+	static final int WEAKREFSXP = 23;
+	static final int RAWSXP = 24;
+	static final int S4SXP = 25;
+
+	static final int REFSXP = 255;
+	static final int NILVALUE_SXP = 254;
+	static final int GLOBALENV_SXP = 253;
+	static final int UNBOUNDVALUE_SXP = 252;
+	static final int MISSINGARG_SXP = 251;
+	static final int BASENAMESPACE_SXP = 250;
+	static final int NAMESPACESXP = 249;
+	static final int PACKAGESXP = 248;
+	static final int PERSISTSXP = 247;
+	static final int EMPTYENV_SXP = 242;
+	static final int BASEENV_SXP = 241;
+	static final int ATTRLANGSXP = 240;
+	static final int ATTRLISTSXP = 239;
+	static final int ALTREP_SXP = 238;
+
+	static final int HAS_ATTR = 1 << 9;
+	static final int HAS_TAG = 1 << 10;
+	static final int BYTES_MASK = 1 << 1;
+	static final int LATIN1_MASK = 1 << 2;
+
+	static final int NA_INTEGER = Integer.MIN_VALUE;
+
+	private static final int BUFFER = 1 << 16;
+	private static final double SECONDS_PER_DAY = 86400;
+	private static final RMetrics.Metric READ = RMetrics.metric("RdsReader.read");
+
+	private final Input in;
+	private final List<Object> refs = new ArrayList<>();
+	private byte[] scratch = new byte[256];
+
+	private RdsReader(Input in) {
+		this.in = in;
+	}
+
+	/**
+	 * Read an RDS file. Uncompressed files smaller than 2Gb are memory mapped, and gzipped files are decompressed as
+	 * they are read. Files compressed with bzip2 or xz cannot be read.
+	 *
+	 * @param clazz the expected type of the object. If this is a single value then a vector of length one is accepted.
+	 * @param path the file written by saveRDS()
+	 * @param <X> the type of the object
+	 * @return the object
+	 * @throws java.io.IOException if the file cannot be read, or contains something that cannot be converted to the expected type
+	 */
+	public static <X extends RObject> X read(Class<X> clazz, Path path) throws IOException {
+		byte[] magic = new byte[2];
+		try (InputStream is = Files.newInputStream(path)) {
+			if (is.read(magic) < 2) throw new EOFException("Empty RDS file: "+path);
+		}
+		if (magic[0] == (byte) 0x1f && magic[1] == (byte) 0x8b) {
+			try (ReadableByteChannel channel = Channels.newChannel(new GZIPInputStream(Files.newInputStream(path), BUFFER))) {
+				return read(clazz, channel);
+			}
+		}
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) return read(clazz, channel);
+			return read(clazz, new Input(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+		}
+	}
+
+	/**
+	 * Read an uncompressed RDS stream.
+	 *
+	 * @param clazz the expected type of the object. If this is a single value then a vector of length one is accepted.
+	 * @param channel the source, which is not closed
+	 * @param <X> the type of the object
+	 * @return the object
+	 * @throws java.io.IOException if the stream cannot be read, or contains something that cannot be converted to the expected type
+	 */
+	public static <X extends RObject> X read(Class<X> clazz, ReadableByteChannel channel) throws IOException {
+		return read(clazz, new Input(channel));
+	}
+
+	private static <X extends RObject> X read(Class<X> clazz, Input in) throws IOException {
+		long start = RMetrics.start();
+		RdsReader reader = new RdsReader(in);
+		reader.header();
+		RObject out = reader.convert(reader.item(), false);
+		READ.stop(start, in.position());
+		if (RPrimitive.class.isAssignableFrom(clazz) && out instanceof RVector && ((RVector<?>) out).size() == 1) {
+			out = ((RVector<?>) out).get(0);
+		}
+		if (!clazz.isInstance(out)) throw new IOException("Could not read class: "+clazz.getCanonicalName()+", found: "+out.getClass().getCanonicalName());
+		return clazz.cast(out);
+	}
+
+	// INPUT
+
+	private static class Input {
+
+		// null when reading from a memory mapped file, in which case buf holds the whole file
+		final ReadableByteChannel channel;
+		final ByteBuffer buf;
+		// the position in the stream of the start of buf
+		long base = 0;
+
+		Input(ReadableByteChannel channel) {
+			this.channel = channel;
+			this.buf = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.BIG_ENDIAN);
+			this.buf.flip();
+		}
+
+		Input(ByteBuffer mapped) {
+			this.channel = null;
+			this.buf = mapped.order(ByteOrder.BIG_ENDIAN);
+		}
+
+		long position() {
+			return base + buf.position();
+		}
+
+		void ensure(int n) throws IOException {
+			if (buf.remaining() >= n) return;
+			if (channel == null) throw new EOFException("Unexpected end of RDS data");
+			base += buf.position();
+			buf.compact();
+			while (buf.position() < n) {
+				if (channel.read(buf) < 0) throw new EOFException("Unexpected end of RDS data");
+			}
+			buf.flip();
+		}
+
+		int getInt() throws IOException {
+			ensure(4);
+			return buf.getInt();
+		}
+
+		void get(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				ensure(1);
+				int k = Math.min(length, buf.remaining());
+				buf.get(bytes, offset, k);
+				offset += k;
+				length -= k;
+			}
+		}
+
+		void getInts(int[] values) throws IOException {
+			for (int i=0; i<values.length;) {
+				ensure(4);
+				int k = Math.min(values.length-i, buf.remaining()/4);
+				buf.asIntBuffer().get(values, i, k);
+				buf.position(buf.position()+k*4);
+				i += k;
+			}
+		}
+
+		void getDoubles(double[] values) throws IOException {
+			for (int i=0; i<values.length;) {
+				ensure(8);
+				int k = Math.min(values.length-i, buf.remaining()/8);
+				// the view buffer keeps the bit pattern of NA rather than normalising it to NaN
+				buf.asDoubleBuffer().get(values, i, k);
+				buf.position(buf.position()+k*8);
+				i += k;
+			}
+		}
+	}
+
+	// INTERMEDIATE REPRESENTATION
+
+	// an R vector with its data as a java array, whose conversion depends on its attributes
+	private static final class Vec {
+		final int type;
+		final Object data;
+		Map<String,Object> attributes = Collections.emptyMap();
+
+		Vec(int type, Object data) {
+			this.type = type;
+			this.data = data;
+		}
+
+		String[] strings(String attribute) {
+			Object tmp = attributes.get(attribute);
+			if (!(tmp instanceof Vec) || ((Vec) tmp).type != STRSXP) return null;
+			return ((Strings) ((Vec) tmp).data).values();
+		}
+
+		boolean inherits(String cls) {
+			String[] classes = strings("class");
+			return classes != null && Arrays.asList(classes).contains(cls);
+		}
+	}
+
+	// a dictionary encoded character vector
+	private static final class Strings {
+		final int[] codes;
+		final List<String> levels = new ArrayList<>();
+		final HashMap<String,Integer> index = new HashMap<>();
+
+		Strings(int length) {
+			codes = new int[length];
+		}
+
+		void set(int i, String value) {
+			if (value == null) {
+				codes[i] = NA_INTEGER;
+			} else {
+				Integer code = index.get(value);
+				if (code == null) {
+					levels.add(value);
+					code = levels.size();
+					index.put(value, code);
+				}
+				codes[i] = code;
+			}
+		}
+
+		String[] levels() {
+			return levels.toArray(new String[levels.size()]);
+		}
+
+		String[] values() {
+			String[] out = new String[codes.length];
+			for (int i=0; i<codes.length; i++) out[i] = codes[i] == NA_INTEGER ? null : levels.get(codes[i]-1);
+			return out;
+		}
+	}
+
+	private static final class Symbol {
+		final String name;
+		Symbol(String name) {this.name = name;}
+	}
+
+	// a tagged pairlist, which holds attributes and the details of ALTREP objects
+	private static final class Pairlist {
+		final List<String> tags = new ArrayList<>();
+		final List<Object> values = new ArrayList<>();
+	}
+
+	// anything without a java equivalent, which is only an error if its value is needed
+	private static final class Unsupported {
+		final String description;
+		Unsupported(String description) {this.description = description;}
+	}
+
+	// PARSING
+
+	private void header() throws IOException {
+		byte[] format = new byte[2];
+		in.get(format, 0, 2);
+		if (format[0] == 'R' && format[1] == 'D') throw new IOException("This is an RData file written by save(), not an RDS file");
+		if (format[0] != 'X' || format[1] != '\n') throw new IOException("Only RDS files in the default XDR format can be read");
+		int version = in.getInt();
+		if (version != 2 && version != 3) throw new IOException("Unsupported RDS serialisation version: "+version);
+		in.getInt(); // the version of R that wrote the file
+		in.getInt(); // the minimum version of R that can read it
+		if (version == 3) {
+			int n = in.getInt();
+			byte[] encoding = new byte[n];
+			in.get(encoding, 0, n);
+		}
+	}
+
+	private int length() throws IOException {
+		int n = in.getInt();
+		if (n == -1) {
+			long upper = in.getInt() & 0xFFFFFFFFL;
+			long lower = in.getInt() & 0xFFFFFFFFL;
+			long length = (upper << 32) | lower;
+			throw new IOException("R long vector of length "+length+" is too long for java");
+		}
+		if (n < 0) throw new IOException("Corrupt RDS data: negative length at "+in.position());
+		return n;
+	}
+
+	private String charsxp(int flags) throws IOException {
+		int n = in.getInt();
+		String out = null;
+		if (n >= 0) {
+			if (scratch.length < n) scratch = new byte[Math.max(n, scratch.length*2)];
+			in.get(scratch, 0, n);
+			int levels = flags >>> 12;
+			Charset charset = (levels & (LATIN1_MASK | BYTES_MASK)) != 0 ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8;
+			out = new String(scratch, 0, n, charset);
+		}
+		// attributes on CHARSXPs are only found in old files, and are ignored
+		if ((flags & HAS_ATTR) != 0) item();
+		return out;
+	}
+
+	private Map<String,Object> attributes(Object pairlist) {
+		if (!(pairlist instanceof Pairlist)) return Collections.emptyMap();
+		Pairlist p = (Pairlist) pairlist;
+		Map<String,Object> out = new LinkedHashMap<>();
+		for (int i=0; i<p.tags.size(); i++) {
+			if (p.tags.get(i) != null) out.put(p.tags.get(i), p.values.get(i));
+		}
+		return out;
+	}
+
+	private Object item() throws IOException {
+		return item(in.getInt());
+	}
+
+	private Object item(int flags) throws IOException {
+		int type = flags & 0xFF;
+		boolean hasAttr = (flags & HAS_ATTR) != 0;
+		boolean hasTag = (flags & HAS_TAG) != 0;
+		switch (type) {
+		case NILVALUE_SXP:
+			return null;
+		case EMPTYENV_SXP: case BASEENV_SXP: case GLOBALENV_SXP: case UNBOUNDVALUE_SXP: case MISSINGARG_SXP: case BASENAMESPACE_SXP:
+			return new Unsupported("environment");
+		case REFSXP: {
+			int index = flags >>> 8;
+			if (index == 0) index = in.getInt();
+			if (index < 1 || index > refs.size()) throw new IOException("Corrupt RDS data: unknown reference at "+in.position());
+			return refs.get(index-1);
+		}
+		case PERSISTSXP: case PACKAGESXP: case NAMESPACESXP: {
+			Unsupported out = new Unsupported("namespace");
+			refs.add(out);
+			if (in.getInt() != 0) throw new IOException("Corrupt RDS data: names of namespace at "+in.position());
+			int n = length();
+			for (int i=0; i<n; i++) item();
+			return out;
+		}
+		case SYMSXP: {
+			Object name = item();
+			Symbol out = new Symbol((String) name);
+			refs.add(out);
+			return out;
+		}
+		case ENVSXP: {
+			Unsupported out = new Unsupported("environment");
+			refs.add(out);
+			in.getInt(); // locked
+			item(); // enclosure
+			item(); // frame
+			item(); // hash table
+			item(); // attributes
+			return out;
+		}
+		case ATTRLISTSXP: case ATTRLANGSXP:
+		case LISTSXP: case LANGSXP: case CLOSXP: case PROMSXP: case DOTSXP: {
+			// the cells of a pairlist are read iteratively, rather than recursing along the list
+			Pairlist out = new Pairlist();
+			boolean list = type == LISTSXP || type == ATTRLISTSXP;
+			while (true) {
+				if (hasAttr || type == ATTRLISTSXP || type == ATTRLANGSXP) item();
+				Object tag = hasTag ? item() : null;
+				Object value = item();
+				out.tags.add(tag instanceof Symbol ? ((Symbol) tag).name : null);
+				out.values.add(value);
+				flags = in.getInt();
+				type = flags & 0xFF;
+				if (type == NILVALUE_SXP) break;
+				if (type != LISTSXP && type != LANGSXP && type != ATTRLISTSXP && type != ATTRLANGSXP && type != DOTSXP) {
+					// an improper list ending in a value rather than NULL, as in the state of wrapper and
+					// deferred string ALTREP objects, which are a pair of a vector and its metadata
+					out.tags.add(null);
+					out.values.add(item(flags));
+					break;
+				}
+				hasAttr = (flags & HAS_ATTR) != 0;
+				hasTag = (flags & HAS_TAG) != 0;
+			}
+			return list ? out : new Unsupported("language object or function");
+		}
+		case EXTPTRSXP: {
+			Unsupported out = new Unsupported("external pointer");
+			refs.add(out);
+			item(); // protected value
+			item(); // tag
+			if (hasAttr) item();
+			return out;
+		}
+		case WEAKREFSXP: {
+			Unsupported out = new Unsupported("weak reference");
+			refs.add(out);
+			if (hasAttr) item();
+			return out;
+		}
+		case SPECIALSXP: case BUILTINSXP: {
+			int n = in.getInt();
+			in.get(new byte[n], 0, n);
+			if (hasAttr) item();
+			return new Unsupported("builtin function");
+		}
+		case CHARSXP:
+			return charsxp(flags);
+		case S4SXP: {
+			if (hasAttr) item();
+			return new Unsupported("S4 object");
+		}
+		case ALTREP_SXP: {
+			Object info = item();
+			Object state = item();
+			Vec out = altrep(info, state);
+			out.attributes = attributes(item());
+			return out;
+		}
+		case LGLSXP: case INTSXP: case REALSXP: case CPLXSXP: case STRSXP: case VECSXP: case EXPRSXP: case RAWSXP: {
+			Vec out = vector(type);
+			if (hasAttr) out.attributes = attributes(item());
+			return out;
+		}
+		default:
+			throw new IOException("Unsupported R object type "+type+" at "+in.position());
+		}
+	}
+
+	private Vec vector(int type) throws IOException {
+		int n = length();
+		switch (type) {
+		case LGLSXP: case INTSXP: {
+			int[] values = new int[n];
+			in.getInts(values);
+			return new Vec(type, values);
+		}
+		case REALSXP: {
+			double[] values = new double[n];
+			in.getDoubles(values);
+			return new Vec(type, values);
+		}
+		case CPLXSXP: {
+			in.getDoubles(new double[2*n]);
+			return new Vec(type, null);
+		}
+		case RAWSXP: {
+			in.get(new byte[n], 0, n);
+			return new Vec(type, null);
+		}
+		case STRSXP: {
+			Strings values = new Strings(n);
+			for (int i=0; i<n; i++) {
+				int flags = in.getInt();
+				if ((flags & 0xFF) != CHARSXP) throw new IOException("Corrupt RDS data: expected a string at "+in.position());
+				values.set(i, charsxp(flags));
+			}
+			return new Vec(type, values);
+		}
+		default: {
+			Object[] values = new Object[n];
+			for (int i=0; i<n; i++) values[i] = item();
+			return new Vec(type, values);
+		}
+		}
+	}
+
+	/*
+	 * ALTREP objects are serialised as their class, a state from which R recreates them, and their attributes. The
+	 * classes in base R that have a serialised form are expanded here.
+	 */
+	private Vec altrep(Object info, Object state) throws IOException {
+		String cls = info instanceof Pairlist && ((Pairlist) info).values.get(0) instanceof Symbol ? ((Symbol) ((Pairlist) info).values.get(0)).name : "unknown";
+		switch (cls) {
+		case "compact_intseq": case "compact_realseq": {
+			// the length, start and step of the sequence
+			double[] seq = (double[]) ((Vec) state).data;
+			int n = (int) seq[0];
+			if (cls.equals("compact_intseq")) {
+				int[] out = new int[n];
+				for (int i=0; i<n; i++) out[i] = (int) (seq[1] + i*seq[2]);
+				return new Vec(INTSXP, out);
+			} else {
+				double[] out = new double[n];
+				for (int i=0; i<n; i++) out[i] = seq[1] + i*seq[2];
+				return new Vec(REALSXP, out);
+			}
+		}
+		case "wrap_integer": case "wrap_real": case "wrap_logical": case "wrap_string": case "wrap_list": case "wrap_complex": case "wrap_raw": {
+			// the wrapped vector and its metadata
+			Object wrapped = ((Pairlist) state).values.get(0);
+			if (!(wrapped instanceof Vec)) throw new IOException("Corrupt RDS data: wrapper without a vector");
+			return (Vec) wrapped;
+		}
+		case "deferred_string": {
+			// the numbers that are lazily converted to strings, and the scipen option
+			List<Object> values = ((Pairlist) state).values;
+			Vec arg = (Vec) values.get(0);
+			int scipen = 0;
+			if (values.size() > 1 && values.get(1) instanceof Vec && ((Vec) values.get(1)).type == INTSXP) {
+				int[] option = (int[]) ((Vec) values.get(1)).data;
+				if (option.length > 0 && option[0] != NA_INTEGER) scipen = option[0];
+			}
+			int n = arg.type == INTSXP ? ((int[]) arg.data).length : ((double[]) arg.data).length;
+			Strings out = new Strings(n);
+			for (int i=0; i<n; i++) {
+				out.set(i, arg.type == INTSXP ? deferredString(((int[]) arg.data)[i]) : deferredString(((double[]) arg.data)[i], scipen));
+			}
+			return new Vec(STRSXP, out);
+		}
+		default:
+			throw new IOException("Unsupported ALTREP class in RDS data: "+cls);
+		}
+	}
+
+	private static String deferredString(int value) {
+		return value == NA_INTEGER ? null : Integer.toString(value);
+	}
+
+	// as.character() of a double: the fewest significant digits (at most 15) that represent the value, in
+	// fixed notation unless that is wider than scientific notation by more than scipen, as R's formatReal()
+	private static String deferredString(double value, int scipen) {
+		// R's NA is the NaN whose lower word is 1954
+		if (Double.isNaN(value)) return (int) Double.doubleToRawLongBits(value) == 1954 ? null : "NaN";
+		if (Double.isInfinite(value)) return value > 0 ? "Inf" : "-Inf";
+		BigDecimal tmp = new BigDecimal(value).round(new MathContext(15, RoundingMode.HALF_EVEN)).stripTrailingZeros();
+		int sig = tmp.precision();
+		int exponent = value == 0 ? 0 : sig - tmp.scale() - 1;
+		int neg = value < 0 ? 1 : 0;
+		int decimals = Math.max(0, sig - exponent - 1);
+		int fixedWidth = neg + (exponent >= 0 ? exponent + 1 : 1) + (decimals > 0 ? decimals + 1 : 0);
+		int sciWidth = neg + (sig > 1 ? sig + 1 : 1) + (Math.abs(exponent) >= 100 ? 5 : 4);
+		if (fixedWidth <= sciWidth + scipen) return tmp.setScale(decimals).toPlainString();
+		String mantissa = tmp.movePointLeft(exponent).setScale(sig - 1).toPlainString();
+		return mantissa+"e"+(exponent < 0 ? "-" : "+")+(Math.abs(exponent) < 10 ? "0" : "")+Math.abs(exponent);
+	}
+
+	// CONVERSION
+
+	private RObject convert(Object item, boolean inList) throws IOException {
+		if (item == null) return new RNull();
+		if (item instanceof Unsupported) throw new IOException("Cannot convert R "+((Unsupported) item).description+" to java");
+		if (!(item instanceof Vec)) throw new IOException("Cannot convert R "+item.getClass().getSimpleName().toLowerCase()+" to java");
+		Vec v = (Vec) item;
+		if (v.type == VECSXP || v.type == EXPRSXP) {
+			if (v.inherits("data.frame")) return dataframe(v);
+			Object[] values = (Object[]) v.data;
+			String[] names = v.strings("names");
+			if (names == null) {
+				RList out = new RList();
+				for (Object value: values) out.add(convert(value, true));
+				return out;
+			}
+			RNamedList out = new RNamedList();
+			for (int i=0; i<values.length; i++) out.put(names[i], convert(values[i], true));
+			return out;
+		}
+		Object dim = v.attributes.get("dim");
+		if (dim instanceof Vec && (v.type == REALSXP || v.type == INTSXP)) {
+			double[] values = v.type == REALSXP ? (double[]) v.data : Arrays.stream((int[]) v.data).asDoubleStream().toArray();
+			return new RNumericArray(values, (int[]) ((Vec) dim).data);
+		}
+		RVector<?> out = vector(v, "value");
+		if (inList && out.size() == 1) return out.get(0);
+		return out;
+	}
+
+	private RVector<?> vector(Vec v, String name) throws IOException {
+		switch (v.type) {
+		case LGLSXP:
+			return RLogicalVector.wrap((int[]) v.data);
+		case INTSXP: {
+			int[] values = (int[]) v.data;
+			if (v.inherits("factor")) {
+				String[] levels = v.strings("levels");
+				return new RFactorVector(values, levels == null ? new String[0] : levels);
+			}
+			if (v.inherits("Date")) return RDateVector.wrap(values);
+			return RIntegerVector.wrap(values);
+		}
+		case REALSXP: {
+			double[] values = (double[]) v.data;
+			if (v.inherits("Date")) return RDateVector.wrap(epochDays(values, 1));
+			if (v.inherits("POSIXct")) return RDateVector.wrap(epochDays(values, SECONDS_PER_DAY));
+			return RNumericVector.wrap(values);
+		}
+		case STRSXP: {
+			Strings values = (Strings) v.data;
+			return RCharacterVector.wrap(values.codes, values.levels());
+		}
+		default:
+			throw new IOException("Cannot convert R "+typeName(v.type)+" vector to java: "+name);
+		}
+	}
+
+	private static int[] epochDays(double[] values, double divisor) {
+		int[] out = new int[values.length];
+		for (int i=0; i<values.length; i++) {
+			out[i] = Double.isNaN(values[i]) || Double.isInfinite(values[i]) ? NA_INTEGER : (int) Math.floor(values[i]/divisor);
+		}
+		return out;
+	}
+
+	private RDataframe dataframe(Vec v) throws IOException {
+		Object[] columns = (Object[]) v.data;
+		String[] names = v.strings("names");
+		RDataframe out = new RDataframe();
+		for (int i=0; i<columns.length; i++) {
+			String name = names == null ? "V"+(i+1) : names[i];
+			if (!(columns[i] instanceof Vec) || ((Vec) columns[i]).type == VECSXP) throw new IOException("Cannot convert R data frame column to java: "+name);
+			out.addCol(name, vector((Vec) columns[i], name));
+		}
+		// the grouping columns of a grouped_df are the columns of its groups attribute, apart from .rows
+		Object groups = v.attributes.get("groups");
+		if (v.inherits("grouped_df") && groups instanceof Vec) {
+			String[] groupNames = ((Vec) groups).strings("names");
+			if (groupNames != null) out.groupBy(Arrays.copyOf(groupNames, groupNames.length-1));
+		}
+		return out;
+	}
+
+	private static String typeName(int type) {
+		switch (type) {
+		case CPLXSXP: return "complex";
+		case RAWSXP: return "raw";
+		case VECSXP: return "list";
+		default: return "type "+type;
+		}
+	}
+}
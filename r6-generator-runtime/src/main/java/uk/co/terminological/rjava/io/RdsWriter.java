@@ -0,0 +1,500 @@
+package uk.co.terminological.rjava.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import uk.co.terminological.rjava.IncompatibleTypeException;
+import uk.co.terminological.rjava.RMetrics;
+import uk.co.terminological.rjava.types.RCharacter;
+import uk.co.terminological.rjava.types.RCharacterVector;
+import uk.co.terminological.rjava.types.RDataframe;
+import uk.co.terminological.rjava.types.RDate;
+import uk.co.terminological.rjava.types.RDateVector;
+import uk.co.terminological.rjava.types.RFactor;
+import uk.co.terminological.rjava.types.RFactorVector;
+import uk.co.terminological.rjava.types.RFile;
+import uk.co.terminological.rjava.types.RInteger;
+import uk.co.terminological.rjava.types.RIntegerVector;
+import uk.co.terminological.rjava.types.RList;
+import uk.co.terminological.rjava.types.RLogical;
+import uk.co.terminological.rjava.types.RLogicalVector;
+import uk.co.terminological.rjava.types.RNamedList;
+import uk.co.terminological.rjava.types.RNull;
+import uk.co.terminological.rjava.types.RNumeric;
+import uk.co.terminological.rjava.types.RNumericArray;
+import uk.co.terminological.rjava.types.RNumericVector;
+import uk.co.terminological.rjava.types.RObject;
+import uk.co.terminological.rjava.types.RPrimitive;
+import uk.co.terminological.rjava.types.RUntypedNaVector;
+import uk.co.terminological.rjava.types.RVector;
+
+/**
+ * Writes {@link uk.co.terminological.rjava.types.RObject}s in R's own serialisation format (XDR, version 3), as used
+ * by saveRDS(), so that R can read them with readRDS() without any data passing through rJava.
+ *
+ * The objects are written as R would create them through the generated R conversions:
+ * <ul>
+ * <li>RDataframe - a tibble, or a grouped_df with a dplyr groups attribute if it is grouped</li>
+ * <li>RNumericVector, RIntegerVector, RLogicalVector, RCharacterVector - atomic vectors</li>
+ * <li>RFactorVector - an ordered factor</li>
+ * <li>RDateVector - a double vector with class Date</li>
+ * <li>RUntypedNaVector - a logical vector of NAs</li>
+ * <li>RNumericArray - a double vector with a dim attribute</li>
+ * <li>RList and RNamedList - lists, with names for RNamedList</li>
+ * <li>single values - vectors of length one, and RNull as NULL</li>
+ * </ul>
+ *
+ * Vectors are streamed from their backing arrays in big endian order through a buffer, and character vectors are
+ * written from their dictionary so each distinct string is only encoded once.
+ *
+ * @author terminological
+ * @version $Id: $Id
+ */
+public class RdsWriter {
+
+	// SEXP types and special values from R's serialize.c
+	static final int NILVALUE_SXP = 254;
+	static final int REFSXP = 255;
+	static final int SYMSXP = 1;
+	static final int LISTSXP = 2;
+	static final int CHARSXP = 9;
+	static final int LGLSXP = 10;
+	static final int INTSXP = 13;
+	static final int REALSXP = 14;
+	static final int STRSXP = 16;
+	static final int VECSXP = 19;
+
+	static final int IS_OBJECT = 1 << 8;
+	static final int HAS_ATTR = 1 << 9;
+	static final int HAS_TAG = 1 << 10;
+	// encoding flags of CHARSXPs, which are held in the levels of the flags
+	static final int UTF8_MASK = 1 << 3;
+	static final int ASCII_MASK = 1 << 6;
+
+	static final int NA_INTEGER = Integer.MIN_VALUE;
+	static final long NA_REAL_BITS = Double.doubleToRawLongBits(RNumeric.NA.rPrimitive());
+
+	// the R version that is recorded as the writer, and the earliest version that can read version 3 serialisations
+	static final int WRITER_VERSION = (4 << 16) | (0 << 8) | 0;
+	static final int MIN_READER_VERSION = (3 << 16) | (5 << 8) | 0;
+
+	static final String[] TBL_DF = {"tbl_df","tbl","data.frame"};
+	static final String[] GROUPED_DF = {"grouped_df","tbl_df","tbl","data.frame"};
+	static final String[] LIST_OF = {"vctrs_list_of","vctrs_vctr","list"};
+	static final String[] ORDERED = {"ordered","factor"};
+
+	private static final int BUFFER = 1 << 16;
+	private static final RMetrics.Metric WRITE = RMetrics.metric("RdsWriter.write");
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER).order(ByteOrder.BIG_ENDIAN);
+	// symbols are written once and then referred to by their position in the reference table
+	private final Map<String,Integer> symbols = new HashMap<>();
+	private long written = 0;
+
+	private RdsWriter(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Write an object as an RDS file, replacing any existing file.
+	 *
+	 * @param object the object to write
+	 * @param path the destination
+	 * @param compress whether to gzip the file (at the fastest level), as saveRDS() does by default. Uncompressed files are faster to write and read.
+	 * @throws java.io.IOException if the file cannot be written
+	 */
+	public static void write(RObject object, Path path, boolean compress) throws IOException {
+		if (compress) {
+			GZIPOutputStream gzip = new GZIPOutputStream(Files.newOutputStream(path), BUFFER) {{
+				def.setLevel(Deflater.BEST_SPEED);
+			}};
+			try (WritableByteChannel channel = Channels.newChannel(gzip)) {
+				write(object, channel);
+			}
+		} else {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				write(object, channel);
+			}
+		}
+	}
+
+	/**
+	 * Write an object in RDS format to a channel, which is not closed.
+	 *
+	 * @param object the object to write
+	 * @param channel the destination
+	 * @throws java.io.IOException if the channel cannot be written to
+	 * @throws uk.co.terminological.rjava.IncompatibleTypeException if the object, or something it contains, has no R equivalent
+	 */
+	public static void write(RObject object, WritableByteChannel channel) throws IOException {
+		long start = RMetrics.start();
+		RdsWriter out = new RdsWriter(channel);
+		out.header();
+		out.item(object);
+		out.flush();
+		WRITE.stop(start, out.written);
+	}
+
+	// BUFFERING
+
+	private void flush() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) written += channel.write(buf);
+		buf.clear();
+	}
+
+	private void ensure(int n) throws IOException {
+		if (buf.remaining() < n) flush();
+	}
+
+	private void putInt(int i) throws IOException {
+		ensure(4);
+		buf.putInt(i);
+	}
+
+	private void putBytes(byte[] bytes) throws IOException {
+		for (int i=0; i<bytes.length;) {
+			ensure(1);
+			int k = Math.min(bytes.length-i, buf.remaining());
+			buf.put(bytes, i, k);
+			i += k;
+		}
+	}
+
+	private void putInts(int[] values, int length) throws IOException {
+		for (int i=0; i<length;) {
+			ensure(4);
+			int k = Math.min(length-i, buf.remaining()/4);
+			buf.asIntBuffer().put(values, i, k);
+			buf.position(buf.position()+k*4);
+			i += k;
+		}
+	}
+
+	private void putDoubles(double[] values, int length) throws IOException {
+		for (int i=0; i<length;) {
+			ensure(8);
+			int k = Math.min(length-i, buf.remaining()/8);
+			// the view buffer keeps the bit pattern of NA rather than normalising it to NaN
+			buf.asDoubleBuffer().put(values, i, k);
+			buf.position(buf.position()+k*8);
+			i += k;
+		}
+	}
+
+	// SERIALISATION FORMAT
+
+	private static int flags(int type, boolean object, boolean attributes) {
+		return type | (object ? IS_OBJECT : 0) | (attributes ? HAS_ATTR : 0);
+	}
+
+	private void header() throws IOException {
+		byte[] encoding = "UTF-8".getBytes(StandardCharsets.US_ASCII);
+		ensure(2);
+		buf.put((byte) 'X').put((byte) '\n');
+		putInt(3);
+		putInt(WRITER_VERSION);
+		putInt(MIN_READER_VERSION);
+		putInt(encoding.length);
+		putBytes(encoding);
+	}
+
+	private static boolean ascii(byte[] bytes) {
+		for (byte b: bytes) if (b < 0) return false;
+		return true;
+	}
+
+	private void charsxp(String s) throws IOException {
+		if (s == null) {
+			putInt(CHARSXP);
+			putInt(-1);
+		} else {
+			charsxp(s.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private void charsxp(byte[] bytes) throws IOException {
+		putInt(CHARSXP | ((ascii(bytes) ? ASCII_MASK : UTF8_MASK) << 12));
+		putInt(bytes.length);
+		putBytes(bytes);
+	}
+
+	private void symbol(String name) throws IOException {
+		Integer ref = symbols.get(name);
+		if (ref != null) {
+			putInt((ref << 8) | REFSXP);
+		} else {
+			putInt(SYMSXP);
+			charsxp(name);
+			symbols.put(name, symbols.size()+1);
+		}
+	}
+
+	// attributes are a pairlist of tagged values which is terminated by endAttributes()
+	private void attribute(String name) throws IOException {
+		putInt(LISTSXP | HAS_TAG);
+		symbol(name);
+	}
+
+	private void endAttributes() throws IOException {
+		putInt(NILVALUE_SXP);
+	}
+
+	private void strings(String... values) throws IOException {
+		putInt(STRSXP);
+		putInt(values.length);
+		for (String s: values) charsxp(s);
+	}
+
+	private void logical(boolean value) throws IOException {
+		putInt(LGLSXP);
+		putInt(1);
+		putInt(value ? 1 : 0);
+	}
+
+	// compact row names, as created by .set_row_names(n)
+	private void rowNames(int nrow) throws IOException {
+		putInt(INTSXP);
+		if (nrow == 0) {
+			putInt(0);
+		} else {
+			putInt(2);
+			putInt(NA_INTEGER);
+			putInt(-nrow);
+		}
+	}
+
+	// OBJECTS
+
+	private void item(RObject o) throws IOException {
+		if (o == null || o instanceof RNull) {
+			putInt(NILVALUE_SXP);
+		} else if (o instanceof RDataframe) {
+			dataframe((RDataframe) o);
+		} else if (o instanceof RVector) {
+			vector((RVector<?>) o);
+		} else if (o instanceof RNumericArray) {
+			RNumericArray a = (RNumericArray) o;
+			double[] values = a.rPrimitive();
+			int[] dims = a.rDim();
+			putInt(flags(REALSXP, false, true));
+			putInt(values.length);
+			putDoubles(values, values.length);
+			attribute("dim");
+			putInt(INTSXP);
+			putInt(dims.length);
+			putInts(dims, dims.length);
+			endAttributes();
+		} else if (o instanceof RList) {
+			RList l = (RList) o;
+			putInt(VECSXP);
+			putInt(l.size());
+			for (RObject item: l) item(item);
+		} else if (o instanceof RNamedList) {
+			RNamedList l = (RNamedList) o;
+			putInt(flags(VECSXP, false, true));
+			putInt(l.size());
+			for (RObject item: l.values()) item(item);
+			attribute("names");
+			strings(l.keySet().toArray(new String[l.size()]));
+			endAttributes();
+		} else if (o instanceof RFile) {
+			RFile f = (RFile) o;
+			strings(f.isNa() ? null : f.rPrimitive());
+		} else if (o instanceof RPrimitive) {
+			vector(RVector.padded((RPrimitive) o, 1));
+		} else {
+			throw new IncompatibleTypeException("No RDS equivalent for: "+o.getClass().getCanonicalName());
+		}
+	}
+
+	private void vector(RVector<?> v) throws IOException {
+		int n = v.size();
+		if (v instanceof RNumericVector) {
+			putInt(REALSXP);
+			putInt(n);
+			putDoubles(((RNumericVector) v).unsafeArray(), n);
+		} else if (v instanceof RIntegerVector) {
+			putInt(INTSXP);
+			putInt(n);
+			putInts(((RIntegerVector) v).unsafeArray(), n);
+		} else if (v instanceof RLogicalVector) {
+			putInt(LGLSXP);
+			putInt(n);
+			putInts(((RLogicalVector) v).unsafeArray(), n);
+		} else if (v instanceof RDateVector) {
+			// dates are doubles in R, which are converted from the epoch days in chunks
+			int[] days = ((RDateVector) v).unsafeArray();
+			putInt(flags(REALSXP, true, true));
+			putInt(n);
+			double[] tmp = new double[Math.min(n, BUFFER/8)];
+			for (int i=0; i<n; i+=tmp.length) {
+				int k = Math.min(tmp.length, n-i);
+				for (int j=0; j<k; j++) tmp[j] = days[i+j] == NA_INTEGER ? Double.longBitsToDouble(NA_REAL_BITS) : days[i+j];
+				putDoubles(tmp, k);
+			}
+			attribute("class");
+			strings("Date");
+			endAttributes();
+		} else if (v instanceof RCharacterVector) {
+			RCharacterVector c = (RCharacterVector) v;
+			String[] levels = c.rLevels();
+			byte[][] encoded = new byte[levels.length][];
+			for (int i=0; i<levels.length; i++) encoded[i] = levels[i].getBytes(StandardCharsets.UTF_8);
+			int[] codes = c.unsafeArray();
+			putInt(STRSXP);
+			putInt(n);
+			// NA codes are the same as R's NA_integer_
+			for (int i=0; i<n; i++) {
+				if (codes[i] == NA_INTEGER) charsxp((String) null);
+				else charsxp(encoded[codes[i]-1]);
+			}
+		} else if (v instanceof RFactorVector) {
+			RFactorVector f = (RFactorVector) v;
+			int[] codes = f.rValues();
+			putInt(flags(INTSXP, true, true));
+			putInt(codes.length);
+			putInts(codes, codes.length);
+			attribute("levels");
+			strings(f.rLevels());
+			attribute("class");
+			strings(ORDERED);
+			endAttributes();
+		} else if (v instanceof RUntypedNaVector) {
+			putInt(LGLSXP);
+			putInt(n);
+			int[] tmp = new int[Math.min(n, BUFFER/4)];
+			Arrays.fill(tmp, NA_INTEGER);
+			for (int i=0; i<n; i+=tmp.length) putInts(tmp, Math.min(tmp.length, n-i));
+		} else {
+			throw new IncompatibleTypeException("No RDS equivalent for: "+v.getClass().getCanonicalName());
+		}
+	}
+
+	private void dataframe(RDataframe df) throws IOException {
+		String[] names = df.keySet().toArray(new String[df.size()]);
+		String[] groups = df.getGroups();
+		putInt(flags(VECSXP, true, true));
+		putInt(names.length);
+		for (String name: names) vector(df.get(name));
+		attribute("names");
+		strings(names);
+		attribute("row.names");
+		rowNames(df.nrow());
+		if (groups.length > 0) {
+			attribute("groups");
+			groups(df, groups);
+		}
+		attribute("class");
+		strings(groups.length > 0 ? GROUPED_DF : TBL_DF);
+		endAttributes();
+	}
+
+	/*
+	 * The groups attribute of a grouped_df, as dplyr::group_by() creates it: a tibble of the distinct combinations
+	 * of the grouping columns in sorted order, with a .rows column listing the (1-based) rows of each group.
+	 */
+	private void groups(RDataframe df, String[] groups) throws IOException {
+		int[] ids = df.groupIds();
+		int count = 0;
+		for (int id: ids) count = Math.max(count, id+1);
+		int[] first = new int[count];
+		Arrays.fill(first, -1);
+		for (int i=0; i<ids.length; i++) if (first[ids[i]] < 0) first[ids[i]] = i;
+
+		RVector<?>[] keys = new RVector<?>[groups.length];
+		for (int j=0; j<groups.length; j++) keys[j] = keys(df.get(groups[j]), first);
+		Integer[] order = new Integer[count];
+		for (int g=0; g<count; g++) order[g] = g;
+		Arrays.sort(order, keyOrder(keys));
+		int[] rank = new int[count];
+		int[] sorted = new int[count];
+		for (int r=0; r<count; r++) {
+			rank[order[r]] = r;
+			sorted[r] = first[order[r]];
+		}
+		// counting sort of the rows by the rank of their group
+		int[] offsets = new int[count+1];
+		for (int id: ids) offsets[rank[id]+1]++;
+		for (int r=0; r<count; r++) offsets[r+1] += offsets[r];
+		int[] rows = new int[ids.length];
+		int[] next = Arrays.copyOf(offsets, count);
+		for (int i=0; i<ids.length; i++) rows[next[rank[ids[i]]]++] = i+1;
+
+		putInt(flags(VECSXP, true, true));
+		putInt(groups.length+1);
+		for (String group: groups) vector(keys(df.get(group), sorted));
+		putInt(flags(VECSXP, true, true));
+		putInt(count);
+		for (int r=0; r<count; r++) {
+			putInt(INTSXP);
+			putInt(offsets[r+1]-offsets[r]);
+			putInts(Arrays.copyOfRange(rows, offsets[r], offsets[r+1]), offsets[r+1]-offsets[r]);
+		}
+		attribute("ptype");
+		putInt(INTSXP);
+		putInt(0);
+		attribute("class");
+		strings(LIST_OF);
+		endAttributes();
+
+		String[] names = Arrays.copyOf(groups, groups.length+1);
+		names[groups.length] = ".rows";
+		attribute("names");
+		strings(names);
+		attribute("row.names");
+		rowNames(count);
+		attribute("class");
+		strings(TBL_DF);
+		attribute(".drop");
+		logical(true);
+		endAttributes();
+	}
+
+	// the values of a grouping column at the given rows, keeping all the levels of factors
+	private static RVector<?> keys(RVector<?> column, int[] rows) {
+		if (!(column instanceof RFactorVector)) return column.subset(rows);
+		RFactorVector f = (RFactorVector) column;
+		int[] codes = f.rValues();
+		int[] out = new int[rows.length];
+		for (int i=0; i<rows.length; i++) out[i] = codes[rows[i]];
+		return new RFactorVector(out, f.rLevels());
+	}
+
+	// orders groups by the values of their keys in each grouping column, with NA last, as dplyr does
+	private static Comparator<Integer> keyOrder(RVector<?>[] keys) {
+		return (a,b) -> {
+			for (RVector<?> key: keys) {
+				int c = compare(key.get(a), key.get(b));
+				if (c != 0) return c;
+			}
+			return 0;
+		};
+	}
+
+	private static int compare(RPrimitive a, RPrimitive b) {
+		if (a.isNa() || b.isNa()) return Boolean.compare(a.isNa(), b.isNa());
+		if (a instanceof RNumeric) return Double.compare(((RNumeric) a).get(), ((RNumeric) b).get());
+		if (a instanceof RInteger) return Integer.compare(((RInteger) a).get(), ((RInteger) b).get());
+		if (a instanceof RFactor) return Integer.compare(((RFactor) a).rValue(), ((RFactor) b).rValue());
+		if (a instanceof RLogical) return Boolean.compare(((RLogical) a).get(), ((RLogical) b).get());
+		if (a instanceof RDate) return ((RDate) a).get().compareTo(((RDate) b).get());
+		if (a instanceof RCharacter) return ((RCharacter) a).get().compareTo(((RCharacter) b).get());
+		return 0;
+	}
+}
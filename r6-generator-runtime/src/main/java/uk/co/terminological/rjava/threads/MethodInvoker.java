@@ -0,0 +1,148 @@
+package uk.co.terminological.rjava.threads;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import uk.co.terminological.rjava.RAsync;
+import uk.co.terminological.rjava.RBlocking;
+import uk.co.terminological.rjava.RMetrics;
+
+/**
+ * A resolved method that can be called in the background, with the execution policy from its @RAsync or
+ * @RBlocking annotation. Methods are resolved once for each class, method name and parameter types and cached,
+ * along with a {@link MethodHandle} that takes the target and an array of parameters, so a background call does
+ * not repeat the reflective lookups or the annotation checks.
+ */
+class MethodInvoker {
+
+	private static final MethodType GENERIC = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+	private static ConcurrentMap<String, Class<?>> classes = new ConcurrentHashMap<>();
+	private static ConcurrentMap<Signature, MethodInvoker> bySignature = new ConcurrentHashMap<>();
+	private static ConcurrentMap<Method, MethodInvoker> byMethod = new ConcurrentHashMap<>();
+
+	final Method method;
+	final boolean isStatic;
+	final boolean synchronise;
+	final boolean autoTidy;
+	final String pool;
+	// time spent waiting in the pool, and running, by background calls to this method
+	final RMetrics.Metric queued;
+	final RMetrics.Metric run;
+	// null if the method is not accessible, in which case calling it fails
+	private final MethodHandle handle;
+
+	private MethodInvoker(Method m) {
+		this.method = m;
+		this.isStatic = Modifier.isStatic(m.getModifiers());
+		RAsync async = m.getAnnotation(RAsync.class);
+		RBlocking blocking = m.getAnnotation(RBlocking.class);
+		this.synchronise = !isStatic && (async != null && async.synchronise() || blocking != null);
+		this.autoTidy = blocking != null || async != null && !async.persist();
+		this.pool = async != null ? async.pool() : blocking != null ? blocking.pool() : RExecutors.DEFAULT;
+		this.handle = handle(m, isStatic);
+		this.queued = RMetrics.metric("RFuture.queue("+pool+")");
+		this.run = RMetrics.metric("RFuture.run("+m.getDeclaringClass().getSimpleName()+"."+m.getName()+")");
+	}
+
+	private static MethodHandle handle(Method m, boolean isStatic) {
+		try {
+			MethodHandle h = MethodHandles.publicLookup().unreflect(m);
+			// static methods ignore the target
+			if (isStatic) h = MethodHandles.dropArguments(h, 0, Object.class);
+			return h.asSpreader(Object[].class, m.getParameterCount()).asType(GENERIC);
+		} catch (IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Look up a class by name, caching the result.
+	 *
+	 * @param name the class name in java (`.`) or JNI (`/`) notation
+	 * @return the class
+	 * @throws ClassNotFoundException if the class cannot be found
+	 */
+	static Class<?> forName(String name) throws ClassNotFoundException {
+		Class<?> out = classes.get(name);
+		if (out == null) {
+			//TODO: this needs to be fixed for more generic class names, mapping JNI to Java
+			out = Class.forName(name.replaceAll("/", "."));
+			classes.putIfAbsent(name, out);
+		}
+		return out;
+	}
+
+	/**
+	 * Find the public method of a class with the given name and parameter types (as by
+	 * {@link Class#getMethod(String, Class...)}), caching the result.
+	 *
+	 * @param type the class
+	 * @param name the method name
+	 * @param parameterTypes the exact parameter types
+	 * @return the invoker for the method
+	 * @throws NoSuchMethodException if there is no such method
+	 */
+	static MethodInvoker resolve(Class<?> type, String name, Class<?>[] parameterTypes) throws NoSuchMethodException {
+		Signature key = new Signature(type, name, parameterTypes);
+		MethodInvoker out = bySignature.get(key);
+		if (out == null) {
+			out = of(type.getMethod(name, parameterTypes));
+			bySignature.putIfAbsent(key, out);
+		}
+		return out;
+	}
+
+	/**
+	 * @param m a method
+	 * @return the (cached) invoker for the method
+	 */
+	static MethodInvoker of(Method m) {
+		return byMethod.computeIfAbsent(m, MethodInvoker::new);
+	}
+
+	/**
+	 * Call the method.
+	 *
+	 * @param target the object to call the method on, ignored for static methods
+	 * @param parameters the parameters
+	 * @return the result, boxed, or null if the method is void
+	 * @throws Throwable anything the method throws, unwrapped
+	 */
+	Object invoke(Object target, Object[] parameters) throws Throwable {
+		if (handle == null) throw new RuntimeException("The method invoked is not public.");
+		return (Object) handle.invokeExact(target, parameters);
+	}
+
+	public String toString() {
+		return method.toString();
+	}
+
+	private static final class Signature {
+		final Class<?> type;
+		final String name;
+		final Class<?>[] parameterTypes;
+		final int hash;
+
+		Signature(Class<?> type, String name, Class<?>[] parameterTypes) {
+			this.type = type;
+			this.name = name;
+			this.parameterTypes = parameterTypes;
+			this.hash = (type.hashCode()*31 + name.hashCode())*31 + Arrays.hashCode(parameterTypes);
+		}
+
+		public int hashCode() {return hash;}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof Signature)) return false;
+			Signature s = (Signature) other;
+			return s.type == type && s.name.equals(name) && Arrays.equals(s.parameterTypes, parameterTypes);
+		}
+	}
+}
@@ -1,19 +1,19 @@
 package uk.co.terminological.rjava.threads;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.WrongMethodTypeException;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
-
-import uk.co.terminological.rjava.RAsync;
-import uk.co.terminological.rjava.RBlocking;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class MethodRunnable implements Runnable {
 	
 	Object o;
 	Object[] parameters;
 	Method m;
+	MethodInvoker invoker;
 	Object result = null;
 	Exception exception = null;
 	boolean complete = false;
@@ -23,42 +23,63 @@ public class MethodRunnable implements Runnable {
 			Object o, //may be null if method is static
 			Object[] parameters,
 			Method m
+	) {
+		this(o, parameters, MethodInvoker.of(m));
+	}
+	
+	MethodRunnable(
+			Object o, //may be null if method is static
+			Object[] parameters,
+			MethodInvoker invoker
 	) {
 		this.o = o;
 		this.parameters = parameters;
-		this.m = m;
+		this.m = invoker.method;
+		this.invoker = invoker;
 	}
 	
 	private void doMethod() {
 		try {
-			result = m.invoke(o, parameters);
-		} catch (IllegalAccessException e) {
-			throw new RuntimeException("The method invoked is not public.");
-		} catch (IllegalArgumentException e) {
-			throw new RuntimeException("The parameters provided are illegal or not appropriate.");
-		} catch (InvocationTargetException e) {
-			if (e.getCause() instanceof InterruptedException || e.getCause() instanceof ClosedByInterruptException) {
+			result = invoker.invoke(o, parameters);
+		} catch (WrongMethodTypeException e) {
+			throw new RuntimeException("The parameters provided are illegal or not appropriate.", e);
+		} catch (Exception e) {
+			if (e instanceof InterruptedException || e instanceof ClosedByInterruptException) {
 				interrupted = true;
 			}
-			exception = (Exception) e.getCause();
+			exception = e;
+		} catch (Throwable e) {
+			exception = new RuntimeException(e);
 		}
 		complete = true;
 	}
 	
 	public void run() {
-		if (Modifier.isStatic(m.getModifiers())) {
-			doMethod();
-		} else {
-			if (
-					(m.isAnnotationPresent(RAsync.class) && m.getAnnotation(RAsync.class).synchronise())
-					|| m.isAnnotationPresent(RBlocking.class)
-			) {
-				synchronized (o) {
-					doMethod();
-				}
-			} else {
+		if (invoker.synchronise && !RExecutors.isVirtualThread()) {
+			synchronized (o) {
 				doMethod();
 			}
+		} else if (invoker.synchronise) {
+			// in a virtual pool a lock rather than synchronized(o) so that waiting virtual threads do not pin their
+			// carrier. This serialises the synchronised calls in virtual pools, but not with the monitor of o.
+			ReentrantLock lock = ObjectLock.acquire(o);
+			try {
+				lock.lockInterruptibly();
+			} catch (InterruptedException e) {
+				ObjectLock.release(o);
+				exception = e;
+				interrupted = true;
+				complete = true;
+				return;
+			}
+			try {
+				doMethod();
+			} finally {
+				lock.unlock();
+				ObjectLock.release(o);
+			}
+		} else {
+			doMethod();
 		}
 		// TODO: Should this method tidy up after itself in the RThreadMonitor?
 		// if this has succeeded and returns void is there
@@ -71,6 +92,37 @@ public class MethodRunnable implements Runnable {
 //		}
 	}
 	
+	/**
+	 * Reference counted locks on the identity of the objects that synchronised methods are called on in virtual
+	 * pools. Entries are removed when no task holds or waits for the lock.
+	 */
+	private static class ObjectLock {
+		
+		private static ConcurrentMap<Key, ObjectLock> locks = new ConcurrentHashMap<>();
+		
+		ReentrantLock lock = new ReentrantLock();
+		int users = 0;
+		
+		static ReentrantLock acquire(Object o) {
+			return locks.compute(new Key(o), (k,v) -> {
+				if (v == null) v = new ObjectLock();
+				v.users++;
+				return v;
+			}).lock;
+		}
+		
+		static void release(Object o) {
+			locks.computeIfPresent(new Key(o), (k,v) -> --v.users == 0 ? null : v);
+		}
+		
+		private static class Key {
+			Object o;
+			Key(Object o) {this.o = o;}
+			public int hashCode() {return System.identityHashCode(o);}
+			public boolean equals(Object other) {return other instanceof Key && ((Key) other).o == o;}
+		}
+	}
+	
 	public boolean interrupted() {
 		return interrupted;
 	}
@@ -91,12 +143,12 @@ public class MethodRunnable implements Runnable {
 		return result;
 	}
 
+	public String pool() {
+		return invoker.pool;
+	}
+	
 	public boolean autoTidy() {
-		return (
-				m.isAnnotationPresent(RBlocking.class) ||
-				m.isAnnotationPresent(RAsync.class) &&
-				!m.getAnnotation(RAsync.class).persist()
-		);
+		return invoker.autoTidy;
 	}
 
 }
\ No newline at end of file
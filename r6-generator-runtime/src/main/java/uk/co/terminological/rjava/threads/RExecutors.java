@@ -0,0 +1,341 @@
+package uk.co.terminological.rjava.threads;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The named executor pools that @RAsync and @RBlocking methods are run in. Each pool has a maximum number of
+ * tasks that run in parallel, a queue for tasks waiting to run, and a policy for what happens when the queue is
+ * full. Methods name their pool with the `pool` attribute of the annotation, and any pool that has not been
+ * configured with {@link #configure(String, int, int, Rejection)} before it is first used gets the default settings,
+ * which is one thread per available processor and a queue of {@value #DEFAULT_QUEUE_LENGTH} tasks. The exception
+ * is the {@value #BLOCKING} pool that @RBlocking methods use by default, which starts a thread for each call that
+ * cannot be given an idle one, so that interactive calls never wait behind long running @RAsync jobs.
+ *
+ * Pool threads are daemon threads and are released when idle, so an unused pool does not hold on to any
+ * resources.
+ *
+ * On Java 21 or later pools can instead run each task in its own virtual thread, either for a named pool with
+ * {@link #configureVirtual(String, int, int)}, or for every pool that is not explicitly configured with
+ * {@link #useVirtualThreads(boolean)}. This suits I/O bound methods that spend most of their time waiting, and
+ * allows very many concurrent calls. In virtual pools synchronised calls are serialised with a lock that does not pin
+ * the carrier thread, rather than on the monitor of the target object, so they do not exclude the target's own
+ * synchronized methods or calls in platform pools. Any pinning that does happen is logged and counted in
+ * {@link #status()}. On older
+ * Java versions virtual pools fall back to platform thread pools.
+ */
+public class RExecutors {
+
+	/** The name of the pool used when none is given. */
+	public static final String DEFAULT = "default";
+	/** The name of the pool used by @RBlocking methods when none is given. */
+	public static final String BLOCKING = "blocking";
+	/** The default queue length for a pool. */
+	public static final int DEFAULT_QUEUE_LENGTH = 10000;
+
+	static Logger log = LoggerFactory.getLogger(RExecutors.class);
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+	private static ConcurrentMap<String, Pool> pools = new ConcurrentHashMap<>();
+	private static volatile boolean virtualByDefault = false;
+
+	/**
+	 * What to do with a task submitted to a pool whose queue is full.
+	 */
+	public static enum Rejection {
+		/** Fail the submission with an error. */
+		ABORT,
+		/** Run the task in the submitting thread (i.e. the R session) which slows down further submissions. */
+		CALLER_RUNS,
+		/** Cancel the submitted task. */
+		DISCARD,
+		/** Cancel the oldest queued task and queue the submitted one. */
+		DISCARD_OLDEST
+	}
+
+	/**
+	 * Create or reconfigure a named pool. Tasks already queued in or running on a pool that is reconfigured
+	 * with a different queue length are allowed to finish in the old pool.
+	 *
+	 * @param name the pool name, as used in the `pool` attribute of @RAsync or @RBlocking
+	 * @param maxParallelism the maximum number of tasks that run at the same time ({@link Integer#MAX_VALUE} for
+	 *   a new thread for every task that cannot be given an idle one, in which case tasks are never queued)
+	 * @param queueLength the number of tasks that can wait to run (zero or less is unbounded)
+	 * @param rejection what happens when a task is submitted and the queue is full
+	 */
+	public static void configure(String name, int maxParallelism, int queueLength, Rejection rejection) {
+		if (maxParallelism < 1) throw new IllegalArgumentException("maxParallelism must be at least 1");
+		replace(name, new PlatformPool(name, maxParallelism, queueLength, rejection));
+	}
+	
+	/**
+	 * Create or reconfigure a named pool that runs each task in a new virtual thread. Tasks beyond the maximum
+	 * parallelism wait (cheaply) for a permit, and submissions are rejected once the number waiting reaches the
+	 * queue length. If virtual threads are not available this creates a platform thread pool.
+	 *
+	 * @param name the pool name, as used in the `pool` attribute of @RAsync or @RBlocking
+	 * @param maxParallelism the maximum number of tasks that run at the same time
+	 * @param queueLength the number of tasks that can wait to run (zero or less is unbounded)
+	 */
+	public static void configureVirtual(String name, int maxParallelism, int queueLength) {
+		if (maxParallelism < 1) throw new IllegalArgumentException("maxParallelism must be at least 1");
+		replace(name, virtualPool(name, maxParallelism, queueLength));
+	}
+	
+	/**
+	 * Run pools that have not been explicitly configured in virtual threads (or not). Pools that are already 
+	 * running keep their current mode.
+	 *
+	 * @param virtual true to use virtual threads by default
+	 */
+	public static void useVirtualThreads(boolean virtual) {
+		if (virtual && !VirtualThreads.AVAILABLE) log.warn("Virtual threads need Java 21 or later, using platform threads");
+		virtualByDefault = virtual;
+	}
+	
+	/**
+	 * Whether the current thread is a virtual thread.
+	 * 
+	 * @return true if running in a virtual thread
+	 */
+	public static boolean isVirtualThread() {
+		return VirtualThreads.isVirtual(Thread.currentThread());
+	}
+	
+	private static void replace(String name, Pool pool) {
+		Pool old = pools.put(name, pool);
+		if (old != null) old.shutdown();
+	}
+	
+	private static Pool virtualPool(String name, int maxParallelism, int queueLength) {
+		if (!VirtualThreads.AVAILABLE) {
+			log.warn("Virtual threads need Java 21 or later, pool "+name+" will use platform threads");
+			return new PlatformPool(name, maxParallelism, queueLength, Rejection.ABORT);
+		}
+		return new VirtualPool(name, maxParallelism, queueLength);
+	}
+
+	/**
+	 * Create or reconfigure a named pool, with the rejection policy given by name (for calling from R).
+	 *
+	 * @param name the pool name
+	 * @param maxParallelism the maximum number of tasks that run at the same time
+	 * @param queueLength the number of tasks that can wait to run (zero or less is unbounded)
+	 * @param rejection one of ABORT, CALLER_RUNS, DISCARD or DISCARD_OLDEST
+	 */
+	public static void configure(String name, int maxParallelism, int queueLength, String rejection) {
+		configure(name, maxParallelism, queueLength, Rejection.valueOf(rejection.toUpperCase()));
+	}
+
+	/**
+	 * Queue a task in a named pool. If the task is already a {@link RunnableFuture} it is queued as is, so any
+	 * completion hooks it has (e.g. {@link FutureTask#done()}) also run when it is cancelled or discarded by the
+	 * pool's rejection policy.
+	 *
+	 * @param name the pool name
+	 * @param task the task
+	 * @return a future for the queued task
+	 */
+	protected static Future<?> submit(String name, Runnable task) {
+		RunnableFuture<?> future = task instanceof RunnableFuture ? (RunnableFuture<?>) task : new FutureTask<Void>(task, null);
+		pool(name).execute(future);
+		return future;
+	}
+
+	private static Pool pool(String name) {
+		if (name == null || name.isEmpty()) name = DEFAULT;
+		return pools.computeIfAbsent(name, n -> virtualByDefault && VirtualThreads.AVAILABLE ? 
+				virtualPool(n, Integer.MAX_VALUE, 0) :
+				n.equals(BLOCKING) ?
+				new PlatformPool(n, Integer.MAX_VALUE, 0, Rejection.ABORT) :
+				new PlatformPool(n, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_LENGTH, Rejection.ABORT));
+	}
+
+	private static abstract class Pool {
+		abstract void execute(RunnableFuture<?> task);
+		abstract int queued();
+		abstract int active();
+		abstract String status();
+		abstract void shutdown();
+	}
+	
+	private static class PlatformPool extends Pool {
+		
+		private ThreadPoolExecutor executor;
+		
+		PlatformPool(String name, int maxParallelism, int queueLength, Rejection rejection) {
+			AtomicInteger count = new AtomicInteger();
+			ThreadFactory factory = r -> {
+				Thread t = new Thread(r, "rjava-"+name+"-"+count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			};
+			if (maxParallelism == Integer.MAX_VALUE) {
+				// a thread for every task that cannot be handed to an idle one, as Executors.newCachedThreadPool()
+				executor = new ThreadPoolExecutor(
+						0, maxParallelism,
+						KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+						new SynchronousQueue<>(),
+						factory,
+						handler(name, rejection));
+			} else {
+				executor = new ThreadPoolExecutor(
+						maxParallelism, maxParallelism,
+						KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+						queueLength > 0 ? new ArrayBlockingQueue<>(queueLength) : new LinkedBlockingQueue<>(),
+						factory,
+						handler(name, rejection));
+				executor.allowCoreThreadTimeOut(true);
+			}
+		}
+		
+		void execute(RunnableFuture<?> task) {executor.execute(task);}
+		int queued() {return executor.getQueue().size();}
+		int active() {return executor.getActiveCount();}
+		void shutdown() {executor.shutdown();}
+		
+		String status() {
+			return executor.getActiveCount()+" active, "
+					+executor.getQueue().size()+" queued, "
+					+executor.getCompletedTaskCount()+" completed (max parallelism "
+					+(executor.getMaximumPoolSize() == Integer.MAX_VALUE ? "unbounded" : executor.getMaximumPoolSize())+", queue length "
+					+(executor.getQueue().remainingCapacity() == Integer.MAX_VALUE ? "unbounded" : executor.getQueue().size()+executor.getQueue().remainingCapacity())+")";
+		}
+	}
+	
+	private static class VirtualPool extends Pool {
+		
+		private final String name;
+		private final ExecutorService executor;
+		private final Semaphore permits;
+		private final int maxParallelism;
+		private final int queueLength;
+		private final AtomicInteger waiting = new AtomicInteger();
+		private final AtomicLong completed = new AtomicLong();
+		
+		VirtualPool(String name, int maxParallelism, int queueLength) {
+			this.name = name;
+			this.executor = VirtualThreads.executor("rjava-"+name+"-");
+			this.permits = new Semaphore(maxParallelism);
+			this.maxParallelism = maxParallelism;
+			this.queueLength = queueLength;
+			VirtualThreads.monitorPinning();
+		}
+		
+		void execute(RunnableFuture<?> task) {
+			// counted before checking so that concurrent submissions cannot all pass the check
+			int queued = waiting.incrementAndGet();
+			if (queueLength > 0 && queued > queueLength) {
+				waiting.decrementAndGet();
+				throw new RejectedExecutionException("Too many background tasks: the queue for pool `"+name+"` is full ("+queueLength+" waiting)");
+			}
+			executor.execute(() -> {
+				try {
+					// skip tasks cancelled whilst waiting
+					if (task.isDone()) return;
+					permits.acquire();
+				} catch (InterruptedException e) {
+					// cancelled whilst waiting
+					Thread.currentThread().interrupt();
+					return;
+				} finally {
+					waiting.decrementAndGet();
+				}
+				try {
+					task.run();
+				} finally {
+					permits.release();
+					completed.incrementAndGet();
+				}
+			});
+		}
+		
+		int queued() {return waiting.get();}
+		int active() {return maxParallelism == Integer.MAX_VALUE ? -1 : maxParallelism - permits.availablePermits();}
+		void shutdown() {executor.shutdown();}
+		
+		String status() {
+			return (maxParallelism == Integer.MAX_VALUE ? "" : active()+" active, ")
+					+waiting.get()+" queued, "
+					+completed.get()+" completed (virtual threads, max parallelism "
+					+(maxParallelism == Integer.MAX_VALUE ? "unbounded" : maxParallelism)+", queue length "
+					+(queueLength > 0 ? queueLength : "unbounded")+", "
+					+VirtualThreads.pinned()+" pinning events)";
+		}
+	}
+
+	private static RejectedExecutionHandler handler(String name, Rejection rejection) {
+		switch (rejection) {
+		case CALLER_RUNS:
+			return new ThreadPoolExecutor.CallerRunsPolicy();
+		case DISCARD:
+			return (r,ex) -> {
+				log.warn("Pool "+name+" is full, discarding task");
+				if (r instanceof Future) ((Future<?>) r).cancel(false);
+			};
+		case DISCARD_OLDEST:
+			return (r,ex) -> {
+				if (ex.isShutdown()) return;
+				Runnable oldest = ex.getQueue().poll();
+				log.warn("Pool "+name+" is full, discarding oldest queued task");
+				if (oldest instanceof Future) ((Future<?>) oldest).cancel(false);
+				ex.execute(r);
+			};
+		default:
+			return (r,ex) -> {
+				throw new RejectedExecutionException("Too many background tasks: the queue for pool `"+name+"` is full ("+ex.getQueue().size()+" waiting)");
+			};
+		}
+	}
+
+	/**
+	 * A summary of the activity of each pool, one line per pool starting with a `#`.
+	 *
+	 * @return the pool status
+	 */
+	public static String status() {
+		return pools.entrySet().stream()
+			.sorted((a,b) -> a.getKey().compareTo(b.getKey()))
+			.map(e -> "# pool "+e.getKey()+": "+e.getValue().status())
+			.collect(Collectors.joining("\n"));
+	}
+
+	/**
+	 * The number of tasks waiting to run in a pool.
+	 *
+	 * @param name the pool name
+	 * @return the queue depth
+	 */
+	public static int queued(String name) {
+		return pool(name).queued();
+	}
+
+	/**
+	 * The number of tasks running in a pool.
+	 *
+	 * @param name the pool name
+	 * @return the approximate number of active tasks, or -1 if this is not tracked (for unbounded virtual pools)
+	 */
+	public static int active(String name) {
+		return pool(name).active();
+	}
+}
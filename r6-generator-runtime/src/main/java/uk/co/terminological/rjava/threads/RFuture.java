@@ -1,17 +1,24 @@
 package uk.co.terminological.rjava.threads;
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.co.terminological.rjava.RMetrics;
 import uk.co.terminological.rjava.RSystemOut;
 import uk.co.terminological.rjava.types.RObject;
 
@@ -21,6 +28,15 @@ import uk.co.terminological.rjava.types.RObject;
  * which are validated at runtime using reflection. The use of this is triggered
  * by an @RAsync annotation on a method. It is also used for @RBlocking annotated
  * methods so as to allow long running blocking functions to be interrupted through R.
+ * The method is queued to run in the executor pool named by the annotation (see {@link RExecutors}).
+ *
+ * Completion is signalled through a {@link CompletableFuture} rather than by polling, so waiting for a result
+ * does not use any CPU, callbacks and Java side post-processing can be attached with 
+ * {@link #whenComplete(BiConsumer)} and {@link #thenApply(Function)}, and many futures can be awaited together
+ * with {@link RThreadMonitor#awaitAll(long[], long)} and {@link RThreadMonitor#awaitAny(long[], long)}.
+ *
+ * The lifecycle of the call is tracked as a {@link State} that only moves forward, and is updated atomically
+ * so that the R session, the pool thread and any cancellation agree on the outcome.
  *
  * This is intended really to be only accessible through generated R6 code and not
  * generally expected to be used directly.
@@ -30,15 +46,47 @@ import uk.co.terminological.rjava.types.RObject;
  */
 public class RFuture implements Future<Object> {
 
-	Thread thread;
+	/**
+	 * The lifecycle of a background call. A call moves from QUEUED to RUNNING, and then to one of DONE, FAILED 
+	 * or CANCELLED. A call can also be CANCELLED before it starts. DONE and FAILED calls become COLLECTED when their
+	 * result is retrieved (or discarded), after which their state does not change.
+	 */
+	public static enum State {
+		/** Waiting in the pool queue. */
+		QUEUED,
+		/** Running in a pool thread. */
+		RUNNING,
+		/** Completed normally, with the result not yet retrieved. */
+		DONE,
+		/** Completed with an error, which has not yet been retrieved. */
+		FAILED,
+		/** Cancelled or interrupted. */
+		CANCELLED,
+		/** Completed and the result or error has been retrieved. */
+		COLLECTED;
+		
+		/**
+		 * @return true if the call has finished, in whatever way.
+		 */
+		public boolean isFinished() {
+			return this != QUEUED && this != RUNNING;
+		}
+	}
+	
+	Future<?> task;
+	AtomicReference<State> state = new AtomicReference<>(State.QUEUED);
+	CompletableFuture<Object> completion = new CompletableFuture<>();
+	CountDownLatch startup = new CountDownLatch(1);
 	MethodRunnable runner;
 	String method;
+	String name;
 	long id;
-	boolean cancelled = false;
-	boolean processed = false;
+	long submitted;
 	String returnSig;
 	String converter;
 	ArrayList<Object> parameters;
+	// kept so that the final progress can still be reported after the call is removed from the registry
+	RProgress progress;
 	
 	
 	Logger log = LoggerFactory.getLogger(RFuture.class);
@@ -62,25 +110,125 @@ public class RFuture implements Future<Object> {
 			String returnSig,
 			String converter
 		) throws NoSuchMethodException, SecurityException, ClassNotFoundException {
-		Class<?>[] types = parameters.stream().map(p -> p.getClass()).collect(Collectors.toList()).toArray(new Class[] {});
+		Class<?>[] types = new Class<?>[parameters.size()];
+		for (int i=0; i<types.length; i++) types[i] = parameters.get(i).getClass();
 		if (o instanceof String) {
-			//TODO: this needs to be fixed for more generic class names, mapping JNI to Java
-			Method m = Class.forName(((String) o).replaceAll("/", ".")).getMethod(method, types);
-			runner = new MethodRunnable(null,parameters.toArray(),m);
+			MethodInvoker invoker = MethodInvoker.resolve(MethodInvoker.forName((String) o), method, types);
+			runner = new MethodRunnable(null,parameters.toArray(),invoker);
 		} else {
-			Method m = o.getClass().getMethod(method, types);
-			runner = new MethodRunnable(o,parameters.toArray(),m);
+			MethodInvoker invoker = MethodInvoker.resolve(o.getClass(), method, types);
+			runner = new MethodRunnable(o,parameters.toArray(),invoker);
 		}
 		this.method = method;
 		this.parameters = parameters;
-		thread = RThreadMonitor.build(runner);
-		thread.start();
-		while(thread.getState().equals(java.lang.Thread.State.NEW)) {}
-		String name = RThreadMonitor.register(this);
-		this.id = thread.getId();
 		this.converter = converter;
 		this.returnSig = returnSig;
-		thread.setName(name);
+		this.id = RThreadMonitor.nextId();
+		this.name = RThreadMonitor.register(this);
+		this.progress = RProgressMonitor.progress(this).orElseGet(RProgress::new);
+		this.submitted = RMetrics.start();
+		try {
+			task = RExecutors.submit(runner.pool(), new FutureTask<Void>(this::execute, null) {
+				@Override
+				protected void done() {
+					// cancelled by the user or discarded by the pool before or whilst running
+					if (isCancelled()) markCancelled();
+				}
+			});
+		} catch (RuntimeException e) {
+			RThreadMonitor.deregister(id);
+			throw e;
+		}
+	}
+	
+	// runs in the pool thread, which takes on the identity of this future whilst the method executes
+	private void execute() {
+		startup.countDown();
+		if (!state.compareAndSet(State.QUEUED, State.RUNNING)) return;
+		runner.invoker.queued.stop(submitted);
+		long start = RMetrics.start();
+		Thread current = Thread.currentThread();
+		String threadName = current.getName();
+		current.setName(name);
+		RThreadMonitor.enter(id);
+		try {
+			runner.run();
+			if (runner.interrupted()) {
+				markCancelled();
+			} else if (runner.exception != null) {
+				if (state.compareAndSet(State.RUNNING, State.FAILED)) completion.completeExceptionally(runner.exception);
+			} else {
+				if (state.compareAndSet(State.RUNNING, State.DONE)) completion.complete(runner.result);
+			}
+		} catch (RuntimeException e) {
+			runner.exception = e;
+			if (state.compareAndSet(State.RUNNING, State.FAILED)) completion.completeExceptionally(e);
+		} finally {
+			runner.invoker.run.stop(start);
+			RThreadMonitor.exit();
+			current.setName(threadName);
+			// output written after cancellation has nowhere to go
+			if (isCancelled()) RSystemOut.discard(id);
+		}
+	}
+	
+	/**
+	 * Wait for the method to start running in its pool.
+	 *
+	 * @param ms the maximum time to wait in milliseconds
+	 * @return true if the method has started, false if it is still queued
+	 * @throws java.lang.InterruptedException if interrupted whilst waiting
+	 */
+	public boolean awaitStart(long ms) throws InterruptedException {
+		return startup.await(ms, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @return true if the method has started running
+	 */
+	public boolean isStarted() {
+		return startup.getCount() == 0;
+	}
+	
+	/**
+	 * A view of the completion of this future for composing with other Java code. Completing or cancelling the
+	 * returned future does not affect this one.
+	 *
+	 * @return a future that completes with the raw Java result of the method, exceptionally with the error it
+	 * threw, or is cancelled if the method was interrupted
+	 */
+	public CompletableFuture<Object> toCompletableFuture() {
+		CompletableFuture<Object> out = new CompletableFuture<>();
+		completion.whenComplete((r,t) -> {
+			if (t instanceof CancellationException) out.cancel(false);
+			else if (t != null) out.completeExceptionally(t);
+			else out.complete(r);
+		});
+		return out;
+	}
+	
+	/**
+	 * Register a callback that is run when the method completes, is cancelled or fails. The callback runs in the
+	 * pool thread, or immediately in the calling thread if the method has already completed.
+	 *
+	 * @param callback receives the result, or null and the error (a CancellationException if cancelled)
+	 * @return this future
+	 */
+	public RFuture whenComplete(BiConsumer<Object, ? super Throwable> callback) {
+		completion.whenComplete(callback);
+		return this;
+	}
+	
+	/**
+	 * Chain Java side post-processing of the result, which runs in the pool thread as soon as the method completes
+	 * successfully.
+	 *
+	 * @param <T> the type of the post-processed result
+	 * @param fn the post-processing function
+	 * @return a future for the post-processed result
+	 */
+	public <T> CompletableFuture<T> thenApply(Function<Object, ? extends T> fn) {
+		return completion.thenApply(fn);
 	}
 	
 	/**
@@ -95,31 +243,51 @@ public class RFuture implements Future<Object> {
 	/** {@inheritDoc} */
 	@Override
 	public boolean cancel(boolean mayInterruptIfRunning) {
-		if (thread == null) return false;
-		if (!thread.getState().equals(java.lang.Thread.State.TERMINATED)) {
-			thread.interrupt();
-			cancelled = true;
+		if (markCancelled()) {
+			if (task != null) task.cancel(true);
+			return true;
 		}
-		processed = true;
+		// cancelling a finished call discards its result
+		markCompleted(true);
 		return isCancelled();
 	}
+	
+	// moves a queued or running call to cancelled, exactly once
+	private boolean markCancelled() {
+		State s = state.get();
+		while (!s.isFinished()) {
+			if (state.compareAndSet(s, State.CANCELLED)) {
+				completion.cancel(false);
+				RThreadMonitor.deregister(id);
+				return true;
+			}
+			s = state.get();
+		}
+		return false;
+	}
 
+	/**
+	 * @return the current lifecycle state of the call
+	 */
+	public State getState() {
+		return state.get();
+	}
+	
 	/** {@inheritDoc} */
 	@Override
 	public boolean isCancelled() {
-		return cancelled || runner.interrupted();
+		return state.get() == State.CANCELLED;
 	}
 
 	/** {@inheritDoc} */
 	@Override
 	public boolean isDone() {
-		return isCancelled() || 
-				thread == null ||
-				thread.getState().equals(java.lang.Thread.State.TERMINATED);
+		return state.get().isFinished();
 	}
 
 	public boolean isStale() {
-		return processed || (isDone() && runner.succeeded() && returnSig == "V");
+		State s = state.get();
+		return s == State.COLLECTED || s == State.CANCELLED || (s == State.DONE && returnSig == "V");
 	}
 	
 	public String getMethod() {
@@ -134,19 +302,29 @@ public class RFuture implements Future<Object> {
 	@Override
 	public Object get() throws InterruptedException, ExecutionException {
 		if (isCancelled()) {
-			processed = true;
 			throw new InterruptedException("Background call to `"+method+"(...)` was interrupted");
 		}
-		if (thread == null) return runner.result();
-		thread.join();
-		markCompleted();
+		if (state.get() == State.COLLECTED) return runner.result();
+		try {
+			completion.get();
+		} catch (CancellationException e) {
+			throw new InterruptedException("Background call to `"+method+"(...)` was interrupted");
+		} catch (ExecutionException e) {
+			// the error is reported by the runner below
+		}
+		markCompleted(false);
 		return runner.result();
 	}
 
-	private void markCompleted() {
-		processed = true;
-		thread = null;
-		if (returnSig == "V" || runner.autoTidy()) RThreadMonitor.deregister(id);
+	// moves a finished call to collected, and tidies it up once. A discarded result is not kept, and the call is
+	// removed from the registry whatever its policy.
+	private void markCompleted(boolean discard) {
+		State s = state.get();
+		if ((s == State.DONE || s == State.FAILED) && state.compareAndSet(s, State.COLLECTED)) {
+			if (discard) runner.result = null;
+			RSystemOut.discard(id);
+			if (discard || returnSig == "V" || runner.autoTidy()) RThreadMonitor.deregister(id);
+		}
 	}
 	
 	/**
@@ -167,21 +345,25 @@ public class RFuture implements Future<Object> {
 	@Override
 	public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
 		if (isCancelled()) {
-			processed = true;
 			throw new InterruptedException("Background call to `"+method+"(...)` was interrupted");
 		}
-		if (thread == null) return runner.result();
-		unit.timedJoin(thread, timeout);
-		if (!this.isDone()) {
-			processed = false;
+		if (state.get() == State.COLLECTED) return runner.result();
+		try {
+			completion.get(timeout, unit);
+		} catch (TimeoutException e) {
 			throw new TimeoutException("Background call to `"+method+"(...)` has not yet completed");
+		} catch (CancellationException e) {
+			throw new InterruptedException("Background call to `"+method+"(...)` was interrupted");
+		} catch (ExecutionException e) {
+			// the error is reported by the runner below
 		}
-		markCompleted();
+		markCompleted(false);
 		return runner.result();
 	}
 	
 	/**
-	 * Polls for completion for use in while loop.
+	 * Waits up to the given time for completion, for use in a while loop. This returns as soon as the method
+	 * completes rather than after the full time.
 	 *
 	 * @param ms time in millisecods
 	 * @return a boolean, true if completed, false if still running. Completed
@@ -190,17 +372,43 @@ public class RFuture implements Future<Object> {
 	 */
 	public boolean poll(long ms) {
 		try {
-			if (thread==null) return true;
-			thread.join(ms);
-			return !thread.isAlive();
-		} catch (InterruptedException e) {
+			if (isDone()) return true;
+			completion.get(ms, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (TimeoutException e) {
+			return false;
+		} catch (InterruptedException | ExecutionException | CancellationException e) {
 			return true;
 		}
 	}
 
+	/**
+	 * Waits up to the given time for completion and then reports everything the R session needs to follow the
+	 * call in one round trip. This returns as soon as the method completes, so callers can wait for longer between
+	 * calls without delaying the result.
+	 *
+	 * @param ms the maximum time to wait in milliseconds
+	 * @return a string array of the lifecycle state name (see {@link State}), the console output since the last
+	 * call, the progress as R code (see {@link #getProgressRCode()}), and the error message if the call failed
+	 * (otherwise empty).
+	 */
+	public String[] snapshot(long ms) {
+		poll(ms);
+		State s = state.get();
+		String error = "";
+		if (s == State.FAILED && runner.exception != null) error = String.valueOf(runner.exception.getMessage());
+		return new String[] {
+				s.name(),
+				getSystemMessages(),
+				getProgressRCode(),
+				error
+		};
+	}
+	
 	/**
 	 * Gets the system messages from Java for thread in current
-	 * method thread.
+	 * method thread. These are discarded when the result is collected
+	 * or the call is cancelled.
 	 *
 	 * @return the system messages
 	 */
@@ -209,12 +417,11 @@ public class RFuture implements Future<Object> {
 	}
 	
 	public void attachProgressBar(String name) {
-		RProgressMonitor.setName(this,name);
+		progress.setName(name);
 	}
 	
-	// possible this has been deregistered.
 	private Optional<RProgress> getProgress(){
-		return RProgressMonitor.progress(this);
+		return Optional.of(progress);
 	}
 	
 	public String getProgressRCode() {
@@ -242,7 +449,7 @@ public class RFuture implements Future<Object> {
 			+(this.isCancelled() ? " [cancelled]" : 
 				(this.isDone() ? 
 					(this.isStale() ? " [result processed]" : " [result ready]"):
-					(this.getProgress().map(p -> " ["+p.toString()+"]").orElse(" [in progress]"))
+					(!isStarted() ? " [queued]" : this.getProgress().map(p -> " ["+p.toString()+"]").orElse(" [in progress]"))
 				)
 			);
 	}
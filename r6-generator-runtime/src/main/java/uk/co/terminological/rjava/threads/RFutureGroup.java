@@ -0,0 +1,204 @@
+package uk.co.terminological.rjava.threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import uk.co.terminological.rjava.UnconvertableTypeException;
+import uk.co.terminological.rjava.types.RDataframe;
+import uk.co.terminological.rjava.types.RList;
+import uk.co.terminological.rjava.types.RNull;
+import uk.co.terminological.rjava.types.RObject;
+import uk.co.terminological.rjava.types.RVector;
+
+/**
+ * A batch of background calls to the same method with different parameters, submitted from R in one call. Each
+ * call is an ordinary {@link RFuture} in its executor pool, and the group reports their combined progress and
+ * collects their results together, in the order the parameters were given.
+ *
+ * This is intended really to be only accessible through generated R code (`.background_batch(...)`) and not
+ * generally expected to be used directly.
+ */
+public class RFutureGroup {
+
+	List<RFuture> futures;
+	String method;
+	String name;
+
+	/**
+	 * Submit one call per row of a dataframe. The columns of the dataframe are the parameters of the method, in
+	 * order.
+	 *
+	 * @param o a {@link java.lang.Object} or a String representing a fully qualified class name
+	 * @param method the method to call
+	 * @param parameters the parameters of each call, one row per call
+	 * @param returnSig the return signature in JNI notation
+	 * @throws java.lang.NoSuchMethodException if any.
+	 * @throws java.lang.SecurityException if any.
+	 * @throws java.lang.ClassNotFoundException if any.
+	 */
+	public RFutureGroup(Object o, String method, RDataframe parameters, String returnSig) throws NoSuchMethodException, SecurityException, ClassNotFoundException {
+		this(o, method, rows(parameters), returnSig);
+	}
+
+	/**
+	 * Submit one call per list of parameters.
+	 *
+	 * @param o a {@link java.lang.Object} or a String representing a fully qualified class name
+	 * @param method the method to call
+	 * @param parameters the parameters of each call
+	 * @param returnSig the return signature in JNI notation
+	 * @throws java.lang.NoSuchMethodException if any.
+	 * @throws java.lang.SecurityException if any.
+	 * @throws java.lang.ClassNotFoundException if any.
+	 */
+	public RFutureGroup(Object o, String method, List<? extends List<Object>> parameters, String returnSig) throws NoSuchMethodException, SecurityException, ClassNotFoundException {
+		this.method = method;
+		this.futures = new ArrayList<>(parameters.size());
+		try {
+			for (List<Object> params: parameters) {
+				futures.add(new RFuture(o, method, new ArrayList<>(params), returnSig, "identity"));
+			}
+		} catch (RuntimeException | NoSuchMethodException | ClassNotFoundException e) {
+			// e.g. the pool queue is full, so nothing from this batch is left running
+			cancel();
+			throw e;
+		}
+	}
+
+	private static List<List<Object>> rows(RDataframe parameters) {
+		List<RVector<?>> cols = new ArrayList<>(parameters.values());
+		List<List<Object>> out = new ArrayList<>(parameters.nrow());
+		for (int i=0; i<parameters.nrow(); i++) {
+			List<Object> row = new ArrayList<>(cols.size());
+			for (RVector<?> col: cols) row.add(col.get(i));
+			out.add(row);
+		}
+		return out;
+	}
+
+	/**
+	 * @return the number of calls in the group
+	 */
+	public int size() {
+		return futures.size();
+	}
+
+	/**
+	 * @return the number of calls that have finished, in whatever way
+	 */
+	public int finished() {
+		return (int) futures.stream().filter(RFuture::isDone).count();
+	}
+
+	/**
+	 * @return the ids of the calls, for use with `.background_status()` and related functions
+	 */
+	public long[] getIds() {
+		return futures.stream().mapToLong(RFuture::getId).toArray();
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Cancel every call in the group that has not finished.
+	 */
+	public void cancel() {
+		futures.forEach(RFuture::cancel);
+	}
+
+	/**
+	 * Waits up to the given time for every call to finish.
+	 *
+	 * @param ms time in milliseconds
+	 * @return true if all the calls have finished
+	 */
+	public boolean poll(long ms) {
+		try {
+			CompletableFuture.allOf(futures.stream()
+					.map(f -> f.completion.handle((r,t) -> null))
+					.toArray(CompletableFuture<?>[]::new))
+				.get(ms, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (TimeoutException e) {
+			return false;
+		} catch (InterruptedException | ExecutionException e) {
+			return true;
+		}
+	}
+
+	public void attachProgressBar(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the number of finished calls out of the total as R code, or "NULL" if no progress bar is attached.
+	 */
+	public String getProgressRCode() {
+		if (name == null) return "NULL";
+		return String.format("list(total=%d, set=%d, id=\"%s\")", size(), finished(), name);
+	}
+
+	/**
+	 * Waits up to the given time for the group to finish and reports its state in one round trip, in the same
+	 * form as {@link RFuture#snapshot(long)}. The state is RUNNING until every call has finished, then CANCELLED
+	 * if any call was cancelled, FAILED if any call failed, and DONE otherwise.
+	 *
+	 * @param ms the maximum time to wait in milliseconds
+	 * @return the state, the console output of the calls since the last call, the progress as R code, and the first
+	 * error message
+	 */
+	public String[] snapshot(long ms) {
+		String state = poll(ms) ? finalState() : "RUNNING";
+		String messages = futures.stream()
+				.map(RFuture::getSystemMessages)
+				.filter(s -> !s.isEmpty())
+				.collect(Collectors.joining("\n"));
+		String error = futures.stream()
+				.filter(f -> f.getState() == RFuture.State.FAILED && f.runner.exception != null)
+				.map(f -> String.valueOf(f.runner.exception.getMessage()))
+				.findFirst().orElse("");
+		return new String[] {state, messages, getProgressRCode(), error};
+	}
+
+	private String finalState() {
+		if (futures.stream().anyMatch(RFuture::isCancelled)) return RFuture.State.CANCELLED.name();
+		if (futures.stream().anyMatch(f -> f.getState() == RFuture.State.FAILED)) return RFuture.State.FAILED.name();
+		return RFuture.State.DONE.name();
+	}
+
+	/**
+	 * Wait for and collect the results of all the calls, in the order they were submitted. If every call returned
+	 * a dataframe these are bound by row into a single dataframe, otherwise the results are returned as a list.
+	 *
+	 * @return an {@link RDataframe} or an {@link RList}
+	 * @throws java.lang.InterruptedException if any call was cancelled
+	 * @throws java.util.concurrent.ExecutionException if any call failed
+	 * @throws uk.co.terminological.rjava.UnconvertableTypeException if a result cannot be put in an R list
+	 */
+	public RObject collect() throws InterruptedException, ExecutionException, UnconvertableTypeException {
+		List<Object> results = new ArrayList<>(futures.size());
+		for (RFuture f: futures) results.add(f.get());
+		if (!results.isEmpty() && results.stream().allMatch(r -> r instanceof RDataframe)) {
+			RDataframe out = new RDataframe();
+			for (Object r: results) out.bindRows((RDataframe) r);
+			return out;
+		}
+		RList out = new RList();
+		for (Object r: results) {
+			if (r == null) out.add(new RNull());
+			else out.addRaw(r);
+		}
+		return out;
+	}
+
+	public String toString() {
+		return method+"(...) x "+size()+" ["+finished()+" of "+size()+" finished]";
+	}
+}
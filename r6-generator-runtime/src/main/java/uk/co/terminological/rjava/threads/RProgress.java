@@ -1,41 +1,91 @@
 package uk.co.terminological.rjava.threads;
 
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The progress of a background call. Increments are counted in a {@link LongAdder} so they can come from many
+ * threads at once (e.g. parallel stream workers) without contention or lost updates. The rate of progress and an
+ * estimate of the time remaining are calculated from the time of the first increment.
+ */
 public class RProgress {
 
-	private int target = -1;
-	private int progress = 0;
-	private String name;
-	
+	private volatile long target = -1;
+	private final LongAdder progress = new LongAdder();
+	private volatile long startNanos = 0;
+	private volatile String name;
+
 	public void setTarget(int target) {
 		this.target = target;
 	}
-	
+
 	public void increment() throws InterruptedException {
 		increment(1);
 	}
-	
+
 	public void increment(int i) throws InterruptedException {
 		if (Thread.interrupted()) throw new InterruptedException();
-		progress += i;
-		if (progress > target) target = -1;
+		if (startNanos == 0) startNanos = System.nanoTime();
+		progress.add(i);
+		long t = target;
+		if (t != -1 && progress.sum() > t) target = -1;
+	}
+
+	/**
+	 * @return the number of items completed so far
+	 */
+	public long getProgress() {
+		return progress.sum();
+	}
+
+	/**
+	 * @return the average number of items completed per second since the first increment, or NaN if not known
+	 */
+	public double rate() {
+		long start = startNanos;
+		if (start == 0) return Double.NaN;
+		double seconds = (System.nanoTime()-start)/1e9;
+		return seconds > 0 ? progress.sum()/seconds : Double.NaN;
 	}
-	
+
+	/**
+	 * @return the estimated number of seconds until the target is reached at the current rate, or NaN if not known
+	 */
+	public double eta() {
+		long t = target;
+		double rate = rate();
+		if (t == -1 || Double.isNaN(rate) || rate == 0) return Double.NaN;
+		return Math.max(t-progress.sum(), 0)/rate;
+	}
+
 	public String toString() {
-		if (this.target != -1) {
-			double tmp = ((double) progress)/target*100;
-			return String.format("%d/%d (%.0f%%)", progress, target, tmp);
+		long p = progress.sum();
+		long t = target;
+		String rate = Double.isNaN(rate()) ? "" : String.format(Locale.ROOT, ", %.1f/s", rate());
+		if (t != -1) {
+			double tmp = ((double) p)/t*100;
+			String eta = Double.isNaN(eta()) ? "" : String.format(Locale.ROOT, ", %.0fs left", eta());
+			return String.format(Locale.ROOT, "%d/%d (%.0f%%%s%s)", p, t, tmp, rate, eta);
 		} else {
-			if (progress == 0) return "in progress...";
-			return "step "+progress+" complete";
+			if (p == 0) return "in progress...";
+			return "step "+p+" complete"+(rate.isEmpty() ? "" : " ("+rate.substring(2)+")");
 		}
 	}
-	
+
 	public String rCode() {
+		String name = this.name;
 		if (name==null) return("NULL");
-		if (target == -1) {
-			return String.format("list(total=NA, set=%d, id=\"%s\")", this.progress, this.name);
+		long p = progress.sum();
+		long t = target;
+		String extra = String.format(Locale.ROOT, ", rate=%s, eta=%s", rNumber(rate()), rNumber(eta()));
+		if (t == -1) {
+			return String.format(Locale.ROOT, "list(total=NA, set=%d, id=\"%s\"%s)", p, name, extra);
 		}
-		return String.format("list(total=%d, set=%d, id=\"%s\")", this.target, this.progress, this.name);
+		return String.format(Locale.ROOT, "list(total=%d, set=%d, id=\"%s\"%s)", t, p, name, extra);
+	}
+
+	private static String rNumber(double d) {
+		return Double.isNaN(d) ? "NA" : String.format(Locale.ROOT, "%.3f", d);
 	}
 
 	public void setName(String name) {
@@ -44,8 +94,11 @@ public class RProgress {
 
 	public void complete() throws InterruptedException {
 		if (Thread.interrupted()) throw new InterruptedException();
-		progress = (target == -1) ? progress : target;
-		target = progress;
+		long t = target;
+		if (t != -1) {
+			progress.add(t-progress.sum());
+		}
+		target = progress.sum();
 	}
 
 }
@@ -7,27 +7,30 @@ import java.util.concurrent.ConcurrentMap;
 /**
  * A set of static methods for monitoring progress
  * The key functions are setTotal()
+ *
+ * Progress belongs to the RFuture that is running in the current thread. Work that a background method hands
+ * on to other threads (e.g. a parallel stream or another executor) counts towards the same progress if it is
+ * wrapped with {@link RThreadMonitor#inherit(Runnable)}, or if it updates the {@link RProgress} from
+ * {@link #current()} directly.
  */
 public class RProgressMonitor {
 
 	private static ConcurrentMap<Long, RProgress> monitors = new ConcurrentHashMap<>();
 	
 	protected static void register() {
-		Long id = Thread.currentThread().getId();
-		register(id);
+		register(RThreadMonitor.currentId());
 	}
 	
 	protected static void register(long id) {
-		if (!monitors.containsKey(id)) monitors.put(id, new RProgress());
+		monitors.putIfAbsent(id, new RProgress());
 	}
 	
 	protected static void deregister() {
-		Long id = Thread.currentThread().getId();
-		register(id);
+		deregister(RThreadMonitor.currentId());
 	}
 	
 	protected static void deregister(long id) {
-		if (monitors.containsKey(id)) monitors.remove(id);
+		monitors.remove(id);
 	}
 	
 	protected static Optional<RProgress> progress(RFuture fut) {
@@ -35,9 +38,21 @@ public class RProgressMonitor {
 	}
 	
 	private static RProgress prog() {
-		Long id = Thread.currentThread().getId();
-		register(id);
-		return monitors.get(id);
+		// an RFuture registers its progress when created, so if there is none the update comes from outside a
+		// background call (e.g. a synchronous method, or a thread that did not inherit the call) or from a call
+		// that has been removed (e.g. cancelled). Nothing can read such progress, so the update is ignored rather
+		// than leaving an entry behind for the thread.
+		RProgress out = monitors.get(RThreadMonitor.currentId());
+		return out != null ? out : new RProgress();
+	}
+	
+	/**
+	 * The progress of the current background call, which is safe to update from any thread.
+	 * 
+	 * @return the progress
+	 */
+	public static RProgress current() {
+		return prog();
 	}
 	
 	public static void increment() throws InterruptedException {
@@ -54,8 +69,7 @@ public class RProgressMonitor {
 	}
 
 	protected static void setName(RFuture fut, String name) {
-		register(fut.getId());
-		monitors.get(fut.getId()).setName(name);
+		monitors.computeIfAbsent(fut.getId(), i -> new RProgress()).setName(name);
 	}
 
 	public static void complete() throws InterruptedException {
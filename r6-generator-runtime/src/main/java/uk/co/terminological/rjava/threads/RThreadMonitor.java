@@ -1,81 +1,212 @@
 package uk.co.terminological.rjava.threads;
 
-import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import uk.co.terminological.rjava.IdNotFoundException;
 import uk.co.terminological.rjava.RSystemOut;
 
+/**
+ * The registry of background calls, indexed by the id of each {@link RFuture}. This is safe to use from the R
+ * session and pool threads at the same time, and lookups by id are constant time. Calls are removed when they are
+ * cancelled, when the result of a call that does not persist is collected, or when tidied up.
+ */
 public class RThreadMonitor {
 
-	private static ArrayList<RFuture> threads = new ArrayList<>();
+	private static ConcurrentMap<Long, RFuture> threads = new ConcurrentHashMap<>();
+	private static AtomicLong ids = new AtomicLong();
+	private static ThreadLocal<Long> running = new ThreadLocal<>();
 	
+	protected static long nextId() {
+		return ids.incrementAndGet();
+	}
+	
+	protected static void enter(long id) {
+		running.set(id);
+	}
+	
+	protected static void exit() {
+		running.remove();
+	}
+	
+	/**
+	 * Identifies the work being done by the current thread, for keying its output and progress. Pool threads
+	 * are reused so within an RFuture this is the id of the future, otherwise it is minus the thread id so the two
+	 * cannot clash.
+	 * 
+	 * @return the id of the RFuture running in this thread, or minus the thread id 
+	 */
+	public static long currentId() {
+		Long id = running.get();
+		return id != null ? id : -Thread.currentThread().getId();
+	}
+	
+	/**
+	 * Wrap a task so that it runs as part of the background call that is current when this is called, wherever it
+	 * runs. Its progress updates and console output are then attributed to that call. Use this for work handed to
+	 * other threads from within an @RAsync method.
+	 * 
+	 * @param task the task
+	 * @return a task that runs with the identity of the current call
+	 */
+	public static Runnable inherit(Runnable task) {
+		long id = currentId();
+		return () -> {
+			Long previous = running.get();
+			running.set(id);
+			try {
+				task.run();
+			} finally {
+				if (previous == null) running.remove();
+				else running.set(previous);
+			}
+		};
+	}
+	
+	/**
+	 * Wrap a function so that it runs as part of the background call that is current when this is called, e.g.
+	 * in `stream.parallel().map(RThreadMonitor.inherit(x -> ...))`.
+	 * 
+	 * @param <X> the input type
+	 * @param <Y> the output type
+	 * @param fn the function
+	 * @return a function that runs with the identity of the current call
+	 */
+	public static <X,Y> Function<X,Y> inherit(Function<X,Y> fn) {
+		long id = currentId();
+		return x -> {
+			Long previous = running.get();
+			running.set(id);
+			try {
+				return fn.apply(x);
+			} finally {
+				if (previous == null) running.remove();
+				else running.set(previous);
+			}
+		};
+	}
+	
+	/**
+	 * Create an unstarted thread for a task, which is a virtual thread when running on Java 21 or later and a
+	 * platform daemon thread otherwise.
+	 * 
+	 * @param runner the task
+	 * @return an unstarted thread
+	 */
 	public static Thread build(Runnable runner) {
-		try {
-			return (Thread) Thread.class.getMethod("startVirtualThread").invoke(runner);
-		} catch(NoSuchMethodException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e){
-			return new Thread(runner);
-		}
+		return VirtualThreads.unstarted("rjava-thread-"+ids.incrementAndGet(), runner);
 	}
 	
 	
+	/**
+	 * Add a future to the registry.
+	 * 
+	 * @param future the future, which must already have its id
+	 * @return a unique name for the thread running the future
+	 */
 	public static String register(RFuture future) {
-		threads.add(future);
+		threads.put(future.getId(), future);
 		RProgressMonitor.register(future.getId());
-		return(future.getMethod()+"#"+threads.size());
+		return(future.getMethod()+"#"+future.getId());
 	}
 	
-	private static void removeStale() {
-		for (Iterator<RFuture> it = threads.iterator(); it.hasNext(); ) {
-			RFuture fut = it.next();
-			if (fut.isStale()) {
-				it.remove();
-				RProgressMonitor.deregister(fut.getId());
-			}
-		}
+	private static void removeIf(Predicate<RFuture> test) {
+		threads.values().stream()
+			.filter(test)
+			.mapToLong(RFuture::getId)
+			.forEach(RThreadMonitor::deregister);
 	}
 	
-	private static void removeCancelled() {
-		for (Iterator<RFuture> it = threads.iterator(); it.hasNext(); ) {
-			RFuture fut = it.next();
-			if (fut.isCancelled()) {
-				it.remove();
-				RProgressMonitor.deregister(fut.getId());
-			}
-		}
+	// registered futures in the order they were created
+	private static Stream<RFuture> ordered() {
+		return threads.values().stream().sorted(Comparator.comparingLong(RFuture::getId));
 	}
 	
 	public static String status() {
 		System.out.println(messages());
-		removeCancelled();
-		String out = threads.stream().map(
+		String out = ordered().map(
 				t -> t.toString())
 			.collect(Collectors.joining("\n"));
-		return out;
+		String pools = RExecutors.status();
+		if (pools.isEmpty()) return out;
+		return out.isEmpty() ? pools : out+"\n"+pools;
 	}
 	
 	public static void cancelAll() {
-		threads.stream().forEach(t -> t.cancel());
-		removeCancelled();
+		threads.values().forEach(t -> t.cancel());
 	}
 	
 	public static void cancel(long id) {
-		threads.stream()
-			.filter(t -> t.getId()==id)
-			.findFirst()
-			.ifPresent(t -> t.cancel());
-		removeCancelled();
+		RFuture fut = threads.get(id);
+		if (fut != null) fut.cancel();
 	}
 	
 	public static RFuture get(long id) {
-		return threads.stream()
-			.filter(t -> t.getId()==id)
-			.findFirst()
-			.orElseThrow(() -> new IdNotFoundException(id));
+		RFuture fut = threads.get(id);
+		if (fut == null) throw new IdNotFoundException(id);
+		return fut;
+	}
+	
+	/**
+	 * Wait for all of a set of background calls to complete, fail or be cancelled. This blocks without polling so
+	 * from R it should be called with a short timeout in a loop, to allow the R session to be interrupted.
+	 * 
+	 * @param ids the ids of the futures from `.background_status()`
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return true if all the futures are done, false if the timeout expired first
+	 * @throws InterruptedException if interrupted whilst waiting
+	 */
+	public static boolean awaitAll(long[] ids, long timeout) throws InterruptedException {
+		try {
+			CompletableFuture.allOf(completions(ids)).get(timeout, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (TimeoutException e) {
+			return false;
+		} catch (ExecutionException e) {
+			// completions are never exceptional
+			return true;
+		}
+	}
+	
+	/**
+	 * Wait for any one of a set of background calls to complete, fail or be cancelled.
+	 * 
+	 * @param ids the ids of the futures from `.background_status()`
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return the id of a future that is done, or -1 if the timeout expired first
+	 * @throws InterruptedException if interrupted whilst waiting
+	 */
+	public static long awaitAny(long[] ids, long timeout) throws InterruptedException {
+		try {
+			return (Long) CompletableFuture.anyOf(completions(ids)).get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			return -1;
+		} catch (ExecutionException e) {
+			return -1;
+		}
+	}
+	
+	// the completion of each future mapped to its id, however it finished. Futures that are no longer
+	// registered have been cancelled or collected so count as finished.
+	private static CompletableFuture<?>[] completions(long[] ids) {
+		return Arrays.stream(ids)
+			.mapToObj(id -> {
+				RFuture fut = threads.get(id);
+				if (fut == null) return CompletableFuture.completedFuture(id);
+				return fut.completion.handle((r,t) -> id);
+			})
+			.toArray(CompletableFuture<?>[]::new);
 	}
 	
 	public static String messages(long id) {
@@ -91,7 +222,7 @@ public class RThreadMonitor {
 	}
 	
 	public static String messages() {
-		return threads.stream()
+		return ordered()
 				.flatMap(t -> {
 					String tmp = messages(t.getId()).trim();
 					if (tmp == "") return Stream.empty();
@@ -101,17 +232,22 @@ public class RThreadMonitor {
 	}
 	
 	public static void tidyUp() {
-		removeStale();
-		removeCancelled();
+		removeIf(RFuture::isStale);
 	}
 	
+	/**
+	 * Remove a future, and its progress and console output, from the registry. This does nothing if it has 
+	 * already been removed.
+	 * 
+	 * @param id the future id
+	 */
 	public static void deregister(long id) {
-		RFuture fut = get(id);
-		threads.remove(fut);
+		threads.remove(id);
+		RProgressMonitor.deregister(id);
+		RSystemOut.discard(id);
 	}
 	
 	public static void deregister() {
-		long id = Thread.currentThread().getId();
-		deregister(id);
+		deregister(currentId());
 	}
 }
@@ -0,0 +1,165 @@
+package uk.co.terminological.rjava.threads;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access to virtual threads when running on Java 21 or later. This library is compiled for Java 8 so the virtual
+ * thread API is looked up reflectively once, and everything here degrades to platform threads when it is not
+ * present.
+ *
+ * Pinning, where a virtual thread blocks whilst holding a monitor and so ties up its carrier thread, is detected
+ * with a JFR event stream that is started when the first virtual pool is created. Pinning events are logged and
+ * counted.
+ */
+class VirtualThreads {
+
+	static Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+
+	/** The minimum duration of a pinned wait that is reported. */
+	static final Duration PINNING_THRESHOLD = Duration.ofMillis(20);
+
+	/** Whether virtual threads are supported by this JVM. */
+	static final boolean AVAILABLE;
+
+	private static final Method OF_VIRTUAL;
+	private static final Method BUILDER_NAME;
+	private static final Method BUILDER_UNSTARTED;
+	private static final Method BUILDER_FACTORY;
+	private static final Method IS_VIRTUAL;
+	private static final Method PER_TASK_EXECUTOR;
+
+	private static final AtomicBoolean monitoring = new AtomicBoolean(false);
+	private static final AtomicLong pinned = new AtomicLong();
+
+	static {
+		Method ofVirtual = null, name = null, unstarted = null, factory = null, isVirtual = null, perTask = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			name = builder.getMethod("name", String.class, long.class);
+			unstarted = builder.getMethod("unstarted", Runnable.class);
+			factory = builder.getMethod("factory");
+			isVirtual = Thread.class.getMethod("isVirtual");
+			perTask = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+		} catch (ReflectiveOperationException | SecurityException e) {
+			ofVirtual = null;
+		}
+		AVAILABLE = ofVirtual != null;
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = name;
+		BUILDER_UNSTARTED = unstarted;
+		BUILDER_FACTORY = factory;
+		IS_VIRTUAL = isVirtual;
+		PER_TASK_EXECUTOR = perTask;
+	}
+
+	private VirtualThreads() {}
+
+	/**
+	 * @param thread a thread
+	 * @return true if the thread is virtual
+	 */
+	static boolean isVirtual(Thread thread) {
+		if (!AVAILABLE) return false;
+		try {
+			return (Boolean) IS_VIRTUAL.invoke(thread);
+		} catch (ReflectiveOperationException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * An unstarted virtual thread, or a platform daemon thread if virtual threads are not available.
+	 *
+	 * @param name the thread name
+	 * @param task the task to run
+	 * @return an unstarted thread
+	 */
+	static Thread unstarted(String name, Runnable task) {
+		if (AVAILABLE) {
+			try {
+				Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name, 0L);
+				Thread out = (Thread) BUILDER_UNSTARTED.invoke(builder, task);
+				out.setName(name);
+				return out;
+			} catch (ReflectiveOperationException e) {
+				log.debug("Could not create virtual thread: "+e.getMessage());
+			}
+		}
+		Thread out = new Thread(task, name);
+		out.setDaemon(true);
+		return out;
+	}
+
+	/**
+	 * An executor that starts a new virtual thread for each task, with threads named by the prefix and a counter.
+	 *
+	 * @param prefix the thread name prefix
+	 * @return the executor
+	 * @throws UnsupportedOperationException if virtual threads are not available
+	 */
+	static ExecutorService executor(String prefix) {
+		if (!AVAILABLE) throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+		try {
+			Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 1L);
+			ThreadFactory factory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+			return (ExecutorService) PER_TASK_EXECUTOR.invoke(null, factory);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Could not create virtual thread executor", e);
+		}
+	}
+
+	/**
+	 * @return the number of pinning events seen since monitoring started
+	 */
+	static long pinned() {
+		return pinned.get();
+	}
+
+	/**
+	 * Start a JFR stream of virtual thread pinning events in a background daemon thread, if it is not already
+	 * running. If JFR is not available (e.g. in a minimal runtime) this just logs that pinning is not monitored.
+	 */
+	static void monitorPinning() {
+		if (!monitoring.compareAndSet(false, true)) return;
+		try {
+			Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+			Class<?> settingsClass = Class.forName("jdk.jfr.EventSettings");
+			Object stream = streamClass.getConstructor().newInstance();
+			Object settings = streamClass.getMethod("enable", String.class).invoke(stream, "jdk.VirtualThreadPinned");
+			settingsClass.getMethod("withThreshold", Duration.class).invoke(settings, PINNING_THRESHOLD);
+			settingsClass.getMethod("withStackTrace").invoke(settings);
+			Consumer<Object> handler = VirtualThreads::onPinned;
+			streamClass.getMethod("onEvent", String.class, Consumer.class).invoke(stream, "jdk.VirtualThreadPinned", handler);
+			Method start = streamClass.getMethod("start");
+			// start() blocks, and runs in our own daemon thread so it does not keep the JVM alive
+			Thread t = new Thread(() -> {
+				try {
+					start.invoke(stream);
+				} catch (ReflectiveOperationException e) {
+					log.info("Virtual thread pinning monitor stopped: "+e);
+				}
+			}, "rjava-pinning-monitor");
+			t.setDaemon(true);
+			t.start();
+		} catch (ReflectiveOperationException | LinkageError | SecurityException e) {
+			log.info("Virtual thread pinning is not being monitored: "+e);
+		}
+	}
+
+	private static void onPinned(Object event) {
+		long count = pinned.incrementAndGet();
+		// the event toString includes the duration, thread and stack trace
+		log.warn("Virtual thread pinned its carrier thread (pinning event "+count+"): "+event);
+	}
+
+}
@@ -0,0 +1,143 @@
+package uk.co.terminological.rjava.types;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The groups of a dataframe for a set of grouping columns. The group id of every row is computed once by hashing
+ * the {@link RVector#groupCodes()} of each grouping column in turn, and the rows are then bucketed by group so
+ * that the rows of any group can be gathered from the columns without scanning the dataframe again. Groups are
+ * numbered in order of first appearance and the rows within a group are in ascending order.
+ *
+ * @author terminological
+ * @version $Id: $Id
+ */
+final class Grouping {
+
+	private final int[] ids;
+	private final int count;
+	private final int[] offsets;
+	private final int[] rows;
+
+	Grouping(RDataframe dataframe, Collection<String> columns) {
+		int n = dataframe.nrow();
+		ids = new int[n];
+		int groups = n > 0 ? 1 : 0;
+		for (String column: columns) {
+			int[] codes = dataframe.get(column).groupCodes();
+			LongIndex index = new LongIndex(groups);
+			for (int i=0; i<n; i++) {
+				ids[i] = index.id(((long) ids[i] << 32) | (codes[i] & 0xFFFFFFFFL));
+			}
+			groups = index.size();
+		}
+		count = groups;
+		// counting sort of the row indices by group id
+		offsets = new int[count+1];
+		for (int i=0; i<n; i++) offsets[ids[i]+1]++;
+		for (int g=0; g<count; g++) offsets[g+1] += offsets[g];
+		rows = new int[n];
+		int[] next = Arrays.copyOf(offsets, count);
+		for (int i=0; i<n; i++) rows[next[ids[i]]++] = i;
+	}
+
+	/**
+	 * @return the number of groups
+	 */
+	int count() {
+		return count;
+	}
+
+	/**
+	 * @return the group id of each row
+	 */
+	int[] ids() {
+		return ids;
+	}
+
+	/**
+	 * @param group a group id
+	 * @return the row indices of the group, in ascending order
+	 */
+	int[] rows(int group) {
+		return Arrays.copyOfRange(rows, offsets[group], offsets[group+1]);
+	}
+
+	/**
+	 * @return the first row of each group
+	 */
+	int[] firstRows() {
+		int[] out = new int[count];
+		for (int g=0; g<count; g++) out[g] = rows[offsets[g]];
+		return out;
+	}
+
+	/**
+	 * @return the number of rows in each group
+	 */
+	int[] sizes() {
+		int[] out = new int[count];
+		for (int g=0; g<count; g++) out[g] = offsets[g+1]-offsets[g];
+		return out;
+	}
+
+	/**
+	 * An open addressing hash table from primitive long keys to ids, which are allocated in order of first
+	 * appearance starting from zero.
+	 */
+	static final class LongIndex {
+
+		private long[] keys;
+		// id+1 of the key in each slot, or zero for an empty slot
+		private int[] slots;
+		private int size;
+
+		LongIndex(int expected) {
+			int capacity = Integer.highestOneBit(Math.max(expected, 8)*2-1)*2;
+			keys = new long[capacity];
+			slots = new int[capacity];
+		}
+
+		int id(long key) {
+			int mask = slots.length-1;
+			int slot = mix(key) & mask;
+			while (slots[slot] != 0) {
+				if (keys[slot] == key) return slots[slot]-1;
+				slot = (slot+1) & mask;
+			}
+			keys[slot] = key;
+			slots[slot] = ++size;
+			if (size*2 > slots.length) grow();
+			return size-1;
+		}
+
+		int size() {
+			return size;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldSlots = slots;
+			keys = new long[oldKeys.length*2];
+			slots = new int[oldSlots.length*2];
+			int mask = slots.length-1;
+			for (int i=0; i<oldSlots.length; i++) {
+				if (oldSlots[i] == 0) continue;
+				int slot = mix(oldKeys[i]) & mask;
+				while (slots[slot] != 0) slot = (slot+1) & mask;
+				keys[slot] = oldKeys[i];
+				slots[slot] = oldSlots[i];
+			}
+		}
+
+		private static int mix(long key) {
+			// murmur3 finaliser
+			key ^= key >>> 33;
+			key *= 0xff51afd7ed558ccdL;
+			key ^= key >>> 33;
+			key *= 0xc4ceb9fe1a85ec53L;
+			key ^= key >>> 33;
+			return (int) key;
+		}
+	}
+}
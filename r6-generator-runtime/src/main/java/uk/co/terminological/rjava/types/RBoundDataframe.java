@@ -2,12 +2,12 @@ package uk.co.terminological.rjava.types;
 
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Parameter;
 import java.lang.reflect.Proxy;
@@ -15,17 +15,26 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import uk.co.terminological.rjava.AfterLastElementException;
+import uk.co.terminological.rjava.BeforeFirstElementException;
 import uk.co.terminological.rjava.RName;
 import uk.co.terminological.rjava.UnconvertableTypeException;
 
 /**
  * A RBoundDataframe is a dataframe bound to an annotated POJO interface type.
+ * 
+ * <p>Getters, setters and constructor parameters are resolved once at binding time into accessors that read
+ * the underlying column vectors by row index, so coercing a row does not copy the row into a {@link RDataframeRow}.
+ * Interfaces are implemented by a proxy over a lightweight row cursor, and {@link #streamFlyweight()} reuses a
+ * single cursor per thread so that streaming does not allocate per row at all.</p>
  *
  * @param <X> the generic type
  * @author vp22681
@@ -34,9 +43,13 @@ import uk.co.terminological.rjava.UnconvertableTypeException;
 public class RBoundDataframe<X> extends RDataframe {
 
 	private Class<X> type;
-	private transient Map<Method,Function<RDataframeRow,RPrimitive>> getterMap;
-	private transient Map<Method,Function<RDataframeRow,RPrimitive>> setterMap;
-	private transient List<Function<RDataframeRow,RPrimitive>> paramList;
+	private transient Map<Method,IntFunction<RPrimitive>> getterMap;
+	private transient Map<Method,IntFunction<RPrimitive>> setterMap;
+	private transient List<IntFunction<RPrimitive>> paramList;
+	private transient MethodHandle factory;
+	private transient boolean recordStyle;
+	private transient Map<MethodHandle,IntFunction<RPrimitive>> setterHandles;
+	private transient Map<Method,MethodHandle> defaultHandles;
 	private boolean strict;
 
 	/**
@@ -104,6 +117,43 @@ public class RBoundDataframe<X> extends RDataframe {
 		createGetterMap();
 		createSetterMap();
 		createParamList();
+		createHandles();
+	}
+	
+	// Accessors read straight from the column vector. Column types have already been checked against the 
+	// bound type so no cast is needed per call.
+	private IntFunction<RPrimitive> column(String colName) {
+		RVector<? extends RPrimitive> col = this.get(colName);
+		return i -> col.get(i);
+	}
+	
+	private static IntFunction<RPrimitive> missing(Class<? extends RPrimitive> type) {
+		RPrimitive na = RPrimitive.na(type);
+		return i -> na;
+	}
+	
+	private void createHandles() throws UnconvertableTypeException {
+		defaultHandles = new ConcurrentHashMap<>();
+		setterHandles = new HashMap<>();
+		factory = null;
+		recordStyle = isRecordStyle(type);
+		if (type.isInterface()) return;
+		Lookup lookup = MethodHandles.lookup();
+		try {
+			if (recordStyle) {
+				Constructor<?> constructor = type.getDeclaredConstructors()[0];
+				factory = lookup.unreflectConstructor(constructor)
+						.asType(MethodType.methodType(Object.class, constructor.getParameterTypes()))
+						.asSpreader(Object[].class, constructor.getParameterCount());
+			} else if (isJavaBean(type)) {
+				factory = lookup.unreflectConstructor(type.getDeclaredConstructor());
+				for (Map.Entry<Method,IntFunction<RPrimitive>> setter : setterMap.entrySet()) {
+					setterHandles.put(lookup.unreflect(setter.getKey()), setter.getValue());
+				}
+			}
+		} catch (IllegalAccessException | NoSuchMethodException | SecurityException e) {
+			throw new UnconvertableTypeException("The constructor and setter methods of `"+type.getName()+"` must be accessible: "+e.getMessage());
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
@@ -129,9 +179,7 @@ public class RBoundDataframe<X> extends RDataframe {
 						throw new UnconvertableTypeException("Expected column '"+colName+"' but it was missing from this dataframe.");
 					} else {
 						if (!RPrimitive.class.isAssignableFrom(m.getReturnType())) throw new UnconvertableTypeException("Interface methods must extend from primitive R types");
-						getterMap.put(m, 
-								o -> RPrimitive.na((Class<? extends RPrimitive>) m.getReturnType())
-								);
+						getterMap.put(m, missing((Class<? extends RPrimitive>) m.getReturnType()));
 					}
 
 				} else {
@@ -143,9 +191,7 @@ public class RBoundDataframe<X> extends RDataframe {
 									m.getReturnType().getSimpleName()
 							);
 
-					getterMap.put(m, 
-							o -> (RPrimitive) m.getReturnType().cast(o.get(colName))
-							);
+					getterMap.put(m, column(colName));
 				}
 			}
 		}
@@ -174,9 +220,7 @@ public class RBoundDataframe<X> extends RDataframe {
 						throw new UnconvertableTypeException("Expected column '"+colName+"' but it was missing from this dataframe.");
 					} else {
 						if (!RPrimitive.class.isAssignableFrom(m.getParameters()[0].getType())) throw new UnconvertableTypeException("Interface methods must extend from primitive R types");
-						setterMap.put(m, 
-								o -> RPrimitive.na((Class<? extends RPrimitive>) m.getReturnType())
-								);
+						setterMap.put(m, missing((Class<? extends RPrimitive>) m.getParameters()[0].getType()));
 					}
 
 				} else {
@@ -188,9 +232,7 @@ public class RBoundDataframe<X> extends RDataframe {
 									m.getReturnType().getSimpleName()
 							);
 
-					setterMap.put(m, 
-							o -> (RPrimitive) m.getParameters()[0].getType().cast(o.get(colName))
-							);
+					setterMap.put(m, column(colName));
 				}
 			}
 		}
@@ -211,9 +253,7 @@ public class RBoundDataframe<X> extends RDataframe {
 						throw new UnconvertableTypeException("Expected column '"+colName+"' but it was missing from this dataframe.");
 					} else {
 						if (!RPrimitive.class.isAssignableFrom(p.getType())) throw new UnconvertableTypeException("Interface methods must extend from primitive R types");
-						paramList.add( 
-								o -> RPrimitive.na((Class<? extends RPrimitive>) p.getType())
-								);
+						paramList.add(missing((Class<? extends RPrimitive>) p.getType()));
 					}
 				} else {
 					if (!p.getType().isAssignableFrom(this.getTypeOfColumn(colName))) throw new UnconvertableTypeException(
@@ -221,7 +261,7 @@ public class RBoundDataframe<X> extends RDataframe {
 								this.getTypeOfColumn(colName).getSimpleName()+" and we wanted a "+
 								p.getType().getSimpleName()
 						);	
-					paramList.add(o -> (RPrimitive) p.getType().cast(o.get(colName)));
+					paramList.add(column(colName));
 				}
 			}
 		}
@@ -243,7 +283,9 @@ public class RBoundDataframe<X> extends RDataframe {
 	 * @return a X object
 	 */
 	public X getCoercedRow(int i) {
-		return coerce(this.getRow(i));
+		if (i<0) throw new BeforeFirstElementException();
+		if (i>=this.nrow()) throw new AfterLastElementException(); 
+		return coerce(i);
 	}
 
 	/** {@inheritDoc} */
@@ -257,47 +299,68 @@ public class RBoundDataframe<X> extends RDataframe {
 	 * @return a {@link java.util.stream.Stream} object
 	 */
 	public Stream<X> streamCoerce() {
-		return super.stream().map(this::coerce);
+		return IntStream.range(0, this.nrow()).mapToObj(this::coerce);
+	}
+	
+	/**
+	 * Stream the rows of the dataframe as the bound type, reusing a single instance per thread which is moved
+	 * along to each row in turn. This avoids allocating anything per row but the elements must be consumed 
+	 * immediately and not retained (e.g. in a list or by sorting), as every element will reflect whichever row 
+	 * its thread saw last. Record style classes are immutable and are still created once per row.
+	 *
+	 * @return a {@link java.util.stream.Stream} object
+	 */
+	public Stream<X> streamFlyweight() {
+		ThreadLocal<Cursor<X>> cursors = ThreadLocal.withInitial(() -> new Cursor<X>(this, 0));
+		return IntStream.range(0, this.nrow()).mapToObj(i -> cursors.get().moveTo(i));
 	}
 
 	protected X coerce(RDataframeRow nl) {
-		if (type.isInterface()) return proxyFrom(nl);
-		if (isRecordStyle(type)) return recordFrom(nl);
-		return beanFrom(nl);
+		return coerce(nl.getRowNumber());
+	}
+	
+	protected X coerce(int row) {
+		if (type.isInterface()) return proxyFrom(row);
+		if (recordStyle) return recordFrom(row);
+		return beanFrom(row);
 	}
 	
 	@SuppressWarnings("unchecked")
-	protected X recordFrom(RDataframeRow nl) {
-		X out;
-		Object[] args = paramList.stream()
-				.map(fn -> fn.apply(nl))
-				.collect(Collectors.toList())
-				.toArray();
+	protected X recordFrom(int row) {
+		Object[] args = new Object[paramList.size()];
+		for (int j=0; j<args.length; j++) args[j] = paramList.get(j).apply(row);
 		try {
-			out = (X) type.getDeclaredConstructors()[0].newInstance(args);
-			return out;
-		} catch (InstantiationException | IllegalAccessException | IllegalArgumentException
-				| InvocationTargetException | SecurityException e) {
+			return (X) factory.invoke(args);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
 			throw new RuntimeException("`type` should already have been checked to contain a single public constructor of the correct signature", e);
 		}
 	}
 	
-	protected X beanFrom(RDataframeRow nl) {
-		X out;
+	protected X beanFrom(int row) {
+		return populate(newBean(), row);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private X newBean() {
 		try {
-			out = type.getDeclaredConstructor().newInstance();
-		} catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException
-				| NoSuchMethodException | SecurityException e) {
+			return (X) factory.invoke();
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
 			throw new RuntimeException("`type` should already have been checked to contain a public no-args constructor", e);
 		}
-		for (Method m : type.getMethods()) {
-			if (setterMap.containsKey(m)) {
-				RPrimitive value = setterMap.get(m).apply(nl);
-				try {
-					m.invoke(out, value);
-				} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-					throw new RuntimeException("setter methods on `type` should be public", e);
-				}
+	}
+	
+	private X populate(X out, int row) {
+		for (Map.Entry<MethodHandle,IntFunction<RPrimitive>> setter : setterHandles.entrySet()) {
+			try {
+				setter.getKey().invoke(out, setter.getValue().apply(row));
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new RuntimeException("setter methods on `type` should be public", e);
 			}
 		}
 		return out;
@@ -306,48 +369,87 @@ public class RBoundDataframe<X> extends RDataframe {
 	/**
 	 * <p>proxyFrom.</p>
 	 *
-	 * @param nl a {@link uk.co.terminological.rjava.types.RDataframeRow} object
+	 * @param row the row index
 	 * @return a X object
 	 */
+	protected X proxyFrom(int row) {
+		return proxyFrom(new Cursor<X>(this, row));
+	}
+	
 	@SuppressWarnings("unchecked")
-	protected X proxyFrom(RDataframeRow nl) {
-		return (X) Proxy.newProxyInstance(type.getClassLoader(), new Class[] {type}, new InvocationHandler() {
-			@Override
-			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-				if (method.isDefault()) {
-					// https://stackoverflow.com/questions/22614746/how-do-i-invoke-java-8-default-methods-reflectively
-					// https://blog.jooq.org/2018/03/28/correct-reflective-access-to-interface-default-methods-in-java-8-9-10/
-					// maybe good idea to use jOOQ
-					final float version = Float.parseFloat(System.getProperty("java.class.version"));
-					if (version <= 52) {
-						//Java 8
-						Constructor<Lookup> constructor = Lookup.class
-								.getDeclaredConstructor(Class.class);
-						constructor.setAccessible(true);
-						return constructor.newInstance(type)
-								.in(type)
-								.unreflectSpecial(method, type)
-								.bindTo(proxy)
-								.invokeWithArguments();
-					} else {
-						//Java 9 onwards
-						return MethodHandles
-								.lookup()
-								.findSpecial(
-										type, 
-										method.getName(),
-										MethodType.methodType(method.getReturnType(), method.getParameterTypes()), 
-										type)
-								.bindTo(proxy)
-								.invokeWithArguments(args);
-					}
-				}
-				if (method.getName().equals("toString")) return "bound "+type.getSimpleName()+": "+nl.asCsv().trim();
-				// don't support any other methods (n.b. hashcode and equals)
-				if (!getterMap.containsKey(method)) throw new UnsupportedOperationException();
-				RPrimitive value = getterMap.get(method).apply(nl);
-				return value;
+	private X proxyFrom(Cursor<X> cursor) {
+		return (X) Proxy.newProxyInstance(type.getClassLoader(), new Class[] {type}, cursor);
+	}
+	
+	private Object invoke(Object proxy, Method method, Object[] args, int row) throws Throwable {
+		IntFunction<RPrimitive> getter = getterMap.get(method);
+		if (getter != null) return getter.apply(row);
+		if (method.isDefault()) return defaultHandle(method).bindTo(proxy).invokeWithArguments(args == null ? new Object[0] : args);
+		if (method.getName().equals("toString") && method.getParameterCount() == 0) {
+			return "bound "+type.getSimpleName()+": "+this.values().stream().map(v -> v.get(row).asCsv()).collect(Collectors.joining(","));
+		}
+		// don't support any other methods (n.b. hashcode and equals)
+		throw new UnsupportedOperationException();
+	}
+	
+	private MethodHandle defaultHandle(Method method) throws ReflectiveOperationException {
+		MethodHandle handle = defaultHandles.get(method);
+		if (handle != null) return handle;
+		// https://stackoverflow.com/questions/22614746/how-do-i-invoke-java-8-default-methods-reflectively
+		// https://blog.jooq.org/2018/03/28/correct-reflective-access-to-interface-default-methods-in-java-8-9-10/
+		// maybe good idea to use jOOQ
+		final float version = Float.parseFloat(System.getProperty("java.class.version"));
+		if (version <= 52) {
+			//Java 8
+			Constructor<Lookup> constructor = Lookup.class
+					.getDeclaredConstructor(Class.class);
+			constructor.setAccessible(true);
+			handle = constructor.newInstance(type)
+					.in(type)
+					.unreflectSpecial(method, type);
+		} else {
+			//Java 9 onwards
+			handle = MethodHandles
+					.lookup()
+					.findSpecial(
+							type, 
+							method.getName(),
+							MethodType.methodType(method.getReturnType(), method.getParameterTypes()), 
+							type);
+		}
+		defaultHandles.put(method, handle);
+		return handle;
+	}
+	
+	/**
+	 * A position in the bound dataframe. For interfaces this is the invocation handler behind the proxy, and in
+	 * flyweight mode the proxy or bean is created once and reused as the cursor moves.
+	 */
+	private static class Cursor<X> implements InvocationHandler {
+		
+		private final RBoundDataframe<X> dataframe;
+		private int row;
+		private X instance;
+		
+		private Cursor(RBoundDataframe<X> dataframe, int row) {
+			this.dataframe = dataframe;
+			this.row = row;
+		}
+		
+		private X moveTo(int row) {
+			this.row = row;
+			if (dataframe.recordStyle) return dataframe.recordFrom(row);
+			if (dataframe.type.isInterface()) {
+				if (instance == null) instance = dataframe.proxyFrom(this);
+				return instance;
 			}
-		});
+			if (instance == null) instance = dataframe.newBean();
+			return dataframe.populate(instance, row);
+		}
+		
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			return dataframe.invoke(proxy, method, args, row);
+		}
 	}
 }
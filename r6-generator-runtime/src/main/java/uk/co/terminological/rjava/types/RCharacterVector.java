@@ -1,8 +1,16 @@
 package uk.co.terminological.rjava.types;
 
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import uk.co.terminological.rjava.RDataType;
@@ -10,27 +18,106 @@ import uk.co.terminological.rjava.utils.RObjectVisitor;
 
 /**
  * A java representation of an R character vector. Factory methods are in {@link uk.co.terminological.rjava.types.RVector}.
+ * The vector is dictionary encoded: each distinct string is held once in a pool, and the vector itself is an array of
+ * integer codes into that pool (1-based, with NA encoded as for factors), so repeated values cost no more than an int each.
+ * Comparisons, distinct values and grouping are done on the codes, and conversion to and from a {@link uk.co.terminological.rjava.types.RFactorVector}
+ * reuses the codes directly.
  *
  * @author terminological
  * @version $Id: $Id
  */
 @RDataType(
 		JavaToR = {
-				"function(jObj) as.character(rJava::.jcall(jObj,returnSig='[Ljava/lang/String;',method='rPrimitive'))",
+				"function(jObj) {",
+				"	tmpLevels = rJava::.jcall(jObj,returnSig='[Ljava/lang/String;',method='rLevels')",
+				"	tmpCodes = rJava::.jcall(jObj,returnSig='[I',method='rValues')",
+				"	return(as.character(tmpLevels[tmpCodes]))",
+				"}"
 		},
 		RtoJava = {
 				"function(rObj) {",
 				"	if (is.null(rObj)) return(rJava::.jnew('~RCHARACTERVECTOR~'))",
 				"	if (!is.character(rObj)) stop('expected a vector of characters')",
 				"	tmp = as.character(rObj)",
-				"	return(rJava::.jnew('~RCHARACTERVECTOR~',rJava::.jarray(tmp)))",
+				"	tmpLevels = unique(tmp[!is.na(tmp)])",
+				"	tmpCodes = match(tmp, tmpLevels)",
+				"	return(rJava::.jnew('~RCHARACTERVECTOR~',rJava::.jarray(tmpCodes),rJava::.jarray(tmpLevels)))",
 				"}"
 		}
 		//JNIType = "[[C"
 	)
-public class RCharacterVector extends RVector<RCharacter> implements JNIPrimitive {
+public class RCharacterVector extends RColumnarVector<RCharacter,int[]> implements JNIPrimitive {
 	
 	private static final long serialVersionUID = RObject.datatypeVersion;
+
+	static final int NA_CODE = RFactor.NA_VALUE;
+	private static final int MISSING = 0;
+
+	private Dictionary dictionary;
+	// set when the dictionary is shared with another vector (e.g. after a subset) and must be copied before adding new strings
+	private boolean shared = false;
+
+	/**
+	 * The pool of distinct strings in a dictionary encoded vector. The lookup index is built when it is needed to encode
+	 * new values, which includes checking the levels supplied with a set of codes are distinct.
+	 */
+	static class Dictionary implements Serializable {
+
+		private static final long serialVersionUID = RObject.datatypeVersion;
+
+		private ArrayList<RCharacter> levels;
+		private transient volatile HashMap<String,Integer> lookup;
+
+		Dictionary() {
+			this.levels = new ArrayList<>();
+		}
+
+		Dictionary copy() {
+			Dictionary out = new Dictionary();
+			out.levels.addAll(this.levels);
+			return out;
+		}
+
+		int size() {return levels.size();}
+
+		RCharacter level(int code) {return levels.get(code-1);}
+
+		private HashMap<String,Integer> lookup() {
+			HashMap<String,Integer> tmp = lookup;
+			if (tmp == null) {
+				tmp = new HashMap<>(levels.size()*2);
+				for (int i=0; i<levels.size(); i++) tmp.putIfAbsent(levels.get(i).get(), i+1);
+				lookup = tmp;
+			}
+			return tmp;
+		}
+
+		int find(String value) {
+			if (lookup == null) {
+				// a linear scan of the pool is cheaper than building the index for a single lookup
+				for (int i=0; i<levels.size(); i++) if (value.equals(levels.get(i).get())) return i+1;
+				return MISSING;
+			}
+			return lookup.getOrDefault(value, MISSING);
+		}
+
+		int intern(String value) {
+			HashMap<String,Integer> tmp = lookup();
+			Integer code = tmp.get(value);
+			if (code == null) {
+				levels.add(new RCharacter(value));
+				code = levels.size();
+				tmp.put(value, code);
+			}
+			return code;
+		}
+
+		String[] strings() {
+			String[] out = new String[levels.size()];
+			for (int i=0; i<out.length; i++) out[i] = levels.get(i).get();
+			return out;
+		}
+	}
 	
 	/**
 	 * <p>Constructor for RCharacterVector.</p>
@@ -39,7 +126,8 @@ public class RCharacterVector extends RVector<RCharacter> implements JNIPrimitiv
 	 */
 	public RCharacterVector(String[] primitives) {
 		super(primitives.length);
-		for (int i=0; i<primitives.length; i++) this.add(new RCharacter(primitives[i]));
+		for (int i=0; i<primitives.length; i++) values[i] = encode(primitives[i]);
+		length = primitives.length;
 	}
 	/**
 	 * <p>Constructor for RCharacterVector.</p>
@@ -52,13 +140,213 @@ public class RCharacterVector extends RVector<RCharacter> implements JNIPrimitiv
 	 */
 	public RCharacterVector(int length) {super(length);}
 	
+	/**
+	 * Constructor for a dictionary encoded RCharacterVector. The codes are 1-based indexes into the levels, with NA values encoded
+	 * as Integer.MIN_VALUE, as for a factor. The codes array is copied. Repeated levels are merged, and the codes that refer
+	 * to them re-encoded, so that each distinct string has a single code.
+	 *
+	 * @param codes an array of {@link int} objects
+	 * @param levels an array of {@link java.lang.String} objects
+	 */
+	public RCharacterVector(int[] codes, String[] levels) {
+		super(codes.clone());
+		encodeLevels(levels);
+	}
+
+	/**
+	 * Create a dictionary encoded RCharacterVector that uses the codes array as its storage, without copying it. Repeated
+	 * levels are merged as for {@link #RCharacterVector(int[], String[])}, which may rewrite the codes in place. The array must
+	 * not be used by the caller afterwards.
+	 *
+	 * @param codes an array of {@link int} objects
+	 * @param levels an array of {@link java.lang.String} objects
+	 * @return a vector over the codes
+	 */
+	public static RCharacterVector wrap(int[] codes, String[] levels) {
+		RCharacterVector out = new RCharacterVector(0);
+		out.wrapArray(codes);
+		out.encodeLevels(levels);
+		return out;
+	}
+
+	/**
+	 * Constructor for RCharacterVector from the labels of a factor. The factor values are used directly as codes.
+	 *
+	 * @param factor a {@link uk.co.terminological.rjava.types.RFactorVector} object
+	 */
+	public RCharacterVector(RFactorVector factor) {
+		super(factor.rValues());
+		encodeLevels(factor.rLevels());
+	}
+
+	private RCharacterVector(Dictionary dictionary) {
+		super();
+		this.dictionary = dictionary;
+		this.shared = true;
+	}
+
+	// builds the dictionary from levels supplied with the codes, re-encoding the codes if any level is repeated (or NA)
+	private void encodeLevels(String[] levels) {
+		Dictionary tmp = new Dictionary();
+		int[] remap = null;
+		for (int i=0; i<levels.length; i++) {
+			int code = levels[i] == null ? NA_CODE : tmp.intern(levels[i]);
+			if (remap == null && code != i+1) {
+				remap = new int[levels.length];
+				for (int j=0; j<i; j++) remap[j] = j+1;
+			}
+			if (remap != null) remap[i] = code;
+		}
+		this.dictionary = tmp;
+		if (remap == null) return;
+		for (int i=0; i<length; i++) {
+			if (values[i] != NA_CODE) values[i] = remap[values[i]-1];
+		}
+	}
+
+	private Dictionary dictionary() {
+		if (dictionary == null) dictionary = new Dictionary();
+		return dictionary;
+	}
+
+	private int encode(String value) {
+		if (value == null) return NA_CODE;
+		if (shared) {
+			int code = dictionary().find(value);
+			if (code != MISSING) return code;
+			dictionary = dictionary.copy();
+			shared = false;
+		}
+		return dictionary().intern(value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected int[] allocate(int capacity) {
+		return new int[capacity];
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected RCharacter box(int index) {
+		int code = values[index];
+		return code == NA_CODE ? RCharacter.NA : dictionary.level(code);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void unbox(int index, RCharacter value) {
+		values[index] = value == null ? NA_CODE : encode(value.get());
+	}
+	
+	// appends a value directly to the backing array as a dictionary code
+	void append(String value) {
+		ensureCapacity(length+1);
+		values[length++] = encode(value);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected boolean sameEncoding(RColumnarVector<?,?> other) {
+		return other instanceof RCharacterVector && ((RCharacterVector) other).dictionary() == this.dictionary();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected RCharacterVector emptyLike() {
+		this.shared = true;
+		return new RCharacterVector(this.dictionary());
+	}
+
+	/**
+	 * Appends all the values of another collection. Character vectors with a different dictionary are appended by
+	 * mapping their codes into this dictionary, which only requires a lookup per distinct value.
+	 *
+	 * @param c the values to add
+	 * @return true if the vector changed
+	 */
+	@Override
+	public boolean addAll(Collection<? extends RCharacter> c) {
+		if (!(c instanceof RCharacterVector) || sameEncoding((RCharacterVector) c)) return super.addAll(c);
+		RCharacterVector other = (RCharacterVector) c;
+		int[] recode = new int[other.dictionary().size()];
+		for (int j=0; j<recode.length; j++) recode[j] = MISSING;
+		int n = other.length;
+		ensureCapacity(length+n);
+		for (int i=0; i<n; i++) {
+			int code = other.values[i];
+			if (code == NA_CODE) {
+				values[length+i] = NA_CODE;
+			} else {
+				if (recode[code-1] == MISSING) recode[code-1] = encode(other.dictionary.level(code).get());
+				values[length+i] = recode[code-1];
+			}
+		}
+		length += n;
+		return n > 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Object clone() {
+		RCharacterVector out = (RCharacterVector) super.clone();
+		this.shared = true;
+		out.shared = true;
+		return out;
+	}
+
 	/**
 	 * <p>rPrimitive.</p>
 	 *
 	 * @return an array of {@link java.lang.String} objects
 	 */
 	public String[] rPrimitive() {
-		return this.stream().map(ri -> ri.rPrimitive()).collect(Collectors.toList()).toArray(new String[] {});
+		String[] out = new String[length];
+		for (int i=0; i<length; i++) out[i] = values[i] == NA_CODE ? null : dictionary.level(values[i]).get();
+		return out;
+	}
+
+	/**
+	 * A copy of the dictionary codes of the vector as 1-based indexes into rLevels(), with NA values as Integer.MIN_VALUE.
+	 *
+	 * @return an array of {@link int} objects
+	 */
+	public int[] rValues() {
+		return this.copyValues();
+	}
+
+	/**
+	 * The pool of distinct strings that the codes of the vector refer to. This may include strings that are no longer used by the vector.
+	 *
+	 * @return an array of {@link java.lang.String} objects
+	 */
+	public String[] rLevels() {
+		return dictionary().strings();
+	}
+
+	/**
+	 * Converts this vector to a factor, reusing the dictionary codes. The levels of the factor are the strings that are used in this
+	 * vector, in order of first appearance.
+	 *
+	 * @return a {@link uk.co.terminological.rjava.types.RFactorVector} object
+	 */
+	public RFactorVector asFactor() {
+		int[] remap = new int[dictionary().size()];
+		List<String> used = new ArrayList<>();
+		int[] out = new int[length];
+		for (int i=0; i<length; i++) {
+			int code = values[i];
+			if (code == NA_CODE) {
+				out[i] = RFactor.NA_VALUE;
+			} else {
+				if (remap[code-1] == MISSING) {
+					used.add(dictionary.level(code).get());
+					remap[code-1] = used.size();
+				}
+				out[i] = remap[code-1];
+			}
+		}
+		return new RFactorVector(out, used.toArray(new String[used.size()]));
 	}
 	
 	/** {@inheritDoc} */
@@ -82,7 +370,7 @@ public class RCharacterVector extends RVector<RCharacter> implements JNIPrimitiv
 	 */
 	@SuppressWarnings("unchecked")
 	public Stream<String> get() {
-		return this.stream().map(s -> s.get());
+		return IntStream.range(0, length).mapToObj(i -> box(i).get());
 	}
 	
 	/**
@@ -92,9 +380,50 @@ public class RCharacterVector extends RVector<RCharacter> implements JNIPrimitiv
 	 */
 	@SuppressWarnings("unchecked")
 	public Stream<Optional<String>> opt() {
-		return this.stream().map(s -> s.opt());
+		return IntStream.range(0, length).mapToObj(i -> box(i).opt());
 	}
-	
+
+	/**
+	 * Matches a value against the vector by comparing dictionary codes, rather than strings.
+	 *
+	 * @param value a {@link uk.co.terminological.rjava.types.RPrimitive} object
+	 * @return a {@link java.util.BitSet} object
+	 */
+	@Override
+	public BitSet matches(RPrimitive value) {
+		if (!(value instanceof RCharacter)) return super.matches(value);
+		BitSet out = new BitSet(length);
+		int code = value.isNa() ? NA_CODE : dictionary().find(((RCharacter) value).get());
+		if (code == MISSING) return out;
+		for (int i=0; i<length; i++) {
+			if (values[i] == code) out.set(i);
+		}
+		return out;
+	}
+
+	/**
+	 * Distinct values of the vector in order of first appearance, determined from the dictionary codes.
+	 *
+	 * @return a {@link java.util.Set} object
+	 */
+	@Override
+	public Set<RCharacter> distinct() {
+		Set<RCharacter> out = new LinkedHashSet<>();
+		BitSet seen = new BitSet(dictionary().size()+1);
+		boolean na = false;
+		for (int i=0; i<length; i++) {
+			int code = values[i];
+			if (code == NA_CODE) {
+				if (!na) out.add(RCharacter.NA);
+				na = true;
+			} else if (!seen.get(code)) {
+				seen.set(code);
+				out.add(dictionary.level(code));
+			}
+		}
+		return out;
+	}
+
 	/** {@inheritDoc} */
 	@SuppressWarnings("unchecked")
 	@Override
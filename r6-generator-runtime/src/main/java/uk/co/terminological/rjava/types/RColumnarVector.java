@@ -0,0 +1,667 @@
+package uk.co.terminological.rjava.types;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Array;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Base class for vectors that hold their values in a growable java primitive array (e.g. a double[]), using
+ * the same sentinel encoding for NA values as R does, rather than as a list of boxed {@link uk.co.terminological.rjava.types.RPrimitive}
+ * objects. The RPrimitive wrappers are only created when an individual value is accessed through the {@link java.util.List}
+ * interface (e.g. by get(i) or by iteration), and the backing array can be handed back to R without unboxing.
+ *
+ * The storage of the {@link java.util.ArrayList} superclass is not used by subclasses of this class, and all the list operations are
+ * reimplemented here over the primitive array.
+ *
+ * @author terminological
+ * @param <X> the RPrimitive type of the elements of the vector
+ * @param <A> the java primitive array type used to store the elements (e.g. double[] or int[])
+ * @version $Id: $Id
+ */
+public abstract class RColumnarVector<X extends RPrimitive, A> extends RVector<X> {
+
+	private static final long serialVersionUID = RObject.datatypeVersion;
+	static final int DEFAULT_CAPACITY = 10;
+
+	protected A values;
+	protected int length;
+	private transient List<X> view;
+
+	/**
+	 * <p>Constructor for RColumnarVector.</p>
+	 */
+	protected RColumnarVector() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * <p>Constructor for RColumnarVector.</p>
+	 *
+	 * @param capacity the initial capacity of the backing array
+	 */
+	protected RColumnarVector(int capacity) {
+		super();
+		this.values = allocate(capacity);
+		this.length = 0;
+	}
+
+	/**
+	 * Constructor for RColumnarVector using an existing array as storage. The array is not copied.
+	 *
+	 * @param values the backing array, which will be owned by this vector
+	 */
+	protected RColumnarVector(A values) {
+		super();
+		this.values = values;
+		this.length = Array.getLength(values);
+	}
+
+	/**
+	 * Create a new backing array.
+	 *
+	 * @param capacity the size of the array
+	 * @return a new empty array
+	 */
+	protected abstract A allocate(int capacity);
+
+	/**
+	 * Materialise the RPrimitive value held at a position in the backing array.
+	 *
+	 * @param index a position less than the length of the vector
+	 * @return the RPrimitive value
+	 */
+	protected abstract X box(int index);
+
+	/**
+	 * Write a RPrimitive value into the backing array, encoding NA (or null) values with the R sentinel value.
+	 *
+	 * @param index a position less than the capacity of the backing array
+	 * @param value the RPrimitive value
+	 */
+	protected abstract void unbox(int index, X value);
+
+	/**
+	 * Whether the backing array of another vector can be copied directly into this one. By default this is the case
+	 * for any vector of the same class.
+	 *
+	 * @param other another vector
+	 * @return true if the values in the other vector use the same encoding as this vector
+	 */
+	protected boolean sameEncoding(RColumnarVector<?,?> other) {
+		return other.getClass().equals(this.getClass());
+	}
+
+	/**
+	 * Creates a new empty vector whose backing array uses the same encoding as this one.
+	 *
+	 * @return an empty vector of the same type
+	 */
+	@SuppressWarnings("unchecked")
+	protected RColumnarVector<X,A> emptyLike() {
+		return (RColumnarVector<X,A>) RVector.empty(this.getType());
+	}
+
+	/**
+	 * <p>capacity.</p>
+	 *
+	 * @return the current size of the backing array
+	 */
+	protected int capacity() {
+		return Array.getLength(values);
+	}
+
+	/**
+	 * The backing array trimmed to the length of the vector. This is the storage of the vector itself and not a copy,
+	 * so is intended to be handed across to R and should not be modified.
+	 *
+	 * @return the backing array
+	 */
+	protected A trimmed() {
+		this.trimToSize();
+		return values;
+	}
+	
+	/**
+	 * The backing array of the vector, trimmed to its length, without copying it, for writing the vector out
+	 * without an intermediate copy. This is the storage of the vector itself so it must not be modified, and it no
+	 * longer reflects the vector once values are added. The rPrimitive() methods of subclasses return a copy.
+	 *
+	 * @return the backing array
+	 */
+	public A unsafeArray() {
+		return trimmed();
+	}
+	
+	/**
+	 * A copy of the values of the vector.
+	 *
+	 * @return a new array the length of the vector
+	 */
+	protected A copyValues() {
+		A out = allocate(length);
+		System.arraycopy(values, 0, out, 0, length);
+		return out;
+	}
+	
+	/**
+	 * Use an existing array as the storage of this vector, without copying it, for the static wrap(...) factory
+	 * methods of subclasses.
+	 *
+	 * @param values the backing array, which will be owned by this vector
+	 */
+	protected void wrapArray(A values) {
+		this.values = values;
+		this.length = Array.getLength(values);
+	}
+
+	// STORAGE MANAGEMENT
+
+	/** {@inheritDoc} */
+	@Override
+	public void ensureCapacity(int minCapacity) {
+		int capacity = capacity();
+		if (minCapacity > capacity) {
+			int newCapacity = Math.max(minCapacity, capacity + (capacity >> 1) + 1);
+			A tmp = allocate(newCapacity);
+			System.arraycopy(values, 0, tmp, 0, length);
+			values = tmp;
+		}
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void trimToSize() {
+		if (capacity() != length) {
+			A tmp = allocate(length);
+			System.arraycopy(values, 0, tmp, 0, length);
+			values = tmp;
+		}
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= length) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+length);
+	}
+
+	private void checkPosition(int index) {
+		if (index < 0 || index > length) throw new IndexOutOfBoundsException("Index: "+index+", Size: "+length);
+	}
+
+	/**
+	 * The size of the used part of the backing array.
+	 *
+	 * @return the number of bytes of data
+	 */
+	@Override
+	public long byteSize() {
+		return (values instanceof double[] ? 8L : 4L)*length;
+	}
+
+	// LIST OPERATIONS
+
+	/** {@inheritDoc} */
+	@Override
+	public int size() {
+		return length;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean isEmpty() {
+		return length == 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public X get(int index) {
+		checkIndex(index);
+		return box(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public X set(int index, X element) {
+		checkIndex(index);
+		X old = box(index);
+		unbox(index, element);
+		return old;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean add(X e) {
+		ensureCapacity(length+1);
+		unbox(length, e);
+		length++;
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void add(int index, X element) {
+		checkPosition(index);
+		ensureCapacity(length+1);
+		System.arraycopy(values, index, values, index+1, length-index);
+		unbox(index, element);
+		length++;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public X remove(int index) {
+		checkIndex(index);
+		X old = box(index);
+		System.arraycopy(values, index+1, values, index, length-index-1);
+		length--;
+		return old;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean remove(Object o) {
+		int index = indexOf(o);
+		if (index < 0) return false;
+		remove(index);
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	protected void removeRange(int fromIndex, int toIndex) {
+		if (fromIndex > toIndex) throw new IndexOutOfBoundsException("From Index: "+fromIndex+" > To Index: "+toIndex);
+		checkPosition(fromIndex);
+		checkPosition(toIndex);
+		System.arraycopy(values, toIndex, values, fromIndex, length-toIndex);
+		length -= toIndex-fromIndex;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void clear() {
+		length = 0;
+	}
+
+	/**
+	 * Appends all the values of another vector. If the other vector uses the same encoding the backing arrays are
+	 * copied directly without materialising any values.
+	 *
+	 * @param c the values to add
+	 * @return true if the vector changed
+	 */
+	@Override
+	public boolean addAll(Collection<? extends X> c) {
+		if (c instanceof RColumnarVector && sameEncoding((RColumnarVector<?,?>) c)) {
+			@SuppressWarnings("unchecked")
+			RColumnarVector<X,A> other = (RColumnarVector<X,A>) c;
+			int n = other.length;
+			ensureCapacity(length+n);
+			System.arraycopy(other.values, 0, values, length, n);
+			length += n;
+			return n > 0;
+		}
+		Object[] tmp = c.toArray();
+		ensureCapacity(length+tmp.length);
+		for (Object o: tmp) {
+			@SuppressWarnings("unchecked")
+			X x = (X) o;
+			unbox(length, x);
+			length++;
+		}
+		return tmp.length > 0;
+	}
+
+	/** {@inheritDoc} */
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean addAll(int index, Collection<? extends X> c) {
+		checkPosition(index);
+		Object[] tmp = c.toArray();
+		ensureCapacity(length+tmp.length);
+		System.arraycopy(values, index, values, index+tmp.length, length-index);
+		for (int i=0; i<tmp.length; i++) unbox(index+i, (X) tmp[i]);
+		length += tmp.length;
+		return tmp.length > 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int indexOf(Object o) {
+		for (int i=0; i<length; i++) {
+			if (Objects.equals(o, box(i))) return i;
+		}
+		return -1;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int lastIndexOf(Object o) {
+		for (int i=length-1; i>=0; i--) {
+			if (Objects.equals(o, box(i))) return i;
+		}
+		return -1;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Object[] toArray() {
+		Object[] out = new Object[length];
+		for (int i=0; i<length; i++) out[i] = box(i);
+		return out;
+	}
+
+	/** {@inheritDoc} */
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T[] toArray(T[] a) {
+		T[] out = a.length >= length ? a : (T[]) Array.newInstance(a.getClass().getComponentType(), length);
+		for (int i=0; i<length; i++) out[i] = (T) box(i);
+		if (out.length > length) out[length] = null;
+		return out;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void forEach(Consumer<? super X> action) {
+		Objects.requireNonNull(action);
+		for (int i=0; i<length; i++) action.accept(box(i));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Spliterator<X> spliterator() {
+		return IntStream.range(0, length).mapToObj(this::box).spliterator();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean removeIf(Predicate<? super X> filter) {
+		Objects.requireNonNull(filter);
+		int j = 0;
+		for (int i=0; i<length; i++) {
+			if (!filter.test(box(i))) {
+				if (i != j) System.arraycopy(values, i, values, j, 1);
+				j++;
+			}
+		}
+		boolean changed = j != length;
+		length = j;
+		return changed;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		Objects.requireNonNull(c);
+		return removeIf(c::contains);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		Objects.requireNonNull(c);
+		return removeIf(x -> !c.contains(x));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public void replaceAll(UnaryOperator<X> operator) {
+		Objects.requireNonNull(operator);
+		for (int i=0; i<length; i++) unbox(i, operator.apply(box(i)));
+	}
+
+	/** {@inheritDoc} */
+	@SuppressWarnings("unchecked")
+	@Override
+	public void sort(Comparator<? super X> c) {
+		Object[] tmp = toArray();
+		Arrays.sort(tmp, (Comparator<Object>) c);
+		for (int i=0; i<length; i++) unbox(i, (X) tmp[i]);
+	}
+
+	/**
+	 * <p>getFirst.</p>
+	 *
+	 * @return the first element
+	 */
+	public X getFirst() {
+		if (length == 0) throw new NoSuchElementException();
+		return box(0);
+	}
+
+	/**
+	 * <p>getLast.</p>
+	 *
+	 * @return the last element
+	 */
+	public X getLast() {
+		if (length == 0) throw new NoSuchElementException();
+		return box(length-1);
+	}
+
+	/**
+	 * <p>removeFirst.</p>
+	 *
+	 * @return the removed first element
+	 */
+	public X removeFirst() {
+		if (length == 0) throw new NoSuchElementException();
+		return remove(0);
+	}
+
+	/**
+	 * <p>removeLast.</p>
+	 *
+	 * @return the removed last element
+	 */
+	public X removeLast() {
+		if (length == 0) throw new NoSuchElementException();
+		return remove(length-1);
+	}
+
+	// ITERATORS AND VIEWS ARE DELEGATED TO AN ABSTRACT LIST VIEW
+
+	private class ListView extends AbstractList<X> implements RandomAccess {
+		@Override public X get(int index) {return RColumnarVector.this.get(index);}
+		@Override public int size() {return length;}
+		@Override public X set(int index, X element) {return RColumnarVector.this.set(index, element);}
+		@Override public void add(int index, X element) {RColumnarVector.this.add(index, element);}
+		@Override public X remove(int index) {return RColumnarVector.this.remove(index);}
+	}
+
+	private List<X> view() {
+		if (view == null) view = new ListView();
+		return view;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Iterator<X> iterator() {
+		return view().iterator();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListIterator<X> listIterator() {
+		return view().listIterator();
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public ListIterator<X> listIterator(int index) {
+		return view().listIterator(index);
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public List<X> subList(int fromIndex, int toIndex) {
+		return view().subList(fromIndex, toIndex);
+	}
+
+	// RVECTOR OPERATIONS
+
+	/** {@inheritDoc} */
+	@Override
+	public RVector<X> fill(X x, int length) {
+		ensureCapacity(this.length+length);
+		for (int i=0; i<length; i++) {
+			unbox(this.length, x);
+			this.length++;
+		}
+		return this;
+	}
+
+	/**
+	 * Subsets the vector by copying runs of the backing array selected by the filter.
+	 *
+	 * @param filter a {@link java.util.BitSet} object
+	 * @return a new vector of the same type
+	 */
+	@Override
+	public RVector<X> subset(BitSet filter) {
+		if(filter.length() > this.size()) throw new IndexOutOfBoundsException("Filter length greater than vector length");
+		RColumnarVector<X,A> out = this.emptyLike();
+		out.ensureCapacity(filter.cardinality());
+		for (int start = filter.nextSetBit(0); start >= 0; start = filter.nextSetBit(start)) {
+			int end = filter.nextClearBit(start);
+			System.arraycopy(values, start, out.values, out.length, end-start);
+			out.length += end-start;
+			start = end;
+		}
+		return out;
+	}
+
+	/**
+	 * Subsets the vector by gathering the given positions of the backing array.
+	 *
+	 * @param indices the positions of the values to copy
+	 * @return a new vector of the same type
+	 */
+	@Override
+	public RVector<X> subset(int[] indices) {
+		RColumnarVector<X,A> out = this.emptyLike();
+		out.ensureCapacity(indices.length);
+		for (int j=0; j<indices.length; j++) {
+			if (indices[j] < 0 || indices[j] >= length) throw new IndexOutOfBoundsException("Index: "+indices[j]+", Size: "+length);
+		}
+		if (values instanceof int[]) {
+			int[] from = (int[]) values, to = (int[]) out.values;
+			for (int j=0; j<indices.length; j++) to[j] = from[indices[j]];
+		} else if (values instanceof double[]) {
+			double[] from = (double[]) values, to = (double[]) out.values;
+			for (int j=0; j<indices.length; j++) to[j] = from[indices[j]];
+		} else {
+			for (int j=0; j<indices.length; j++) System.arraycopy(values, indices[j], out.values, j, 1);
+		}
+		out.length = indices.length;
+		return out;
+	}
+
+	/**
+	 * Codes are taken directly from the backing array. The int encodings identify the value they represent,
+	 * and doubles are compared by their bit patterns (as {@link Double#equals(Object)} does, apart from NA which 
+	 * is kept distinct from NaN) through a primitive hash table.
+	 */
+	@Override
+	protected int[] groupCodes() {
+		if (values instanceof int[]) return Arrays.copyOf((int[]) values, length);
+		if (values instanceof double[]) {
+			double[] tmp = (double[]) values;
+			int[] out = new int[length];
+			Grouping.LongIndex index = new Grouping.LongIndex(DEFAULT_CAPACITY);
+			for (int i=0; i<length; i++) {
+				out[i] = index.id(RNumeric.isNaValue(tmp[i]) ? Double.doubleToRawLongBits(tmp[i]) : Double.doubleToLongBits(tmp[i]));
+			}
+			return out;
+		}
+		return super.groupCodes();
+	}
+
+	// OBJECT OPERATIONS
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) return true;
+		if (!(o instanceof List)) return false;
+		List<?> other = (List<?>) o;
+		if (other.size() != length) return false;
+		Iterator<?> it = other.iterator();
+		for (int i=0; i<length; i++) {
+			if (!Objects.equals(box(i), it.next())) return false;
+		}
+		return true;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public int hashCode() {
+		int hashCode = 1;
+		for (int i=0; i<length; i++) {
+			X x = box(i);
+			hashCode = 31*hashCode + (x==null ? 0 : x.hashCode());
+		}
+		return hashCode;
+	}
+
+	/** {@inheritDoc} */
+	@SuppressWarnings("unchecked")
+	@Override
+	public Object clone() {
+		RColumnarVector<X,A> out = (RColumnarVector<X,A>) super.clone();
+		out.values = allocate(length);
+		System.arraycopy(values, 0, out.values, 0, length);
+		out.view = null;
+		return out;
+	}
+
+	// SERIALISATION
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		this.trimToSize();
+		out.defaultWriteObject();
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (values == null) migrate();
+	}
+
+	// Vectors serialised before columnar storage was introduced hold their values in the
+	// ArrayList superclass, and will not have any data for this class in the stream.
+	private void readObjectNoData() {
+		migrate();
+	}
+
+	private void migrate() {
+		int n = super.size();
+		values = allocate(n);
+		length = 0;
+		for (int i=0; i<n; i++) {
+			unbox(i, super.get(i));
+			length++;
+		}
+		super.clear();
+	}
+}
@@ -1,17 +1,19 @@
 package uk.co.terminological.rjava.types;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -28,8 +30,12 @@ import uk.co.terminological.rjava.IncompatibleTypeException;
 import uk.co.terminological.rjava.NameNotFoundException;
 import uk.co.terminological.rjava.RConverter;
 import uk.co.terminological.rjava.RDataType;
+import uk.co.terminological.rjava.RMetrics;
 import uk.co.terminological.rjava.UnconvertableTypeException;
 import uk.co.terminological.rjava.functionals.RFilter;
+import uk.co.terminological.rjava.io.RArrowFormat;
+import uk.co.terminological.rjava.io.RdsReader;
+import uk.co.terminological.rjava.io.RdsWriter;
 import uk.co.terminological.rjava.utils.RObjectVisitor;
 
 
@@ -42,15 +48,82 @@ import uk.co.terminological.rjava.utils.RObjectVisitor;
  */
 @RDataType(
 		JavaToR = {
-				"function(jObj) {",
+				"local({",
+				"	cache = new.env(parent=emptyenv())",
+				"	fromBulk = function(jObj) {",
+				// fetch all the columns and metadata in a single call (see rBulkTransfer)
+				"		parts = rJava::.jcall(jObj,returnSig='[Ljava/lang/Object;',method='rBulkTransfer')",
+				"		names = rJava::.jevalArray(parts[[1]],rawJNIRefSignature='[Ljava/lang/String;')",
+				"		types = rJava::.jevalArray(parts[[2]],rawJNIRefSignature='[Ljava/lang/String;')",
+				"		groups = rJava::.jevalArray(parts[[3]],rawJNIRefSignature='[Ljava/lang/String;')",
+				"		layout = rJava::.jevalArray(parts[[4]],rawJNIRefSignature='[I')",
+				"		ints = rJava::.jevalArray(parts[[5]],rawJNIRefSignature='[I')",
+				"		doubles = rJava::.jevalArray(parts[[6]],rawJNIRefSignature='[D')",
+				"		strings = rJava::.jevalArray(parts[[7]],rawJNIRefSignature='[Ljava/lang/String;')",
+				"		nrow = layout[1]",
+				"		iOff = 0; dOff = 0; sOff = 0",
+				"		cols = vector('list',length(names))",
+				"		for (i in seq_along(names)) {",
+				"			lv = strings[sOff+seq_len(layout[i+1])]",
+				"			sOff = sOff+layout[i+1]",
+				"			if (types[i] == 'numeric') {",
+				"				cols[[i]] = doubles[dOff+seq_len(nrow)]",
+				"				dOff = dOff+nrow",
+				"			} else if (types[i] == 'na') {",
+				"				cols[[i]] = rep(NA,nrow)",
+				"			} else {",
+				"				codes = ints[iOff+seq_len(nrow)]",
+				"				iOff = iOff+nrow",
+				"				cols[[i]] = switch(types[i],",
+				"					integer = codes,",
+				"					logical = as.logical(codes),",
+				"					character = as.character(lv[codes]),",
+				"					factor = factor(lv[codes],levels=lv,ordered=TRUE),",
+				"					date = structure(as.numeric(codes),class='Date')",
+				"				)",
+				"			}",
+				"		}",
+				"		names(cols) = names",
+				"		return(dplyr::group_by(tibble::as_tibble(cols),!!!sapply(groups,as.symbol)))",
+				"	}",
+				// the conversion function is resolved once per schema and cached by its fingerprint
+				"	function(jObj) {",
+				// large dataframes are written by java to a temporary RDS file which R reads natively (see rdsTransfer)
+				"		threshold = getOption('r6generator.rds_threshold', 64*1024^2)",
+				"		if (rJava::.jcall(jObj,returnSig='J',method='byteSize') > threshold) {",
+				"			tmp = tempfile(fileext='.rds')",
+				"			on.exit(unlink(tmp))",
+				"			rJava::.jcall(jObj,returnSig='V',method='rdsTransfer',tmp)",
+				"			return(readRDS(tmp))",
+				"		}",
+				"		schema = rJava::.jcall(jObj,returnSig='Ljava/lang/String;',method='schemaFingerprint')",
+				"		convDf = cache[[schema]]",
+				"		if (is.null(convDf)) {",
+				"			if (rJava::.jcall(jObj,returnSig='Z',method='rBulkSupported')) {",
+				"				convDf = fromBulk",
+				"			} else {",
 				// dynamically construct a local conversion function based on structure of dataframe
-				"	convDf = eval(parse(text=rJava::.jcall(jObj,'rConversion', returnSig='Ljava/lang/String;')))",
-				"	groups = rJava::.jcall(jObj,returnSig='[Ljava/lang/String;',method='getGroups')",
-				"	return(dplyr::group_by(convDf(jObj),!!!sapply(groups,as.symbol)))",
-				"}"
+				"				generated = eval(parse(text=rJava::.jcall(jObj,returnSig='Ljava/lang/String;',method='rConversion')))",
+				"				convDf = function(jObj) {",
+				"					groups = rJava::.jcall(jObj,returnSig='[Ljava/lang/String;',method='getGroups')",
+				"					return(dplyr::group_by(generated(jObj),!!!sapply(groups,as.symbol)))",
+				"				}",
+				"			}",
+				"			assign(schema,convDf,envir=cache)",
+				"		}",
+				"		return(convDf(jObj))",
+				"	}",
+				"})"
 		},
 		RtoJava = {
 				"function(rObj) {",
+				// large dataframes are saved by R to a temporary RDS file which java reads natively (see fromRds)
+				"	if (as.numeric(nrow(rObj))*ncol(rObj)*8 > getOption('r6generator.rds_threshold', 64*1024^2)) {",
+				"		tmp = tempfile(fileext='.rds')",
+				"		on.exit(unlink(tmp))",
+				"		saveRDS(rObj, tmp, compress=FALSE)",
+				"		return(rJava::.jcall('~RDATAFRAME~',returnSig='L~RDATAFRAME~;',method='fromRds',tmp))",
+				"	}",
 				"	jout = rJava::.jnew('~RDATAFRAME~')",
 				"	lapply(colnames(rObj), function(x) {",
 				"		rcol = rObj[[x]]",
@@ -77,6 +150,18 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 	private static Logger log = LoggerFactory.getLogger(RVector.class);
 	
 	private LinkedHashSet<String> groups = new LinkedHashSet<>();
+	// shared by the rows of this dataframe, rebuilt when the columns change
+	private transient RDataframeRow.Layout layout;
+	
+	// generated R conversion code, keyed by schema fingerprint
+	private static final int MAX_CACHED_CONVERSIONS = 1024;
+	private static final Map<String,String> conversions = new ConcurrentHashMap<>();
+	
+	private static final RMetrics.Metric BIND_ROWS = RMetrics.metric("RDataframe.bindRows");
+	private static final RMetrics.Metric FILTER = RMetrics.metric("RDataframe.filter");
+	private static final RMetrics.Metric GROUP_MODIFY = RMetrics.metric("RDataframe.groupModify");
+	private static final RMetrics.Metric R_CONVERSION = RMetrics.metric("RDataframe.rConversion");
+	private static final RMetrics.Metric R_BULK_TRANSFER = RMetrics.metric("RDataframe.rBulkTransfer");
 	
 	//TODO: some form of indexing to speed up group operations would be desirable.
 	//However it would need to keep up to date with the underlying data structure.
@@ -178,6 +263,17 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 		return this.size();
 	}
 	
+	/**
+	 * An estimate of the size of the data in this dataframe, as used for runtime metrics.
+	 *
+	 * @return the approximate number of bytes of data in all the columns
+	 */
+	public synchronized long byteSize() {
+		long out = 0;
+		for (RVector<?> col: this.values()) out += col.byteSize();
+		return out;
+	}
+	
 	/**
 	 * <p>getTypeOfColumn.</p>
 	 *
@@ -221,7 +317,9 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 		row.forEach((k,v) -> {
 			if(this.containsKey(k)) {
 				try {
-					this.get(k).add(RConverter.convertObjectToPrimitive(v));
+					// an NA (null) value has no type until it is put in the column, and a typed value in an untyped NA column
+					// declares the type of the column
+					this.put(k, this.get(k).addUnsafe(RConverter.convertObjectToPrimitive(v)));
 				} catch (UnconvertableTypeException e) {
 					throw new IncompatibleTypeException("Unsupported type in column: "+k,e);
 				}
@@ -277,6 +375,10 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 	
 	/**
 	 * <p>getRow.</p>
+	 * 
+	 * <p>The row is a view of the dataframe rather than a copy: it reads its values from the columns as they are
+	 * when the row is created, so later changes to values in those columns are visible through the row, until the
+	 * row is detached (e.g. by {@link RDataframeRow#entrySet()} or by modifying it).</p>
 	 *
 	 * @param i a int
 	 * @return a {@link uk.co.terminological.rjava.types.RDataframeRow} object
@@ -287,6 +389,11 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 		return new RDataframeRow(this, i);
 	}
 	
+	synchronized RDataframeRow.Layout layout() {
+		if (layout == null || !layout.isCurrent(this)) layout = new RDataframeRow.Layout(this);
+		return layout;
+	}
+	
 	/**
 	 * <p>addCol.</p>
 	 *
@@ -435,6 +542,7 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 	 * @param rows a {@link uk.co.terminological.rjava.types.RDataframe} object
 	 */
 	public synchronized void bindRows(RDataframe rows) {
+		long start = RMetrics.start();
 		rows.keySet().forEach(name -> this.ensureColumnExists(name,rows.getTypeOfColumn(name)));
 		int appendNrow = rows.nrow();
 		this.keySet().forEach(k -> {
@@ -445,6 +553,7 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 				this.get(k).fillNA(appendNrow);
 			}
 		});
+		BIND_ROWS.stop(start, start == 0 ? 0 : rows.byteSize());
 	}
 	
 	/**
@@ -577,6 +686,35 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 	 * @return a {@link java.lang.String} object
 	 */
 	public synchronized String rConversion() {
+		long start = RMetrics.start();
+		String schema = this.schemaFingerprint();
+		String out = conversions.get(schema);
+		if (out == null) {
+			if (conversions.size() >= MAX_CACHED_CONVERSIONS) conversions.clear();
+			out = this.generateConversion();
+			conversions.put(schema, out);
+		}
+		R_CONVERSION.stop(start, out.length());
+		return out;
+	}
+	
+	/**
+	 * A string identifying the structure of this dataframe, made from the ordered column names and vector classes.
+	 * Dataframes with the same fingerprint are converted to R by the same code, so this is used as a cache key on
+	 * both the java and R side.
+	 *
+	 * @return a {@link java.lang.String} object
+	 */
+	public synchronized String schemaFingerprint() {
+		StringBuilder sb = new StringBuilder("RDataframe[");
+		for (Map.Entry<String, RVector<? extends RPrimitive>> col: this.entrySet()) {
+			sb.append(col.getKey().length()).append(':').append(col.getKey())
+				.append('=').append(col.getValue().getClass().getName()).append(';');
+		}
+		return sb.append(']').toString();
+	}
+	
+	private String generateConversion() {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		PrintStream sb = new PrintStream(baos) {
 			public void println(String s) {
@@ -612,11 +750,164 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 		return baos.toString();
 	}
 
+	/**
+	 * Whether all the columns of this dataframe are of types that can be sent to R by rBulkTransfer().
+	 *
+	 * @return a boolean
+	 */
+	public synchronized boolean rBulkSupported() {
+		for (RVector<?> col: this.values()) {
+			if (bulkType(col) == null) return false;
+		}
+		return true;
+	}
 	
-	/** {@inheritDoc} */
+	private static String bulkType(RVector<?> col) {
+		if (col instanceof RNumericVector) return "numeric";
+		if (col instanceof RIntegerVector) return "integer";
+		if (col instanceof RLogicalVector) return "logical";
+		if (col instanceof RCharacterVector) return "character";
+		if (col instanceof RFactorVector) return "factor";
+		if (col instanceof RDateVector) return "date";
+		if (col instanceof RUntypedNaVector) return "na";
+		return null;
+	}
+	
+	/**
+	 * Exports the whole dataframe for transfer to R in a single call. Columns are concatenated by storage type so that
+	 * the number of arrays is independent of the number of columns. The returned array contains:
+	 * <ol>
+	 * <li>String[] the column names</li>
+	 * <li>String[] the column types: one of numeric, integer, logical, character, factor, date, or na</li>
+	 * <li>String[] the grouping columns</li>
+	 * <li>int[] the number of rows, followed by the number of entries each column uses in the strings array</li>
+	 * <li>int[] the values of integer, logical and date columns, and the codes of character and factor columns, nrow values per column</li>
+	 * <li>double[] the values of numeric columns, nrow values per column</li>
+	 * <li>String[] the levels of character and factor columns</li>
+	 * </ol>
+	 *
+	 * @return an array of {@link java.lang.Object} objects each of which is a primitive or String array
+	 */
+	public synchronized Object[] rBulkTransfer() {
+		long start = RMetrics.start();
+		int nrow = this.nrow();
+		String[] names = this.rKeys();
+		String[] types = new String[names.length];
+		int[] layout = new int[names.length+1];
+		String[][] pools = new String[names.length][];
+		layout[0] = nrow;
+		int intCols = 0, doubleCols = 0, poolSize = 0;
+		for (int i=0; i<names.length; i++) {
+			RVector<?> col = this.get(names[i]);
+			String[] pool = new String[0];
+			types[i] = bulkType(col);
+			if (types[i] == null) {
+				throw new IncompatibleTypeException("Column "+names[i]+" of type "+col.getClass().getSimpleName()+" cannot be transferred in bulk");
+			} else if (types[i].equals("numeric")) {
+				doubleCols++;
+			} else if (types[i].equals("character")) {
+				intCols++;
+				pool = ((RCharacterVector) col).rLevels();
+			} else if (types[i].equals("factor")) {
+				intCols++;
+				pool = ((RFactorVector) col).rLevels();
+			} else if (!types[i].equals("na")) {
+				intCols++;
+			}
+			pools[i] = pool;
+			layout[i+1] = pool.length;
+			poolSize += pool.length;
+		}
+		int[] ints = new int[intCols*nrow];
+		double[] doubles = new double[doubleCols*nrow];
+		String[] strings = new String[poolSize];
+		int intOff = 0, doubleOff = 0, poolOff = 0;
+		for (int i=0; i<names.length; i++) {
+			RVector<?> col = this.get(names[i]);
+			if (col instanceof RNumericVector) {
+				System.arraycopy(((RNumericVector) col).unsafeArray(), 0, doubles, doubleOff, nrow);
+				doubleOff += nrow;
+			} else if (col instanceof RIntegerVector) {
+				System.arraycopy(((RIntegerVector) col).unsafeArray(), 0, ints, intOff, nrow);
+				intOff += nrow;
+			} else if (col instanceof RLogicalVector) {
+				System.arraycopy(((RLogicalVector) col).unsafeArray(), 0, ints, intOff, nrow);
+				intOff += nrow;
+			} else if (col instanceof RCharacterVector) {
+				System.arraycopy(((RCharacterVector) col).unsafeArray(), 0, ints, intOff, nrow);
+				intOff += nrow;
+			} else if (col instanceof RFactorVector) {
+				System.arraycopy(((RFactorVector) col).rValues(), 0, ints, intOff, nrow);
+				intOff += nrow;
+			} else if (col instanceof RDateVector) {
+				System.arraycopy(((RDateVector) col).unsafeArray(), 0, ints, intOff, nrow);
+				intOff += nrow;
+			}
+			System.arraycopy(pools[i], 0, strings, poolOff, pools[i].length);
+			poolOff += pools[i].length;
+		}
+		R_BULK_TRANSFER.stop(start, 4L*ints.length + 8L*doubles.length);
+		return new Object[] {names, types, this.getGroups(), layout, ints, doubles, strings};
+	}
+	
+	/**
+	 * Writes the dataframe to a file in R's native serialisation format so that R can load it with readRDS(), without
+	 * transferring any data through rJava. This is used by the R conversion for dataframes larger than the
+	 * `r6generator.rds_threshold` option (in bytes, see {@link #byteSize()}).
+	 *
+	 * @param path the file to write, which is not compressed
+	 * @throws java.io.IOException if the file cannot be written
+	 */
+	public synchronized void rdsTransfer(String path) throws IOException {
+		RdsWriter.write(this, Paths.get(path), false);
+	}
+	
+	/**
+	 * Reads a dataframe from a file written by R's saveRDS(), without transferring any data through rJava. This is
+	 * used by the R conversion for dataframes larger than the `r6generator.rds_threshold` option.
+	 *
+	 * @param path an uncompressed or gzipped RDS file containing a data frame
+	 * @return the dataframe, grouped as in R
+	 * @throws java.io.IOException if the file cannot be read or does not contain a data frame of supported column types
+	 */
+	public static RDataframe fromRds(String path) throws IOException {
+		return RdsReader.read(RDataframe.class, Paths.get(path));
+	}
+	
+	/**
+	 * Writes the dataframe to an Apache Arrow IPC file (Feather version 2), directly from the column storage. R can
+	 * load this with arrow::read_feather(path, mmap = TRUE), and it can be shared with other Arrow based tools.
+	 *
+	 * @param path the file to write
+	 * @throws java.io.IOException if the file cannot be written
+	 */
+	public synchronized void arrowTransfer(String path) throws IOException {
+		RArrowFormat.write(this, Paths.get(path));
+	}
+	
+	/**
+	 * Reads a dataframe from an Apache Arrow IPC file or stream, such as one written by arrow::write_feather(df, path)
+	 * in R. LZ4 compressed files (the default) can be read, but ZSTD compressed files cannot, so write with
+	 * compression = "lz4" or "uncompressed".
+	 *
+	 * @param path the Arrow file
+	 * @return the dataframe
+	 * @throws java.io.IOException if the file cannot be read or has columns without an R equivalent
+	 */
+	public static RDataframe fromArrow(String path) throws IOException {
+		return RArrowFormat.read(Paths.get(path));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <p>The rows are views of the dataframe, as for {@link #getRow(int)}, and share the column layout of the
+	 * dataframe at the time the iterator is created.</p>
+	 */
 	@Override
 	public synchronized Iterator<RDataframeRow> iterator() {
 		int nrow = nrow();
+		RDataframeRow.Layout tmp = layout();
 		return new Iterator<RDataframeRow>() {
 			int i=0;
 
@@ -627,8 +918,9 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 
 			@Override
 			public RDataframeRow next() {
+				if (i>=nrow) throw new AfterLastElementException();
 				i = i+1;
-				return getRow(i-1);
+				return new RDataframeRow(RDataframe.this, i-1, tmp);
 			}
 			
 		};
@@ -656,33 +948,54 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 	}
 	
 	/**
-	 * <p>distinct.</p>
+	 * The distinct rows of the dataframe, in order of first appearance. These are copies that do not refer to the
+	 * dataframe.
 	 *
 	 * @return a {@link java.util.Set} object
 	 */
 	public synchronized Set<RNamedPrimitives> distinct() {
 		Set<RNamedPrimitives> tmp = new LinkedHashSet<>();
 		for (RDataframeRow row: this) {
-			tmp.add((RNamedPrimitives) row);
+			// duplicates are found with the lazy row, and only the rows that are kept are copied
+			if (!tmp.contains(row)) tmp.add(new RNamedPrimitives(row));
 		}
 		return tmp;
 	}
 	
 	/**
-	 * <p>groupData.</p>
+	 * The rows of each group, keyed by the values of the grouping columns. An ungrouped dataframe with rows is a single
+	 * group under an empty key.
 	 *
 	 * @return a {@link java.util.Map} object
 	 */
-	public Map<RNamedPrimitives,RDataframe> groupData() {
-		Map<RNamedPrimitives,RDataframe> tmp = new HashMap<>();
-		this.stream().forEach(r -> {
-			RNamedPrimitives row = r.rowGroup();
-			if (!tmp.containsKey(row)) tmp.put(row, new RDataframe());
-			tmp.get(row).addRow(r);
-		});
+	public synchronized Map<RNamedPrimitives,RDataframe> groupData() {
+		Map<RNamedPrimitives,RDataframe> tmp = new LinkedHashMap<>();
+		if (this.nrow() == 0) return tmp;
+		// an ungrouped dataframe is a single group of all its rows, under the empty key
+		Grouping grouping = groups.isEmpty() ? null : new Grouping(this, groups);
+		int count = grouping == null ? 1 : grouping.count();
+		for (int g=0; g<count; g++) {
+			int[] rows = grouping == null ? IntStream.range(0, this.nrow()).toArray() : grouping.rows(g);
+			RDataframe out = new RDataframe();
+			for (Map.Entry<String, RVector<? extends RPrimitive>> col: this.entrySet()) {
+				out.addCol(col.getKey(), col.getValue().subset(rows));
+			}
+			tmp.put(this.getRow(rows[0]).rowGroup(), out);
+		}
 		return tmp;
 	}
 
+	/**
+	 * The group of each row for the current grouping columns. Groups are numbered from zero in order of first appearance,
+	 * and every row is in group zero if the dataframe is not grouped.
+	 *
+	 * @return an array of group ids, one per row
+	 */
+	public synchronized int[] groupIds() {
+		if (groups.isEmpty()) return new int[this.nrow()];
+		return new Grouping(this, groups).ids();
+	}
+
 	/**
 	 * <p>select.</p>
 	 *
@@ -732,6 +1045,7 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 	 * @return a {@link uk.co.terminological.rjava.types.RDataframe} object
 	 */
 	public synchronized RDataframe filter(RNamedPrimitives match) {
+		long start = RMetrics.start();
 		BitSet filter = (new BitSet(this.nrow()));
 		filter.set(0, this.nrow(), true);
 		match.forEach((k,v) -> { 
@@ -744,6 +1058,7 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 			out.addCol(n.getKey(), n.getValue().subset(filter2));
 		});
 		out.groupBy(this.getGroups());
+		FILTER.stop(start, start == 0 ? 0 : this.byteSize());
 		return out;
 	}
 	
@@ -779,7 +1094,7 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 	 * @return a new dataframe containing only items which pass all the filter test
 	 */
 	public synchronized RDataframe filter(RFilter<?>... tests) {
-		
+		long start = RMetrics.start();
 		// return everything if no conditions
 		BitSet filter = (new BitSet(this.nrow()));
 		filter.set(0, this.nrow(), true);
@@ -794,6 +1109,7 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 			out.addCol(n.getKey(), n.getValue().subset(filter2));
 		});
 		out.groupBy(this.getGroups());
+		FILTER.stop(start, start == 0 ? 0 : this.byteSize());
 		return out;
 	}
 	
@@ -804,23 +1120,40 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 	 * @return a {@link uk.co.terminological.rjava.types.RDataframe} object
 	 */
 	public RDataframe groupModify(BiFunction<RDataframe, RNamedPrimitives, RDataframe> func) {
-		RDataframe out = new RDataframe();
-		Map<RNamedPrimitives, RDataframe> groupData = this.groupData();
-		if (groupData.isEmpty()) {
-			groupData = new HashMap<>();
-			groupData.put(new RNamedPrimitives(),this);
+		long start = RMetrics.start();
+		String[] keys;
+		RVector<?>[] keyCols;
+		String[] names;
+		RVector<?>[] cols;
+		Grouping grouping;
+		int[] all;
+		synchronized(this) {
+			keys = this.getGroups();
+			keyCols = Stream.of(keys).map(this::get).toArray(RVector<?>[]::new);
+			names = this.keySet().stream().filter(k -> !groups.contains(k)).toArray(String[]::new);
+			cols = Stream.of(names).map(this::get).toArray(RVector<?>[]::new);
+			grouping = keys.length == 0 ? null : new Grouping(this, groups);
+			all = grouping == null ? IntStream.range(0, nrow()).toArray() : null;
 		}
 		
-		groupData.entrySet().parallelStream().map(group -> {
-			RDataframe subgroup = group.getValue().ungroup().drop(this.getGroups());
-			RNamedPrimitives grouping = group.getKey();
-			RDataframe subgroupOut = func.apply(subgroup, grouping);
-			RDataframe groupOut = grouping.toDataframe(subgroupOut.nrow());
+		// the sub-frames for each group are gathered from the columns by the worker processing the group
+		List<RDataframe> results = IntStream.range(0, grouping == null ? 1 : grouping.count()).parallel().mapToObj(g -> {
+			int[] rows = grouping == null ? all : grouping.rows(g);
+			RDataframe subgroup = new RDataframe();
+			// copies, so that func cannot change this dataframe
+			for (int j=0; j<names.length; j++) subgroup.addCol(names[j], cols[j].subset(rows));
+			RNamedPrimitives key = new RNamedPrimitives();
+			for (int j=0; j<keys.length; j++) key.put(keys[j], keyCols[j].get(rows[0]));
+			RDataframe subgroupOut = func.apply(subgroup, key);
+			RDataframe groupOut = key.toDataframe(subgroupOut.nrow());
 			subgroupOut.forEach((k,v) -> groupOut.addCol(k, v));
 			return groupOut;
-		}).forEach(out::bindRows);
+		}).collect(Collectors.toList());
 		
-		out.groupBy(this.getGroups());
+		RDataframe out = new RDataframe();
+		results.forEach(out::bindRows);
+		out.groupBy(keys);
+		GROUP_MODIFY.stop(start, start == 0 ? 0 : out.byteSize());
 		return out;
 	}
 
@@ -884,14 +1217,15 @@ public class RDataframe extends LinkedHashMap<String, RVector<? extends RPrimiti
 	 *
 	 * @return a {@link uk.co.terminological.rjava.types.RDataframe} object
 	 */
-	public RDataframe count() {
-		return this.groupModify((d,g) -> 
-			RDataframe.create().withCol("n", 
-					RVector.with(
-							d.nrow()
-						)
-					)
-		);
+	public synchronized RDataframe count() {
+		RDataframe out = new RDataframe();
+		if (groups.isEmpty()) return out.withCol("n", RVector.with(this.nrow()));
+		Grouping grouping = new Grouping(this, groups);
+		int[] firstRows = grouping.firstRows();
+		for (String group: groups) out.addCol(group, this.get(group).subset(firstRows));
+		out.addCol("n", new RIntegerVector(grouping.sizes()));
+		out.groupBy(this.getGroups());
+		return out;
 	}
 	
 	/**
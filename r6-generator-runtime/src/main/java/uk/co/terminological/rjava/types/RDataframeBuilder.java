@@ -0,0 +1,532 @@
+package uk.co.terminological.rjava.types;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+import uk.co.terminological.rjava.IncompatibleTypeException;
+import uk.co.terminological.rjava.RConverter;
+import uk.co.terminological.rjava.RName;
+import uk.co.terminological.rjava.UnconvertableTypeException;
+
+/**
+ * A schema-first builder for dataframes. The columns of the dataframe are declared up front, each with a name, a java
+ * type and a function that extracts the value from an object of type X. Objects are then appended to a {@link Buffer}
+ * which writes the values straight into the primitive arrays backing the column vectors, without creating an
+ * RPrimitive for each value or looking up a conversion for each cell.
+ *
+ * <pre>
+ * RDataframe df = people.stream().collect(
+ *   RDataframeBuilder.of(Person.class)
+ *     .withCharacter("name", Person::getName)
+ *     .withInt("age", Person::getAge)
+ *     .withDouble("height", Person::getHeight)
+ *     .collector());
+ * </pre>
+ *
+ * The collector is safe to use with parallel streams. Each thread appends to its own buffer and the buffers are
+ * concatenated by the combiner, so the order of the stream is preserved.
+ *
+ * @author terminological
+ * @version $Id: $Id
+ * @param <X> the type of object that is converted to a row of the dataframe
+ */
+public class RDataframeBuilder<X> {
+
+	private List<Column<X,?>> columns = new ArrayList<>();
+	private LinkedHashSet<String> groups = new LinkedHashSet<>();
+
+	private static abstract class Column<X, V extends List<?>> {
+		String name;
+		Column(String name) {this.name = name;}
+		abstract V allocate(int capacity);
+		abstract void append(V buffer, X item);
+		RVector<?> finish(V buffer) {return (RVector<?>) buffer;}
+	}
+
+	// accessor plans for classes with @RName annotated getters, created once per class
+	private static final ClassValue<RDataframeBuilder<?>> annotatedPlans = new ClassValue<RDataframeBuilder<?>>() {
+		@Override
+		protected RDataframeBuilder<?> computeValue(Class<?> type) {
+			return plan(type);
+		}
+	};
+
+	/**
+	 * <p>Constructor for RDataframeBuilder.</p>
+	 */
+	public RDataframeBuilder() {}
+
+	private RDataframeBuilder(RDataframeBuilder<X> other) {
+		this.columns.addAll(other.columns);
+		this.groups.addAll(other.groups);
+	}
+
+	/**
+	 * <p>of.</p>
+	 *
+	 * @param type the class of the objects that will be appended (mostly needed for type hinting to the compiler)
+	 * @param <X> the type of object that is converted to a row of the dataframe
+	 * @return an empty builder
+	 */
+	public static <X> RDataframeBuilder<X> of(Class<X> type) {
+		return new RDataframeBuilder<X>();
+	}
+
+	/**
+	 * A builder with a column for each of the getters of a class that are annotated with {@link uk.co.terminological.rjava.RName}.
+	 * The getters are resolved to method handles and the column type is chosen from the return type of the getter. This
+	 * is done once per class and cached, so the result can be used repeatedly without any reflection.
+	 *
+	 * @param type a class with @RName annotated getters
+	 * @param <X> the type of object that is converted to a row of the dataframe
+	 * @return a builder which can be further modified
+	 */
+	@SuppressWarnings("unchecked")
+	public static <X> RDataframeBuilder<X> annotated(Class<X> type) {
+		return new RDataframeBuilder<X>((RDataframeBuilder<X>) annotatedPlans.get(type));
+	}
+
+	private static <X> RDataframeBuilder<X> plan(Class<X> type) {
+		RDataframeBuilder<X> out = new RDataframeBuilder<X>();
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		for (Method m: type.getMethods()) {
+			if (!m.isAnnotationPresent(RName.class)) continue;
+			String name = m.getAnnotation(RName.class).value();
+			MethodHandle handle;
+			try {
+				// public methods of non public classes still need to be made accessible
+				if (!m.isAccessible()) m.setAccessible(true);
+				handle = lookup.unreflect(m).asType(MethodType.methodType(m.getReturnType(), Object.class));
+			} catch (IllegalAccessException | RuntimeException e) {
+				throw new IncompatibleTypeException("Cannot access @RName method "+m.getName()+" of "+type.getName()+": "+e.getMessage());
+			}
+			out.withHandle(name, m.getReturnType(), handle);
+		}
+		return out;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private RDataframeBuilder<X> withHandle(String name, Class<?> returnType, MethodHandle handle) {
+		if (returnType == double.class || returnType == float.class || returnType == long.class) {
+			MethodHandle h = handle.asType(MethodType.methodType(double.class, Object.class));
+			return withDouble(name, o -> invokeDouble(h, o));
+		}
+		if (returnType == int.class || returnType == short.class || returnType == byte.class) {
+			MethodHandle h = handle.asType(MethodType.methodType(int.class, Object.class));
+			return withInt(name, o -> invokeInt(h, o));
+		}
+		MethodHandle h = handle.asType(MethodType.methodType(Object.class, Object.class));
+		if (returnType == boolean.class) return withLogical(name, o -> (Boolean) invoke(h, o));
+		if (returnType == Integer.class) return withInteger(name, o -> (Integer) invoke(h, o));
+		if (returnType == Double.class || returnType == Float.class || returnType == Long.class || returnType == BigDecimal.class)
+			return withNumeric(name, o -> (Number) invoke(h, o));
+		if (returnType == Boolean.class) return withLogical(name, o -> (Boolean) invoke(h, o));
+		if (returnType == String.class) return withCharacter(name, o -> (String) invoke(h, o));
+		if (returnType == LocalDate.class) return withDate(name, o -> (LocalDate) invoke(h, o));
+		if (returnType.isEnum()) return withFactor(name, (Class) returnType, o -> (Enum) invoke(h, o));
+		if (returnType == RNumeric.class) return withNumeric(name, o -> {RNumeric v = (RNumeric) invoke(h, o); return v == null ? null : v.get();});
+		if (returnType == RInteger.class) return withInteger(name, o -> {RInteger v = (RInteger) invoke(h, o); return v == null ? null : v.get();});
+		if (returnType == RLogical.class) return withLogical(name, o -> {RLogical v = (RLogical) invoke(h, o); return v == null ? null : v.get();});
+		if (returnType == RCharacter.class) return withCharacter(name, o -> {RCharacter v = (RCharacter) invoke(h, o); return v == null ? null : v.get();});
+		if (returnType == RDate.class) return withDate(name, o -> {RDate v = (RDate) invoke(h, o); return v == null ? null : v.get();});
+		return withPrimitive(name, o -> invoke(h, o));
+	}
+
+	private static Object invoke(MethodHandle h, Object o) {
+		try {
+			return (Object) h.invokeExact(o);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new RuntimeException(t);
+		}
+	}
+
+	private static double invokeDouble(MethodHandle h, Object o) {
+		try {
+			return (double) h.invokeExact(o);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new RuntimeException(t);
+		}
+	}
+
+	private static int invokeInt(MethodHandle h, Object o) {
+		try {
+			return (int) h.invokeExact(o);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new RuntimeException(t);
+		}
+	}
+
+	private RDataframeBuilder<X> with(Column<X,?> column) {
+		for (Column<X,?> c: columns) {
+			if (c.name.equals(column.name)) throw new IncompatibleTypeException("Column name '"+column.name+"' already exists in dataframe");
+		}
+		columns.add(column);
+		return this;
+	}
+
+	/**
+	 * Declares a numeric column from a primitive double. The R NA value can be given as RNumeric.NA_VALUE.
+	 *
+	 * @param name the column name
+	 * @param getter a function that extracts the value
+	 * @return this builder
+	 */
+	public RDataframeBuilder<X> withDouble(String name, ToDoubleFunction<X> getter) {
+		return with(new Column<X,RNumericVector>(name) {
+			RNumericVector allocate(int capacity) {return new RNumericVector(capacity);}
+			void append(RNumericVector buffer, X item) {buffer.append(getter.applyAsDouble(item));}
+		});
+	}
+
+	/**
+	 * Declares a numeric column from any boxed number type. Null values are converted to NA.
+	 *
+	 * @param name the column name
+	 * @param getter a function that extracts the value
+	 * @return this builder
+	 */
+	public RDataframeBuilder<X> withNumeric(String name, Function<X,? extends Number> getter) {
+		return with(new Column<X,RNumericVector>(name) {
+			RNumericVector allocate(int capacity) {return new RNumericVector(capacity);}
+			void append(RNumericVector buffer, X item) {
+				Number value = getter.apply(item);
+				buffer.append(value == null ? RNumeric.NA_VALUE : value.doubleValue());
+			}
+		});
+	}
+
+	/**
+	 * Declares an integer column from a primitive int. The R NA value can be given as Integer.MIN_VALUE.
+	 *
+	 * @param name the column name
+	 * @param getter a function that extracts the value
+	 * @return this builder
+	 */
+	public RDataframeBuilder<X> withInt(String name, ToIntFunction<X> getter) {
+		return with(new Column<X,RIntegerVector>(name) {
+			RIntegerVector allocate(int capacity) {return new RIntegerVector(capacity);}
+			void append(RIntegerVector buffer, X item) {buffer.append(getter.applyAsInt(item));}
+		});
+	}
+
+	/**
+	 * Declares an integer column from a boxed Integer. Null values are converted to NA.
+	 *
+	 * @param name the column name
+	 * @param getter a function that extracts the value
+	 * @return this builder
+	 */
+	public RDataframeBuilder<X> withInteger(String name, Function<X,Integer> getter) {
+		return with(new Column<X,RIntegerVector>(name) {
+			RIntegerVector allocate(int capacity) {return new RIntegerVector(capacity);}
+			void append(RIntegerVector buffer, X item) {
+				Integer value = getter.apply(item);
+				buffer.append(value == null ? RInteger.NA_VALUE : value.intValue());
+			}
+		});
+	}
+
+	/**
+	 * Declares a logical column from a predicate, which cannot be NA.
+	 *
+	 * @param name the column name
+	 * @param getter a predicate on the object
+	 * @return this builder
+	 */
+	public RDataframeBuilder<X> withBoolean(String name, Predicate<X> getter) {
+		return with(new Column<X,RLogicalVector>(name) {
+			RLogicalVector allocate(int capacity) {return new RLogicalVector(capacity);}
+			void append(RLogicalVector buffer, X item) {buffer.append(getter.test(item));}
+		});
+	}
+
+	/**
+	 * Declares a logical column from a boxed Boolean. Null values are converted to NA.
+	 *
+	 * @param name the column name
+	 * @param getter a function that extracts the value
+	 * @return this builder
+	 */
+	public RDataframeBuilder<X> withLogical(String name, Function<X,Boolean> getter) {
+		return with(new Column<X,RLogicalVector>(name) {
+			RLogicalVector allocate(int capacity) {return new RLogicalVector(capacity);}
+			void append(RLogicalVector buffer, X item) {buffer.append(getter.apply(item));}
+		});
+	}
+
+	/**
+	 * Declares a character column. Null values are converted to NA.
+	 *
+	 * @param name the column name
+	 * @param getter a function that extracts the value
+	 * @return this builder
+	 */
+	public RDataframeBuilder<X> withCharacter(String name, Function<X,String> getter) {
+		return with(new Column<X,RCharacterVector>(name) {
+			RCharacterVector allocate(int capacity) {return new RCharacterVector(capacity);}
+			void append(RCharacterVector buffer, X item) {buffer.append(getter.apply(item));}
+		});
+	}
+
+	/**
+	 * Declares a date column. Null values are converted to NA.
+	 *
+	 * @param name the column name
+	 * @param getter a function that extracts the value
+	 * @return this builder
+	 */
+	public RDataframeBuilder<X> withDate(String name, Function<X,LocalDate> getter) {
+		return with(new Column<X,RDateVector>(name) {
+			RDateVector allocate(int capacity) {return new RDateVector(capacity);}
+			void append(RDateVector buffer, X item) {buffer.append(getter.apply(item));}
+		});
+	}
+
+	/**
+	 * Declares a factor column from an enum, whose levels are the enum constants. Null values are converted to NA.
+	 * The ordinals are buffered as integers and the factor is created when the dataframe is built.
+	 *
+	 * @param name the column name
+	 * @param type the enum class
+	 * @param getter a function that extracts the value
+	 * @param <E> the enum type
+	 * @return this builder
+	 */
+	public <E extends Enum<E>> RDataframeBuilder<X> withFactor(String name, Class<E> type, Function<X,E> getter) {
+		String[] levels = Stream.of(type.getEnumConstants()).map(e -> e.toString()).toArray(String[]::new);
+		return with(new Column<X,RIntegerVector>(name) {
+			RIntegerVector allocate(int capacity) {return new RIntegerVector(capacity);}
+			void append(RIntegerVector buffer, X item) {
+				E value = getter.apply(item);
+				buffer.append(value == null ? RFactor.NA_VALUE : value.ordinal()+1);
+			}
+			RVector<?> finish(RIntegerVector buffer) {return new RFactorVector(buffer.unsafeArray(), levels);}
+		});
+	}
+
+	/**
+	 * Declares a column whose type is not known in advance. Each value is converted to an RPrimitive as it is appended,
+	 * falling back to its string representation if there is no direct conversion, and the type of the column is decided
+	 * when the dataframe is built from the first value that is not NA. This is slower than the typed columns.
+	 *
+	 * @param name the column name
+	 * @param getter a function that extracts the value
+	 * @return this builder
+	 */
+	public RDataframeBuilder<X> withPrimitive(String name, Function<X,?> getter) {
+		return with(new Column<X,ArrayList<RPrimitive>>(name) {
+			ArrayList<RPrimitive> allocate(int capacity) {return new ArrayList<>(capacity);}
+			void append(ArrayList<RPrimitive> buffer, X item) {
+				Object value = getter.apply(item);
+				if (value instanceof RPrimitive) {
+					buffer.add((RPrimitive) value);
+				} else {
+					try {
+						buffer.add(RConverter.convertObjectToPrimitive(value));
+					} catch (UnconvertableTypeException e) {
+						buffer.add(RCharacter.from(value.toString()));
+					}
+				}
+			}
+			RVector<?> finish(ArrayList<RPrimitive> buffer) {
+				Class<? extends RPrimitive> type = RUntypedNa.class;
+				for (RPrimitive p: buffer) {
+					if (!(p instanceof RUntypedNa)) {
+						type = p.getClass();
+						break;
+					}
+				}
+				RVector<?> out = RVector.empty(type);
+				out.ensureCapacity(buffer.size());
+				buffer.forEach(out::addUnsafe);
+				return out;
+			}
+		});
+	}
+
+	/**
+	 * Declares the grouping of the dataframe that is built.
+	 *
+	 * @param groups column names
+	 * @return this builder
+	 */
+	public RDataframeBuilder<X> groupBy(String... groups) {
+		this.groups.addAll(Arrays.asList(groups));
+		return this;
+	}
+
+	/**
+	 * The names of the columns declared so far.
+	 *
+	 * @return a list of column names
+	 */
+	public List<String> columnNames() {
+		List<String> out = new ArrayList<>();
+		columns.forEach(c -> out.add(c.name));
+		return Collections.unmodifiableList(out);
+	}
+
+	/**
+	 * Creates an empty buffer for the columns declared so far.
+	 *
+	 * @return a new buffer
+	 */
+	public Buffer<X> buffer() {
+		return buffer(RColumnarVector.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty buffer for the columns declared so far, sized for an expected number of rows.
+	 *
+	 * @param expectedRows the initial capacity of each column
+	 * @return a new buffer
+	 */
+	public Buffer<X> buffer(int expectedRows) {
+		return new Buffer<X>(new ArrayList<>(columns), new ArrayList<>(groups), expectedRows);
+	}
+
+	/**
+	 * A collector that appends each item of a stream into a buffer and builds a dataframe at the end. In parallel streams
+	 * each thread gets its own buffer and these are concatenated in the combiner.
+	 *
+	 * @return a collector that works in the idiom: streamOfX.collect(builder.collector())
+	 */
+	public Collector<X,?,RDataframe> collector() {
+		return new Collector<X,Buffer<X>,RDataframe>() {
+
+			@Override
+			public Supplier<Buffer<X>> supplier() {
+				return () -> buffer();
+			}
+
+			@Override
+			public BiConsumer<Buffer<X>, X> accumulator() {
+				return Buffer::add;
+			}
+
+			@Override
+			public BinaryOperator<Buffer<X>> combiner() {
+				return (b1, b2) -> b1.addAll(b2);
+			}
+
+			@Override
+			public Function<Buffer<X>, RDataframe> finisher() {
+				return Buffer::build;
+			}
+
+			@Override
+			public Set<Characteristics> characteristics() {
+				return new HashSet<>();
+			}
+		};
+	}
+
+	/**
+	 * An accumulator of rows for a fixed set of columns, which holds one column vector per declared column.
+	 * A buffer is not thread safe, and is intended to be used by a single thread.
+	 *
+	 * @param <X> the type of object that is converted to a row of the dataframe
+	 */
+	public static class Buffer<X> {
+
+		private List<Column<X,?>> columns;
+		private List<String> groups;
+		private List<?>[] vectors;
+		private int rows = 0;
+
+		private Buffer(List<Column<X,?>> columns, List<String> groups, int expectedRows) {
+			this.columns = columns;
+			this.groups = groups;
+			this.vectors = new List<?>[columns.size()];
+			for (int i=0; i<vectors.length; i++) vectors[i] = columns.get(i).allocate(expectedRows);
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <X, V extends List<?>> void append(Column<X,V> column, List<?> vector, X item) {
+			column.append((V) vector, item);
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <X, V extends List<?>> RVector<?> finish(Column<X,V> column, List<?> vector) {
+			return column.finish((V) vector);
+		}
+
+		/**
+		 * Appends a row to the buffer.
+		 *
+		 * @param item the object to convert
+		 * @return this buffer
+		 */
+		public Buffer<X> add(X item) {
+			for (int i=0; i<vectors.length; i++) append(columns.get(i), vectors[i], item);
+			rows++;
+			return this;
+		}
+
+		/**
+		 * Appends the contents of another buffer created by the same builder, copying the backing arrays.
+		 *
+		 * @param other another buffer
+		 * @return this buffer
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public Buffer<X> addAll(Buffer<X> other) {
+			if (other.vectors.length != vectors.length) throw new IncompatibleTypeException("Buffers have different columns");
+			for (int i=0; i<vectors.length; i++) ((List) vectors[i]).addAll(other.vectors[i]);
+			rows += other.rows;
+			return this;
+		}
+
+		/**
+		 * <p>size.</p>
+		 *
+		 * @return the number of rows in the buffer
+		 */
+		public int size() {
+			return rows;
+		}
+
+		/**
+		 * Builds the dataframe. The column vectors are handed to the dataframe without copying so the buffer should
+		 * not be used after this.
+		 *
+		 * @return a {@link uk.co.terminological.rjava.types.RDataframe} object
+		 */
+		public RDataframe build() {
+			RDataframe out = new RDataframe();
+			for (int i=0; i<vectors.length; i++) {
+				RVector<?> vector = finish(columns.get(i), vectors[i]);
+				vector.trimToSize();
+				out.addCol(columns.get(i).name, vector);
+			}
+			out.groupBy(groups.toArray(new String[groups.size()]));
+			return out;
+		}
+	}
+}
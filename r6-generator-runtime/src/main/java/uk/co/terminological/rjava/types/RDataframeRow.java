@@ -1,11 +1,26 @@
 package uk.co.terminological.rjava.types;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import uk.co.terminological.rjava.utils.RObjectVisitor;
 
 /**
  * <p>RDataframeRow class.</p>
+ * 
+ * <p>A row is a lazy view of the dataframe which holds only the row index and resolves columns on access
+ * through a name-to-index {@link Layout} shared with the other rows of the dataframe. Lookups, iteration with
+ * {@link #forEach(BiConsumer)}, {@link #hashCode()} and {@link #equals(Object)} read the column vectors directly.
+ * Anything that needs the map itself (e.g. {@link #entrySet()} or modifying the row) first copies the row values
+ * into the map, after which the row behaves as a normal, detached, {@link RNamedPrimitives}. Until then changes
+ * to values in the dataframe columns are visible through the row.</p>
  *
  * @author vp22681
  * @version $Id: $Id
@@ -15,6 +30,8 @@ public class RDataframeRow extends RNamedPrimitives implements RObject {
 	
 	private int row;
 	private RDataframe dataframe;
+	// null once the values have been copied into the map (and always after deserialisation)
+	private transient Layout layout;
 		
 	/**
 	 * <p>Constructor for RDataframeRow.</p>
@@ -23,13 +40,63 @@ public class RDataframeRow extends RNamedPrimitives implements RObject {
 	 * @param i a int
 	 */
 	public RDataframeRow(RDataframe rDataframe, int i) {
+		this(rDataframe, i, rDataframe.layout());
+	}
+	
+	// for rows created in bulk, which share a layout rather than checking it is current for each row
+	RDataframeRow(RDataframe rDataframe, int i, Layout layout) {
 		super();
 		this.row = i;
 		this.dataframe = rDataframe;
-		rDataframe.keySet().forEach(k -> {
-			this.put(k, rDataframe.get(k).get(i));
-		});
+		this.layout = layout;
 	}
+	
+	/**
+	 * The column names and vectors of a dataframe at a point in time, with a lookup from name to column index.
+	 */
+	static final class Layout {
+		
+		final String[] names;
+		final RVector<?>[] vectors;
+		final Map<String,Integer> index;
+		
+		Layout(RDataframe dataframe) {
+			int n = dataframe.size();
+			names = new String[n];
+			vectors = new RVector<?>[n];
+			index = new HashMap<>(n*2);
+			int i = 0;
+			for (Map.Entry<String, RVector<? extends RPrimitive>> e : dataframe.entrySet()) {
+				names[i] = e.getKey();
+				vectors[i] = e.getValue();
+				index.put(e.getKey(), i);
+				i++;
+			}
+		}
+		
+		boolean isCurrent(RDataframe dataframe) {
+			if (dataframe.size() != names.length) return false;
+			for (int i=0; i<names.length; i++) {
+				if (dataframe.get(names[i]) != vectors[i]) return false;
+			}
+			return true;
+		}
+	}
+	
+	private void materialize() {
+		if (layout == null) return;
+		Layout tmp = layout;
+		layout = null;
+		for (int i=0; i<tmp.names.length; i++) {
+			super.put(tmp.names[i], tmp.vectors[i].get(row));
+		}
+	}
+	
+	private Object writeReplace() {
+		materialize();
+		return this;
+	}
+	
 	/**
 	 * <p>getRowNumber.</p>
 	 *
@@ -85,14 +152,142 @@ public class RDataframeRow extends RNamedPrimitives implements RObject {
 	/** {@inheritDoc} */
 	@Override
 	public int hashCode() {
-		return super.hashCode();
+		if (layout == null) return super.hashCode();
+		// as defined by Map.hashCode()
+		int h = 0;
+		for (int i=0; i<layout.names.length; i++) {
+			h += layout.names[i].hashCode() ^ Objects.hashCode(layout.vectors[i].get(row));
+		}
+		return h;
 	}
 	
 	/** {@inheritDoc} */
 	@Override
 	public boolean equals(Object obj) {
-		return super.equals(obj);
+		if (layout == null) return super.equals(obj);
+		if (obj == this) return true;
+		if (!(obj instanceof Map)) return false;
+		Map<?,?> other = (Map<?,?>) obj;
+		if (other.size() != layout.names.length) return false;
+		if (obj instanceof RDataframeRow && ((RDataframeRow) obj).layout == layout) {
+			int otherRow = ((RDataframeRow) obj).row;
+			for (int i=0; i<layout.vectors.length; i++) {
+				if (!Objects.equals(layout.vectors[i].get(row), layout.vectors[i].get(otherRow))) return false;
+			}
+			return true;
+		}
+		for (int i=0; i<layout.names.length; i++) {
+			Object value = layout.vectors[i].get(row);
+			if (!Objects.equals(value, other.get(layout.names[i]))) return false;
+			if (value == null && !other.containsKey(layout.names[i])) return false;
+		}
+		return true;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public RPrimitive get(Object key) {
+		if (layout == null) return super.get(key);
+		Integer i = layout.index.get(key);
+		return i == null ? null : layout.vectors[i].get(row);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public RPrimitive getOrDefault(Object key, RPrimitive defaultValue) {
+		if (layout == null) return super.getOrDefault(key, defaultValue);
+		Integer i = layout.index.get(key);
+		return i == null ? defaultValue : layout.vectors[i].get(row);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public boolean containsKey(Object key) {
+		if (layout == null) return super.containsKey(key);
+		return layout.index.containsKey(key);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public int size() {
+		if (layout == null) return super.size();
+		return layout.names.length;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	public void forEach(BiConsumer<? super String, ? super RPrimitive> action) {
+		if (layout == null) {
+			super.forEach(action);
+			return;
+		}
+		for (int i=0; i<layout.names.length; i++) {
+			action.accept(layout.names[i], layout.vectors[i].get(row));
+		}
 	}
+	
+	// Everything else operates on the underlying map
+	
+	/** {@inheritDoc} */
+	@Override
+	public Set<Map.Entry<String, RPrimitive>> entrySet() {materialize(); return super.entrySet();}
+	/** {@inheritDoc} */
+	@Override
+	public Set<String> keySet() {materialize(); return super.keySet();}
+	/** {@inheritDoc} */
+	@Override
+	public Collection<RPrimitive> values() {materialize(); return super.values();}
+	/** {@inheritDoc} */
+	@Override
+	public boolean containsValue(Object value) {materialize(); return super.containsValue(value);}
+	/** {@inheritDoc} */
+	@Override
+	public RPrimitive put(String key, RPrimitive value) {materialize(); return super.put(key, value);}
+	/** {@inheritDoc} */
+	@Override
+	public void putAll(Map<? extends String, ? extends RPrimitive> m) {materialize(); super.putAll(m);}
+	/** {@inheritDoc} */
+	@Override
+	public RPrimitive putIfAbsent(String key, RPrimitive value) {materialize(); return super.putIfAbsent(key, value);}
+	/** {@inheritDoc} */
+	@Override
+	public RPrimitive remove(Object key) {materialize(); return super.remove(key);}
+	/** {@inheritDoc} */
+	@Override
+	public boolean remove(Object key, Object value) {materialize(); return super.remove(key, value);}
+	/** {@inheritDoc} */
+	@Override
+	public void clear() {materialize(); super.clear();}
+	/** {@inheritDoc} */
+	@Override
+	public RPrimitive replace(String key, RPrimitive value) {materialize(); return super.replace(key, value);}
+	/** {@inheritDoc} */
+	@Override
+	public boolean replace(String key, RPrimitive oldValue, RPrimitive newValue) {materialize(); return super.replace(key, oldValue, newValue);}
+	/** {@inheritDoc} */
+	@Override
+	public void replaceAll(BiFunction<? super String, ? super RPrimitive, ? extends RPrimitive> function) {materialize(); super.replaceAll(function);}
+	/** {@inheritDoc} */
+	@Override
+	public RPrimitive computeIfAbsent(String key, Function<? super String, ? extends RPrimitive> mappingFunction) {materialize(); return super.computeIfAbsent(key, mappingFunction);}
+	/** {@inheritDoc} */
+	@Override
+	public RPrimitive computeIfPresent(String key, BiFunction<? super String, ? super RPrimitive, ? extends RPrimitive> remappingFunction) {materialize(); return super.computeIfPresent(key, remappingFunction);}
+	/** {@inheritDoc} */
+	@Override
+	public RPrimitive compute(String key, BiFunction<? super String, ? super RPrimitive, ? extends RPrimitive> remappingFunction) {materialize(); return super.compute(key, remappingFunction);}
+	/** {@inheritDoc} */
+	@Override
+	public RPrimitive merge(String key, RPrimitive value, BiFunction<? super RPrimitive, ? super RPrimitive, ? extends RPrimitive> remappingFunction) {materialize(); return super.merge(key, value, remappingFunction);}
+	/** {@inheritDoc} */
+	@Override
+	public Object clone() {materialize(); return super.clone();}
 	/**
 	 * <p>rowGroup.</p>
 	 *
@@ -109,7 +304,13 @@ public class RDataframeRow extends RNamedPrimitives implements RObject {
 	 * @return a {@link java.lang.String} object
 	 */
 	public String asCsv() {
-		return this.values().stream().map(v -> v.asCsv()).collect(Collectors.joining(","))+"\n";
+		if (layout == null) return this.values().stream().map(v -> v.asCsv()).collect(Collectors.joining(","))+"\n";
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i<layout.vectors.length; i++) {
+			if (i > 0) sb.append(",");
+			sb.append(layout.vectors[i].get(row).asCsv());
+		}
+		return sb.append("\n").toString();
 	}
 	
 }
@@ -16,14 +16,14 @@ import uk.co.terminological.rjava.utils.RObjectVisitor;
  */
 @RDataType(
 		JavaToR = {
-				"function(jObj) as.Date(rJava::.jcall(jObj,returnSig='Ljava/lang/String;',method='rPrimitive'),'%Y-%m-%d')",
+				"function(jObj) structure(rJava::.jcall(jObj,returnSig='D',method='rEpochDay'),class='Date')",
 		},
 		RtoJava = {
 				"function(rObj) {",
 				"	if (is.na(rObj)) return(rJava::.jnew('~RDATE~'))",
 				"	if (length(rObj) > 1) stop('input too long')",
 				"   if (rObj<'0001-01-01') cli::cli_inform('dates smaller than 0001-01-01 will be converted to NA')",
-				"	tmp = format(rObj,format='%C%y-%m-%d')[[1]]",
+				"	tmp = floor(as.numeric(as.Date(rObj)))[[1]]",
 				"	return(rJava::.jnew('~RDATE~',tmp))",
 				"}"
 		}
@@ -39,6 +39,10 @@ public class RDate implements RPrimitive, JNIPrimitive  {
 	
 	LocalDate self;
 	
+	// R dates are days since 1970-01-01. Days before 0001-01-01 are treated as NA, as they are when parsed from strings
+	static final int NA_EPOCH_DAY = Integer.MIN_VALUE;
+	static final long MIN_EPOCH_DAY = LocalDate.of(1, 1, 1).toEpochDay();
+	
 	static DateTimeFormatter isoformatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
 	static DateTimeFormatter rformatter = DateTimeFormatter.ofPattern("yyy-MM-dd");
 		
@@ -72,6 +76,20 @@ public class RDate implements RPrimitive, JNIPrimitive  {
 		}
 	}
 	
+	/**
+	 * Constructor for RDate from the R numeric representation of a date as the number of days since 1970-01-01.
+	 * NA and non finite values are converted to NA.
+	 *
+	 * @param epochDay a double
+	 */
+	public RDate(double epochDay) {
+		if (Double.isNaN(epochDay) || Double.isInfinite(epochDay) || Math.abs(epochDay) > Integer.MAX_VALUE) {
+			self = null;
+		} else {
+			self = fromEpochDay((int) Math.floor(epochDay));
+		}
+	}
+	
 	/**
 	 * <p>Constructor for RDate.</p>
 	 */
@@ -132,6 +150,28 @@ public class RDate implements RPrimitive, JNIPrimitive  {
 	 */
 	public String rPrimitive() {return self == null ? "NA" : self.format(rformatter);} 
 	
+	/**
+	 * The date as the number of days since 1970-01-01, which is how R stores dates.
+	 *
+	 * @return a double, which is the R NA value if the date is NA
+	 */
+	public double rEpochDay() {
+		int day = epochDay(self);
+		return day == NA_EPOCH_DAY ? RNumeric.NA_VALUE : day;
+	}
+	
+	static int epochDay(LocalDate date) {
+		if (date == null) return NA_EPOCH_DAY;
+		long day = date.toEpochDay();
+		if (day < MIN_EPOCH_DAY || day > Integer.MAX_VALUE) return NA_EPOCH_DAY;
+		return (int) day;
+	}
+	
+	static LocalDate fromEpochDay(int day) {
+		if (day == NA_EPOCH_DAY || day < MIN_EPOCH_DAY) return null;
+		return LocalDate.ofEpochDay(day);
+	}
+	
 	/** {@inheritDoc} */
 	@SuppressWarnings("unchecked")
 	@Override
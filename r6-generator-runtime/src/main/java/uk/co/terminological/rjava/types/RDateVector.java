@@ -4,13 +4,15 @@ import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import uk.co.terminological.rjava.RDataType;
 import uk.co.terminological.rjava.utils.RObjectVisitor;
 
 /**
- * Java wrapper for R vector of dates. When transferred between R and Java this uses a string format for the date.
+ * Java wrapper for R vector of dates. When transferred between R and Java this uses the R numeric representation of
+ * the date as days since 1970-01-01, which is held in a primitive int array using the R integer encoding for NA.
  * Factory methods are in {@link uk.co.terminological.rjava.types.RVector}.
  *
  * @author terminological
@@ -18,19 +20,19 @@ import uk.co.terminological.rjava.utils.RObjectVisitor;
  */
 @RDataType(
 		JavaToR = {
-				"function(jObj) as.Date(rJava::.jcall(jObj,returnSig='[Ljava/lang/String;',method='rPrimitive'),'%Y-%m-%d')",
+				"function(jObj) structure(as.numeric(rJava::.jcall(jObj,returnSig='[I',method='rValues')),class='Date')",
 		},
 		RtoJava = {
 				"function(rObj) {",
-				"	if (is.null(rObj)) return(rJava::.new('~RDATEVECTOR~'))",
+				"	if (is.null(rObj)) return(rJava::.jnew('~RDATEVECTOR~'))",
 				"	if (any(na.omit(rObj)<'0001-01-01')) cli::cli_inform('dates smaller than 0001-01-01 will be converted to NA')",
-				"	tmp = format(rObj,format='%C%y-%m-%d')",
+				"	tmp = suppressWarnings(as.integer(floor(as.numeric(as.Date(rObj)))))",
 				"	return(rJava::.jnew('~RDATEVECTOR~',rJava::.jarray(tmp)))",
 				"}"
 		}
 		//JNIType = "[I"
 	)
-public class RDateVector extends RVector<RDate> implements JNIPrimitive {
+public class RDateVector extends RColumnarVector<RDate,int[]> implements JNIPrimitive {
 	
 	private static final long serialVersionUID = RObject.datatypeVersion;
 	
@@ -41,8 +43,40 @@ public class RDateVector extends RVector<RDate> implements JNIPrimitive {
 	 */
 	public RDateVector(String[] primitives) {
 		super(primitives.length);
-		for (int i=0; i<primitives.length; i++) this.add(new RDate(primitives[i]));
+		for (int i=0; i<primitives.length; i++) values[i] = RDate.epochDay(new RDate(primitives[i]).get());
+		length = primitives.length;
 	}
+	
+	/**
+	 * Constructor for RDateVector from days since 1970-01-01, with NA values as Integer.MIN_VALUE. The array is
+	 * copied, and days before 0001-01-01 are converted to NA in the copy.
+	 *
+	 * @param epochDays an array of {@link int} objects
+	 */
+	public RDateVector(int[] epochDays) {
+		super(naOutOfRange(epochDays.clone()));
+	}
+	
+	/**
+	 * Create a RDateVector from days since 1970-01-01 that uses the array as its storage, without copying it. Days
+	 * before 0001-01-01 are converted to NA in the array, which must not be used by the caller afterwards.
+	 *
+	 * @param epochDays an array of {@link int} objects, with NA values as Integer.MIN_VALUE
+	 * @return a vector over the array
+	 */
+	public static RDateVector wrap(int[] epochDays) {
+		RDateVector out = new RDateVector(0);
+		out.wrapArray(naOutOfRange(epochDays));
+		return out;
+	}
+	
+	private static int[] naOutOfRange(int[] epochDays) {
+		for (int i=0; i<epochDays.length; i++) {
+			if (epochDays[i] < RDate.MIN_EPOCH_DAY) epochDays[i] = RDate.NA_EPOCH_DAY;
+		}
+		return epochDays;
+	}
+	
 	/**
 	 * <p>Constructor for RDateVector.</p>
 	 */
@@ -54,6 +88,39 @@ public class RDateVector extends RVector<RDate> implements JNIPrimitive {
 	 */
 	public RDateVector(int length) {super(length);}
 	
+	/** {@inheritDoc} */
+	@Override
+	protected int[] allocate(int capacity) {
+		return new int[capacity];
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected RDate box(int index) {
+		return values[index] == RDate.NA_EPOCH_DAY ? RDate.NA : new RDate(RDate.fromEpochDay(values[index]));
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected void unbox(int index, RDate value) {
+		values[index] = value == null ? RDate.NA_EPOCH_DAY : RDate.epochDay(value.get());
+	}
+	
+	// appends a value directly to the backing array as an epoch day, without boxing it
+	void append(LocalDate value) {
+		ensureCapacity(length+1);
+		values[length++] = RDate.epochDay(value);
+	}
+	
+	/**
+	 * The dates as days since 1970-01-01, with NA values as Integer.MIN_VALUE.
+	 *
+	 * @return a copy of the values as an array of {@link int} objects
+	 */
+	public int[] rValues() {
+		return this.copyValues();
+	}
+	
 	/**
 	 * <p>rPrimitive.</p>
 	 *
@@ -93,7 +160,7 @@ public class RDateVector extends RVector<RDate> implements JNIPrimitive {
 	 */
 	@SuppressWarnings("unchecked")
 	public Stream<LocalDate> get() {
-		return this.stream().map(ri -> ri.get());
+		return IntStream.range(0, length).mapToObj(i -> RDate.fromEpochDay(values[i]));
 	}
 	
 	/**
@@ -103,7 +170,7 @@ public class RDateVector extends RVector<RDate> implements JNIPrimitive {
 	 */
 	@SuppressWarnings("unchecked")
 	public Stream<Optional<LocalDate>> opt() {
-		return this.stream().map(s -> s.opt());
+		return IntStream.range(0, length).mapToObj(i -> Optional.ofNullable(RDate.fromEpochDay(values[i])));
 	}
 	
 	/** {@inheritDoc} */
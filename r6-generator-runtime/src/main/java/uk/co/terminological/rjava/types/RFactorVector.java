@@ -51,7 +51,7 @@ public class RFactorVector extends RVector<RFactor> {
 		super(values.length);
 		this.levels = levels;
 		for (int i=0; i<values.length; i++) {
-			this.add(new RFactor(values[i], levels[values[i]-1]));
+			this.add(values[i] == RFactor.NA_VALUE ? RFactor.NA : new RFactor(values[i], levels[values[i]-1]));
 //			if(!index.containsKey(values[i])) index.put(values[i], new ArrayList<>());
 //			index.get(values[i]).add(i);
 		}
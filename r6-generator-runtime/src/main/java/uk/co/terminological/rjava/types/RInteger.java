@@ -78,7 +78,7 @@ public class RInteger implements RPrimitive, JNIPrimitive {
 	
 	/** {@inheritDoc} */
 	@Override
-	public int hashCode() {return self.hashCode();}
+	public int hashCode() {return self == null ? 0 : self.hashCode();}
 
 	/** {@inheritDoc} */
 	@Override
@@ -2,6 +2,7 @@ package uk.co.terminological.rjava.types;
 
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import uk.co.terminological.rjava.RDataType;
@@ -11,6 +12,8 @@ import uk.co.terminological.rjava.utils.RObjectVisitor;
 /**
  * The vector of integers is needed to ensure that NA values are correctly handled and
  * allow flexibility of a java List structure for easy manipulation. Factory methods are in {@link uk.co.terminological.rjava.types.RVector}.
+ * Values are held in a primitive int array using the R encoding for NA, and are only wrapped as individual
+ * R primitives when accessed through the java List interface (see {@link uk.co.terminological.rjava.types.RColumnarVector}).
  *
  * @author terminological
  * @version $Id: $Id
@@ -29,17 +32,30 @@ import uk.co.terminological.rjava.utils.RObjectVisitor;
 		}
 		//JNIType = "[I"
 	)
-public class RIntegerVector extends RVector<RInteger> implements JNIPrimitive {
+public class RIntegerVector extends RColumnarVector<RInteger,int[]> implements JNIPrimitive {
 	
 	private static final long serialVersionUID = RObject.datatypeVersion;
 	
 	/**
-	 * <p>Constructor for RIntegerVector.</p>
+	 * <p>Constructor for RIntegerVector. The array is copied.</p>
 	 *
 	 * @param primitives an array of {@link int} objects
 	 */
 	public RIntegerVector(int[] primitives) {
-		for (int i=0; i<primitives.length; i++) this.add(new RInteger(primitives[i]));
+		super(primitives.clone());
+	}
+	
+	/**
+	 * Create a RIntegerVector that uses the array as its storage, without copying it. The array must not be used
+	 * by the caller afterwards.
+	 *
+	 * @param primitives an array of {@link int} objects, with NA values encoded as in R
+	 * @return a vector over the array
+	 */
+	public static RIntegerVector wrap(int[] primitives) {
+		RIntegerVector out = new RIntegerVector(0);
+		out.wrapArray(primitives);
+		return out;
 	}
 	/**
 	 * <p>Constructor for RIntegerVector.</p>
@@ -54,13 +70,38 @@ public class RIntegerVector extends RVector<RInteger> implements JNIPrimitive {
 	public RIntegerVector(int length) {
 		super(length);
 	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected int[] allocate(int capacity) {
+		return new int[capacity];
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected RInteger box(int index) {
+		return new RInteger(values[index]);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected void unbox(int index, RInteger value) {
+		values[index] = value == null ? RInteger.NA_VALUE : value.rPrimitive();
+	}
+	
+	// appends a value directly to the backing array, without boxing it
+	void append(int value) {
+		ensureCapacity(length+1);
+		values[length++] = value;
+	}
+	
 	/**
 	 * <p>rPrimitive.</p>
 	 *
-	 * @return an array of {@link int} objects
+	 * @return a copy of the values as an array of {@link int} objects
 	 */
 	public int[] rPrimitive() {
-		return this.stream().mapToInt(ri -> ri.rPrimitive()).toArray();
+		return this.copyValues();
 	}
 	
 	/** {@inheritDoc} */
@@ -84,7 +125,7 @@ public class RIntegerVector extends RVector<RInteger> implements JNIPrimitive {
 	 */
 	@SuppressWarnings("unchecked")
 	public Stream<Integer> get() {
-		return this.stream().map(r -> r.get());
+		return IntStream.range(0, length).mapToObj(i -> values[i] == RInteger.NA_VALUE ? null : values[i]);
 	}
 	
 	/**
@@ -94,7 +135,7 @@ public class RIntegerVector extends RVector<RInteger> implements JNIPrimitive {
 	 */
 	@SuppressWarnings("unchecked")
 	public Stream<Optional<Integer>> opt() {
-		return this.stream().map(s -> s.opt());
+		return IntStream.range(0, length).mapToObj(i -> values[i] == RInteger.NA_VALUE ? Optional.empty() : Optional.of(values[i]));
 	}
 	
 	/** {@inheritDoc} */
@@ -122,6 +163,8 @@ public class RIntegerVector extends RVector<RInteger> implements JNIPrimitive {
 	 * @return an array of {@link int} objects
 	 */
 	public int[] javaPrimitive(int naValue) {
-		return this.stream().mapToInt(ri -> ri.javaPrimitive(naValue)).toArray();
+		int[] out = new int[length];
+		for (int i=0; i<length; i++) out[i] = values[i] == RInteger.NA_VALUE ? naValue : values[i];
+		return out;
 	}
 }
@@ -2,6 +2,7 @@ package uk.co.terminological.rjava.types;
 
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import uk.co.terminological.rjava.RDataType;
@@ -10,6 +11,8 @@ import uk.co.terminological.rjava.utils.RObjectVisitor;
 /**
  * The vector of logicals is needed to ensure that NA values are correctly handled and
  * allow flexibility of a java List structure for easy manipulation. Factory methods are in {@link uk.co.terminological.rjava.types.RVector}.
+ * Values are held in a primitive int array using the R encoding for NA, and are only wrapped as individual
+ * R primitives when accessed through the java List interface (see {@link uk.co.terminological.rjava.types.RColumnarVector}).
  *
  * @author terminological
  * @version $Id: $Id
@@ -28,17 +31,30 @@ import uk.co.terminological.rjava.utils.RObjectVisitor;
 		}//,
 		//JNIType = "[I"
 	)
-public class RLogicalVector extends RVector<RLogical> implements JNIPrimitive {
+public class RLogicalVector extends RColumnarVector<RLogical,int[]> implements JNIPrimitive {
 	
 	private static final long serialVersionUID = RObject.datatypeVersion;
 	
 	/**
-	 * <p>Constructor for RLogicalVector.</p>
+	 * <p>Constructor for RLogicalVector. The array is copied.</p>
 	 *
 	 * @param primitives an array of {@link int} objects
 	 */
 	public RLogicalVector(int[] primitives) {
-		for (int i=0; i<primitives.length; i++) this.add(new RLogical(primitives[i]));
+		super(primitives.clone());
+	}
+	
+	/**
+	 * Create a RLogicalVector that uses the array as its storage, without copying it. The array must not be used
+	 * by the caller afterwards.
+	 *
+	 * @param primitives an array of {@link int} objects, with NA values encoded as in R
+	 * @return a vector over the array
+	 */
+	public static RLogicalVector wrap(int[] primitives) {
+		RLogicalVector out = new RLogicalVector(0);
+		out.wrapArray(primitives);
+		return out;
 	}
 	/**
 	 * <p>Constructor for RLogicalVector.</p>
@@ -57,15 +73,42 @@ public class RLogicalVector extends RVector<RLogical> implements JNIPrimitive {
 	 */
 	public RLogicalVector(boolean[] array) {
 		super(array.length);
-		for (int i=0;i<array.length;i++) this.add(new RLogical(array[i] ? 1 : 0));
+		for (int i=0;i<array.length;i++) values[i] = array[i] ? 1 : 0;
+		length = array.length;
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected int[] allocate(int capacity) {
+		return new int[capacity];
 	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected RLogical box(int index) {
+		int value = values[index];
+		return value == RLogical.NA_VALUE ? RLogical.NA : (value != 0 ? RLogical.TRUE : RLogical.FALSE);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected void unbox(int index, RLogical value) {
+		values[index] = value == null ? RLogical.NA_VALUE : value.rPrimitive();
+	}
+	
+	// appends a value directly to the backing array, without boxing it
+	void append(Boolean value) {
+		ensureCapacity(length+1);
+		values[length++] = value == null ? RLogical.NA_VALUE : (value.booleanValue() ? 1 : 0);
+	}
+	
 	/**
 	 * <p>rPrimitive.</p>
 	 *
-	 * @return an array of {@link int} objects
+	 * @return a copy of the values as an array of {@link int} objects
 	 */
 	public int[] rPrimitive() {
-		return this.stream().mapToInt(ri -> ri.rPrimitive()).toArray();
+		return this.copyValues();
 	}
 	
 	/** {@inheritDoc} */
@@ -89,7 +132,7 @@ public class RLogicalVector extends RVector<RLogical> implements JNIPrimitive {
 	 */
 	@SuppressWarnings("unchecked")
 	public Stream<Boolean> get() {
-		return this.stream().map(ri -> ri.get());
+		return IntStream.range(0, length).mapToObj(i -> values[i] == RLogical.NA_VALUE ? null : values[i] != 0);
 	}
 	
 	/**
@@ -99,7 +142,7 @@ public class RLogicalVector extends RVector<RLogical> implements JNIPrimitive {
 	 */
 	@SuppressWarnings("unchecked")
 	public Stream<Optional<Boolean>> opt() {
-		return this.stream().map(s -> s.opt());
+		return IntStream.range(0, length).mapToObj(i -> values[i] == RLogical.NA_VALUE ? Optional.empty() : Optional.of(values[i] != 0));
 	}
 	
 	/** {@inheritDoc} */
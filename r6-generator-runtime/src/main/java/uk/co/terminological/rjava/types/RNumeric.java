@@ -45,6 +45,10 @@ public class RNumeric implements RPrimitive, JNIPrimitive  {
 	/** Constant <code>NA</code> */
 	public static final RNumeric NA = new RNumeric(NA_VALUE);
 	
+	static boolean isNaValue(double value) {
+		return Double.doubleToRawLongBits(value) == NA_VALUE_LONG;
+	}
+	
 	//NaN 7ff8000000000000
 	//Infinity 7ff0000000000000
 	//-Infinity fff0000000000000
@@ -3,6 +3,7 @@ package uk.co.terminological.rjava.types;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import uk.co.terminological.rjava.RDataType;
@@ -11,6 +12,8 @@ import uk.co.terminological.rjava.utils.RObjectVisitor;
 /**
  * The vector of numerics is needed to ensure that NA values are correctly handled and
  * allow flexibility of a java List structure for easy manipulation. Factory methods are in {@link uk.co.terminological.rjava.types.RVector}.
+ * Values are held in a primitive double array using the R encoding for NA, and are only wrapped as individual
+ * R primitives when accessed through the java List interface (see {@link uk.co.terminological.rjava.types.RColumnarVector}).
  *
  * @author terminological
  * @version $Id: $Id
@@ -29,17 +32,30 @@ import uk.co.terminological.rjava.utils.RObjectVisitor;
 		}//,
 		//JNIType = "[D"
 	)
-public class RNumericVector extends RVector<RNumeric> implements JNIPrimitive {
+public class RNumericVector extends RColumnarVector<RNumeric,double[]> implements JNIPrimitive {
 	
 	private static final long serialVersionUID = RObject.datatypeVersion;
 	
 	/**
-	 * <p>Constructor for RNumericVector.</p>
+	 * <p>Constructor for RNumericVector. The array is copied.</p>
 	 *
 	 * @param primitives an array of {@link double} objects
 	 */
 	public RNumericVector(double[] primitives) {
-		for (int i=0; i<primitives.length; i++) this.add(new RNumeric(primitives[i]));
+		super(primitives.clone());
+	}
+	
+	/**
+	 * Create a RNumericVector that uses the array as its storage, without copying it. The array must not be used
+	 * by the caller afterwards.
+	 *
+	 * @param primitives an array of {@link double} objects, with NA values encoded as in R
+	 * @return a vector over the array
+	 */
+	public static RNumericVector wrap(double[] primitives) {
+		RNumericVector out = new RNumericVector(0);
+		out.wrapArray(primitives);
+		return out;
 	}
 	/**
 	 * <p>Constructor for RNumericVector.</p>
@@ -57,15 +73,41 @@ public class RNumericVector extends RVector<RNumeric> implements JNIPrimitive {
 	 * @param subList a {@link java.util.List} object
 	 */
 	public RNumericVector(List<RNumeric> subList) {
-		super(subList);
+		super(subList.size());
+		this.addAll(subList);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected double[] allocate(int capacity) {
+		return new double[capacity];
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected RNumeric box(int index) {
+		return new RNumeric(values[index]);
+	}
+	
+	/** {@inheritDoc} */
+	@Override
+	protected void unbox(int index, RNumeric value) {
+		values[index] = value == null ? RNumeric.NA_VALUE : value.rPrimitive();
+	}
+	
+	// appends a value directly to the backing array, without boxing it
+	void append(double value) {
+		ensureCapacity(length+1);
+		values[length++] = value;
 	}
+	
 	/**
 	 * <p>rPrimitive.</p>
 	 *
-	 * @return an array of {@link double} objects
+	 * @return a copy of the values as an array of {@link double} objects
 	 */
 	public double[] rPrimitive() {
-		return this.stream().mapToDouble(ri -> ri.rPrimitive()).toArray();
+		return this.copyValues();
 	}
 	
 	/** {@inheritDoc} */
@@ -89,7 +131,7 @@ public class RNumericVector extends RVector<RNumeric> implements JNIPrimitive {
 	 */
 	@SuppressWarnings("unchecked")
 	public Stream<Double> get() {
-		return this.stream().map(r -> r.get());
+		return IntStream.range(0, length).mapToObj(i -> RNumeric.isNaValue(values[i]) ? null : values[i]);
 	}
 	
 	/**
@@ -99,7 +141,7 @@ public class RNumericVector extends RVector<RNumeric> implements JNIPrimitive {
 	 */
 	@SuppressWarnings("unchecked")
 	public Stream<Optional<Double>> opt() {
-		return this.stream().map(s -> s.opt());
+		return IntStream.range(0, length).mapToObj(i -> RNumeric.isNaValue(values[i]) ? Optional.empty() : Optional.of(values[i]));
 	}
 	
 	/** {@inheritDoc} */
@@ -127,6 +169,8 @@ public class RNumericVector extends RVector<RNumeric> implements JNIPrimitive {
 	 * @return an array of {@link double} objects
 	 */
 	public double[] javaPrimitive(double naValue) {
-		return this.stream().mapToDouble(ri -> ri.javaPrimitive(naValue)).toArray();
+		double[] out = new double[length];
+		for (int i=0; i<length; i++) out[i] = RNumeric.isNaValue(values[i]) ? naValue : values[i];
+		return out;
 	} 
 }
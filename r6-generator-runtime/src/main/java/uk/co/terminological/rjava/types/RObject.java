@@ -1,13 +1,16 @@
 package uk.co.terminological.rjava.types;
 
+import java.io.BufferedInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 
+import uk.co.terminological.rjava.io.RColumnarFormat;
 import uk.co.terminological.rjava.utils.RObjectVisitor;
 
 /**
@@ -41,21 +44,23 @@ public interface RObject extends Serializable {
 	public <X> X accept(RObjectVisitor<X> visitor); 
 	
 	/**
-	 * <p>writeRDS.</p>
+	 * Writes this object in the columnar binary format of {@link uk.co.terminological.rjava.io.RColumnarFormat}, without compression.
+	 * The stream is closed afterwards.
 	 *
 	 * @param os a {@link java.io.FileOutputStream} object
 	 * @throws java.io.IOException if any.
 	 */
 	public default void writeRDS(FileOutputStream os) throws IOException {
-		ObjectOutputStream oos = new ObjectOutputStream(os);
-		oos.writeObject(this);
-		oos.flush();
-		oos.close();
-		os.close();
+		try (FileChannel channel = os.getChannel()) {
+			RColumnarFormat.write(this, channel, RColumnarFormat.Compression.NONE);
+		} finally {
+			os.close();
+		}
 	}
 	
 	/**
-	 * <p>readRDS.</p>
+	 * Reads an object written by {@link #writeRDS(FileOutputStream)}. Objects written with java serialisation by earlier
+	 * versions of this library can also be read.
 	 *
 	 * @param clazz a {@link java.lang.Class} object
 	 * @param is a {@link java.io.InputStream} object
@@ -64,7 +69,9 @@ public interface RObject extends Serializable {
 	 * @throws java.io.IOException if any.
 	 */
 	public static <X extends RObject> X readRDS(Class<X> clazz, InputStream is) throws IOException {
-		ObjectInputStream ois = new ObjectInputStream(is);
+		BufferedInputStream bis = new BufferedInputStream(is);
+		if (RColumnarFormat.isColumnar(bis)) return RColumnarFormat.read(clazz, Channels.newChannel(bis));
+		ObjectInputStream ois = new ObjectInputStream(bis);
 		try {
 			@SuppressWarnings("unchecked")
 			X out = (X) ois.readObject();
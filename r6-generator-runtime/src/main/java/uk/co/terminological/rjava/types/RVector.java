@@ -4,8 +4,10 @@ import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Predicate;
@@ -490,6 +492,23 @@ public abstract class RVector<X extends RPrimitive> extends ArrayList<X> impleme
 		return new LinkedHashSet<>(this);
 	}
 	
+	/**
+	 * Integer codes for the values of this vector, such that two positions have the same code if and only if
+	 * they hold equal values. The codes need not be dense. Used for grouping dataframes without comparing values 
+	 * row by row.
+	 *
+	 * @return an array of codes, one per value
+	 */
+	protected int[] groupCodes() {
+		int[] out = new int[this.size()];
+		Map<X,Integer> index = new HashMap<>();
+		for (int i=0;i<this.size();i++) {
+			Integer code = index.putIfAbsent(this.get(i), index.size());
+			out[i] = code == null ? index.size()-1 : code;
+		}
+		return out;
+	}
+	
 	/**
 	 * <p>matches.</p>
 	 *
@@ -539,6 +558,21 @@ public abstract class RVector<X extends RPrimitive> extends ArrayList<X> impleme
 		}
 		return out;
 	}
+	
+	/**
+	 * Gathers the values at the given positions into a new vector, in the order given.
+	 *
+	 * @param indices the positions of the values to copy
+	 * @return a {@link uk.co.terminological.rjava.types.RVector} object
+	 */
+	public RVector<X> subset(int[] indices) {
+		RVector<X> out = RVector.empty(this.getType());
+		out.ensureCapacity(indices.length);
+		for (int i: indices) {
+			out.add(this.get(i));
+		}
+		return out;
+	}
 
 	/**
 	 * <p>as.</p>
@@ -571,6 +605,16 @@ public abstract class RVector<X extends RPrimitive> extends ArrayList<X> impleme
 	 */
 	public abstract <Y extends Object> Stream<Optional<Y>> opt();
 
+	/**
+	 * An estimate of the size of the data in this vector, as used for runtime metrics. For a vector of boxed
+	 * values this counts one reference per element.
+	 *
+	 * @return the approximate number of bytes of data
+	 */
+	public long byteSize() {
+		return 8L*this.size();
+	}
+
 	/**
 	 * <p>addAllUnsafe.</p>
 	 *
@@ -3,19 +3,30 @@ package uk.co.terminological.rjava.threads;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 
+import uk.co.terminological.rjava.IdNotFoundException;
 import uk.co.terminological.rjava.RSystemOut;
 import uk.co.terminological.rjava.types.RCharacter;
+import uk.co.terminological.rjava.types.RDataframe;
 import uk.co.terminological.rjava.types.RInteger;
+import uk.co.terminological.rjava.types.RList;
+import uk.co.terminological.rjava.types.RVector;
 
 class TestMultithreaded {
 
@@ -83,12 +94,32 @@ class TestMultithreaded {
 		assertTrue(fut.isCancelled());
 		assertTrue(fut.isDone());
 		assertTrue(fut.isStale());
+		assertEquals(RFuture.State.CANCELLED, fut.getState());
+		// and cancelled calls are removed from the registry
+		assertThrows(IdNotFoundException.class, () -> RThreadMonitor.get(fut.getId()));
 		
 		console.println(fut.getSystemMessages());
 		
 		RSystemOut.release();
 	}
 
+	@Test
+	void testCancelFinished() throws Exception {
+		RSystemOut.setup();
+		RFuture fut = new RFuture(new ThreadTestClass(), "doFastTest", new ArrayList<Object>(), "JNI", "converter");
+		assertTrue(RThreadMonitor.awaitAll(new long[] {fut.getId()}, 5000));
+		assertEquals(RFuture.State.DONE, fut.getState());
+		
+		// cancelling a finished call discards its result and tidies it up
+		assertFalse(fut.cancel());
+		assertEquals(RFuture.State.COLLECTED, fut.getState());
+		assertTrue(fut.isStale());
+		assertThrows(IdNotFoundException.class, () -> RThreadMonitor.get(fut.getId()));
+		assertNull(fut.get());
+		
+		RSystemOut.release();
+	}
+	
 	@Test
 	void testDoneStatus() throws NoSuchMethodException, SecurityException, ClassNotFoundException, InterruptedException, ExecutionException {
 		
@@ -109,12 +140,14 @@ class TestMultithreaded {
 		assertFalse(fut.isCancelled());
 		assertTrue(fut.isDone());
 		assertFalse(fut.isStale());
+		assertEquals(RFuture.State.DONE, fut.getState());
 		
 		// Result pulled results in stale result
 		RCharacter out = (RCharacter) fut.get();
 		assertFalse(fut.isCancelled());
 		assertTrue(fut.isDone());
 		assertTrue(fut.isStale());
+		assertEquals(RFuture.State.COLLECTED, fut.getState());
 		
 		// Cancellation post completion and pulling has no effect
 		fut.cancel();
@@ -156,10 +189,10 @@ class TestMultithreaded {
 		
 		Thread.sleep(10);
 		
-		assertEquals(fut.getProgressRCode(), "list(total=100, set=10, id=\"test1\")");
+		assertTrue(fut.getProgressRCode().startsWith("list(total=100, set=10, id=\"test1\", rate="));
 		fut.get();
 		
-		assertEquals(fut.getProgressRCode(), "list(total=100, set=100, id=\"test1\")");
+		assertTrue(fut.getProgressRCode().startsWith("list(total=100, set=100, id=\"test1\", rate="));
 		
 		RSystemOut.release();
 	
@@ -171,11 +204,11 @@ class TestMultithreaded {
 		
 		Thread.sleep(10);
 		
-		assertEquals(fut2.getProgressRCode(), "list(total=NA, set=10, id=\"test1\")");
+		assertTrue(fut2.getProgressRCode().startsWith("list(total=NA, set=10, id=\"test1\", rate="));
 		console.println(RThreadMonitor.status());
 		fut2.get();
 		
-		assertEquals(fut2.getProgressRCode(), "list(total=90, set=90, id=\"test1\")");
+		assertTrue(fut2.getProgressRCode().startsWith("list(total=90, set=90, id=\"test1\", rate="));
 		console.println(RThreadMonitor.status());
 		
 		RSystemOut.release();
@@ -204,6 +237,208 @@ class TestMultithreaded {
 		RSystemOut.release();
 	}
 	
+	@Test
+	void testPool() throws NoSuchMethodException, SecurityException, ClassNotFoundException, InterruptedException, ExecutionException {
+		RSystemOut.setup();
+		RExecutors.configure("limited", 1, 1, RExecutors.Rejection.ABORT);
+		
+		String methodName = "doLimitedTest";
+		ArrayList<Object> params = new ArrayList<Object>();
+		// one running, one queued, and no room for a third
+		RFuture fut = new RFuture(new ThreadTestClass(1), methodName, params, "JNI", "converter");
+		RFuture fut2 = new RFuture(new ThreadTestClass(2), methodName, params, "JNI", "converter");
+		assertThrows(RejectedExecutionException.class, () -> new RFuture(new ThreadTestClass(3), methodName, params, "JNI", "converter"));
+		
+		assertTrue(fut2.toString().endsWith("[queued]"));
+		assertTrue(RThreadMonitor.status().contains("# pool limited:"));
+		assertEquals(1, RExecutors.queued("limited"));
+		
+		assertEquals("limited test complete: 2", ((RCharacter) fut2.get()).get());
+		assertTrue(fut.isDone());
+		
+		RSystemOut.release();
+	}
+	
+	@Test
+	void testBlockingPool() throws Exception {
+		RSystemOut.setup();
+		ArrayList<Object> params = new ArrayList<Object>();
+		// more blocking calls than the default pool runs at once all start straight away
+		int n = Runtime.getRuntime().availableProcessors()*2+1;
+		List<RFuture> futs = new ArrayList<>();
+		for (int i=0; i<n; i++) futs.add(new RFuture(new ThreadTestClass(i), "doBlockingTest", params, "JNI", "converter"));
+		for (RFuture fut: futs) assertTrue(fut.awaitStart(150));
+		for (int i=0; i<n; i++) assertEquals("blocking test complete: "+i, ((RCharacter) futs.get(i).get()).get());
+		assertTrue(RExecutors.status().contains("# pool blocking: "));
+		RSystemOut.release();
+	}
+	
+	@Test
+	void testSynchronisedMonitor() throws Exception {
+		RSystemOut.setup();
+		ThreadTestClass shared = new ThreadTestClass(1);
+		RFuture fut = new RFuture(shared, "doSynchronisedTest", new ArrayList<Object>(), "JNI", "converter");
+		while (!fut.isStarted()) Thread.sleep(5);
+		// in a platform pool a synchronised call holds the monitor of its target
+		synchronized (shared) {
+			assertTrue(shared.synchronisedDone);
+		}
+		assertEquals("synchronised test complete: 1", ((RCharacter) fut.get()).get());
+		RSystemOut.release();
+	}
+	
+	@Test
+	void testVirtualPool() throws InterruptedException, ExecutionException {
+		RSystemOut.setup();
+		RExecutors.configureVirtual("virtual", 4, 0);
+		boolean virtual = VirtualThreads.AVAILABLE;
+		
+		String methodName = "doVirtualTest";
+		ArrayList<Object> params = new ArrayList<Object>();
+		ThreadTestClass shared = new ThreadTestClass(1);
+		// synchronised calls on the same object run one at a time without pinning
+		List<RFuture> futs = IntStream.range(0, 20).mapToObj(i -> {
+			try {
+				return new RFuture(shared, methodName, params, "JNI", "converter");
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}).collect(Collectors.toList());
+		
+		for (RFuture fut: futs) {
+			assertEquals("virtual test complete: 1 "+virtual, ((RCharacter) fut.get()).get());
+		}
+		if (virtual) assertTrue(RExecutors.status().contains("# pool virtual: 0 active, 0 queued, 20 completed (virtual threads"));
+		assertTrue(RThreadMonitor.build(() -> {}).getName().startsWith("rjava-thread-"));
+		
+		RSystemOut.release();
+	}
+	
+	@Test
+	void testAwait() throws Exception {
+		RSystemOut.setup();
+		ArrayList<Object> params = new ArrayList<Object>();
+		AtomicInteger callbacks = new AtomicInteger();
+		List<RFuture> fast = IntStream.range(1, 6).mapToObj(i -> {
+			try {
+				return new RFuture(new ThreadTestClass(i), "doFastTest", params, "JNI", "converter")
+					.whenComplete((r,t) -> callbacks.incrementAndGet());
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}).collect(Collectors.toList());
+		// queued after the fast calls so that it finishes last even with a single processor
+		RFuture slow = new RFuture(new ThreadTestClass(0), "doSlowTest", params, "JNI", "converter");
+		long[] ids = fast.stream().mapToLong(RFuture::getId).toArray();
+		long[] all = LongStream.concat(LongStream.of(slow.getId()), Arrays.stream(ids)).toArray();
+		
+		long first = RThreadMonitor.awaitAny(all, 5000);
+		assertTrue(Arrays.stream(ids).anyMatch(id -> id == first));
+		assertTrue(RThreadMonitor.awaitAll(ids, 5000));
+		assertFalse(RThreadMonitor.awaitAll(all, 10));
+		assertEquals(5, callbacks.get());
+		
+		CompletableFuture<String> upper = slow.thenApply(r -> ((RCharacter) r).get().toUpperCase());
+		assertTrue(slow.awaitStart(1000));
+		assertEquals("SLOW TEST COMPLETE: 0", upper.get());
+		assertTrue(RThreadMonitor.awaitAll(all, 0));
+		
+		RSystemOut.release();
+	}
+	
+	@Test
+	void testParallelProgress() throws Exception {
+		RSystemOut.setup();
+		RFuture fut = new RFuture(new ThreadTestClass(), "doParallelProgressTest", new ArrayList<Object>(), "JNI", "converter");
+		fut.attachProgressBar("parallel");
+		// the method sleeps after the parallel work completes
+		Thread.sleep(50);
+		while (!fut.getProgressRCode().startsWith("list(total=1000, set=1000,")) {
+			assertFalse(fut.isDone());
+			Thread.sleep(5);
+		}
+		assertTrue(fut.getProgressRCode().contains("rate="));
+		assertEquals(499500, ((RInteger) fut.get()).get());
+		RSystemOut.release();
+	}
+
+	@Test
+	void testUnregisteredProgress() throws Exception {
+		// progress outside a background call is not kept for the thread
+		RProgressMonitor.setTotal(10);
+		RProgressMonitor.increment();
+		assertNotSame(RProgressMonitor.current(), RProgressMonitor.current());
+		assertEquals(0, RProgressMonitor.current().getProgress());
+	}
+
+	@Test
+	void testSnapshot() throws Exception {
+		RSystemOut.setup();
+		ArrayList<Object> params = new ArrayList<Object>();
+		params.add(5);
+		RFuture fut = new RFuture(new ThreadTestClass(5), "doSystemOutTest", params, "JNI", "converter");
+		fut.attachProgressBar("snapshot");
+		StringBuilder messages = new StringBuilder();
+		String[] snap;
+		int calls = 0;
+		long wait = 5;
+		do {
+			snap = fut.snapshot(wait);
+			messages.append(snap[1]).append("\n");
+			wait = Math.min(wait*2, 250);
+			calls++;
+		} while (snap[0].equals("QUEUED") || snap[0].equals("RUNNING"));
+		assertEquals("DONE", snap[0]);
+		assertTrue(messages.toString().contains("message 9 from 5"));
+		assertTrue(snap[2].startsWith("list("));
+		assertEquals("", snap[3]);
+		// the method takes about 100ms so backing off means only a handful of calls 
+		assertTrue(calls < 10);
+		RSystemOut.release();
+	}
+	
+	@Test
+	void testMethodInvoker() throws Throwable {
+		MethodInvoker fast = MethodInvoker.resolve(ThreadTestClass.class, "doFastTest", new Class<?>[] {});
+		// resolved once and cached with the policy from the annotation
+		assertSame(fast, MethodInvoker.resolve(ThreadTestClass.class, "doFastTest", new Class<?>[] {}));
+		assertEquals(RExecutors.DEFAULT, fast.pool);
+		assertFalse(fast.synchronise);
+		MethodInvoker virtual = MethodInvoker.resolve(ThreadTestClass.class, "doVirtualTest", new Class<?>[] {});
+		assertEquals("virtual", virtual.pool);
+		assertTrue(virtual.synchronise);
+		MethodInvoker blocking = MethodInvoker.resolve(ThreadTestClass.class, "doBlockingTest", new Class<?>[] {});
+		assertEquals(RExecutors.BLOCKING, blocking.pool);
+		assertTrue(blocking.synchronise);
+		MethodInvoker stat = MethodInvoker.resolve(MethodInvoker.forName(ThreadTestClass.class.getCanonicalName().replace('.', '/')), 
+				"doStaticTest", new Class<?>[] {RInteger.class, RCharacter.class});
+		assertTrue(stat.isStatic);
+		assertFalse(stat.synchronise);
+		assertEquals(RCharacter.from("X"), stat.invoke(null, new Object[] {RInteger.from(10), RCharacter.from("x")}));
+		assertThrows(NoSuchMethodException.class, () -> MethodInvoker.resolve(ThreadTestClass.class, "doFastTest", new Class<?>[] {Integer.class}));
+	}
+	
+	@Test
+	void testBatch() throws Exception {
+		RSystemOut.setup();
+		RDataframe params = new RDataframe();
+		params.addCol("int1", RVector.with(20, 21, 22, 23));
+		params.addCol("char1", RVector.with("a", "b", "c", "d"));
+		RFutureGroup group = new RFutureGroup(ThreadTestClass.class.getCanonicalName(), "doStaticTest", params, "JNI");
+		assertEquals(4, group.size());
+		assertEquals(4, group.getIds().length);
+		group.attachProgressBar("batch");
+		String[] snap = group.snapshot(5000);
+		assertEquals("DONE", snap[0]);
+		assertEquals(4, group.finished());
+		assertTrue(snap[1].contains("b complete"));
+		assertEquals("list(total=4, set=4, id=\"batch\")", snap[2]);
+		RList out = (RList) group.collect();
+		assertEquals(4, out.size());
+		assertEquals(RCharacter.from("C"), out.get(2));
+		RSystemOut.release();
+	}
+	
 	@Test
 	void testSystemOut() throws InterruptedException, ExecutionException {
 		PrintStream console = System.out;
@@ -232,4 +467,49 @@ class TestMultithreaded {
 		
 		RSystemOut.release();
 	}
+	
+	@Test
+	void testSystemOutLimit() throws Exception {
+		RSystemOut.setup();
+		RSystemOut.configure(64, 0);
+		try {
+			ArrayList<Object> params = new ArrayList<Object>();
+			params.add(3);
+			RFuture fut = new RFuture(new ThreadTestClass(3), "doSystemOutTest", params, "JNI", "converter");
+			while (!fut.poll(100)) {}
+			// only the last 64 bytes are kept
+			String msgs = fut.getSystemMessages();
+			assertTrue(msgs.startsWith("[... "));
+			assertTrue(msgs.endsWith("message 9 from 3"));
+			assertFalse(msgs.contains("message 0 from 3"));
+			// and the capture is discarded once the result is collected
+			fut.get();
+			assertEquals("", fut.getSystemMessages());
+		} finally {
+			RSystemOut.configure(RSystemOut.DEFAULT_MAX_BYTES, 0);
+			RSystemOut.release();
+		}
+	}
+
+	@Test
+	void testSystemOutSpill() throws Exception {
+		RSystemOut.setup();
+		RSystemOut.configure(64, 1024);
+		try {
+			ArrayList<Object> params = new ArrayList<Object>();
+			params.add(3);
+			RFuture fut = new RFuture(new ThreadTestClass(3), "doSystemOutTest", params, "JNI", "converter");
+			while (!fut.poll(100)) {}
+			// the overflow is written to a file, which is deleted when the result is collected
+			String msgs = fut.getSystemMessages();
+			assertTrue(msgs.contains(" written to "));
+			Path spill = Paths.get(msgs.substring(msgs.indexOf(" written to ")+12, msgs.indexOf(" ...]")));
+			assertTrue(Files.exists(spill));
+			fut.get();
+			assertFalse(Files.exists(spill));
+		} finally {
+			RSystemOut.configure(RSystemOut.DEFAULT_MAX_BYTES, 0);
+			RSystemOut.release();
+		}
+	}
 }
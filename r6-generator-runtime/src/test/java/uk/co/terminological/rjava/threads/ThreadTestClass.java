@@ -1,6 +1,9 @@
 package uk.co.terminological.rjava.threads;
 
+import java.util.stream.IntStream;
+
 import uk.co.terminological.rjava.RAsync;
+import uk.co.terminological.rjava.RBlocking;
 import uk.co.terminological.rjava.types.RCharacter;
 import uk.co.terminological.rjava.types.RInteger;
 
@@ -8,6 +11,7 @@ public class ThreadTestClass {
 
 	
 	private int index;
+	boolean synchronisedDone = false;
 
 	public ThreadTestClass() {
 		this(1);
@@ -55,6 +59,54 @@ public class ThreadTestClass {
 		return RCharacter.from("fast test complete: "+index);
 	}
 	
+	@RAsync(pool="limited")
+	public RCharacter doLimitedTest() throws InterruptedException {
+		
+		Thread.sleep(50);
+		return RCharacter.from("limited test complete: "+index);
+	}
+	
+	@RBlocking
+	public RCharacter doBlockingTest() throws InterruptedException {
+		
+		Thread.sleep(200);
+		return RCharacter.from("blocking test complete: "+index);
+	}
+	
+	@RAsync(synchronise=true)
+	public RCharacter doSynchronisedTest() throws InterruptedException {
+		
+		Thread.sleep(200);
+		synchronisedDone = true;
+		return RCharacter.from("synchronised test complete: "+index);
+	}
+	
+	@RAsync(pool="virtual", synchronise=true)
+	public RCharacter doVirtualTest() throws InterruptedException {
+		
+		Thread.sleep(20);
+		return RCharacter.from("virtual test complete: "+index+" "+RExecutors.isVirtualThread());
+	}
+	
+	@RAsync
+	public RInteger doParallelProgressTest() throws InterruptedException {
+		
+		RProgressMonitor.setTotal(1000);
+		// progress from parallel workers counts towards this call
+		int sum = IntStream.range(0, 1000).parallel().boxed()
+			.map(RThreadMonitor.inherit((Integer i) -> {
+				try {
+					RProgressMonitor.increment();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				return i;
+			}))
+			.mapToInt(i -> i).sum();
+		Thread.sleep(100);
+		return RInteger.from(sum);
+	}
+	
 	@RAsync
 	public void doProgressTest() throws InterruptedException {
 		
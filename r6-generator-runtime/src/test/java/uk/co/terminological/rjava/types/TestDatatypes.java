@@ -13,17 +13,35 @@ import static uk.co.terminological.rjava.Rule.MapRule.*;
 import uk.co.terminological.rjava.IncompatibleTypeException;
 import uk.co.terminological.rjava.NameNotFoundException;
 import uk.co.terminological.rjava.RConverter;
+import uk.co.terminological.rjava.RMetrics;
 import uk.co.terminological.rjava.RName;
 // CE01
 import uk.co.terminological.rjava.UnconvertableTypeException;
 import uk.co.terminological.rjava.ZeroDimensionalArrayException;
+import uk.co.terminological.rjava.io.RArrowFormat;
+import uk.co.terminological.rjava.io.RColumnarFormat;
+import uk.co.terminological.rjava.io.RdsReader;
+import uk.co.terminological.rjava.io.RdsWriter;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -65,6 +83,18 @@ class TestDatatypes {
 		
 		System.out.println(new RDate("-234-01-01"));
 		
+		// Dates are transferred as days since 1970-01-01
+		assertEquals(18262.0, new RDate("2020-01-01").rEpochDay());
+		assertEquals(LocalDate.of(2020,1,1), new RDate(18262.0).get());
+		assertTrue(RDate.NA.rEpochDay() != RDate.NA.rEpochDay());
+		RDateVector dates = new RDateVector(new int[] {0, RInteger.NA_VALUE});
+		assertEquals(LocalDate.of(1970,1,1), dates.get(0).get());
+		assertTrue(dates.get(1).isNa());
+		assertArrayEquals(new int[] {0, RInteger.NA_VALUE}, dates.rValues());
+		// days before 0001-01-01 are NA, without changing the given array
+		int[] days = new int[] {0, (int) LocalDate.of(1,1,1).toEpochDay()-1};
+		assertTrue(new RDateVector(days).get(1).isNa());
+		assertEquals((int) LocalDate.of(1,1,1).toEpochDay()-1, days[1]);
 	}
 	
 	@Test
@@ -182,6 +212,70 @@ class TestDatatypes {
 		// CE02
 	}
 
+	@Test
+	final void testColumnarVectors() {
+
+		double[] tmp = {1.0, 2.0, RNumeric.NA_VALUE, 4.0};
+		RNumericVector col1 = convert(tmp);
+		assertTrue(col1.get(2).isNa());
+		assertEquals(4, col1.rPrimitive().length);
+
+		// List operations work on the primitive storage
+		col1.add(1, RNumeric.from(9.0));
+		assertEquals(9.0, col1.get(1).getOrNaN());
+		col1.remove(1);
+		assertTrue(col1.equals(RVector.with(1.0, 2.0, null, 4.0)));
+		assertTrue(col1.subList(2, 4).get(0).isNa());
+
+		// the public constructors and rPrimitive() copy, wrap(...) and unsafeArray() do not
+		double[] given = {1.0, 2.0};
+		RNumericVector copied = new RNumericVector(given);
+		given[0] = 5.0;
+		copied.rPrimitive()[1] = 5.0;
+		assertTrue(copied.equals(RVector.with(1.0, 2.0)));
+		RNumericVector wrapped = RNumericVector.wrap(given);
+		assertSame(given, wrapped.unsafeArray());
+		assertEquals(5.0, wrapped.get(0).getOrNaN());
+		int[] ints = {1, 2};
+		RIntegerVector copiedInts = new RIntegerVector(ints);
+		ints[0] = 5;
+		assertEquals(1, copiedInts.rPrimitive()[0]);
+
+		// NA values round trip through the R primitive
+		RIntegerVector col2 = RVector.with(1, null, 3);
+		assertEquals(RInteger.NA_VALUE, col2.rPrimitive()[1]);
+		assertEquals(2, col2.get().filter(i -> i != null).count());
+
+		RLogicalVector col3 = RVector.with(true, null, false);
+		assertTrue(col3.get(1).isNa());
+		assertEquals(RLogical.TRUE, col3.get(0));
+
+		// Appending a vector of the same type
+		col2.addAll(col2);
+		assertEquals(6, col2.size());
+		assertTrue(col2.get(4).isNa());
+
+		// Character vectors are dictionary encoded
+		RCharacterVector col4 = RVector.with("a", "b", null, "a");
+		assertEquals(2, col4.rLevels().length);
+		assertEquals(2, col4.matches(RCharacter.from("a")).cardinality());
+		assertEquals(3, col4.distinct().size());
+		RFactorVector fac = col4.asFactor();
+		assertTrue(fac.get(2).isNa());
+		assertTrue(new RCharacterVector(fac).equals(col4));
+
+		// codes with repeated levels are re-encoded, and the codes given are not used as storage
+		int[] codes = {1, 2, 3, RCharacterVector.NA_CODE};
+		RCharacterVector col5 = new RCharacterVector(codes, new String[] {"a", "b", "a"});
+		assertArrayEquals(new int[] {1, 2, 3, RCharacterVector.NA_CODE}, codes);
+		assertEquals(2, col5.rLevels().length);
+		assertEquals(2, col5.matches(RCharacter.from("a")).cardinality());
+		assertEquals(3, col5.distinct().size());
+		assertTrue(col5.equals(RVector.with("a", "b", "a", null)));
+		col5.rValues()[0] = 2;
+		assertEquals("a", col5.get(0).get());
+	}
+
 	@Test
 	final void testOtherCollectors() {
 		
@@ -249,7 +343,67 @@ class TestDatatypes {
 		
 		//CE05
 	}
-	
+
+	@Test
+	final void testBulkTransfer() {
+		RDataframe df = RDataframe.create()
+				.withCol("a", RVector.with(1.0, null))
+				.withCol("b", RVector.with("x", "x"))
+				.withCol("c", RVector.with(true, null))
+				.groupBy("b");
+		Object[] out = df.rBulkTransfer();
+		assertArrayEquals(new String[] {"numeric","character","logical"}, (String[]) out[1]);
+		assertArrayEquals(new String[] {"b"}, (String[]) out[2]);
+		assertArrayEquals(new int[] {2,0,1,0}, (int[]) out[3]);
+		assertArrayEquals(new int[] {1,1,1,RInteger.NA_VALUE}, (int[]) out[4]);
+		assertEquals(2, ((double[]) out[5]).length);
+		assertArrayEquals(new String[] {"x"}, (String[]) out[6]);
+
+		// Frames with the same shape share the generated conversion code
+		RDataframe df2 = RDataframe.create()
+				.withCol("a", RVector.with(2.0))
+				.withCol("b", RVector.with("y"))
+				.withCol("c", RVector.with(false));
+		assertEquals(df.schemaFingerprint(), df2.schemaFingerprint());
+		assertSame(df.rConversion(), df2.rConversion());
+		assertNotEquals(df.schemaFingerprint(), df2.drop("c").schemaFingerprint());
+	}
+
+	@Test
+	final void testDataframeBuilder() {
+		RDataframeBuilder<Integer> builder = RDataframeBuilder.of(Integer.class)
+				.withInt("value", i -> i)
+				.withDouble("half", i -> i/2.0)
+				.withCharacter("label", i -> i % 3 == 0 ? null : "x"+(i % 3))
+				.withFactor("enum", TestEnum.class, i -> TestEnum.values()[i % 3]);
+		RDataframe df = IntStream.range(0, 10000).boxed().parallel().collect(dataframeCollector(builder));
+		assertEquals(10000, df.nrow());
+		// parallel accumulation preserves the order of the stream
+		assertEquals(RInteger.from(9999), df.getCol("value").get(9999));
+		assertTrue(df.getCol("label").get(9999).isNa());
+		assertEquals(2, ((RCharacterVector) df.getCol("label")).rLevels().length);
+		assertEquals(RFactor.from(TestEnum.ONE), df.getCol("enum").get(3));
+	}
+
+	static class AnnotatedBean {
+		int i;
+		AnnotatedBean(int i) {this.i = i;}
+		@RName("value") public int getValue() {return i;}
+		@RName("label") public String getLabel() {return i % 2 == 0 ? null : "odd";}
+		@RName("enum") public TestEnum getEnum() {return TestEnum.TWO;}
+		@RName("carat") public RNumeric getCarat() {return RNumeric.from(i/10.0);}
+	}
+
+	@Test
+	final void testAnnotatedCollector() {
+		RDataframe df = IntStream.range(0, 100).mapToObj(AnnotatedBean::new).collect(annotatedCollector(AnnotatedBean.class));
+		assertEquals(100, df.nrow());
+		assertEquals(RIntegerVector.class, df.getVectorTypeOfColumn("value"));
+		assertEquals(RNumericVector.class, df.getVectorTypeOfColumn("carat"));
+		assertEquals(RFactorVector.class, df.getVectorTypeOfColumn("enum"));
+		assertTrue(df.getCol("label").get(0).isNa());
+	}
+
 	static RDataframe getDiamonds() throws IOException {
 		InputStream is = TestDatatypes.class.getResourceAsStream("/diamonds.ser");
 		if(is==null) throw new IOException("Could not locate /diamonds.ser");
@@ -350,7 +504,17 @@ class TestDatatypes {
 		//Test object binding and default interface methods:
 		dia.stream(ImmutableDiamond.class).limit(10).forEach(ImmutableDiamond::print);
 	}
-	
+
+	@Test
+	final void testDataframeFlyweightCoercion() throws IOException, UnconvertableTypeException {
+		RDataframe dia = testDiamonds();
+		RBoundDataframe<Diamonds> bound = dia.attach(Diamonds.class);
+		long expected = bound.streamCoerce().mapToLong(d -> d.price().get()).sum();
+		assertEquals(expected, bound.streamFlyweight().parallel().mapToLong(d -> d.price().get()).sum());
+		assertEquals(expected, dia.attach(DiamondBean.class).streamFlyweight().mapToLong(d -> d.getPrice().get()).sum());
+		assertEquals(bound.getCoercedRow(99).getCarats(), bound.getRow(100).lagCoerce().getCarats());
+	}
+
 	@Test void testNumericArray() throws ZeroDimensionalArrayException {
 		RNumericArray tmp = new RNumericArray(testNumeric(), new int[] {3,5});
 		assertEquals(3, tmp.get(1).dimensions[0]);
@@ -362,6 +526,23 @@ class TestDatatypes {
 		return RVector.with(0.1,0.2,0.3,0.4,0.5,1.1,1.2,1.3,1.4,1.5);
 	}
 	
+	// a small dataframe with the columns of the diamonds dataset, in which rows repeat every 35 rows
+	static RDataframe testDiamonds() {
+		int n = 120;
+		double[] carat = new double[n];
+		int[] cut = new int[n];
+		int[] price = new int[n];
+		for (int i=0; i<n; i++) {
+			carat[i] = 0.2 + (i % 7) * 0.1;
+			cut[i] = i % 5 + 1;
+			price[i] = 300 + (i % 35) * 17;
+		}
+		return RDataframe.create()
+			.withCol("carat", new RNumericVector(carat))
+			.withCol("cut", new RFactorVector(cut, new String[] {"Fair","Good","Very Good","Premium","Ideal"}))
+			.withCol("price", new RIntegerVector(price));
+	}
+	
 	static RDataframe testData() {
 		return RDataframe.create()
 			.withCol("group", RVector.with("One","One","One","One","One","Two","Two","Two","Two","Two"))
@@ -415,7 +596,42 @@ class TestDatatypes {
 		});
 		
 		System.out.print(testSummary);
-			
+		assertEquals(2, testSummary.nrow());
+		assertEquals(RVector.with("One","Two"), testSummary.pull("group"));
+		
+		RDataframe counts = test.groupBy("group").count();
+		assertEquals(RVector.with(5,5), counts.pull("n"));
+		assertEquals(RVector.with(10), test.ungroup().count().pull("n"));
+		assertEquals(RVector.with(0.3,1.3), test.groupBy("group").groupData().values().stream()
+				.map(d -> d.pull("value",RNumericVector.class).get(2).get()).collect(doubleCollector()));
+	}
+	
+	@Test
+	final void testDataframeRowView() throws IOException, UnconvertableTypeException {
+		RDataframe dia = testDiamonds();
+		RDataframeRow row = dia.getRow(10);
+		RNamedPrimitives copy = new RNamedPrimitives(row);
+		assertEquals(dia.get("carat").get(10), row.get("carat"));
+		assertEquals(copy, row);
+		assertEquals(row, copy);
+		assertEquals(copy.hashCode(), row.hashCode());
+		assertEquals(dia.ncol(), row.size());
+		RDataframe head = dia.subset(0, 10);
+		assertEquals(head.distinct().size(), head.subset(0, 10).withRows(head).distinct().size());
+		// distinct rows are detached copies
+		Set<RNamedPrimitives> distinct = dia.distinct();
+		assertEquals(35, distinct.size());
+		assertTrue(distinct.stream().allMatch(r -> r.getClass() == RNamedPrimitives.class));
+		assertTrue(distinct.contains(copy));
+		// rows are views until they are detached
+		RDataframeRow first = dia.iterator().next();
+		RNumericVector carat = (RNumericVector) dia.get("carat");
+		carat.set(0, RNumeric.from(9.0));
+		assertEquals(RNumeric.from(9.0), first.get("carat"));
+		first.entrySet();
+		carat.set(0, RNumeric.from(10.0));
+		assertEquals(RNumeric.from(9.0), first.get("carat"));
+		assertEquals(dia.nrow(), dia.stream().filter(r -> r.get("carat") != null).count());
 	}
 	
 	@Test
@@ -457,6 +673,346 @@ class TestDatatypes {
 		}
 	}
 	
+	@Test
+	final void testGroupDataUngrouped() {
+		RDataframe df = new RDataframe();
+		df.addCol("x", RConverter.convert(new String[] {"b", "a", "b"}));
+		Map<RNamedPrimitives,RDataframe> groups = df.groupData();
+		assertEquals(1, groups.size());
+		assertEquals(3, groups.get(new RNamedPrimitives()).nrow());
+		df.groupBy("x");
+		assertEquals(2, df.groupData().size());
+		assertTrue(new RDataframe().groupData().isEmpty());
+	}
+	
+	@Test
+	final void testGroupModifyUngrouped() {
+		RDataframe df = new RDataframe();
+		df.addCol("x", RConverter.convert(new double[] {1,2,3}));
+		RDataframe out = df.groupModify((d,g) -> {
+			d.pull("x", RNumericVector.class).set(0, RNumeric.from(99.0));
+			return d;
+		});
+		assertEquals(RNumeric.from(99.0), out.pull("x", RNumericVector.class).get(0));
+		// the function is given a copy of the columns
+		assertEquals(RNumeric.from(1.0), df.pull("x", RNumericVector.class).get(0));
+	}
+	
+	@Test
+	final void testAddRowWithNa() {
+		RDataframe df = new RDataframe();
+		Map<String,Object> row = new HashMap<>();
+		row.put("x", 1.5);
+		row.put("y", null);
+		df.addRow(row);
+		row.put("x", null);
+		row.put("y", "a");
+		df.addRow(row);
+		assertEquals(2, df.nrow());
+		assertEquals(RNumericVector.class, df.getVectorTypeOfColumn("x"));
+		assertTrue(df.get("x").get(1).isNa());
+		assertEquals(RCharacterVector.class, df.getVectorTypeOfColumn("y"));
+		assertTrue(df.get("y").get(0).isNa());
+		assertEquals(RCharacter.from("a"), df.get("y").get(1));
+	}
+	
+	// a small dataframe with a column of each type that can be exchanged with R, each with an NA, grouped by two columns
+	static RDataframe sampleDataframe() {
+		RDataframe df = new RDataframe();
+		df.addCol("chr", RConverter.convert(new String[] {"b", null, "b"}));
+		df.addCol("num", RConverter.convert(new Double[] {1.5, null, Double.NaN}));
+		df.addCol("int", RConverter.convert(new Integer[] {1, 2, null}));
+		df.addCol("lgl", RConverter.convert(new Boolean[] {true, null, false}));
+		df.addCol("fct", new RFactorVector(new int[] {2, RFactor.NA_VALUE, 1}, new String[] {"lo", "hi"}));
+		df.addCol("date", RConverter.convert(new LocalDate[] {LocalDate.of(2020, 1, 1), null, LocalDate.of(1960, 6, 30)}));
+		df.groupBy("chr", "fct");
+		return df;
+	}
+	
+	@Test
+	final void testMetrics() {
+		RMetrics.reset();
+		RMetrics.Metric bind = RMetrics.metric("RDataframe.bindRows");
+		RDataframe df = sampleDataframe();
+		RDataframe more = sampleDataframe();
+		df.bindRows(more);
+		assertEquals(1, bind.getCount());
+		assertEquals(more.byteSize(), bind.getBytes());
+		assertTrue(bind.percentile(0.99) > 0);
+		RDataframe summary = RMetrics.metrics(true);
+		assertTrue(summary.pull("metric", RCharacterVector.class).contains(RCharacter.from("RDataframe.bindRows")));
+		assertTrue(summary.pull("metric", RCharacterVector.class).contains(RCharacter.from("RConverter.convert(array)")));
+		assertEquals(0, bind.getCount());
+		// nothing is recorded when disabled
+		RMetrics.setEnabled(false);
+		try {
+			df.bindRows(df);
+			assertEquals(0, bind.getCount());
+		} finally {
+			RMetrics.setEnabled(true);
+		}
+	}
+	
+	@Test
+	final void testColumnarFormat() throws IOException {
+		RDataframe df = sampleDataframe();
+		RNamedList list = RNamedList.with("df", df).and("n", RNumeric.from(2.0)).and("l", RList.with(RLogical.TRUE, new RNull()));
+		for (RColumnarFormat.Compression c: RColumnarFormat.Compression.values()) {
+			Path tmp = Files.createTempFile("columnar", ".bin");
+			try {
+				RColumnarFormat.write(list, tmp, c);
+				RNamedList back = RColumnarFormat.read(RNamedList.class, tmp);
+				RDataframe df2 = back.getAs("df", RDataframe.class);
+				assertEquals(df, df2);
+				// NA values survive with R's NA rather than NaN
+				assertTrue(df2.getCol("num").get(1).isNa());
+				assertFalse(df2.getCol("num").get(2).isNa());
+				assertArrayEquals(df.getGroups(), df2.getGroups());
+				assertEquals(list.get("n"), back.get("n"));
+				assertEquals(list.get("l"), back.get("l"));
+				assertThrows(IOException.class, () -> RColumnarFormat.read(RDataframe.class, tmp));
+			} finally {
+				Files.delete(tmp);
+			}
+		}
+	}
+	
+	@Test
+	final void testRdsWriter() throws IOException {
+		RDataframe df = sampleDataframe();
+		Path tmp = Files.createTempFile("writer", ".rds");
+		try {
+			RdsWriter.write(df, tmp, false);
+			ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(tmp));
+			// XDR header: format, version, writer and reader R versions, native encoding
+			assertEquals('X', bytes.get());
+			assertEquals('\n', bytes.get());
+			assertEquals(3, bytes.getInt());
+			bytes.getInt();
+			assertEquals(0x030500, bytes.getInt());
+			assertEquals(5, bytes.getInt());
+			bytes.position(bytes.position()+5);
+			
+			Sexp out = Sexp.decode(bytes, new ArrayList<>());
+			assertFalse(bytes.hasRemaining());
+			assertEquals(19, out.type);
+			assertTrue(out.object);
+			assertArrayEquals(new String[] {"chr","num","int","lgl","fct","date"}, out.strings("names"));
+			// compact row names
+			assertArrayEquals(new int[] {Integer.MIN_VALUE, -3}, out.attr("row.names").ints());
+			assertArrayEquals(new String[] {"grouped_df","tbl_df","tbl","data.frame"}, out.strings("class"));
+			
+			// each column has its R type, with R's NA values
+			List<Sexp> cols = out.list();
+			assertEquals(16, cols.get(0).type);
+			assertArrayEquals(new String[] {"b", null, "b"}, cols.get(0).strings());
+			assertEquals(14, cols.get(1).type);
+			double[] num = cols.get(1).doubles();
+			assertEquals(1.5, num[0]);
+			assertEquals(0x7FF00000000007A2L, Double.doubleToRawLongBits(num[1]));
+			assertTrue(Double.isNaN(num[2]));
+			assertNotEquals(0x7FF00000000007A2L, Double.doubleToRawLongBits(num[2]));
+			assertEquals(13, cols.get(2).type);
+			assertArrayEquals(new int[] {1, 2, Integer.MIN_VALUE}, cols.get(2).ints());
+			assertEquals(10, cols.get(3).type);
+			assertArrayEquals(new int[] {1, Integer.MIN_VALUE, 0}, cols.get(3).ints());
+			Sexp fct = cols.get(4);
+			assertEquals(13, fct.type);
+			assertTrue(fct.object);
+			assertArrayEquals(new int[] {2, Integer.MIN_VALUE, 1}, fct.ints());
+			assertArrayEquals(new String[] {"lo","hi"}, fct.strings("levels"));
+			assertArrayEquals(new String[] {"ordered","factor"}, fct.strings("class"));
+			Sexp date = cols.get(5);
+			assertEquals(14, date.type);
+			assertTrue(date.object);
+			assertEquals(LocalDate.of(2020, 1, 1).toEpochDay(), date.doubles()[0]);
+			assertEquals(0x7FF00000000007A2L, Double.doubleToRawLongBits(date.doubles()[1]));
+			assertEquals(LocalDate.of(1960, 6, 30).toEpochDay(), date.doubles()[2]);
+			assertArrayEquals(new String[] {"Date"}, date.strings("class"));
+			
+			// the groups are a tibble of the sorted keys, with NA last, and the 1-based rows of each group
+			Sexp groups = out.attr("groups");
+			assertEquals(19, groups.type);
+			assertArrayEquals(new String[] {"chr","fct",".rows"}, groups.strings("names"));
+			assertArrayEquals(new int[] {Integer.MIN_VALUE, -3}, groups.attr("row.names").ints());
+			assertArrayEquals(new String[] {"tbl_df","tbl","data.frame"}, groups.strings("class"));
+			assertArrayEquals(new int[] {1}, groups.attr(".drop").ints());
+			assertArrayEquals(new String[] {"b","b",null}, groups.list().get(0).strings());
+			assertArrayEquals(new int[] {1, 2, Integer.MIN_VALUE}, groups.list().get(1).ints());
+			assertArrayEquals(new String[] {"lo","hi"}, groups.list().get(1).strings("levels"));
+			Sexp rows = groups.list().get(2);
+			assertArrayEquals(new String[] {"vctrs_list_of","vctrs_vctr","list"}, rows.strings("class"));
+			assertEquals(0, rows.attr("ptype").ints().length);
+			assertArrayEquals(new int[] {3}, rows.list().get(0).ints());
+			assertArrayEquals(new int[] {1}, rows.list().get(1).ints());
+			assertArrayEquals(new int[] {2}, rows.list().get(2).ints());
+			
+			RdsWriter.write(df, tmp, true);
+			byte[] gz = Files.readAllBytes(tmp);
+			assertEquals((byte) 0x1f, gz[0]);
+			assertEquals((byte) 0x8b, gz[1]);
+		} finally {
+			Files.delete(tmp);
+		}
+	}
+	
+	// a minimal decoder of the vectors and attributes in XDR serialised R objects, so the writer can be checked independently of RdsReader
+	static class Sexp {
+		int type;
+		boolean object;
+		Object data;
+		Map<String,Sexp> attributes = new HashMap<>();
+		
+		Sexp attr(String name) {return attributes.get(name);}
+		String[] strings() {return (String[]) data;}
+		String[] strings(String attr) {return attr(attr).strings();}
+		int[] ints() {return (int[]) data;}
+		double[] doubles() {return (double[]) data;}
+		@SuppressWarnings("unchecked")
+		List<Sexp> list() {return (List<Sexp>) data;}
+		
+		static Sexp decode(ByteBuffer b, List<String> symbols) {
+			int flags = b.getInt();
+			Sexp out = new Sexp();
+			out.type = flags & 0xFF;
+			out.object = (flags & 0x100) != 0;
+			int n = b.getInt();
+			if (out.type == 16) {
+				String[] s = new String[n];
+				for (int i=0; i<n; i++) s[i] = charsxp(b);
+				out.data = s;
+			} else if (out.type == 10 || out.type == 13) {
+				int[] v = new int[n];
+				for (int i=0; i<n; i++) v[i] = b.getInt();
+				out.data = v;
+			} else if (out.type == 14) {
+				double[] v = new double[n];
+				for (int i=0; i<n; i++) v[i] = Double.longBitsToDouble(b.getLong());
+				out.data = v;
+			} else if (out.type == 19) {
+				List<Sexp> v = new ArrayList<>();
+				for (int i=0; i<n; i++) v.add(decode(b, symbols));
+				out.data = v;
+			} else {
+				fail("Unexpected SEXP type: "+out.type);
+			}
+			if ((flags & 0x200) != 0) {
+				// a pairlist of tagged values, terminated by NILVALUE_SXP
+				for (int tag = b.getInt(); tag != 254; tag = b.getInt()) {
+					assertEquals(0x402, tag);
+					String name = symbol(b, symbols);
+					out.attributes.put(name, decode(b, symbols));
+				}
+			}
+			return out;
+		}
+		
+		static String charsxp(ByteBuffer b) {
+			assertEquals(9, b.getInt() & 0xFF);
+			int n = b.getInt();
+			if (n == -1) return null;
+			byte[] bytes = new byte[n];
+			b.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		
+		// symbols are written in full once, and then as a reference to their (1-based) position
+		static String symbol(ByteBuffer b, List<String> symbols) {
+			int flags = b.getInt();
+			if ((flags & 0xFF) == 255) return symbols.get((flags >>> 8)-1);
+			assertEquals(1, flags);
+			String name = charsxp(b);
+			symbols.add(name);
+			return name;
+		}
+	}
+	
+	@Test
+	final void testRdsReader() throws IOException {
+		RDataframe df = sampleDataframe();
+		Path tmp = Files.createTempFile("reader", ".rds");
+		try {
+			RdsWriter.write(df, tmp, false);
+			RDataframe out = RdsReader.read(RDataframe.class, tmp);
+			assertEquals(df, out);
+			assertArrayEquals(df.getGroups(), out.getGroups());
+			// NA is read back as NA, and NaN as NaN
+			assertTrue(out.getCol("num").get(1).isNa());
+			assertFalse(out.getCol("num").get(2).isNa());
+			RdsWriter.write(df, tmp, true);
+			assertEquals(df, RDataframe.fromRds(tmp.toString()));
+			RNamedList list = new RNamedList();
+			list.put("a", RConverter.convert("hello"));
+			list.put("b", RConverter.convert(new int[] {1, 2, 3}));
+			RdsWriter.write(list, tmp, false);
+			assertEquals(list, RdsReader.read(RNamedList.class, tmp));
+		} finally {
+			Files.delete(tmp);
+		}
+	}
+
+	// an RDS fixture laid out as R's serialize.c writes it, copied to a file so the reader detects gzip itself
+	private static <X extends RObject> X readRdsFixture(Class<X> clazz, String name) throws IOException {
+		Path tmp = Files.createTempFile("fixture", ".rds");
+		try (InputStream is = TestDatatypes.class.getResourceAsStream("/fixtures/"+name)) {
+			Files.copy(is, tmp, StandardCopyOption.REPLACE_EXISTING);
+			return RdsReader.read(clazz, tmp);
+		} finally {
+			Files.delete(tmp);
+		}
+	}
+
+	@Test
+	final void testRdsReaderAltrep() throws IOException {
+		// saveRDS(1:10), a gzipped compact_intseq
+		assertEquals(RVector.with(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), readRdsFixture(RIntegerVector.class, "intseq.rds"));
+		// saveRDS(as.character(c(1e5, 1e-4, 123456.7, NA))), a deferred_string whose state is a dotted pair
+		assertEquals(RVector.with("1e+05", "1e-04", "123456.7", null), readRdsFixture(RCharacterVector.class, "deferred.rds"));
+		// saveRDS(tibble(a = 1:3, b = 1.5:3.5, c = sort(c(3L, NA, 1L), na.last = TRUE), d = as.character(4:6), e = c("x", "y", NA)))
+		// with a compact_intseq, a compact_realseq, a wrap_integer, a deferred_string of a compact_intseq and compact row.names
+		RDataframe tbl = readRdsFixture(RDataframe.class, "tibble.rds");
+		assertEquals(3, tbl.nrow());
+		assertEquals(RVector.with(1, 2, 3), tbl.get("a"));
+		assertEquals(RVector.with(1.5, 2.5, 3.5), tbl.get("b"));
+		assertEquals(RVector.with(1, 3, null), tbl.get("c"));
+		assertEquals(RVector.with("4", "5", "6"), tbl.get("d"));
+		assertEquals(RVector.with("x", "y", null), tbl.get("e"));
+	}
+	
+	@Test
+	final void testArrowFormat() throws IOException {
+		RDataframe df = sampleDataframe();
+		Path tmp = Files.createTempFile("arrow", ".arrow");
+		try {
+			df.arrowTransfer(tmp.toString());
+			byte[] bytes = Files.readAllBytes(tmp);
+			assertEquals("ARROW1", new String(bytes, 0, 6));
+			assertEquals("ARROW1", new String(bytes, bytes.length-6, 6));
+			RDataframe out = RDataframe.fromArrow(tmp.toString());
+			assertEquals(df, out);
+			assertArrayEquals(df.getGroups(), out.getGroups());
+			ByteArrayOutputStream stream = new ByteArrayOutputStream();
+			RArrowFormat.write(df, Channels.newChannel(stream), RArrowFormat.Layout.STREAM);
+			assertEquals(0xFFFFFFFF, ByteBuffer.wrap(stream.toByteArray()).getInt());
+			assertEquals(df, RArrowFormat.read(Channels.newChannel(new ByteArrayInputStream(stream.toByteArray()))));
+		} finally {
+			Files.delete(tmp);
+		}
+	}
+
+	@Test
+	final void testArrowLz4() throws IOException {
+		// a stream with LZ4 frame compressed buffers, as written by arrow::write_feather() by default
+		RDataframe df = new RDataframe();
+		df.addCol("x", RConverter.convert(IntStream.range(0, 200).mapToObj(i -> i%4 == 2 ? null : i%4 == 0 ? "a" : "b").toArray(String[]::new)));
+		df.addCol("y", RConverter.convert(IntStream.range(0, 200).mapToObj(i -> (i%10)/2.0).toArray(Double[]::new)));
+		df.addCol("z", RConverter.convert(IntStream.range(0, 200).mapToObj(i -> i%13 == 0 ? null : i%7).toArray(Integer[]::new)));
+		df.addCol("f", new RFactorVector(IntStream.range(0, 200).map(i -> i%3+1).toArray(), new String[] {"lo", "mid", "hi"}));
+		try (InputStream is = TestDatatypes.class.getResourceAsStream("/fixtures/lz4.arrows")) {
+			assertEquals(df, RArrowFormat.read(Channels.newChannel(is)));
+		}
+	}
+
 	@Test
 	final void testFieldName() {
 		Stream.of("getData","data","setData").map(RBoundDataframe::fieldName).forEach(System.out::println);;